@@ -0,0 +1,26 @@
+import javax.imageio.ImageIO
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Paths
+
+assert basedir != null;
+
+def imageDir = basedir.toPath().resolve(Paths.get("target", "images"));
+
+assert Files.exists(imageDir);
+
+["sprite.css", "sprite.less", "sprite.png", "sprite@2x.png", "sprite.webp", "sprite@2x.webp"].each {
+  assert Files.exists(imageDir.resolve(it)) : it + " is missing";
+};
+
+def sheet = ImageIO.read(imageDir.resolve("sprite.png").toFile());
+def sheet2x = ImageIO.read(imageDir.resolve("sprite@2x.png").toFile());
+assert sheet2x.width == 2 * sheet.width;
+assert sheet2x.height == 2 * sheet.height;
+
+def css = new String(Files.readAllBytes(imageDir.resolve("sprite.css")), StandardCharsets.UTF_8);
+assert css.contains(".icon-subway-tinted,.icon-subway{background-image:url(\"sprite.png\");background-size:" + sheet.width + "px " + sheet.height + "px;}");
+assert css.contains("(min-resolution:2dppx){.icon-subway-tinted,.icon-subway{background-image:url(\"sprite@2x.png\");}}");
+assert css.contains(".icon-subway{background-position:");
+
+return true;
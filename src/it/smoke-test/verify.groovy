@@ -9,14 +9,14 @@ assert Files.exists(imageDir);
 
 def referenceDir = basedir.toPath().resolve("references");
 
-["json", "less", "css", "png"].each {
+["json", "less", "css", "png", "webp"].each {
   def basename = "sprite.".concat(it);
   def output = imageDir.resolve(basename).toFile();
   def reference = referenceDir.resolve(basename).toFile();
   assert output.exists();
-  if (it == "png") {
+  if (it == "png" || it == "webp") {
     def filesAreEqual = output.getBytes() == reference.getBytes();
-    assert filesAreEqual : "png output differs";
+    assert filesAreEqual : it + " output differs";
   } else {
     def charset = StandardCharsets.UTF_8.toString()
     reference.withReader(charset) { reader ->
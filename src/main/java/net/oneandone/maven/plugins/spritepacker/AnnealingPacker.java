@@ -0,0 +1,121 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A packer which starts from the {@link PackGrowing} packing and improves it until a time budget is used up,
+ * by simulated annealing over the order in which the images are inserted. Each iteration swaps or moves images
+ * in the order and packs them again. Smaller spritesheets are always accepted, larger ones with a probability
+ * that shrinks over time. The best packing found so far is returned, so a larger budget never makes it worse.
+ *
+ * @author ssiegler
+ */
+public class AnnealingPacker implements Packer {
+    // The initial temperature, as a share of the initial spritesheet area
+    private static final double INITIAL_TEMPERATURE = 0.01;
+
+    private final long budgetNanos;
+    private final Log log;
+    private final long seed;
+
+    /**
+     * Create a new AnnealingPacker.
+     *
+     * @param budgetMillis the time in milliseconds to spend on improving the packing
+     * @param log          the log which receives the improvements
+     */
+    public AnnealingPacker(long budgetMillis, Log log) {
+        this(budgetMillis, log, 0);
+    }
+
+    /**
+     * Create a new AnnealingPacker with the given seed for choosing the changes of the insertion order.
+     *
+     * @param budgetMillis the time in milliseconds to spend on improving the packing
+     * @param log          the log which receives the improvements
+     * @param seed         the seed for choosing the changes
+     */
+    AnnealingPacker(long budgetMillis, Log log, long seed) {
+        if (budgetMillis < 0) {
+            throw new IllegalArgumentException("The time budget must not be negative: " + budgetMillis);
+        }
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.log = log;
+        this.seed = seed;
+    }
+
+    @Override
+    public ImagePacking pack(List<NamedImage> images, int padding) {
+        long startTime = System.nanoTime();
+        int[] order = ImageOrder.sort(images, ImageOrder.MAX_SIDE);
+        ImagePacking best = PackGrowing.fit(images, padding, order);
+        if (order.length < 2) {
+            return best;
+        }
+
+        long initialArea = getArea(best);
+        long bestArea = initialArea;
+        long currentArea = initialArea;
+        double initialTemperature = INITIAL_TEMPERATURE * initialArea;
+        Random random = new Random(seed);
+        int iteration = 0;
+        long elapsed;
+        while ((elapsed = System.nanoTime() - startTime) < budgetNanos) {
+            iteration++;
+            int[] candidate = order.clone();
+            change(candidate, random);
+            ImagePacking packing = PackGrowing.fit(images, padding, candidate);
+            long area = getArea(packing);
+
+            double temperature = initialTemperature * (budgetNanos - elapsed) / budgetNanos;
+            long delta = area - currentArea;
+            if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+                order = candidate;
+                currentArea = area;
+            }
+            if (area < bestArea) {
+                best = packing;
+                bestArea = area;
+                log.info(String.format(Locale.ROOT, "Iteration %d: %dx%d pixels, %.1f%% smaller than the initial packing.",
+                                       iteration, packing.getWidth(), packing.getHeight(), 100.0 * (initialArea - area) / initialArea));
+            } else if (log.isDebugEnabled()) {
+                log.debug("Iteration " + iteration + ": " + packing.getWidth() + "x" + packing.getHeight() + " pixels.");
+            }
+        }
+        log.info(String.format(Locale.ROOT, "Optimized the packing in %d iterations, %.1f%% smaller than the initial packing.",
+                               iteration, 100.0 * (initialArea - bestArea) / initialArea));
+        return best;
+    }
+
+    /**
+     * Change the insertion order by swapping two images, or by moving an image to another position.
+     *
+     * @param order  the indices of the images in insertion order
+     * @param random the source of randomness
+     */
+    private static void change(int[] order, Random random) {
+        int from = random.nextInt(order.length);
+        int to = random.nextInt(order.length - 1);
+        if (to >= from) {
+            to++;
+        }
+        int moved = order[from];
+        if (random.nextBoolean()) {
+            order[from] = order[to];
+        } else if (from < to) {
+            System.arraycopy(order, from + 1, order, from, to - from);
+        } else {
+            System.arraycopy(order, to, order, to + 1, from - to);
+        }
+        order[to] = moved;
+    }
+
+    private static long getArea(ImagePacking packing) {
+        return (long) packing.getWidth() * packing.getHeight();
+    }
+}
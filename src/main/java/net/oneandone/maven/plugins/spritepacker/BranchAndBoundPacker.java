@@ -0,0 +1,323 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A packer which searches for the spritesheet with the smallest area by branch and bound, for small sets of images.
+ * For every possible width of the spritesheet, it searches for the lowest height, filling the lowest and leftmost
+ * gap of the skyline first: either with the left edge of an image, or by leaving the gap empty. Branches are pruned
+ * when the area of the filled part and the remaining images, or the height of the highest remaining image on the
+ * lowest gap, cannot beat the best spritesheet found so far. The search starts with the {@link PackGrowing} packing
+ * as the best spritesheet, which is kept if the search does not find a smaller one before it hits its node or time
+ * limit. A completed search proves that no packing filling the lowest gap first is smaller.
+ *
+ * @author ssiegler
+ */
+public class BranchAndBoundPacker implements Packer {
+    /**
+     * The maximum number of images that are packed by the search, larger sets are packed by {@link PackGrowing}.
+     */
+    public static final int MAX_IMAGES = 64;
+
+    /**
+     * The default maximum number of nodes visited by the search
+     */
+    public static final long DEFAULT_NODE_LIMIT = 10000000;
+
+    // Check the time only every few nodes
+    private static final int TIME_CHECK_INTERVAL = 1024;
+
+    private final long budgetNanos;
+    private final long nodeLimit;
+    private final Log log;
+
+    /**
+     * Create a new BranchAndBoundPacker.
+     *
+     * @param budgetMillis the maximum time in milliseconds spent on the search
+     * @param nodeLimit    the maximum number of nodes visited by the search
+     * @param log          the log which receives the result of the search
+     */
+    public BranchAndBoundPacker(long budgetMillis, long nodeLimit, Log log) {
+        if (budgetMillis < 0) {
+            throw new IllegalArgumentException("The time budget must not be negative: " + budgetMillis);
+        }
+        if (nodeLimit < 0) {
+            throw new IllegalArgumentException("The node limit must not be negative: " + nodeLimit);
+        }
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.nodeLimit = nodeLimit;
+        this.log = log;
+    }
+
+    @Override
+    public ImagePacking pack(List<NamedImage> images, int padding) {
+        ImagePacking growing = PackGrowing.fit(images, padding);
+        if (images.isEmpty()) {
+            return growing;
+        }
+        if (images.size() > MAX_IMAGES) {
+            log.info("Branch and bound packing: more than " + MAX_IMAGES + " images, using the GROWING packing.");
+            return growing;
+        }
+
+        Search search = new Search(images, padding, (long) growing.getWidth() * growing.getHeight());
+        search.run();
+
+        ImagePacking result = (search.bestPositions == null) ? growing : search.createPacking();
+        String size = result.getWidth() + "x" + result.getHeight() + " pixels";
+        String origin = (search.bestPositions == null) ? "the GROWING packing" : "found";
+        if (search.aborted) {
+            log.info("Branch and bound packing: " + size + ", " + origin + ", not proven minimal, the search stopped after "
+                     + search.nodes + " nodes.");
+        } else {
+            log.info("Branch and bound packing: " + size + ", " + origin + ", proven minimal after " + search.nodes + " nodes.");
+        }
+        return result;
+    }
+
+    /**
+     * The state of the search. Images are packed with the padding to their right and bottom, the spritesheet
+     * adds the padding to their top and left. Images of the same size are interchangeable, so they are grouped
+     * into size classes.
+     */
+    private final class Search {
+        private final int padding;
+        private final int[] classWidths;
+        private final int[] classHeights;
+        private final int[] counts;
+        private final List<NamedImage> images;
+        private final List<List<Integer>> classImages;
+        private final int imageCount;
+        private final long deadline;
+
+        private long bestArea;
+        private int width;
+        private int bestHeight;
+        private int[][] bestPositions;
+
+        private final int[] placedClasses;
+        private final int[] placedX;
+        private final int[] placedY;
+        private long remainingArea;
+        private long nodes;
+        private boolean aborted;
+
+        Search(List<NamedImage> images, int padding, long bestArea) {
+            this.images = images;
+            this.padding = padding;
+            this.bestArea = bestArea;
+            Map<Dimension, List<Integer>> classes = new LinkedHashMap<>();
+            for (int i = 0; i < images.size(); i++) {
+                NamedImage image = images.get(i);
+                Dimension size = new Dimension(image.getWidth() + padding, image.getHeight() + padding);
+                List<Integer> sameSize = classes.get(size);
+                if (sameSize == null) {
+                    sameSize = new ArrayList<>();
+                    classes.put(size, sameSize);
+                }
+                sameSize.add(i);
+            }
+            // try larger images first, they are harder to place
+            List<Map.Entry<Dimension, List<Integer>>> entries = new ArrayList<>(classes.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<Dimension, List<Integer>>>() {
+                @Override
+                public int compare(Map.Entry<Dimension, List<Integer>> arg0, Map.Entry<Dimension, List<Integer>> arg1) {
+                    return Long.compare((long) arg1.getKey().width * arg1.getKey().height, (long) arg0.getKey().width * arg0.getKey().height);
+                }
+            });
+            classWidths = new int[entries.size()];
+            classHeights = new int[entries.size()];
+            counts = new int[entries.size()];
+            classImages = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                classWidths[i] = entries.get(i).getKey().width;
+                classHeights[i] = entries.get(i).getKey().height;
+                counts[i] = entries.get(i).getValue().size();
+                classImages.add(entries.get(i).getValue());
+            }
+            imageCount = images.size();
+            placedClasses = new int[imageCount];
+            placedX = new int[imageCount];
+            placedY = new int[imageCount];
+            deadline = System.nanoTime() + budgetNanos;
+        }
+
+        /**
+         * Search the lowest height for every width that some images can fill side by side.
+         */
+        void run() {
+            long area = 0;
+            int maxWidth = 0;
+            int maxHeight = 0;
+            int sumWidth = 0;
+            for (int c = 0; c < counts.length; c++) {
+                area += (long) classWidths[c] * classHeights[c] * counts[c];
+                maxWidth = Math.max(maxWidth, classWidths[c]);
+                maxHeight = Math.max(maxHeight, classHeights[c]);
+                sumWidth += classWidths[c] * counts[c];
+            }
+            boolean[] reachable = getReachableWidths(sumWidth);
+            for (width = maxWidth; width <= sumWidth && !aborted; width++) {
+                if (!reachable[width]) {
+                    continue;
+                }
+                int lowerBound = (int) Math.max(maxHeight, (area + width - 1) / width);
+                if ((long) (width + padding) * (lowerBound + padding) >= bestArea) {
+                    continue;
+                }
+                // only heights giving a smaller spritesheet are searched
+                bestHeight = (int) ((bestArea - 1) / (width + padding)) - padding + 1;
+                remainingArea = area;
+                List<int[]> skyline = new ArrayList<>();
+                skyline.add(new int[]{0, 0, width});
+                search(skyline, 0, 0, 0);
+            }
+        }
+
+        /**
+         * Get the widths which can be filled exactly by some images side by side.
+         *
+         * @param sumWidth the width of all images side by side
+         * @return the reachable widths
+         */
+        private boolean[] getReachableWidths(int sumWidth) {
+            boolean[] reachable = new boolean[sumWidth + 1];
+            reachable[0] = true;
+            for (int c = 0; c < counts.length; c++) {
+                for (int n = 0; n < counts[c]; n++) {
+                    for (int w = sumWidth; w >= classWidths[c]; w--) {
+                        reachable[w] |= reachable[w - classWidths[c]];
+                    }
+                }
+            }
+            return reachable;
+        }
+
+        /**
+         * Search the placements of the remaining images on the skyline.
+         *
+         * @param skyline    the skyline segments as x, y and width, neighbouring segments differ in y
+         * @param placed     the number of placed images
+         * @param top        the largest bottom edge of the placed images
+         * @param filledArea the area below the skyline
+         */
+        private void search(List<int[]> skyline, int placed, int top, long filledArea) {
+            nodes++;
+            if (nodes > nodeLimit || (nodes % TIME_CHECK_INTERVAL == 0 && System.nanoTime() > deadline)) {
+                aborted = true;
+            }
+            if (aborted) {
+                return;
+            }
+            if (placed == imageCount) {
+                bestHeight = top;
+                bestArea = (long) (width + padding) * (top + padding);
+                bestPositions = new int[][]{placedClasses.clone(), placedX.clone(), placedY.clone()};
+                return;
+            }
+
+            int lowest = 0;
+            for (int i = 1; i < skyline.size(); i++) {
+                if (skyline.get(i)[1] < skyline.get(lowest)[1]) {
+                    lowest = i;
+                }
+            }
+            int[] gap = skyline.get(lowest);
+            int maxRemainingHeight = 0;
+            for (int c = 0; c < counts.length; c++) {
+                if (counts[c] > 0) {
+                    maxRemainingHeight = Math.max(maxRemainingHeight, classHeights[c]);
+                }
+            }
+            long lowerBound = Math.max(top, Math.max(gap[1] + maxRemainingHeight, (filledArea + remainingArea + width - 1) / width));
+            if (lowerBound >= bestHeight) {
+                return;
+            }
+
+            for (int c = 0; c < counts.length; c++) {
+                if (counts[c] > 0 && classWidths[c] <= gap[2] && gap[1] + classHeights[c] < bestHeight) {
+                    counts[c]--;
+                    remainingArea -= (long) classWidths[c] * classHeights[c];
+                    placedClasses[placed] = c;
+                    placedX[placed] = gap[0];
+                    placedY[placed] = gap[1];
+                    List<int[]> next = place(skyline, lowest, classWidths[c], classHeights[c]);
+                    search(next, placed + 1, Math.max(top, gap[1] + classHeights[c]), filledArea + (long) classWidths[c] * classHeights[c]);
+                    remainingArea += (long) classWidths[c] * classHeights[c];
+                    counts[c]++;
+                }
+            }
+
+            // leave the gap empty by raising it to its lower neighbour
+            if (skyline.size() > 1) {
+                int left = (lowest > 0) ? skyline.get(lowest - 1)[1] : Integer.MAX_VALUE;
+                int right = (lowest < skyline.size() - 1) ? skyline.get(lowest + 1)[1] : Integer.MAX_VALUE;
+                int raised = Math.min(left, right);
+                List<int[]> next = place(skyline, lowest, gap[2], raised - gap[1]);
+                search(next, placed, top, filledArea + (long) gap[2] * (raised - gap[1]));
+            }
+        }
+
+        /**
+         * Create the skyline after placing a rectangle at the left of a segment.
+         *
+         * @param skyline the skyline segments
+         * @param index   the index of the segment
+         * @param width   the width of the rectangle, at most the width of the segment
+         * @param height  the height of the rectangle
+         * @return the new skyline segments
+         */
+        private List<int[]> place(List<int[]> skyline, int index, int width, int height) {
+            int[] gap = skyline.get(index);
+            List<int[]> next = new ArrayList<>(skyline.size() + 1);
+            next.addAll(skyline.subList(0, index));
+            next.add(new int[]{gap[0], gap[1] + height, width});
+            if (width < gap[2]) {
+                next.add(new int[]{gap[0] + width, gap[1], gap[2] - width});
+            }
+            next.addAll(skyline.subList(index + 1, skyline.size()));
+            // merge neighbouring segments of the same height
+            for (int i = next.size() - 1; i > 0; i--) {
+                int[] previous = next.get(i - 1);
+                int[] segment = next.get(i);
+                if (previous[1] == segment[1]) {
+                    next.set(i - 1, new int[]{previous[0], previous[1], previous[2] + segment[2]});
+                    next.remove(i);
+                }
+            }
+            return next;
+        }
+
+        /**
+         * Create the packing of the best placements, assigning the positions of each size class to its images.
+         *
+         * @return the packing
+         */
+        ImagePacking createPacking() {
+            int[] used = new int[counts.length];
+            int[] x = new int[imageCount];
+            int[] y = new int[imageCount];
+            int sheetWidth = 0;
+            int sheetHeight = 0;
+            for (int i = 0; i < imageCount; i++) {
+                int c = bestPositions[0][i];
+                int index = classImages.get(c).get(used[c]++);
+                x[index] = bestPositions[1][i] + padding;
+                y[index] = bestPositions[2][i] + padding;
+                sheetWidth = Math.max(sheetWidth, bestPositions[1][i] + classWidths[c] + padding);
+                sheetHeight = Math.max(sheetHeight, bestPositions[2][i] + classHeights[c] + padding);
+            }
+            return new ImagePacking(new Dimension(sheetWidth, sheetHeight), images, x, y);
+        }
+    }
+}
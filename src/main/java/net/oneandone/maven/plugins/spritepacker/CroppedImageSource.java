@@ -0,0 +1,40 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * An ImageSource that provides a rectangular part of the image of another ImageSource.
+ *
+ * @author ssiegler
+ */
+public class CroppedImageSource implements ImageSource {
+    private final ImageSource source;
+    private final Rectangle bounds;
+
+    /**
+     * Create an ImageSource for the part of the image of source within bounds.
+     *
+     * @param source the source of the whole image
+     * @param bounds the part of the image to provide
+     */
+    public CroppedImageSource(ImageSource source, Rectangle bounds) {
+        this.source = Objects.requireNonNull(source);
+        this.bounds = new Rectangle(bounds);
+    }
+
+    @Override
+    public BufferedImage read() throws IOException {
+        return source.read().getSubimage(bounds.x, bounds.y, bounds.width, bounds.height);
+    }
+
+    @Override
+    public String toString() {
+        return "CroppedImageSource{" +
+               "source=" + source +
+               ", bounds=" + bounds +
+               '}';
+    }
+}
@@ -0,0 +1,63 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An ImageSource for an image in several pixel densities. It provides the image in the base density 1, and
+ * a source of the image for each other density, which is drawn into the spritesheet of that density.
+ *
+ * @author ssiegler
+ */
+public class DensityImageSource implements ImageSource {
+    private final SortedMap<Integer, ImageSource> variants;
+
+    /**
+     * Create an ImageSource for an image in several pixel densities.
+     *
+     * @param variants the source of the image for each density, including the base density 1
+     */
+    public DensityImageSource(Map<Integer, ImageSource> variants) {
+        if (!variants.containsKey(1)) {
+            throw new IllegalArgumentException("Missing the image for the base density 1: " + variants);
+        }
+        this.variants = Collections.unmodifiableSortedMap(new TreeMap<>(variants));
+    }
+
+    /**
+     * Get the source of the image in a pixel density.
+     *
+     * @param density the pixel density
+     * @return        the source of the image in that density
+     * @throws IllegalArgumentException when the image is not available in that density
+     */
+    public ImageSource getVariant(int density) {
+        ImageSource variant = variants.get(density);
+        if (variant == null) {
+            throw new IllegalArgumentException("No image for density " + density + " in " + variants.keySet());
+        }
+        return variant;
+    }
+
+    /**
+     * Read the image in the base density 1.
+     *
+     * @return the image in the base density
+     * @throws IOException when the image cannot be decoded
+     */
+    @Override
+    public BufferedImage read() throws IOException {
+        return variants.get(1).read();
+    }
+
+    @Override
+    public String toString() {
+        return "DensityImageSource{" +
+               "variants=" + variants +
+               '}';
+    }
+}
@@ -0,0 +1,267 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import com.google.common.hash.Hashing;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent cache of decoded images, so that image files which did not change since the last build do not need
+ * to be decoded again. Each image is stored as its raw ARGB pixels in a separate file, which is named after a hash
+ * of the real path of the image file, so that a modified image file replaces its entry. The entry also holds a hash
+ * of the real path, the size and the last modification time of the image file, which must match to use the entry.
+ * Entries which were not used by a build can be pruned afterwards.
+ *
+ * @author ssiegler
+ */
+public class DiskImageCache {
+    private static final int MAGIC = 0x53504332;
+    private static final int KEY_INTS = 8;
+    private static final int HEADER_INTS = 3 + KEY_INTS;
+    private static final String EXTENSION = ".argb";
+    // Entries are written to temporary files first, which are left behind if a build is killed while writing
+    private static final String TEMPORARY_PREFIX = "entry";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String PRUNED_FILES = "{*" + EXTENSION + "," + TEMPORARY_PREFIX + "*" + TEMPORARY_SUFFIX + "}";
+
+    private final Path directory;
+    private final Set<Path> usedEntries = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    /**
+     * Create a cache that stores the decoded images in the given directory, which is created when needed.
+     *
+     * @param directory the cache directory
+     */
+    public DiskImageCache(Path directory) {
+        this.directory = Objects.requireNonNull(directory);
+    }
+
+    /**
+     * Create an ImageSource which reads an image file from the cache, or from source if it is not cached yet,
+     * in which case the image read from source is added to the cache. The cache entry of the image file is kept
+     * when the cache is pruned.
+     *
+     * @param file   the image file
+     * @param source the source which decodes the image file
+     * @return the caching ImageSource, or source if the real path of the image file cannot be determined
+     */
+    public ImageSource cached(Path file, ImageSource source) {
+        try {
+            usedEntries.add(getEntry(file));
+        } catch (IOException e) {
+            return source;
+        }
+        return new CachedImageSource(file, source);
+    }
+
+    /**
+     * Read an image file from the cache, or from source if it is not cached yet.
+     *
+     * @param file   the image file
+     * @param source the source which decodes the image file
+     * @return the decoded image
+     * @throws IOException when the image cannot be decoded
+     */
+    BufferedImage read(Path file, ImageSource source) throws IOException {
+        Path entry = getEntry(file);
+        int[] key = getKey(file);
+        BufferedImage image = load(entry, key);
+        if (image == null) {
+            image = source.read();
+            store(entry, key, image);
+        }
+        return image;
+    }
+
+    /**
+     * Delete the cache entries of all image files which were not cached through this cache, e.g. of image files
+     * which were deleted or are no longer included, so that the cache does not grow without bounds. The temporary
+     * files of entries which were never completed are deleted as well. Failing to delete an entry is ignored.
+     */
+    public void prune() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, PRUNED_FILES)) {
+            for (Path entry : entries) {
+                if (!usedEntries.contains(entry)) {
+                    deleteQuietly(entry);
+                }
+            }
+        } catch (IOException e) {
+            // the entries are pruned after the next build
+        }
+    }
+
+    /**
+     * Get the cache entry of an image file.
+     *
+     * @param file the image file
+     * @return the path of the cache entry
+     * @throws IOException when the real path of the image file cannot be determined
+     */
+    Path getEntry(Path file) throws IOException {
+        return directory.resolve(Hashing.sha256().hashString(file.toRealPath().toString(), StandardCharsets.UTF_8) + EXTENSION);
+    }
+
+    /**
+     * Get the key of the current content of an image file, which is stored in its cache entry.
+     *
+     * @param file the image file
+     * @return the key of the image file
+     * @throws IOException when the attributes of the image file cannot be read
+     */
+    private static int[] getKey(Path file) throws IOException {
+        byte[] hash = Hashing.sha256().hashString(ImageFiles.getContentKey(file), StandardCharsets.UTF_8).asBytes();
+        int[] key = new int[KEY_INTS];
+        ByteBuffer.wrap(hash).asIntBuffer().get(key);
+        return key;
+    }
+
+    /**
+     * Load an image from a cache entry.
+     *
+     * @param entry the cache entry
+     * @param key   the key of the current content of the image file
+     * @return the cached image, or null if the entry does not exist, is invalid or holds an older content
+     */
+    private static BufferedImage load(Path entry, int[] key) {
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_INTS * 4 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // read the complete entry
+            }
+            bytes.flip();
+
+            IntBuffer ints = bytes.asIntBuffer();
+            int magic = ints.get();
+            int[] entryKey = new int[KEY_INTS];
+            ints.get(entryKey);
+            int width = ints.get();
+            int height = ints.get();
+            if (magic != MAGIC || !Arrays.equals(entryKey, key) || width <= 0 || height <= 0 || (long) width * height != ints.remaining()) {
+                return null;
+            }
+            int[] pixels = new int[width * height];
+            ints.get(pixels);
+            return createImage(pixels, width, height);
+        } catch (IOException e) {
+            // a missing or unreadable entry is (re-)created after decoding the image file
+            return null;
+        }
+    }
+
+    /**
+     * Store an image in a cache entry, replacing an older content of the same image file. The pixels are stored as
+     * Java2D draws them, so that a cached image is drawn into the spritesheet like the decoded image. Failing to
+     * store the image is ignored, since it can be decoded again.
+     *
+     * @param entry the cache entry
+     * @param key   the key of the current content of the image file
+     * @param image the image to store
+     */
+    private void store(Path entry, int[] key, BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ByteBuffer bytes = ByteBuffer.allocate((HEADER_INTS + width * height) * 4);
+        IntBuffer ints = bytes.asIntBuffer();
+        ints.put(MAGIC).put(key).put(width).put(height);
+        ints.put(ImageFiles.getPixels(image));
+
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            // write to a temporary file first, so that concurrent readers never see a partially written entry
+            temporary = Files.createTempFile(directory, TEMPORARY_PREFIX, TEMPORARY_SUFFIX);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+            Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the image is decoded again on the next build
+            deleteQuietly(temporary);
+        }
+    }
+
+    /**
+     * Delete a file if it exists, ignoring any failure.
+     *
+     * @param file the file to delete, may be null
+     */
+    private static void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+
+    /**
+     * Create an image of type TYPE_INT_ARGB which uses the given pixels without copying them.
+     *
+     * @param pixels the ARGB pixels in row-major order
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @return the image
+     */
+    private static BufferedImage createImage(int[] pixels, int width, int height) {
+        DirectColorModel colorModel = (DirectColorModel) ColorModel.getRGBdefault();
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(pixels, pixels.length), width, height, width,
+                                                          colorModel.getMasks(), null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * An ImageSource which reads an image file through the cache.
+     */
+    private class CachedImageSource implements ImageSource {
+        private final Path file;
+        private final ImageSource source;
+
+        CachedImageSource(Path file, ImageSource source) {
+            this.file = Objects.requireNonNull(file);
+            this.source = Objects.requireNonNull(source);
+        }
+
+        @Override
+        public BufferedImage read() throws IOException {
+            return DiskImageCache.this.read(file, source);
+        }
+
+        @Override
+        public String toString() {
+            return "CachedImageSource{" +
+                   "file=" + file +
+                   ", source=" + source +
+                   ", directory=" + directory +
+                   '}';
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * An ImageSource that decodes an image file every time it is read. The decoded image is not retained,
+ * so it can be garbage collected as soon as the caller is done with it.
+ *
+ * @author ssiegler
+ */
+public class FileImageSource implements ImageSource {
+    private final Path file;
+    private final Dimension dimension;
+
+    /**
+     * Create an ImageSource for an image file, whose dimensions are already known from probing.
+     *
+     * @param file      the image file to decode
+     * @param dimension the probed dimensions of the image
+     */
+    public FileImageSource(Path file, Dimension dimension) {
+        this.file = Objects.requireNonNull(file);
+        this.dimension = new Dimension(dimension);
+    }
+
+    /**
+     * Decode the image file.
+     *
+     * @return the decoded image
+     * @throws IOException when the image cannot be decoded or does not have the probed dimensions
+     */
+    @Override
+    public BufferedImage read() throws IOException {
+        BufferedImage image;
+        try {
+            image = ImageFiles.read(file);
+        } catch (IOException e) {
+            throw new IOException("Failed to read image from file: " + file.toAbsolutePath(), e);
+        }
+        if (image.getWidth() != dimension.width || image.getHeight() != dimension.height) {
+            throw new IOException("Image in file " + file.toAbsolutePath() + " has changed while building the spritesheet");
+        }
+        return image;
+    }
+
+    @Override
+    public String toString() {
+        return "FileImageSource{" +
+               "file=" + file +
+               ", dimension=" + dimension +
+               '}';
+    }
+}
@@ -0,0 +1,279 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The free nodes of a PackGrowing tree, in the order in which a depth-first search visits them, going right
+ * before down. The nodes are kept in blocks which record the largest width and height of their nodes. A segment
+ * tree over the blocks records the largest width and height of each range of blocks, so that a search descends
+ * to the leftmost block which may hold an image in logarithmic time, instead of walking the whole tree. Since the
+ * largest width and height of a block can belong to different nodes, the search backtracks when a block turns out
+ * not to hold the image. The segment tree is rebuilt when blocks are split or removed, which happens at most once
+ * every {@value #BLOCK_SIZE} insertions of nodes.
+ *
+ * @author ssiegler
+ */
+class FreeNodes {
+    private static final int BLOCK_SIZE = 128;
+
+    private final NodePool pool;
+    private final List<Block> blocks = new ArrayList<>();
+    private int foundBlock = -1;
+    private int foundIndex = -1;
+    // The segment tree over the blocks, with the root at 1 and the blocks at the leaves from leaves on
+    private int leaves;
+    private int[] maxWidths;
+    private int[] maxHeights;
+
+    /**
+     * Collect the free nodes of a tree.
+     *
+     * @param pool the nodes of the tree
+     * @param root the index of the root of the tree
+     */
+    FreeNodes(NodePool pool, int root) {
+        this.pool = pool;
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int node = stack[--top];
+            if (pool.isUsed(node)) {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = pool.getDown(node);
+                stack[top++] = pool.getRight(node);
+            } else {
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * Find the first free node which can hold an image of the given size.
+     *
+     * @param width  width of the image
+     * @param height height of the image
+     * @return       index of the found node, or {@link NodePool#NONE} if no free node is large enough
+     */
+    int find(int width, int height) {
+        foundBlock = -1;
+        foundIndex = -1;
+        if (blocks.isEmpty()) {
+            return NodePool.NONE;
+        }
+        if (maxWidths == null) {
+            buildIndex();
+        }
+        return find(1, width, height);
+    }
+
+    /**
+     * Find the first free node which can hold an image of the given size in a subtree of the segment tree.
+     *
+     * @param treeNode the root of the subtree
+     * @param width    width of the image
+     * @param height   height of the image
+     * @return         index of the found node, or {@link NodePool#NONE} if no free node of the subtree is large enough
+     */
+    private int find(int treeNode, int width, int height) {
+        if (width > maxWidths[treeNode] || height > maxHeights[treeNode]) {
+            return NodePool.NONE;
+        }
+        if (treeNode >= leaves) {
+            int blockIndex = treeNode - leaves;
+            Block block = blocks.get(blockIndex);
+            for (int j = 0; j < block.size; j++) {
+                int node = block.nodes[j];
+                if (width <= pool.getWidth(node) && height <= pool.getHeight(node)) {
+                    foundBlock = blockIndex;
+                    foundIndex = j;
+                    return node;
+                }
+            }
+            return NodePool.NONE;
+        }
+        int node = find(2 * treeNode, width, height);
+        if (node == NodePool.NONE) {
+            node = find(2 * treeNode + 1, width, height);
+        }
+        return node;
+    }
+
+    /**
+     * Build the segment tree over the current blocks.
+     */
+    private void buildIndex() {
+        leaves = Integer.highestOneBit(Math.max(1, blocks.size() - 1)) * 2;
+        maxWidths = new int[2 * leaves];
+        maxHeights = new int[2 * leaves];
+        Arrays.fill(maxWidths, -1);
+        Arrays.fill(maxHeights, -1);
+        for (int i = 0; i < blocks.size(); i++) {
+            maxWidths[leaves + i] = blocks.get(i).maxWidth;
+            maxHeights[leaves + i] = blocks.get(i).maxHeight;
+        }
+        for (int treeNode = leaves - 1; treeNode > 0; treeNode--) {
+            maxWidths[treeNode] = Math.max(maxWidths[2 * treeNode], maxWidths[2 * treeNode + 1]);
+            maxHeights[treeNode] = Math.max(maxHeights[2 * treeNode], maxHeights[2 * treeNode + 1]);
+        }
+    }
+
+    /**
+     * Update the segment tree after the nodes of a block changed.
+     *
+     * @param blockIndex the index of the block
+     */
+    private void updateIndex(int blockIndex) {
+        if (maxWidths == null) {
+            return;
+        }
+        int treeNode = leaves + blockIndex;
+        maxWidths[treeNode] = blocks.get(blockIndex).maxWidth;
+        maxHeights[treeNode] = blocks.get(blockIndex).maxHeight;
+        for (treeNode /= 2; treeNode > 0; treeNode /= 2) {
+            maxWidths[treeNode] = Math.max(maxWidths[2 * treeNode], maxWidths[2 * treeNode + 1]);
+            maxHeights[treeNode] = Math.max(maxHeights[2 * treeNode], maxHeights[2 * treeNode + 1]);
+        }
+    }
+
+    /**
+     * Discard the segment tree after blocks were added or removed, it is built again by the next search.
+     */
+    private void invalidateIndex() {
+        maxWidths = null;
+        maxHeights = null;
+    }
+
+    /**
+     * Replace the node returned by the last call of {@link #find(int, int)} by the nodes into which it was split.
+     *
+     * @param right the right part of the split node
+     * @param down  the down part of the split node
+     * @throws IllegalStateException when no node has been found
+     */
+    void replaceFound(int right, int down) {
+        if (foundBlock < 0) {
+            throw new IllegalStateException("No free node has been found");
+        }
+        Block block = blocks.get(foundBlock);
+        block.remove(foundIndex);
+        block.update(pool);
+        insert(block, foundIndex, down);
+        insert(block, foundIndex, right);
+        if (block.size == 0) {
+            blocks.remove(foundBlock);
+            invalidateIndex();
+        } else if (!splitIfFull(foundBlock)) {
+            updateIndex(foundBlock);
+        }
+        foundBlock = -1;
+        foundIndex = -1;
+    }
+
+    /**
+     * Add a node before all other free nodes.
+     *
+     * @param node the index of the free node
+     */
+    void addFirst(int node) {
+        if (blocks.isEmpty()) {
+            blocks.add(new Block());
+            invalidateIndex();
+        }
+        insert(blocks.get(0), 0, node);
+        if (!splitIfFull(0)) {
+            updateIndex(0);
+        }
+    }
+
+    /**
+     * Add a node after all other free nodes.
+     *
+     * @param node the index of the free node
+     */
+    void addLast(int node) {
+        if (blocks.isEmpty()) {
+            blocks.add(new Block());
+            invalidateIndex();
+        }
+        int last = blocks.size() - 1;
+        insert(blocks.get(last), blocks.get(last).size, node);
+        if (!splitIfFull(last)) {
+            updateIndex(last);
+        }
+    }
+
+    /**
+     * Insert a node into a block. Nodes with a negative size cannot hold any image and are left out.
+     *
+     * @param block the block
+     * @param index the index of the node within the block
+     * @param node  the index of the node to insert
+     */
+    private void insert(Block block, int index, int node) {
+        int width = pool.getWidth(node);
+        int height = pool.getHeight(node);
+        if (width < 0 || height < 0) {
+            return;
+        }
+        block.insert(index, node);
+        block.maxWidth = Math.max(block.maxWidth, width);
+        block.maxHeight = Math.max(block.maxHeight, height);
+    }
+
+    /**
+     * Split a block in two when it has become too large.
+     *
+     * @param blockIndex the index of the block
+     * @return           true if the block was split
+     */
+    private boolean splitIfFull(int blockIndex) {
+        Block block = blocks.get(blockIndex);
+        if (block.size > 2 * BLOCK_SIZE) {
+            Block next = new Block();
+            next.size = block.size - BLOCK_SIZE;
+            System.arraycopy(block.nodes, BLOCK_SIZE, next.nodes, 0, next.size);
+            block.size = BLOCK_SIZE;
+            block.update(pool);
+            next.update(pool);
+            blocks.add(blockIndex + 1, next);
+            invalidateIndex();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A block of consecutive free nodes.
+     */
+    private static class Block {
+        private final int[] nodes = new int[2 * BLOCK_SIZE + 2];
+        private int size;
+        private int maxWidth = -1;
+        private int maxHeight = -1;
+
+        private void insert(int index, int node) {
+            System.arraycopy(nodes, index, nodes, index + 1, size - index);
+            nodes[index] = node;
+            size++;
+        }
+
+        private void remove(int index) {
+            System.arraycopy(nodes, index + 1, nodes, index, size - index - 1);
+            size--;
+        }
+
+        private void update(NodePool pool) {
+            maxWidth = -1;
+            maxHeight = -1;
+            for (int i = 0; i < size; i++) {
+                maxWidth = Math.max(maxWidth, pool.getWidth(nodes[i]));
+                maxHeight = Math.max(maxHeight, pool.getHeight(nodes[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * An ImageSource for an image that is decoded in the background. Reading the image waits until decoding is finished.
+ *
+ * @author ssiegler
+ */
+public class FutureImageSource implements ImageSource {
+    private final Future<BufferedImage> image;
+
+    /**
+     * Create an ImageSource for the result of a decoding task.
+     *
+     * @param image the pending result of the decoding task
+     */
+    public FutureImageSource(Future<BufferedImage> image) {
+        this.image = Objects.requireNonNull(image);
+    }
+
+    @Override
+    public BufferedImage read() throws IOException {
+        try {
+            return Uninterruptibles.getUninterruptibly(image);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.propagateIfPossible(cause, IOException.class);
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FutureImageSource{" +
+               "image=" + image +
+               '}';
+    }
+}
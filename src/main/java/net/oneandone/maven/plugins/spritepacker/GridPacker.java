@@ -0,0 +1,144 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A packer which lays out images of the same size in a near-square grid, and packs the grids together with
+ * the images of other sizes by another packer. A set of images of a single size is packed into one grid
+ * in linear time. Sizes with only a few images are left to the other packer, which can fit them into gaps.
+ *
+ * @author ssiegler
+ */
+public class GridPacker implements Packer {
+    /**
+     * The minimum number of images of the same size which are laid out in a grid
+     */
+    public static final int MIN_GRID_IMAGES = 4;
+
+    // The grids are packed as images by the other packer, but never drawn
+    private static final ImageSource GRID_SOURCE = new ImageSource() {
+        @Override
+        public BufferedImage read() throws IOException {
+            throw new IOException("A grid of images only reserves space while packing and has no pixels to read");
+        }
+    };
+
+    private final Packer packer;
+
+    /**
+     * Create a new GridPacker.
+     *
+     * @param packer the packer for the grids and the remaining images
+     */
+    public GridPacker(Packer packer) {
+        if (packer == null) {
+            throw new NullPointerException("packer");
+        }
+        this.packer = packer;
+    }
+
+    @Override
+    public ImagePacking pack(List<NamedImage> images, int padding) {
+        Map<Dimension, List<Integer>> sizeClasses = new LinkedHashMap<>();
+        for (int i = 0; i < images.size(); i++) {
+            NamedImage image = images.get(i);
+            Dimension size = new Dimension(image.getWidth(), image.getHeight());
+            List<Integer> sameSize = sizeClasses.get(size);
+            if (sameSize == null) {
+                sameSize = new ArrayList<>();
+                sizeClasses.put(size, sameSize);
+            }
+            sameSize.add(i);
+        }
+
+        List<NamedImage> packed = new ArrayList<>(images.size());
+        // the index of each packed image, or null for grids
+        List<Integer> packedIndices = new ArrayList<>(images.size());
+        List<Grid> grids = new ArrayList<>();
+        for (Map.Entry<Dimension, List<Integer>> sizeClass : sizeClasses.entrySet()) {
+            List<Integer> sameSize = sizeClass.getValue();
+            if (sameSize.size() < MIN_GRID_IMAGES) {
+                for (Integer index : sameSize) {
+                    packed.add(images.get(index));
+                    packedIndices.add(index);
+                }
+            } else {
+                Grid grid = new Grid(sizeClass.getKey(), sameSize, padding);
+                packed.add(new NamedImage("grid " + sizeClass.getKey().width + "x" + sizeClass.getKey().height,
+                                          grid.getWidth(), grid.getHeight(), GRID_SOURCE));
+                packedIndices.add(null);
+                grids.add(grid);
+            }
+        }
+        if (grids.isEmpty()) {
+            return packer.pack(images, padding);
+        }
+
+        ImagePacking packing = packer.pack(packed, padding);
+        int[] x = new int[images.size()];
+        int[] y = new int[images.size()];
+        int grid = 0;
+        for (int i = 0; i < packed.size(); i++) {
+            Integer index = packedIndices.get(i);
+            if (index == null) {
+                grids.get(grid++).setPositions(packing.getX(i), packing.getY(i), x, y);
+            } else {
+                x[index] = packing.getX(i);
+                y[index] = packing.getY(i);
+            }
+        }
+        return new ImagePacking(new Dimension(packing.getWidth(), packing.getHeight()), images, x, y);
+    }
+
+    /**
+     * A grid of images of the same size, with as many columns as keep it near square
+     */
+    private static class Grid {
+        private final int cellWidth;
+        private final int cellHeight;
+        private final List<Integer> images;
+        private final int padding;
+        private final int columns;
+        private final int rows;
+
+        Grid(Dimension size, List<Integer> images, int padding) {
+            this.cellWidth = size.width + padding;
+            this.cellHeight = size.height + padding;
+            this.images = images;
+            this.padding = padding;
+            int count = images.size();
+            int columns = (int) Math.ceil(Math.sqrt((double) count * cellHeight / Math.max(cellWidth, 1)));
+            this.columns = Math.max(1, Math.min(count, columns));
+            this.rows = (count + this.columns - 1) / this.columns;
+        }
+
+        int getWidth() {
+            return columns * cellWidth - padding;
+        }
+
+        int getHeight() {
+            return rows * cellHeight - padding;
+        }
+
+        /**
+         * Set the positions of the images in the grid, row by row.
+         *
+         * @param originX the x position of the grid
+         * @param originY the y position of the grid
+         * @param x       the array receiving the x positions of the images
+         * @param y       the array receiving the y positions of the images
+         */
+        void setPositions(int originX, int originY, int[] x, int[] y) {
+            for (int i = 0; i < images.size(); i++) {
+                x[images.get(i)] = originX + (i % columns) * cellWidth;
+                y[images.get(i)] = originY + (i / columns) * cellHeight;
+            }
+        }
+    }
+}
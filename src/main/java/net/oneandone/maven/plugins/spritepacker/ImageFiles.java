@@ -0,0 +1,104 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.AlphaComposite;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+
+/**
+ * Utility methods for reading image files.
+ *
+ * @author ssiegler
+ */
+public class ImageFiles {
+    /**
+     * Avoid instantiation of utility class
+     */
+    private ImageFiles() {}
+
+    /**
+     * Read the dimensions of an image file from its header, without decoding the pixel data.
+     *
+     * @param file  the image file to probe
+     * @return      the width and height of the image
+     * @throws IOException when the file cannot be read or is not in a supported image format
+     */
+    public static Dimension probe(Path file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file);
+             ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader found for file: " + file.toAbsolutePath());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Get a key which identifies the current content of an image file, consisting of the real path,
+     * the size and the last modification time of the file.
+     *
+     * @param file  the image file
+     * @return      the key of the image file
+     * @throws IOException when the attributes of the file cannot be read
+     */
+    public static String getContentKey(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return file.toRealPath() + "\n" + attributes.size() + "\n" + attributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Decode an image file.
+     *
+     * @param file  the image file to decode
+     * @return      the decoded image
+     * @throws IOException when the file cannot be read or is not in a supported image format
+     */
+    public static BufferedImage read(Path file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            BufferedImage image = ImageIO.read(inputStream);
+            if (image == null) {
+                throw new IOException("No image reader found for file: " + file.toAbsolutePath());
+            }
+            return image;
+        }
+    }
+
+    /**
+     * Get the ARGB pixels of an image as Java2D draws them into a spritesheet. The pixels of int RGB images are read
+     * directly, all other images are drawn into an int ARGB image first, since {@link BufferedImage#getRGB} converts
+     * some colour models differently from Java2D, e.g. it brightens grey images by converting them from linear grey
+     * to sRGB.
+     *
+     * @param image the image
+     * @return      the ARGB pixels of the image, row by row
+     */
+    public static int[] getPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB && image.getType() != BufferedImage.TYPE_INT_RGB) {
+            BufferedImage converted = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = converted.createGraphics();
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+            image = converted;
+        }
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+}
@@ -0,0 +1,103 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders in which packers can insert images, all starting with the largest images. Images which compare equal
+ * keep their relative order, so packing stays deterministic.
+ *
+ * @author ssiegler
+ */
+public enum ImageOrder implements Comparator<NamedImage> {
+    /**
+     * By the longer side, descending
+     */
+    MAX_SIDE {
+        @Override
+        public int compare(NamedImage arg0, NamedImage arg1) {
+            return Integer.compare(Math.max(arg1.getWidth(), arg1.getHeight()), Math.max(arg0.getWidth(), arg0.getHeight()));
+        }
+    },
+    /**
+     * By area, descending
+     */
+    AREA {
+        @Override
+        public int compare(NamedImage arg0, NamedImage arg1) {
+            return Long.compare((long) arg1.getWidth() * arg1.getHeight(), (long) arg0.getWidth() * arg0.getHeight());
+        }
+    },
+    /**
+     * By height, then by width, descending
+     */
+    HEIGHT {
+        @Override
+        public int compare(NamedImage arg0, NamedImage arg1) {
+            int result = Integer.compare(arg1.getHeight(), arg0.getHeight());
+            return (result != 0) ? result : Integer.compare(arg1.getWidth(), arg0.getWidth());
+        }
+    },
+    /**
+     * By width, then by height, descending
+     */
+    WIDTH {
+        @Override
+        public int compare(NamedImage arg0, NamedImage arg1) {
+            int result = Integer.compare(arg1.getWidth(), arg0.getWidth());
+            return (result != 0) ? result : Integer.compare(arg1.getHeight(), arg0.getHeight());
+        }
+    },
+    /**
+     * By perimeter, descending
+     */
+    PERIMETER {
+        @Override
+        public int compare(NamedImage arg0, NamedImage arg1) {
+            return Long.compare((long) arg1.getWidth() + arg1.getHeight(), (long) arg0.getWidth() + arg0.getHeight());
+        }
+    };
+
+    /**
+     * Combine two orders, so that images which compare equal in the first order are ordered by the second order.
+     *
+     * @param first  the first order
+     * @param second the order of the images which compare equal in the first order
+     * @return       the combined order
+     */
+    public static Comparator<NamedImage> thenBy(final Comparator<NamedImage> first, final Comparator<NamedImage> second) {
+        return new Comparator<NamedImage>() {
+            @Override
+            public int compare(NamedImage arg0, NamedImage arg1) {
+                int result = first.compare(arg0, arg1);
+                return (result != 0) ? result : second.compare(arg0, arg1);
+            }
+        };
+    }
+
+    /**
+     * Sort the indices of images, keeping the relative order of images which compare equal.
+     *
+     * @param images the images
+     * @param order  the order of the images
+     * @return       the indices of the images in the given order
+     */
+    public static int[] sort(final List<NamedImage> images, final Comparator<NamedImage> order) {
+        Integer[] indices = new Integer[images.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer arg0, Integer arg1) {
+                return order.compare(images.get(arg0), images.get(arg1));
+            }
+        });
+        int[] sorted = new int[indices.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = indices[i];
+        }
+        return sorted;
+    }
+}
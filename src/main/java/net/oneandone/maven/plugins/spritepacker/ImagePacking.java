@@ -3,39 +3,92 @@ package net.oneandone.maven.plugins.spritepacker;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- * Holds the result of the PackGrowing. Contains a Map of images to positions
- * as well as the outer dimensions of the spritesheet.
+ * Holds the result of a packing. Contains the positions of the packed images, indexed like the list of
+ * packed images, as well as the outer dimensions of the spritesheet.
  *
  * @author ssiegler
  */
 public class ImagePacking {
-    private final Map<NamedImage, Point> positionMap;
+    private final List<NamedImage> images;
+    private final int[] x;
+    private final int[] y;
     private final int width;
     private final int height;
+    // only built when positions are looked up by image
+    private volatile Map<NamedImage, Integer> indices;
 
     /**
-     * Create an ImagePacking with the given dimension and position map data.
+     * Create an ImagePacking with the given dimension and positions.
      *
-     * @param dimension     the outer dimensions of the spritesheet
-     * @param positionMap   a map of images to positions
+     * @param dimension the outer dimensions of the spritesheet
+     * @param images    the packed images
+     * @param x         the x positions of the images, indexed like the images
+     * @param y         the y positions of the images, indexed like the images
      */
-    public ImagePacking(Dimension dimension, Map<NamedImage, Point> positionMap) {
+    public ImagePacking(Dimension dimension, List<NamedImage> images, int[] x, int[] y) {
+        if (images.size() != x.length || images.size() != y.length) {
+            throw new IllegalArgumentException("Expected " + images.size() + " positions, got " + x.length + " x and " + y.length + " y positions");
+        }
         width = dimension.width;
         height = dimension.height;
-        this.positionMap = Collections.unmodifiableMap(positionMap);
+        this.images = Collections.unmodifiableList(images);
+        this.x = x;
+        this.y = y;
     }
 
     /**
-     * Get the position of the specified image within the spritesheet.
+     * Get the x position of an image within the spritesheet.
+     *
+     * @param index the index of the image in the list of packed images
+     * @return      the x position of the image
+     */
+    public int getX(int index) {
+        return x[index];
+    }
+
+    /**
+     * Get the y position of an image within the spritesheet.
+     *
+     * @param index the index of the image in the list of packed images
+     * @return      the y position of the image
+     */
+    public int getY(int index) {
+        return y[index];
+    }
+
+    /**
+     * Get the position of the specified image within the spritesheet. This looks the image up in an index,
+     * which is built on first use, so prefer {@link #getX(int)} and {@link #getY(int)} when the index
+     * of the image is known.
      *
      * @param image the image to get the position of
-     * @return      the position of the given image
+     * @return      the position of the given image, or null if it has not been packed
      */
     public Point getPosition(NamedImage image) {
-        return positionMap.get(image);
+        Map<NamedImage, Integer> indices = this.indices;
+        if (indices == null) {
+            indices = new IdentityHashMap<>(images.size());
+            for (int i = 0; i < images.size(); i++) {
+                indices.put(images.get(i), i);
+            }
+            this.indices = indices;
+        }
+        Integer index = indices.get(image);
+        return (index == null) ? null : new Point(x[index], y[index]);
+    }
+
+    /**
+     * Get the packed images.
+     *
+     * @return the packed images, in the order of their positions
+     */
+    public List<NamedImage> getImages() {
+        return images;
     }
 
     public int getWidth() {
@@ -48,8 +101,16 @@ public class ImagePacking {
 
     @Override
     public String toString() {
+        StringBuilder positions = new StringBuilder("[");
+        for (int i = 0; i < images.size(); i++) {
+            if (i > 0) {
+                positions.append(", ");
+            }
+            positions.append(images.get(i)).append('@').append(x[i]).append(',').append(y[i]);
+        }
+        positions.append(']');
         return "ImagePacking{" +
-               "positionMap=" + positionMap +
+               "positions=" + positions +
                ", width=" + width +
                ", height=" + height +
                '}';
@@ -0,0 +1,20 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Provides the pixel data of an image, which may be decoded on demand.
+ *
+ * @author ssiegler
+ */
+public interface ImageSource {
+
+    /**
+     * Get the decoded image.
+     *
+     * @return the decoded image
+     * @throws IOException when the image cannot be decoded
+     */
+    BufferedImage read() throws IOException;
+}
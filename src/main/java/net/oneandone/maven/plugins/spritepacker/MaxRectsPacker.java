@@ -0,0 +1,227 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A packer which keeps track of all maximal free rectangles of the spritesheet, and places each image into
+ * the free rectangle chosen by a heuristic. The spritesheet starts with the size of the total image area,
+ * and grows until all images fit.
+ *
+ * @author ssiegler
+ */
+public class MaxRectsPacker implements Packer {
+    private static final double GROWTH = 1.05;
+
+    private static final Comparator<NamedImage> IMAGE_ORDER = ImageOrder.thenBy(ImageOrder.MAX_SIDE, ImageOrder.AREA);
+
+    /**
+     * The heuristics for choosing a free rectangle
+     */
+    public enum Heuristic {
+        /**
+         * Choose the free rectangle which leaves the shortest side over
+         */
+        BEST_SHORT_SIDE_FIT,
+        /**
+         * Choose the free rectangle with the smallest area
+         */
+        BEST_AREA_FIT
+    }
+
+    private final Heuristic heuristic;
+    private final Comparator<NamedImage> order;
+
+    /**
+     * Create a new MaxRectsPacker using the given heuristic, which inserts the images by descending max
+     * width / height and area.
+     *
+     * @param heuristic the heuristic for choosing a free rectangle
+     */
+    public MaxRectsPacker(Heuristic heuristic) {
+        this(heuristic, IMAGE_ORDER);
+    }
+
+    /**
+     * Create a new MaxRectsPacker using the given heuristic and insertion order.
+     *
+     * @param heuristic the heuristic for choosing a free rectangle
+     * @param order     the order in which the images are inserted
+     */
+    public MaxRectsPacker(Heuristic heuristic, Comparator<NamedImage> order) {
+        if (heuristic == null) {
+            throw new NullPointerException("heuristic");
+        }
+        if (order == null) {
+            throw new NullPointerException("order");
+        }
+        this.heuristic = heuristic;
+        this.order = order;
+    }
+
+    @Override
+    public ImagePacking pack(List<NamedImage> images, int padding) {
+        int[] sorted = ImageOrder.sort(images, order);
+        int[] x = new int[sorted.length];
+        int[] y = new int[sorted.length];
+        if (sorted.length == 0) {
+            return new ImagePacking(new Dimension(0, 0), images, x, y);
+        }
+
+        // every image is packed with the padding to its right and bottom, the sheet adds the padding to the top and left
+        long area = 0;
+        int maxWidth = 0;
+        int maxHeight = 0;
+        for (NamedImage image : images) {
+            area += (long) (image.getWidth() + padding) * (image.getHeight() + padding);
+            maxWidth = Math.max(maxWidth, image.getWidth() + padding);
+            maxHeight = Math.max(maxHeight, image.getHeight() + padding);
+        }
+        int binWidth = Math.max(maxWidth, (int) Math.ceil(Math.sqrt(area)));
+        int binHeight = Math.max(maxHeight, (int) Math.ceil((double) area / binWidth));
+
+        while (!packInto(images, sorted, padding, binWidth, binHeight, x, y)) {
+            binWidth = (int) Math.ceil(binWidth * GROWTH);
+            binHeight = (int) Math.ceil(binHeight * GROWTH);
+        }
+
+        int width = 0;
+        int height = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            width = Math.max(width, x[i] + images.get(i).getWidth() + padding);
+            height = Math.max(height, y[i] + images.get(i).getHeight() + padding);
+        }
+        return new ImagePacking(new Dimension(width, height), images, x, y);
+    }
+
+    /**
+     * Try to pack the images into a bin of the given size.
+     *
+     * @param images    the images to pack
+     * @param order     the indices of the images, in packing order
+     * @param padding   the padding between and around the images
+     * @param binWidth  the width of the bin
+     * @param binHeight the height of the bin
+     * @param x         the array receiving the x positions of the images
+     * @param y         the array receiving the y positions of the images
+     * @return          true if all images fit into the bin
+     */
+    private boolean packInto(List<NamedImage> images, int[] order, int padding, int binWidth, int binHeight, int[] x, int[] y) {
+        List<Rectangle> freeRects = new ArrayList<>();
+        freeRects.add(new Rectangle(0, 0, binWidth, binHeight));
+        for (int index : order) {
+            NamedImage image = images.get(index);
+            int width = image.getWidth() + padding;
+            int height = image.getHeight() + padding;
+            Rectangle best = findFreeRect(freeRects, width, height);
+            if (best == null) {
+                return false;
+            }
+            Rectangle used = new Rectangle(best.x, best.y, width, height);
+            placeRect(freeRects, used);
+            x[index] = used.x + padding;
+            y[index] = used.y + padding;
+        }
+        return true;
+    }
+
+    /**
+     * Find the free rectangle which fits best according to the heuristic.
+     *
+     * @param freeRects the free rectangles
+     * @param width     the width needed
+     * @param height    the height needed
+     * @return          the best free rectangle, or null if none is large enough
+     */
+    private Rectangle findFreeRect(List<Rectangle> freeRects, int width, int height) {
+        Rectangle best = null;
+        long bestPrimary = Long.MAX_VALUE;
+        long bestSecondary = Long.MAX_VALUE;
+        for (Rectangle free : freeRects) {
+            if (width <= free.width && height <= free.height) {
+                int leftoverHorizontal = free.width - width;
+                int leftoverVertical = free.height - height;
+                long shortSide = Math.min(leftoverHorizontal, leftoverVertical);
+                long longSide = Math.max(leftoverHorizontal, leftoverVertical);
+                long primary;
+                long secondary;
+                if (heuristic == Heuristic.BEST_AREA_FIT) {
+                    primary = (long) free.width * free.height - (long) width * height;
+                    secondary = shortSide;
+                } else {
+                    primary = shortSide;
+                    secondary = longSide;
+                }
+                if (primary < bestPrimary || (primary == bestPrimary && secondary < bestSecondary)) {
+                    best = free;
+                    bestPrimary = primary;
+                    bestSecondary = secondary;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Split all free rectangles which intersect the used rectangle into the maximal free rectangles around it.
+     * New rectangles which are contained in another free rectangle are dropped.
+     *
+     * @param freeRects the free rectangles
+     * @param used      the rectangle taken by an image
+     */
+    private static void placeRect(List<Rectangle> freeRects, Rectangle used) {
+        List<Rectangle> remaining = new ArrayList<>(freeRects.size());
+        List<Rectangle> created = new ArrayList<>();
+        for (Rectangle free : freeRects) {
+            if (free.intersects(used)) {
+                splitFreeRect(free, used, created);
+            } else {
+                remaining.add(free);
+            }
+        }
+        List<Rectangle> kept = new ArrayList<>(created.size());
+        for (int i = 0; i < created.size(); i++) {
+            Rectangle rect = created.get(i);
+            if (!isContained(rect, remaining) && !isContained(rect, kept) && !isContained(rect, created.subList(i + 1, created.size()))) {
+                kept.add(rect);
+            }
+        }
+        freeRects.clear();
+        freeRects.addAll(remaining);
+        freeRects.addAll(kept);
+    }
+
+    private static boolean isContained(Rectangle rect, List<Rectangle> others) {
+        for (Rectangle other : others) {
+            if (other.contains(rect)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add the maximal free rectangles of the free rectangle, which are left when the used rectangle is taken.
+     *
+     * @param free    the free rectangle
+     * @param used    the used rectangle, which intersects the free rectangle
+     * @param created the list receiving the new free rectangles
+     */
+    private static void splitFreeRect(Rectangle free, Rectangle used, List<Rectangle> created) {
+        if (used.y > free.y) {
+            created.add(new Rectangle(free.x, free.y, free.width, used.y - free.y));
+        }
+        if (used.y + used.height < free.y + free.height) {
+            created.add(new Rectangle(free.x, used.y + used.height, free.width, free.y + free.height - used.y - used.height));
+        }
+        if (used.x > free.x) {
+            created.add(new Rectangle(free.x, free.y, used.x - free.x, free.height));
+        }
+        if (used.x + used.width < free.x + free.width) {
+            created.add(new Rectangle(used.x + used.width, free.y, free.x + free.width - used.x - used.width, free.height));
+        }
+    }
+}
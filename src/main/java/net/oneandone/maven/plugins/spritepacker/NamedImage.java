@@ -1,16 +1,26 @@
 package net.oneandone.maven.plugins.spritepacker;
 
+import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.Objects;
 
 /**
- * A class to hold a BufferedImage along with its name.
+ * A class to hold an image along with its name and dimensions. The pixel data is provided by an ImageSource,
+ * so it does not need to be decoded before the image is packed.
  *
  * @author Robert Murphy, mklein
  */
 public class NamedImage {
     private final String name;
-    private final BufferedImage image;
+    private final int width;
+    private final int height;
+    private final ImageSource source;
+    private final int offsetX;
+    private final int offsetY;
+    private final int originalWidth;
+    private final int originalHeight;
 
     /**
      * Create a NamedImage that contains an image and a name.
@@ -19,31 +29,142 @@ public class NamedImage {
      * @param name the name of the image
      */
     public NamedImage(BufferedImage image, String name) {
+        this(name, image.getWidth(), image.getHeight(), new DecodedImageSource(image));
+    }
+
+    /**
+     * Create a NamedImage with a name and known dimensions, whose pixel data is provided by source.
+     *
+     * @param name   the name of the image
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @param source the source of the pixel data
+     */
+    public NamedImage(String name, int width, int height, ImageSource source) {
+        this(name, new Dimension(width, height), new Rectangle(width, height), source);
+    }
+
+    /**
+     * Create a NamedImage for the part within bounds of an original image, e.g. after its transparent borders were
+     * trimmed. The dimensions of the NamedImage are the dimensions of the bounds, and the pixel data provided by source
+     * must have these dimensions as well.
+     *
+     * @param name         the name of the image
+     * @param originalSize the dimensions of the original image
+     * @param bounds       the part of the original image, which this image consists of
+     * @param source       the source of the pixel data within bounds
+     */
+    public NamedImage(String name, Dimension originalSize, Rectangle bounds, ImageSource source) {
         this.name = Objects.requireNonNull(name);
-        this.image = Objects.requireNonNull(image);
+        this.width = bounds.width;
+        this.height = bounds.height;
+        this.source = Objects.requireNonNull(source);
+        this.offsetX = bounds.x;
+        this.offsetY = bounds.y;
+        this.originalWidth = originalSize.width;
+        this.originalHeight = originalSize.height;
     }
 
     public String getName() {
         return name;
     }
 
-    public BufferedImage getImage() {
-        return image;
+    /**
+     * Get the decoded image, which may wait for or trigger decoding.
+     *
+     * @return the decoded image
+     * @throws IOException when the image cannot be decoded
+     */
+    public BufferedImage getImage() throws IOException {
+        return source.read();
+    }
+
+    /**
+     * Get the source of the pixel data. Images with identical content share the same source.
+     *
+     * @return the source of the pixel data
+     */
+    public ImageSource getSource() {
+        return source;
     }
 
     public int getWidth() {
-        return image.getWidth();
+        return width;
     }
 
     public int getHeight() {
-        return image.getHeight();
+        return height;
+    }
+
+    /**
+     * Get the horizontal offset of this image within the original image, which is greater than 0 if transparent
+     * columns were trimmed from the left.
+     *
+     * @return the horizontal offset within the original image
+     */
+    public int getOffsetX() {
+        return offsetX;
+    }
+
+    /**
+     * Get the vertical offset of this image within the original image, which is greater than 0 if transparent
+     * rows were trimmed from the top.
+     *
+     * @return the vertical offset within the original image
+     */
+    public int getOffsetY() {
+        return offsetY;
+    }
+
+    public int getOriginalWidth() {
+        return originalWidth;
+    }
+
+    public int getOriginalHeight() {
+        return originalHeight;
+    }
+
+    /**
+     * Check if this image is only a part of the original image, because its transparent borders were trimmed.
+     *
+     * @return whether this image differs from the original image
+     */
+    public boolean isTrimmed() {
+        return width != originalWidth || height != originalHeight;
     }
 
     @Override
     public String toString() {
         return "NamedImage{" +
                "name='" + name + '\'' +
-               ", image=" + image +
+               ", width=" + width +
+               ", height=" + height +
+               ", offsetX=" + offsetX +
+               ", offsetY=" + offsetY +
+               ", originalWidth=" + originalWidth +
+               ", originalHeight=" + originalHeight +
+               ", source=" + source +
                '}';
     }
+
+    /**
+     * An ImageSource for an image that has already been decoded.
+     */
+    private static class DecodedImageSource implements ImageSource {
+        private final BufferedImage image;
+
+        DecodedImageSource(BufferedImage image) {
+            this.image = Objects.requireNonNull(image);
+        }
+
+        @Override
+        public BufferedImage read() {
+            return image;
+        }
+
+        @Override
+        public String toString() {
+            return image.toString();
+        }
+    }
 }
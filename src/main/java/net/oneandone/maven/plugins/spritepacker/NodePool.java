@@ -0,0 +1,123 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.util.Arrays;
+
+/**
+ * The nodes of a PackGrowing tree, stored column-wise in primitive arrays. A node is identified by its index
+ * in the pool, so building the tree allocates no objects apart from growing the arrays.
+ *
+ * @author ssiegler
+ */
+class NodePool {
+    /**
+     * Index standing for no node.
+     */
+    static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] x;
+    private int[] y;
+    private int[] width;
+    private int[] height;
+    private int[] down;
+    private int[] right;
+    private boolean[] used;
+    private int size;
+
+    /**
+     * Create an empty pool with room for the given number of nodes.
+     *
+     * @param capacity the expected number of nodes
+     */
+    NodePool(int capacity) {
+        int initial = Math.max(capacity, INITIAL_CAPACITY);
+        x = new int[initial];
+        y = new int[initial];
+        width = new int[initial];
+        height = new int[initial];
+        down = new int[initial];
+        right = new int[initial];
+        used = new boolean[initial];
+    }
+
+    /**
+     * Add an unused node without children.
+     *
+     * @param xPos   x position
+     * @param yPos   y position
+     * @param w      width
+     * @param h      height
+     * @return       the index of the new node
+     */
+    int add(int xPos, int yPos, int w, int h) {
+        if (size == x.length) {
+            int capacity = size * 2;
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            width = Arrays.copyOf(width, capacity);
+            height = Arrays.copyOf(height, capacity);
+            down = Arrays.copyOf(down, capacity);
+            right = Arrays.copyOf(right, capacity);
+            used = Arrays.copyOf(used, capacity);
+        }
+        x[size] = xPos;
+        y[size] = yPos;
+        width[size] = w;
+        height[size] = h;
+        down[size] = NONE;
+        right[size] = NONE;
+        used[size] = false;
+        return size++;
+    }
+
+    /**
+     * Mark a node as used and set its children.
+     *
+     * @param node      the node
+     * @param rightNode the part right of the used space
+     * @param downNode  the part below the used space
+     */
+    void use(int node, int rightNode, int downNode) {
+        used[node] = true;
+        right[node] = rightNode;
+        down[node] = downNode;
+    }
+
+    int getX(int node) {
+        return x[node];
+    }
+
+    int getY(int node) {
+        return y[node];
+    }
+
+    int getWidth(int node) {
+        return width[node];
+    }
+
+    int getHeight(int node) {
+        return height[node];
+    }
+
+    int getDown(int node) {
+        return down[node];
+    }
+
+    int getRight(int node) {
+        return right[node];
+    }
+
+    boolean isUsed(int node) {
+        return used[node];
+    }
+
+    /**
+     * Get the number of nodes in the pool.
+     *
+     * @return the number of nodes
+     */
+    int size() {
+        return size;
+    }
+}
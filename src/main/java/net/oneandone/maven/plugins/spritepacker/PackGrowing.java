@@ -1,13 +1,8 @@
 package net.oneandone.maven.plugins.spritepacker;
 
 import java.awt.Dimension;
-import java.awt.Point;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * An algorithm for packing images into a spritesheet
@@ -16,20 +11,15 @@ import java.util.Map;
  */
 public class PackGrowing {
 
-    private static final Comparator<NamedImage> IMAGE_ORDER = new Comparator<NamedImage>() {
-        @Override
-        public int compare(NamedImage arg0, NamedImage arg1) {
-            int max0 = Math.max(arg0.getWidth(), arg0.getHeight());
-            int max1 = Math.max(arg1.getWidth(), arg1.getHeight());
-            return max1 - max0;
-        }
-    };
-
     private final List<NamedImage> images;
+    private final int[] order;
     private final int padding;
 
-    private final Map<NamedImage, Point> positionMap;
-    private Node root;
+    private final int[] x;
+    private final int[] y;
+    private final NodePool nodes;
+    private int root = NodePool.NONE;
+    private FreeNodes freeNodes;
 
     /**
      * Creates a new PackGrowing for the given images and padding.
@@ -38,23 +28,64 @@ public class PackGrowing {
      * @param padding the amount of padding to put between sprites, in pixels
      */
     PackGrowing(List<NamedImage> images, int padding) {
-        this.images = new ArrayList<>(images);
+        this(images, padding, ImageOrder.sort(images, ImageOrder.MAX_SIDE));
+    }
+
+    /**
+     * Creates a new PackGrowing for the given images, padding and insertion order.
+     *
+     * @param images  the list of images to be packed
+     * @param padding the amount of padding to put between sprites, in pixels
+     * @param order   the indices of the images, in the order in which they are inserted
+     */
+    PackGrowing(List<NamedImage> images, int padding, int[] order) {
+        this.images = images;
+        this.order = order;
         this.padding = padding;
-        positionMap = new IdentityHashMap<>();
+        x = new int[images.size()];
+        y = new int[images.size()];
+        // every image splits a node into two, and growing adds two nodes
+        nodes = new NodePool(4 * images.size() + 1);
     }
 
     /**
      * Fit the images and return an ImagePacking containing the outer dimensions
-     * of the spritesheet and a Map of images to positions.
+     * of the spritesheet and the positions of the images.
      *
      * @param images    the list of images to be packed
      * @param padding   the amount of padding to put between sprites, in pixels
      * @return          the resulting ImagePacking, containing dimension and image position data
      */
     public static ImagePacking fit(List<NamedImage> images, int padding) {
-        PackGrowing packGrowing = new PackGrowing(images, padding);
+        return fit(images, padding, ImageOrder.MAX_SIDE);
+    }
+
+    /**
+     * Fit the images in the given order and return an ImagePacking containing the outer dimensions
+     * of the spritesheet and the positions of the images.
+     *
+     * @param images    the list of images to be packed
+     * @param padding   the amount of padding to put between sprites, in pixels
+     * @param order     the order in which the images are inserted
+     * @return          the resulting ImagePacking, containing dimension and image position data
+     */
+    public static ImagePacking fit(List<NamedImage> images, int padding, Comparator<NamedImage> order) {
+        return fit(images, padding, ImageOrder.sort(images, order));
+    }
+
+    /**
+     * Fit the images in the given order and return an ImagePacking containing the outer dimensions
+     * of the spritesheet and the positions of the images.
+     *
+     * @param images    the list of images to be packed
+     * @param padding   the amount of padding to put between sprites, in pixels
+     * @param order     the indices of the images, in the order in which they are inserted
+     * @return          the resulting ImagePacking, containing dimension and image position data
+     */
+    static ImagePacking fit(List<NamedImage> images, int padding, int[] order) {
+        PackGrowing packGrowing = new PackGrowing(images, padding, order);
         Dimension dimension = packGrowing.fit();
-        return new ImagePacking(dimension, packGrowing.positionMap);
+        return new ImagePacking(dimension, images, packGrowing.x, packGrowing.y);
     }
 
     /**
@@ -63,70 +94,58 @@ public class PackGrowing {
      * @return  the outer dimensions of the spritesheet after fitting the images
      */
     private Dimension fit() {
-        if (images.isEmpty()) {
+        if (order.length == 0) {
             return new Dimension(0, 0);
         }
-        // sort the images, without modifying the sort order of the original image list
-        sortImages(images);
-
-        root = new Node(padding, this.padding, images.get(0).getWidth(), images.get(0).getHeight());
+        NamedImage first = images.get(order[0]);
+        setRoot(padding, padding, first.getWidth(), first.getHeight());
 
-        for (NamedImage image : images) {
+        for (int index : order) {
+            NamedImage image = images.get(index);
             final int width = image.getWidth();
             final int height = image.getHeight();
 
-            final Node availableNode = findNode(root, width, height);
-            final Node newNode = (availableNode == null) ? growNode(width, height, padding) : splitNode(availableNode, width, height, padding);
+            final int availableNode = findNode(width, height);
+            int newNode = (availableNode == NodePool.NONE) ? growNode(width, height, padding) : splitNode(availableNode, width, height, padding);
+            if (newNode == NodePool.NONE) {
+                // only images inserted in another order than max width / height descending can be wider and higher
+                newNode = growDownAndWider(width, height, padding);
+            }
 
-            positionMap.put(image, new Point(newNode.getX(), newNode.getY()));
+            x[index] = nodes.getX(newNode);
+            y[index] = nodes.getY(newNode);
         }
 
-        return new Dimension(root.getWidth() + padding * 2, root.getHeight() + padding * 2);
+        return new Dimension(nodes.getWidth(root) + padding * 2, nodes.getHeight(root) + padding * 2);
     }
 
     /**
-     * Sort images by max width / height descending
+     * Find the first available unused node of the given width and height, in the order of a depth-first search
+     * of the tree, which visits the right part of a used node before its down part.
      *
-     * @param images list of images to sort
-     */
-    private void sortImages(List<NamedImage> images) {
-        // Sort by max width / height descending
-        Collections.sort(images, IMAGE_ORDER);
-    }
-
-    /**
-     * Find an available unused node of the given width and height, starting from nodeIn
-     *
-     * @param nodeIn the node from which to start the find operation
      * @param width  width of the node
      * @param height height of the node
-     * @return       found node, or null if no available node was found
+     * @return       found node, or {@link NodePool#NONE} if no available node was found
      */
-    private Node findNode(Node nodeIn, int width, int height) {
-        if (nodeIn.isUsed()) {
-            Node rightAvailable = findNode(nodeIn.getRight(), width, height);
-            return (rightAvailable != null) ? rightAvailable : findNode(nodeIn.getDown(), width, height);
-        }
-
-        if (width <= nodeIn.getWidth() && height <= nodeIn.getHeight()) {
-            return nodeIn;
-        }
-
-        return null;
+    private int findNode(int width, int height) {
+        return freeNodes.find(width, height);
     }
 
     /**
      * Split a node into a node of size width x height and return the remaining space to the pool
      *
-     * @param nodeIn the node to split
+     * @param nodeIn the node to split, which must be the node found last
      * @param width  width
      * @param height height
      * @return       the split node
      */
-    private Node splitNode(Node nodeIn, int width, int height, int padding) {
-        nodeIn.setUsed(true);
-        nodeIn.setDown(new Node(nodeIn.getX(), nodeIn.getY() + height + padding, nodeIn.getWidth(), nodeIn.getHeight() - height - padding));
-        nodeIn.setRight(new Node(nodeIn.getX() + width + padding, nodeIn.getY(), nodeIn.getWidth() - width - padding, height));
+    private int splitNode(int nodeIn, int width, int height, int padding) {
+        int nodeX = nodes.getX(nodeIn);
+        int nodeY = nodes.getY(nodeIn);
+        int down = nodes.add(nodeX, nodeY + height + padding, nodes.getWidth(nodeIn), nodes.getHeight(nodeIn) - height - padding);
+        int right = nodes.add(nodeX + width + padding, nodeY, nodes.getWidth(nodeIn) - width - padding, height);
+        nodes.use(nodeIn, right, down);
+        freeNodes.replaceFound(right, down);
         return nodeIn;
     }
 
@@ -135,16 +154,18 @@ public class PackGrowing {
      *
      * @param width  width needed
      * @param height height needed
-     * @return       new available node
+     * @return       new available node, or {@link NodePool#NONE} if the root cannot grow
      */
-    Node growNode(int width, int height, int padding) {
-        boolean canGrowDown = width <= root.getWidth();
-        boolean canGrowRight = height <= root.getHeight();
+    int growNode(int width, int height, int padding) {
+        int rootWidth = nodes.getWidth(root);
+        int rootHeight = nodes.getHeight(root);
+        boolean canGrowDown = width <= rootWidth;
+        boolean canGrowRight = height <= rootHeight;
 
         // attempt to keep square-ish by growing right when height is much greater than width
-        boolean shouldGrowRight = canGrowRight && root.getHeight() >= root.getWidth() + width;
+        boolean shouldGrowRight = canGrowRight && rootHeight >= rootWidth + width;
         // attempt to keep square-ish by growing down when width is much greater than height
-        boolean shouldGrowDown = canGrowDown && root.getWidth() >= root.getHeight() + height;
+        boolean shouldGrowDown = canGrowDown && rootWidth >= rootHeight + height;
 
         if (shouldGrowRight) {
             return growRight(width, height, padding);
@@ -157,7 +178,7 @@ public class PackGrowing {
         }
 
         // need to ensure sensible root starting size to avoid this happening
-        return null;
+        return NodePool.NONE;
     }
 
     /**
@@ -165,21 +186,25 @@ public class PackGrowing {
      *
      * @param width  width needed
      * @param height height needed
-     * @return       new available node
+     * @return       new available node, or {@link NodePool#NONE} if the image does not fit
      */
-    Node growRight(int width, int height, int padding) {
-        Node newRoot = new Node(root.getX(), root.getY(), root.getWidth() + width + padding, root.getHeight());
-        newRoot.setUsed(true);
-        newRoot.setDown(root);
-        newRoot.setRight(new Node(root.getWidth() + root.getX() + padding, root.getY(), width, root.getHeight()));
+    int growRight(int width, int height, int padding) {
+        int rootX = nodes.getX(root);
+        int rootY = nodes.getY(root);
+        int rootWidth = nodes.getWidth(root);
+        int rootHeight = nodes.getHeight(root);
+        int newRoot = nodes.add(rootX, rootY, rootWidth + width + padding, rootHeight);
+        int right = nodes.add(rootWidth + rootX + padding, rootY, width, rootHeight);
+        nodes.use(newRoot, right, root);
         root = newRoot;
+        freeNodes.addFirst(right);
 
-        Node availableNode = findNode(root, width, height);
-        if (availableNode != null) {
-        return splitNode(availableNode, width, height, padding);
-    }
+        int availableNode = findNode(width, height);
+        if (availableNode != NodePool.NONE) {
+            return splitNode(availableNode, width, height, padding);
+        }
 
-        return null;
+        return NodePool.NONE;
     }
 
     /**
@@ -187,28 +212,60 @@ public class PackGrowing {
      *
      * @param width  width needed
      * @param height height needed
-     * @return       new available node
+     * @return       new available node, or {@link NodePool#NONE} if the image does not fit
      */
-    Node growDown(int width, int height, int padding) {
-        Node newRoot = new Node(root.getX(), root.getY(), root.getWidth(), root.getHeight() + height + padding);
-        newRoot.setUsed(true);
-        newRoot.setDown(new Node(root.getX(), root.getY() + root.getHeight() + padding, root.getWidth(), height));
-        newRoot.setRight(root);
+    int growDown(int width, int height, int padding) {
+        int rootX = nodes.getX(root);
+        int rootY = nodes.getY(root);
+        int rootWidth = nodes.getWidth(root);
+        int rootHeight = nodes.getHeight(root);
+        int newRoot = nodes.add(rootX, rootY, rootWidth, rootHeight + height + padding);
+        int down = nodes.add(rootX, rootY + rootHeight + padding, rootWidth, height);
+        nodes.use(newRoot, root, down);
         root = newRoot;
+        freeNodes.addLast(down);
 
-        Node availableNode = findNode(root, width, height);
-        if (availableNode != null) {
+        int availableNode = findNode(width, height);
+        if (availableNode != NodePool.NONE) {
             return splitNode(availableNode, width, height, padding);
         }
 
-        return null;
+        return NodePool.NONE;
     }
 
     /**
-     * Allows setting the root to test certain edge cases which cannot occur in actual fittings.
-     * @param root the root node to set
+     * Grow the root node down, as wide as needed, and return new available node. The space right of the
+     * current root is left unused.
+     *
+     * @param width  width needed
+     * @param height height needed
+     * @return       new available node
+     */
+    int growDownAndWider(int width, int height, int padding) {
+        int rootX = nodes.getX(root);
+        int rootY = nodes.getY(root);
+        int rootHeight = nodes.getHeight(root);
+        int newWidth = Math.max(nodes.getWidth(root), width);
+        int newRoot = nodes.add(rootX, rootY, newWidth, rootHeight + height + padding);
+        int down = nodes.add(rootX, rootY + rootHeight + padding, newWidth, height);
+        nodes.use(newRoot, root, down);
+        root = newRoot;
+        freeNodes.addLast(down);
+
+        return splitNode(findNode(width, height), width, height, padding);
+    }
+
+    /**
+     * Sets the root of the tree to a new unused node and collects its free nodes. Also allows setting the root
+     * to test certain edge cases which cannot occur in actual fittings.
+     *
+     * @param xPos   x position of the root
+     * @param yPos   y position of the root
+     * @param width  width of the root
+     * @param height height of the root
      */
-    void setRoot(Node root) {
-        this.root = root;
+    void setRoot(int xPos, int yPos, int width, int height) {
+        root = nodes.add(xPos, yPos, width, height);
+        freeNodes = new FreeNodes(nodes, root);
     }
 }
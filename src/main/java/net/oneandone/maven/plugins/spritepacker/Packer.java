@@ -0,0 +1,20 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.util.List;
+
+/**
+ * A strategy for packing images into a spritesheet
+ *
+ * @author ssiegler
+ */
+public interface Packer {
+    /**
+     * Pack the images and return an ImagePacking containing the outer dimensions
+     * of the spritesheet and a Map of images to positions.
+     *
+     * @param images    the list of images to be packed
+     * @param padding   the amount of padding to put between and around sprites, in pixels
+     * @return          the resulting ImagePacking, containing dimension and image position data
+     */
+    ImagePacking pack(List<NamedImage> images, int padding);
+}
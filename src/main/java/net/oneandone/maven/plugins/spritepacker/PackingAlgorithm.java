@@ -0,0 +1,96 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.List;
+
+/**
+ * The packing algorithms that can be selected for a spritesheet
+ *
+ * @author ssiegler
+ */
+public enum PackingAlgorithm {
+    /**
+     * A binary tree which grows right or down as needed, see {@link PackGrowing}
+     */
+    GROWING {
+        @Override
+        public Packer createPacker(int maxWidth, int threads, long timeBudget, Log log) {
+            return new Packer() {
+                @Override
+                public ImagePacking pack(List<NamedImage> images, int padding) {
+                    return PackGrowing.fit(images, padding);
+                }
+            };
+        }
+    },
+    /**
+     * MaxRects, placing each image into the free rectangle that leaves the shortest side over
+     */
+    MAXRECTS_BSSF {
+        @Override
+        public Packer createPacker(int maxWidth, int threads, long timeBudget, Log log) {
+            return new MaxRectsPacker(MaxRectsPacker.Heuristic.BEST_SHORT_SIDE_FIT);
+        }
+    },
+    /**
+     * MaxRects, placing each image into the smallest free rectangle that can hold it
+     */
+    MAXRECTS_BAF {
+        @Override
+        public Packer createPacker(int maxWidth, int threads, long timeBudget, Log log) {
+            return new MaxRectsPacker(MaxRectsPacker.Heuristic.BEST_AREA_FIT);
+        }
+    },
+    /**
+     * A skyline of fixed width, placing each image at its lowest position, see {@link SkylinePacker}
+     */
+    SKYLINE {
+        @Override
+        public Packer createPacker(int maxWidth, int threads, long timeBudget, Log log) {
+            return new SkylinePacker(maxWidth);
+        }
+    },
+    /**
+     * All other algorithms with every {@link ImageOrder} in parallel, keeping the smallest spritesheet,
+     * see {@link PortfolioPacker}
+     */
+    PORTFOLIO {
+        @Override
+        public Packer createPacker(int maxWidth, int threads, long timeBudget, Log log) {
+            return PortfolioPacker.create(maxWidth, threads, log);
+        }
+    },
+    /**
+     * The GROWING packing, improved by changing the image order until the time budget is used up,
+     * see {@link AnnealingPacker}
+     */
+    ANNEALING {
+        @Override
+        public Packer createPacker(int maxWidth, int threads, long timeBudget, Log log) {
+            return new AnnealingPacker(timeBudget, log);
+        }
+    },
+    /**
+     * A search for the smallest spritesheet for small sets of images, limited by the time budget,
+     * see {@link BranchAndBoundPacker}
+     */
+    BRANCH_AND_BOUND {
+        @Override
+        public Packer createPacker(int maxWidth, int threads, long timeBudget, Log log) {
+            return new BranchAndBoundPacker(timeBudget, BranchAndBoundPacker.DEFAULT_NODE_LIMIT, log);
+        }
+    };
+
+    /**
+     * Create a packer using this algorithm.
+     *
+     * @param maxWidth   the maximum width of the spritesheet, or 0 to let the algorithm choose it.
+     *                   Only algorithms with a fixed width support it.
+     * @param threads    the number of threads the algorithm may use
+     * @param timeBudget the time in milliseconds the algorithm may spend on improving the packing
+     * @param log        the log for reporting progress
+     * @return the packer
+     */
+    public abstract Packer createPacker(int maxWidth, int threads, long timeBudget, Log log);
+}
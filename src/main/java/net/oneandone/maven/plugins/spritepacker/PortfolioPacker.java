@@ -0,0 +1,135 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A packer which packs the images with several packers and insertion orders in parallel, and keeps the packing
+ * with the smallest spritesheet within the maximum width, if any packing fits. Ties are broken by the squarer spritesheet, then by the order of the variants,
+ * so the result does not depend on which variant finishes first.
+ *
+ * @author ssiegler
+ */
+public class PortfolioPacker implements Packer {
+    private final Map<String, Packer> variants;
+    private final int maxWidth;
+    private final int parallelism;
+    private final Log log;
+
+    /**
+     * Create a new PortfolioPacker for the given variants.
+     *
+     * @param variants    the packers to try, by name, in the order in which they win ties
+     * @param maxWidth    the maximum width of the spritesheet, or 0 if it is not limited
+     * @param parallelism the number of variants packed at the same time
+     * @param log         the log which receives the winning variant
+     */
+    PortfolioPacker(Map<String, Packer> variants, int maxWidth, int parallelism, Log log) {
+        if (variants.isEmpty()) {
+            throw new IllegalArgumentException("No packers to try");
+        }
+        this.variants = new LinkedHashMap<>(variants);
+        this.maxWidth = maxWidth;
+        this.parallelism = parallelism;
+        this.log = log;
+    }
+
+    /**
+     * Create a PortfolioPacker, which tries all packing algorithms with every image order.
+     *
+     * @param maxWidth    the maximum width of the spritesheet, or 0 if it is not limited
+     * @param parallelism the number of variants packed at the same time
+     * @param log         the log which receives the winning variant
+     * @return the PortfolioPacker
+     */
+    public static PortfolioPacker create(int maxWidth, int parallelism, Log log) {
+        Map<String, Packer> variants = new LinkedHashMap<>();
+        for (final ImageOrder order : ImageOrder.values()) {
+            variants.put(PackingAlgorithm.GROWING + " by " + order, new Packer() {
+                @Override
+                public ImagePacking pack(List<NamedImage> images, int padding) {
+                    return PackGrowing.fit(images, padding, order);
+                }
+            });
+            variants.put(PackingAlgorithm.MAXRECTS_BSSF + " by " + order, new MaxRectsPacker(MaxRectsPacker.Heuristic.BEST_SHORT_SIDE_FIT, order));
+            variants.put(PackingAlgorithm.MAXRECTS_BAF + " by " + order, new MaxRectsPacker(MaxRectsPacker.Heuristic.BEST_AREA_FIT, order));
+            variants.put(PackingAlgorithm.SKYLINE + " by " + order, new SkylinePacker(maxWidth, order));
+        }
+        return new PortfolioPacker(variants, maxWidth, parallelism, log);
+    }
+
+    @Override
+    public ImagePacking pack(final List<NamedImage> images, final int padding) {
+        List<Callable<ImagePacking>> tasks = new ArrayList<>(variants.size());
+        for (final Packer packer : variants.values()) {
+            tasks.add(new Callable<ImagePacking>() {
+                @Override
+                public ImagePacking call() {
+                    return packer.pack(images, padding);
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<ImagePacking>> futures = pool.invokeAll(tasks);
+            String bestName = null;
+            ImagePacking best = null;
+            int index = 0;
+            for (String name : variants.keySet()) {
+                ImagePacking packing = getResult(futures.get(index++));
+                if (log.isDebugEnabled()) {
+                    log.debug(name + ": " + packing.getWidth() + "x" + packing.getHeight() + " pixels");
+                }
+                if (best == null || isBetter(packing, best)) {
+                    bestName = name;
+                    best = packing;
+                }
+            }
+            log.info("Portfolio packing: " + bestName + " won with " + best.getWidth() + "x" + best.getHeight() + " pixels.");
+            return best;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compare two packings by whether they fit into the maximum width, then by area, then by the difference
+     * between their width and height.
+     *
+     * @param packing the packing to compare
+     * @param best    the best packing so far
+     * @return        true if the packing is strictly better
+     */
+    boolean isBetter(ImagePacking packing, ImagePacking best) {
+        boolean fits = maxWidth == 0 || packing.getWidth() <= maxWidth;
+        boolean bestFits = maxWidth == 0 || best.getWidth() <= maxWidth;
+        if (fits != bestFits) {
+            return fits;
+        }
+        long area = (long) packing.getWidth() * packing.getHeight();
+        long bestArea = (long) best.getWidth() * best.getHeight();
+        if (area != bestArea) {
+            return area < bestArea;
+        }
+        return Math.abs(packing.getWidth() - packing.getHeight()) < Math.abs(best.getWidth() - best.getHeight());
+    }
+
+    private static ImagePacking getResult(Future<ImagePacking> future) {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
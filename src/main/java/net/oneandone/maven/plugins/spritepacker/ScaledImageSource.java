@@ -0,0 +1,47 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * An ImageSource that provides the image of another ImageSource scaled to fixed dimensions, e.g. the image for a
+ * lower pixel density, which is derived from the image for a higher pixel density.
+ *
+ * @author ssiegler
+ */
+public class ScaledImageSource implements ImageSource {
+    private final ImageSource source;
+    private final Dimension dimension;
+
+    /**
+     * Create an ImageSource for the image of source scaled to dimension.
+     *
+     * @param source    the source of the image to scale
+     * @param dimension the dimensions of the scaled image
+     */
+    public ScaledImageSource(ImageSource source, Dimension dimension) {
+        this.source = Objects.requireNonNull(source);
+        this.dimension = new Dimension(dimension);
+    }
+
+    /**
+     * Read and scale the image of the source. The scaled image is not retained.
+     *
+     * @return the scaled image
+     * @throws IOException when the image of the source cannot be decoded
+     */
+    @Override
+    public BufferedImage read() throws IOException {
+        return Scaling.scale(source.read(), dimension.width, dimension.height);
+    }
+
+    @Override
+    public String toString() {
+        return "ScaledImageSource{" +
+               "source=" + source +
+               ", dimension=" + dimension +
+               '}';
+    }
+}
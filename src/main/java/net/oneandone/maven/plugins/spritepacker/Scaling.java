@@ -0,0 +1,120 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Utility methods for scaling images, e.g. to derive an image for a lower pixel density from an image for a
+ * higher pixel density.
+ *
+ * @author ssiegler
+ */
+public class Scaling {
+    /**
+     * Avoid instantiation of utility class
+     */
+    private Scaling() {}
+
+    /**
+     * Scale an image to the given dimensions by area averaging: each pixel of the scaled image is the average of
+     * the pixels of the image it covers, weighted by the covered area. The colours are averaged with premultiplied
+     * alpha, so that transparent pixels do not darken the edges of the scaled image. This is best suited for
+     * downscaling, upscaled images have sharp but slightly blurred pixel edges.
+     *
+     * @param image  the image to scale
+     * @param width  the width of the scaled image
+     * @param height the height of the scaled image
+     * @return       the scaled image, or the image itself if it already has the given dimensions
+     */
+    public static BufferedImage scale(BufferedImage image, int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Cannot scale image to " + width + "x" + height + " pixels");
+        }
+        int sourceWidth = image.getWidth();
+        int sourceHeight = image.getHeight();
+        if (sourceWidth == width && sourceHeight == height) {
+            return image;
+        }
+
+        // premultiplied alpha, red, green and blue of each pixel, as it is drawn into the spritesheet
+        float[] pixels = new float[4 * sourceWidth * sourceHeight];
+        int[] argb = ImageFiles.getPixels(image);
+        for (int y = 0; y < sourceHeight; y++) {
+            for (int x = 0; x < sourceWidth; x++) {
+                int offset = 4 * (y * sourceWidth + x);
+                int pixel = argb[y * sourceWidth + x];
+                int alpha = pixel >>> 24;
+                pixels[offset] = alpha;
+                pixels[offset + 1] = ((pixel >> 16) & 0xff) * alpha / 255f;
+                pixels[offset + 2] = ((pixel >> 8) & 0xff) * alpha / 255f;
+                pixels[offset + 3] = (pixel & 0xff) * alpha / 255f;
+            }
+        }
+
+        float[] columns = resample(pixels, sourceWidth, sourceHeight, width, 4, 4 * sourceWidth);
+        float[] scaled = resample(columns, sourceHeight, width, height, 4, 4 * sourceHeight);
+
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] resultRow = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int offset = 4 * (y * width + x);
+                int alpha = Math.round(scaled[offset]);
+                if (alpha == 0) {
+                    resultRow[x] = 0;
+                } else {
+                    float factor = 255f / scaled[offset];
+                    resultRow[x] = alpha << 24 | toChannel(scaled[offset + 1] * factor) << 16
+                                   | toChannel(scaled[offset + 2] * factor) << 8 | toChannel(scaled[offset + 3] * factor);
+                }
+            }
+            result.setRGB(0, y, width, 1, resultRow, 0, width);
+        }
+        return result;
+    }
+
+    /**
+     * Resample the lines of four channel pixels along one axis by area averaging. The resampled pixels are
+     * transposed, so that the lines of the result run along the other axis.
+     *
+     * @param pixels     the pixels to resample
+     * @param length     the number of pixels along the resampled axis
+     * @param lines      the number of lines
+     * @param newLength  the number of pixels along the resampled axis after resampling
+     * @param pixelStep  the distance in the array between neighbouring pixels along the resampled axis
+     * @param lineStep   the distance in the array between neighbouring lines
+     * @return           the resampled pixels, with neighbouring pixels of a line 4 * lines apart
+     */
+    private static float[] resample(float[] pixels, int length, int lines, int newLength, int pixelStep, int lineStep) {
+        // in units of 1 / (length * newLength), each source pixel is newLength wide and each target pixel is length wide
+        float[] resampled = new float[4 * newLength * lines];
+        float[] sum = new float[4];
+        for (int target = 0; target < newLength; target++) {
+            long start = (long) target * length;
+            long end = start + length;
+            int first = (int) (start / newLength);
+            int last = (int) ((end - 1) / newLength);
+            for (int line = 0; line < lines; line++) {
+                sum[0] = sum[1] = sum[2] = sum[3] = 0;
+                for (int source = first; source <= last; source++) {
+                    long covered = Math.min(end, (long) (source + 1) * newLength) - Math.max(start, (long) source * newLength);
+                    int offset = source * pixelStep + line * lineStep;
+                    for (int channel = 0; channel < 4; channel++) {
+                        sum[channel] += covered * pixels[offset + channel];
+                    }
+                }
+                int offset = 4 * (target * lines + line);
+                for (int channel = 0; channel < 4; channel++) {
+                    resampled[offset + channel] = sum[channel] / length;
+                }
+            }
+        }
+        return resampled;
+    }
+
+    /**
+     * @return the value rounded and clamped to a colour channel from 0 to 255
+     */
+    private static int toChannel(float value) {
+        return Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
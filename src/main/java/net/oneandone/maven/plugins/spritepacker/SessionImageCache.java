@@ -0,0 +1,134 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * An in-memory cache of decoded images, which is shared by all executions of the plugin within one build, so that
+ * image files used by several executions or modules are decoded only once. The least recently used images are
+ * evicted when the decoded images exceed the maximum size of the cache.
+ *
+ * @author ssiegler
+ */
+public class SessionImageCache {
+    private static final int BYTES_PER_PIXEL = 4;
+    // the keys identify a build, they are compared by identity and do not prevent the build from being garbage collected
+    private static final Cache<Object, SessionImageCache> SESSION_CACHES = CacheBuilder.newBuilder().weakKeys().build();
+
+    private final Cache<String, BufferedImage> images;
+
+    /**
+     * Create a cache which holds decoded images up to the given size.
+     *
+     * @param maximumBytes the maximum size of the decoded images in the cache, in bytes
+     */
+    SessionImageCache(long maximumBytes) {
+        // a single segment applies the maximum size and the eviction order to all images, images are loaded
+        // outside of its lock, so this does not serialize decoding
+        images = CacheBuilder.newBuilder()
+                             .concurrencyLevel(1)
+                             .maximumWeight(maximumBytes)
+                             .weigher(new Weigher<String, BufferedImage>() {
+                                 @Override
+                                 public int weigh(String key, BufferedImage image) {
+                                     long bytes = (long) image.getWidth() * image.getHeight() * BYTES_PER_PIXEL;
+                                     return (int) Math.min(bytes, Integer.MAX_VALUE);
+                                 }
+                             })
+                             .build();
+    }
+
+    /**
+     * Get the cache of a build, which is created with the given maximum size if the build has no cache yet.
+     *
+     * @param build        the object identifying the build
+     * @param maximumBytes the maximum size of the decoded images in a new cache, in bytes
+     * @return the cache of the build
+     */
+    public static SessionImageCache forBuild(Object build, final long maximumBytes) {
+        try {
+            return SESSION_CACHES.get(build, new Callable<SessionImageCache>() {
+                @Override
+                public SessionImageCache call() {
+                    return new SessionImageCache(maximumBytes);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Create an ImageSource which reads an image file from the cache, or from source if it is not cached yet,
+     * in which case the image read from source is added to the cache.
+     *
+     * @param file   the image file
+     * @param source the source which decodes the image file
+     * @return the caching ImageSource
+     */
+    public ImageSource cached(Path file, ImageSource source) {
+        return new CachedImageSource(file, source);
+    }
+
+    /**
+     * Read an image file from the cache, or from source if it is not cached yet. Concurrent reads of the same
+     * image file wait for a single decoding.
+     *
+     * @param file   the image file
+     * @param source the source which decodes the image file
+     * @return the decoded image
+     * @throws IOException when the image cannot be decoded
+     */
+    BufferedImage read(Path file, final ImageSource source) throws IOException {
+        try {
+            return images.get(ImageFiles.getContentKey(file), new Callable<BufferedImage>() {
+                @Override
+                public BufferedImage call() throws IOException {
+                    return source.read();
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.propagateIfPossible(cause, IOException.class);
+            throw new IOException(cause);
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * An ImageSource which reads an image file through the cache.
+     */
+    private class CachedImageSource implements ImageSource {
+        private final Path file;
+        private final ImageSource source;
+
+        CachedImageSource(Path file, ImageSource source) {
+            this.file = Objects.requireNonNull(file);
+            this.source = Objects.requireNonNull(source);
+        }
+
+        @Override
+        public BufferedImage read() throws IOException {
+            return SessionImageCache.this.read(file, source);
+        }
+
+        @Override
+        public String toString() {
+            return "SessionCachedImageSource{" +
+                   "file=" + file +
+                   ", source=" + source +
+                   '}';
+        }
+    }
+}
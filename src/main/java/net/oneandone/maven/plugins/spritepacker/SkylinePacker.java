@@ -0,0 +1,176 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A packer which keeps track of the skyline formed by the top edges of the packed images, and places each image
+ * at the lowest position on the skyline, preferring the leftmost one. The images are packed, by default by decreasing
+ * height, into a spritesheet of fixed width, so the cost grows with the number of images times the number of skyline
+ * segments, which stays small compared to the number of images.
+ *
+ * @author ssiegler
+ */
+public class SkylinePacker implements Packer {
+
+    private final int maxWidth;
+    private final Comparator<NamedImage> order;
+
+    /**
+     * Create a new SkylinePacker.
+     *
+     * @param maxWidth the maximum width of the spritesheet including the padding, or 0 to choose a width that keeps
+     *                 the spritesheet roughly square. The spritesheet is wider if an image does not fit otherwise.
+     */
+    public SkylinePacker(int maxWidth) {
+        this(maxWidth, ImageOrder.HEIGHT);
+    }
+
+    /**
+     * Create a new SkylinePacker with the given insertion order.
+     *
+     * @param maxWidth the maximum width of the spritesheet including the padding, or 0 to choose a width that keeps
+     *                 the spritesheet roughly square. The spritesheet is wider if an image does not fit otherwise.
+     * @param order    the order in which the images are inserted
+     */
+    public SkylinePacker(int maxWidth, Comparator<NamedImage> order) {
+        if (maxWidth < 0) {
+            throw new IllegalArgumentException("The maximum width must not be negative: " + maxWidth);
+        }
+        if (order == null) {
+            throw new NullPointerException("order");
+        }
+        this.maxWidth = maxWidth;
+        this.order = order;
+    }
+
+    @Override
+    public ImagePacking pack(List<NamedImage> images, int padding) {
+        int[] sorted = ImageOrder.sort(images, order);
+        int[] xs = new int[sorted.length];
+        int[] ys = new int[sorted.length];
+        if (sorted.length == 0) {
+            return new ImagePacking(new Dimension(0, 0), images, xs, ys);
+        }
+
+        // every image is packed with the padding to its right and bottom, the sheet adds the padding to the top and left
+        int binWidth = getBinWidth(images, padding);
+        List<Segment> skyline = new ArrayList<>();
+        skyline.add(new Segment(0, 0, binWidth));
+
+        int width = 0;
+        int height = 0;
+        for (int index : sorted) {
+            NamedImage image = images.get(index);
+            int imageWidth = image.getWidth() + padding;
+            int imageHeight = image.getHeight() + padding;
+
+            int bestIndex = -1;
+            int bestY = Integer.MAX_VALUE;
+            for (int i = 0; i < skyline.size() && skyline.get(i).x + imageWidth <= binWidth; i++) {
+                int y = getFitY(skyline, i, imageWidth);
+                if (y < bestY) {
+                    bestIndex = i;
+                    bestY = y;
+                }
+            }
+
+            int x = skyline.get(bestIndex).x;
+            if (imageWidth > 0) {
+                addSegment(skyline, bestIndex, new Segment(x, bestY + imageHeight, imageWidth));
+            }
+            xs[index] = x + padding;
+            ys[index] = bestY + padding;
+            width = Math.max(width, x + imageWidth + padding);
+            height = Math.max(height, bestY + imageHeight + padding);
+        }
+        return new ImagePacking(new Dimension(width, height), images, xs, ys);
+    }
+
+    /**
+     * Get the width available for the images, which is at least the width of the widest image.
+     *
+     * @param images  the images to pack
+     * @param padding the padding between and around the images
+     * @return        the width available for the images and the padding to their right
+     */
+    private int getBinWidth(List<NamedImage> images, int padding) {
+        long area = 0;
+        int widest = 0;
+        for (NamedImage image : images) {
+            area += (long) (image.getWidth() + padding) * (image.getHeight() + padding);
+            widest = Math.max(widest, image.getWidth() + padding);
+        }
+        int width = (maxWidth == 0) ? (int) Math.ceil(Math.sqrt(area)) : maxWidth - padding;
+        return Math.max(width, widest);
+    }
+
+    /**
+     * Get the lowest y position where an image can be placed with its left edge at the start of a skyline segment.
+     *
+     * @param skyline the skyline segments
+     * @param index   the index of the segment
+     * @param width   the width of the image
+     * @return        the highest top of the segments below the image
+     */
+    private static int getFitY(List<Segment> skyline, int index, int width) {
+        int y = skyline.get(index).y;
+        int remaining = width;
+        for (int i = index; remaining > 0; i++) {
+            Segment segment = skyline.get(i);
+            y = Math.max(y, segment.y);
+            remaining -= segment.width;
+        }
+        return y;
+    }
+
+    /**
+     * Insert the top edge of a placed image into the skyline, cutting off the segments it covers
+     * and merging neighbouring segments of the same height.
+     *
+     * @param skyline the skyline segments
+     * @param index   the index of the segment at which the image starts
+     * @param segment the top edge of the image
+     */
+    private static void addSegment(List<Segment> skyline, int index, Segment segment) {
+        skyline.add(index, segment);
+        int end = segment.x + segment.width;
+        int next = index + 1;
+        while (next < skyline.size() && skyline.get(next).x < end) {
+            Segment covered = skyline.get(next);
+            int coveredEnd = covered.x + covered.width;
+            if (coveredEnd <= end) {
+                skyline.remove(next);
+            } else {
+                skyline.set(next, new Segment(end, covered.y, coveredEnd - end));
+                break;
+            }
+        }
+        if (next < skyline.size() && skyline.get(next).y == segment.y) {
+            Segment following = skyline.remove(next);
+            skyline.set(index, new Segment(segment.x, segment.y, segment.width + following.width));
+        }
+        if (index > 0 && skyline.get(index - 1).y == segment.y) {
+            Segment merged = skyline.remove(index);
+            Segment previous = skyline.get(index - 1);
+            skyline.set(index - 1, new Segment(previous.x, previous.y, previous.width + merged.width));
+        }
+    }
+
+    /**
+     * A horizontal segment of the skyline
+     */
+    private static class Segment {
+        private final int x;
+        private final int y;
+        private final int width;
+
+        Segment(int x, int y, int width) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package net.oneandone.maven.plugins.spritepacker;
 
+import com.google.common.base.Throwables;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import net.oneandone.maven.plugins.spritepacker.converters.ColorReduction;
 import net.oneandone.maven.plugins.spritepacker.converters.CssPackingConverter;
 import net.oneandone.maven.plugins.spritepacker.converters.JsonPackingConverter;
 import net.oneandone.maven.plugins.spritepacker.converters.LessPackingConverter;
+import net.oneandone.maven.plugins.spritepacker.converters.PngCompression;
 import net.oneandone.maven.plugins.spritepacker.converters.PackingConverter;
 import net.oneandone.maven.plugins.spritepacker.converters.SpritesheetPackingConverter;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Component;
@@ -16,14 +22,37 @@ import org.codehaus.plexus.util.Scanner;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
 import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 
 /**
@@ -33,6 +62,10 @@ import java.util.List;
  */
 @Mojo(name = "compile", defaultPhase = LifecyclePhase.PROCESS_SOURCES)
 public class SpritePacker extends AbstractMojo {
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+    private static final int MAX_DENSITY = 99;
+    // The density suffix of image file names, e.g. "icon@2x" for the image "icon" in density 2
+    private static final Pattern DENSITY_SUFFIX = Pattern.compile("(.+)@([1-9][0-9]?)x");
 
     /**
      * Output spritesheet image file
@@ -40,6 +73,13 @@ public class SpritePacker extends AbstractMojo {
     @Parameter(required = true)
     File output;
 
+    /**
+     * Optional output lossless WebP file of the same spritesheet, which is written in addition to the PNG file.
+     * WebP images are at most 16384 pixels wide and high. Not available in streaming mode.
+     */
+    @Parameter
+    File webp;
+
     /**
      * Optional output JSON(P) description file containing coordinates and dimensions
      */
@@ -104,6 +144,37 @@ public class SpritePacker extends AbstractMojo {
     @Parameter(defaultValue = "0")
     Integer padding;
 
+    /**
+     * Optional packing algorithm: GROWING (default), a binary tree growing as needed, MaxRects, which usually
+     * packs denser, choosing free rectangles by best short side fit (MAXRECTS_BSSF) or best area fit (MAXRECTS_BAF),
+     * SKYLINE, which is fast for very large numbers of images, PORTFOLIO, which tries the other algorithms
+     * with several image orders in parallel and keeps the smallest spritesheet, ANNEALING, which improves the
+     * GROWING packing within the packing time, or BRANCH_AND_BOUND, which searches the smallest spritesheet for
+     * up to 64 images within the packing time.
+     */
+    @Parameter(defaultValue = "GROWING")
+    PackingAlgorithm packing = PackingAlgorithm.GROWING;
+
+    /**
+     * Optional flag to lay out images of the same size in a near-square grid, which is packed together with the
+     * images of other sizes by the packing algorithm. Sizes with fewer than four images are not laid out in a grid.
+     */
+    @Parameter(defaultValue = "false")
+    Boolean grid = Boolean.FALSE;
+
+    /**
+     * Optional time in milliseconds that the ANNEALING and BRANCH_AND_BOUND packing spend on improving the packing.
+     */
+    @Parameter(defaultValue = "3000")
+    Long packingTime;
+
+    /**
+     * Optional maximum width of the spritesheet in pixels for the SKYLINE and PORTFOLIO packing, 0 chooses a width that keeps the
+     * spritesheet roughly square. Images wider than the maximum width widen the spritesheet.
+     */
+    @Parameter(defaultValue = "0")
+    Integer maxWidth;
+
     /**
      * Optionally force the sprite packer to always re-generate files regardless of whether new graphics were found.
      */
@@ -116,9 +187,116 @@ public class SpritePacker extends AbstractMojo {
     @Parameter(defaultValue = "false")
     Boolean skip;
 
+    /**
+     * Optionally decode each source image only while it is drawn into the spritesheet, instead of keeping all
+     * decoded images in memory, and draw the spritesheet in bands of rows, which are compressed right away instead
+     * of keeping the whole spritesheet in memory. This reduces the peak memory usage for large sets of images and
+     * large spritesheets.
+     */
+    @Parameter(defaultValue = "false")
+    Boolean streaming = Boolean.FALSE;
+
+    /**
+     * Optionally trim the fully transparent borders of the source images before packing them. The stylesheets
+     * compensate for the trimmed borders, so that each icon keeps its original size.
+     */
+    @Parameter(defaultValue = "false")
+    Boolean trim = Boolean.FALSE;
+
+    /**
+     * Optional pixel densities up to 99, e.g. 2 and 3, for which spritesheets are written in addition to the
+     * spritesheet of the base density 1. Their file names have the density suffix "@2x", "@3x", etc. inserted before
+     * the extension, e.g. "sprite@2x.png" and "sprite@2x.webp". The images are packed only once in the base density
+     * and the densities are drawn one after another, each with all threads. The spritesheet of a density takes the
+     * square of the density times the memory of the base spritesheet, e.g. 9 times for density 3, unless it is
+     * written in streaming mode. Each image is drawn from the source file with the same name and the
+     * density suffix, e.g. "icon@2x.png" for "icon.png", or else scaled down from the source file of the highest
+     * density. The CSS and Less files set the spritesheet as background image with the size of the base spritesheet,
+     * and media queries replace it with the spritesheet of the highest density the screen supports. The URLs of the
+     * spritesheets are relative to the CSS and Less files. Not available together with trimming.
+     */
+    @Parameter
+    Integer[] densities;
+
+    /**
+     * Optional directory in which decoded source images are cached, so that unchanged images do not need to be
+     * decoded again on the next build. The entries of images which were not used by a build are deleted afterwards,
+     * so each execution needs its own directory. Not set by default, which disables the cache.
+     */
+    @Parameter
+    File cacheDirectory;
+
+    /**
+     * Optional maximum size in megabytes of an in-memory cache of decoded source images, which is shared by all
+     * executions of the plugin within one build. This avoids decoding images again that are used by several
+     * executions or modules. The size is set by the first execution in a build, the default 0 disables the cache,
+     * so builds with several executions opt in. The cache is not used in streaming mode.
+     */
+    @Parameter(defaultValue = "0")
+    Integer sessionCacheSize;
+
+    /**
+     * The current build session.
+     */
+    @Parameter(defaultValue = "${session}", readonly = true)
+    MavenSession session;
+
+    /**
+     * Optional number of threads used to decode the source images, to try packings, to draw the spritesheet and to compress it in parallel.
+     * Defaults to the number of available processors.
+     */
+    @Parameter(defaultValue = "0")
+    Integer threads;
+
+    /**
+     * Optional compression preset of the spritesheet PNG file: FAST for development builds, DEFAULT, or MAX, which
+     * tries every PNG filter and several deflate strategies for each block of rows and keeps the smallest result,
+     * for release builds.
+     */
+    @Parameter(defaultValue = "DEFAULT")
+    PngCompression compression = PngCompression.DEFAULT;
+
+    /**
+     * Optional deflate compression level of the spritesheet PNG file, from 0 (no compression) to 9 (best compression),
+     * which overrides the level of the compression preset. Lower levels write large spritesheets faster at the cost
+     * of a larger file.
+     */
+    @Parameter
+    Integer compressionLevel;
+
+    /**
+     * Optional reduction of the colours of the spritesheet PNG file: NONE (default) always writes 8 bit RGBA,
+     * LOSSLESS writes the smallest format which represents every pixel exactly: a palette if the spritesheet has no
+     * more than 256 colours, grey if all pixels are grey, and RGB without alpha if all pixels are opaque. QUANTIZE
+     * reduces the colours to a palette of up to 256 colours with a small loss, unless a lossless format stores no more
+     * than a byte per pixel.
+     */
+    @Parameter(defaultValue = "NONE")
+    ColorReduction colorReduction = ColorReduction.NONE;
+
+    /**
+     * Optional Floyd-Steinberg dithering of a quantized spritesheet, which hides colour banding in gradients at the
+     * cost of a larger file.
+     */
+    @Parameter(defaultValue = "false")
+    Boolean dithering = Boolean.FALSE;
+
+    /**
+     * Optional minimum quality of a quantized spritesheet, from 0 to 100. The quality is 100 if the palette keeps
+     * every colour, and drops to 0 at an average error of 32 per channel. A spritesheet whose palette does not reach
+     * the minimum quality is written without loss.
+     */
+    @Parameter(defaultValue = "0")
+    Integer minQuality;
+
     @Component
     BuildContext buildContext;
 
+    /**
+     * The cache of decoded source images in {@link #cacheDirectory}, or null if it is not used.
+     */
+    private DiskImageCache diskCache;
+
     /**
      * Execute the MOJO.
      *
@@ -142,12 +320,18 @@ public class SpritePacker extends AbstractMojo {
         }
 
         Path outputPath = fileToPath(output);
+        Path webpPath = getWebpPath();
         Path jsonPath = fileToPath(json);
         Path cssPath = fileToPath(css);
         Path lessPath = fileToPath(less);
+        int[] outputDensities = getDensities();
 
         // Load output files into an ArrayList
-        List<Path> outputs = Arrays.asList(outputPath, jsonPath, cssPath, lessPath);
+        List<Path> outputs = new ArrayList<>(Arrays.asList(outputPath, webpPath, jsonPath, cssPath, lessPath));
+        for (int i = 1; i < outputDensities.length; i++) {
+            outputs.add(Utils.getDensityPath(outputPath, outputDensities[i]));
+            outputs.add(Utils.getDensityPath(webpPath, outputDensities[i]));
+        }
 
         // If force overwrite not specified, and the JSON file is not being created for the first time,
         // and the output files were modified more recently than the input files, return.
@@ -162,31 +346,185 @@ public class SpritePacker extends AbstractMojo {
 
         log("Loading " + inputs.size() + " images from " + sourceDirectory.getAbsolutePath());
 
-        // Load images defined in input array
+        // Load images defined in input array, decoding continues in the background while the images are packed
         List<NamedImage> images = loadImages(inputs);
 
+        if (outputDensities.length > 1) {
+            images = groupDensities(inputs, images, outputDensities);
+        }
+
+        if (trim) {
+            log("Trimming transparent borders...");
+            images = trimImages(images);
+        }
+
         log("Packing images...");
 
         // Add packing information
         ImagePacking imagePacking = packImages(images);
 
-        List<PackingConverter> converters = Arrays.asList(new SpritesheetPackingConverter(outputPath),
-                                                          new JsonPackingConverter(jsonPath, jsonpVar),
-                                                          new CssPackingConverter(cssPath, cssPrefix),
-                                                          new LessPackingConverter(lessPath, lessNamespace));
+        // The spritesheet is generated last, so that the text outputs do not wait for the images to be decoded.
+        List<PackingConverter> converters = Arrays.<PackingConverter>asList(new JsonPackingConverter(jsonPath, jsonpVar),
+                                                                            new CssPackingConverter(cssPath, cssPrefix, outputPath, outputDensities),
+                                                                            new LessPackingConverter(lessPath, lessNamespace, outputPath, outputDensities));
 
         for (PackingConverter converter : converters) {
             executeConverter(images, imagePacking, converter);
         }
 
+        writeSpritesheets(images, imagePacking, outputDensities, outputPath, webpPath);
+        if (diskCache != null) {
+            diskCache.prune();
+        }
+
         long took = System.currentTimeMillis() - startTime;
         log("Done - took " + took + "ms!");
 
     }
 
-    // Allow tests to stub or verify the packing
+    /**
+     * Pack the images with the configured packing algorithm. Images with identical content share the same source, so only one of them is packed
+     * and all of them are placed at the same position. Tests may stub or verify the packing.
+     *
+     * @param images the images to pack
+     * @return the packing of all images
+     */
     protected ImagePacking packImages(List<NamedImage> images) {
-        return PackGrowing.fit(images, padding);
+        Map<ImageSource, Integer> originals = new IdentityHashMap<>(images.size());
+        List<NamedImage> uniqueImages = new ArrayList<>(images.size());
+        for (NamedImage image : images) {
+            if (!originals.containsKey(image.getSource())) {
+                originals.put(image.getSource(), uniqueImages.size());
+                uniqueImages.add(image);
+            }
+        }
+        Packer packer = packing.createPacker((maxWidth == null) ? 0 : maxWidth, getThreadCount(Integer.MAX_VALUE),
+                                             (packingTime == null) ? 0 : packingTime, getLog());
+        if (grid) {
+            packer = new GridPacker(packer);
+        }
+        if (uniqueImages.size() == images.size()) {
+            return pack(packer, images);
+        }
+
+        log("Packing " + uniqueImages.size() + " unique images, " + (images.size() - uniqueImages.size()) + " duplicates share their positions.");
+        ImagePacking uniquePacking = pack(packer, uniqueImages);
+        int[] x = new int[images.size()];
+        int[] y = new int[images.size()];
+        for (int i = 0; i < images.size(); i++) {
+            int original = originals.get(images.get(i).getSource());
+            x[i] = uniquePacking.getX(original);
+            y[i] = uniquePacking.getY(original);
+        }
+        return new ImagePacking(new Dimension(uniquePacking.getWidth(), uniquePacking.getHeight()), images, x, y);
+    }
+
+    /**
+     * Pack the images with a packer, and log the time it took and the share of the spritesheet covered by images.
+     *
+     * @param packer the packer
+     * @param images the images to pack
+     * @return the packing of the images
+     */
+    private ImagePacking pack(Packer packer, List<NamedImage> images) {
+        long startTime = System.nanoTime();
+        ImagePacking imagePacking = packer.pack(images, padding);
+        long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        long imageArea = 0;
+        for (NamedImage image : images) {
+            imageArea += (long) image.getWidth() * image.getHeight();
+        }
+        long sheetArea = (long) imagePacking.getWidth() * imagePacking.getHeight();
+        double fillRatio = (sheetArea == 0) ? 0 : 100.0 * imageArea / sheetArea;
+        log(String.format(Locale.ROOT, "Packed %d images into %dx%d pixels with %s in %dms, %.1f%% filled.",
+                          images.size(), imagePacking.getWidth(), imagePacking.getHeight(), packing, took, fillRatio));
+        return imagePacking;
+    }
+
+    /**
+     * Write the spritesheet of each pixel density. The spritesheets of several densities are drawn one after another
+     * from the same packing, with the positions and dimensions multiplied by the density, so that each converter can
+     * use all threads and only one spritesheet is held in memory at a time.
+     *
+     * @param images       the packed images in the base density
+     * @param imagePacking the packing in the base density
+     * @param densities    the pixel densities, starting with the base density 1
+     * @param outputPath   the spritesheet of the base density
+     * @param webpPath     the WebP spritesheet of the base density, or null
+     * @throws MojoExecutionException when any spritesheet cannot be written
+     */
+    private void writeSpritesheets(List<NamedImage> images, ImagePacking imagePacking, int[] densities, Path outputPath, Path webpPath)
+            throws MojoExecutionException {
+        if (densities.length == 1) {
+            executeConverter(images, imagePacking, createSpritesheetConverter(outputPath, webpPath));
+            return;
+        }
+
+        log("Drawing spritesheets for " + densities.length + " pixel densities...");
+        for (int density : densities) {
+            List<NamedImage> densityImages = (density == 1) ? images : scaleImages(images, density);
+            ImagePacking densityPacking = (density == 1) ? imagePacking : scalePacking(imagePacking, densityImages, density);
+            PackingConverter converter = createSpritesheetConverter(Utils.getDensityPath(outputPath, density),
+                                                                    Utils.getDensityPath(webpPath, density));
+            executeConverter(densityImages, densityPacking, converter);
+        }
+    }
+
+    /**
+     * Create the converter of a spritesheet with the configured compression.
+     *
+     * @param outputPath the spritesheet
+     * @param webpPath   the WebP spritesheet, or null
+     * @return the converter
+     * @throws MojoExecutionException when the compression is not configured correctly
+     */
+    private PackingConverter createSpritesheetConverter(Path outputPath, Path webpPath) throws MojoExecutionException {
+        return new SpritesheetPackingConverter(outputPath, new SpritesheetPackingConverter.Options()
+                .threads(getThreadCount(Integer.MAX_VALUE))
+                .compression(compression)
+                .compressionLevel(getCompressionLevel())
+                .banded(streaming)
+                .colorReduction(colorReduction)
+                .dithering(dithering)
+                .minQuality(getMinQuality())
+                .webpOutput(webpPath));
+    }
+
+    /**
+     * Get the images of a pixel density, whose dimensions are the dimensions in the base density multiplied by
+     * the density.
+     *
+     * @param images  the images in the base density, as grouped by {@link #groupDensities(List, List, int[])}
+     * @param density the pixel density
+     * @return        the images in that density, in the same order
+     */
+    private static List<NamedImage> scaleImages(List<NamedImage> images, int density) {
+        List<NamedImage> scaledImages = new ArrayList<>(images.size());
+        for (NamedImage image : images) {
+            ImageSource source = ((DensityImageSource) image.getSource()).getVariant(density);
+            scaledImages.add(new NamedImage(image.getName(), image.getWidth() * density, image.getHeight() * density, source));
+        }
+        return scaledImages;
+    }
+
+    /**
+     * Get the packing of a pixel density, whose positions and dimensions are the ones in the base density multiplied
+     * by the density.
+     *
+     * @param imagePacking the packing in the base density
+     * @param images       the images in that density, in the order of the packing
+     * @param density      the pixel density
+     * @return             the packing in that density
+     */
+    private static ImagePacking scalePacking(ImagePacking imagePacking, List<NamedImage> images, int density) {
+        int[] x = new int[images.size()];
+        int[] y = new int[images.size()];
+        for (int i = 0; i < images.size(); i++) {
+            x[i] = imagePacking.getX(i) * density;
+            y[i] = imagePacking.getY(i) * density;
+        }
+        return new ImagePacking(new Dimension(imagePacking.getWidth() * density, imagePacking.getHeight() * density), images, x, y);
     }
 
     // Allow tests to stub or verify converter execution
@@ -231,26 +569,500 @@ public class SpritePacker extends AbstractMojo {
     }
 
     /**
-     * Load list of image files as a list of NamedImages
+     * Load list of image files as a list of NamedImages. Only the image headers are read in parallel before this
+     * method returns, so that the images can be packed right away. The pixel data is decoded in the background and
+     * becomes available through {@link NamedImage#getImage()}, or in streaming mode it is decoded every time it is
+     * requested and not retained. If a cache directory is configured, unchanged images are read from the cache
+     * instead of being decoded. Outside of streaming mode, images decoded by any execution within the same build
+     * are reused from memory. The order of the resulting list matches the order of the image files.
+     * Loading stops as soon as any image header cannot be read.
      *
      * @param imageFiles the image files to load
      * @return the list of loaded NamedImages
      * @throws MojoExecutionException when any input image cannot be opened
      */
     protected List<NamedImage> loadImages(List<Path> imageFiles) throws MojoExecutionException {
+        if (imageFiles.isEmpty()) {
+            return new ArrayList<>();
+        }
+
         // Do not cache image data in temporary files.
         ImageIO.setUseCache(false);
 
-        List<NamedImage> images = new ArrayList<>(imageFiles.size());
-        for (Path f : imageFiles) {
-            try (InputStream inputStream = Files.newInputStream(f)) {
-                String basename = FileUtils.removeExtension(f.getFileName().toString());
-                images.add(new NamedImage(ImageIO.read(inputStream), basename));
-            } catch (IOException e) {
-                throw new MojoExecutionException("Failed to read image from file: " + f.toAbsolutePath(), e);
+        ExecutorService executor = newExecutor(imageFiles.size());
+        try {
+            List<Callable<Dimension>> probes = new ArrayList<>(imageFiles.size());
+            for (final Path f : imageFiles) {
+                probes.add(new Callable<Dimension>() {
+                    @Override
+                    public Dimension call() throws MojoExecutionException {
+                        return probeImage(f);
+                    }
+                });
+            }
+            List<Dimension> dimensions = invokeAll(executor, probes);
+
+            // Identical files share a single source, so that they are decoded and packed only once.
+            int[] originals = findDuplicates(executor, imageFiles);
+            diskCache = (cacheDirectory == null) ? null : new DiskImageCache(cacheDirectory.toPath());
+            SessionImageCache sessionCache = getSessionCache();
+            List<NamedImage> images = new ArrayList<>(imageFiles.size());
+            for (int i = 0; i < imageFiles.size(); i++) {
+                Path f = imageFiles.get(i);
+                Dimension dimension = dimensions.get(i);
+                ImageSource source;
+                if (originals[i] != i) {
+                    source = images.get(originals[i]).getSource();
+                } else {
+                    source = new FileImageSource(f, dimension);
+                    if (diskCache != null) {
+                        source = diskCache.cached(f, source);
+                    }
+                    if (!streaming) {
+                        if (sessionCache != null) {
+                            source = sessionCache.cached(f, source);
+                        }
+                        source = decodeInBackground(executor, source);
+                    }
+                }
+                images.add(new NamedImage(getBaseName(f), dimension.width, dimension.height, source));
+            }
+            return images;
+        } finally {
+            // pending decoding tasks are finished in the background
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Trim the fully transparent borders of the images. The images are decoded in parallel to find their visible
+     * content. Images which share a source also share the source of their trimmed image.
+     *
+     * @param images the images to trim
+     * @return the trimmed images, in the same order
+     * @throws MojoExecutionException when any image cannot be decoded
+     */
+    protected List<NamedImage> trimImages(List<NamedImage> images) throws MojoExecutionException {
+        Map<ImageSource, Integer> sourceIndices = new IdentityHashMap<>(images.size());
+        List<Callable<Rectangle>> boundsTasks = new ArrayList<>(images.size());
+        for (final NamedImage image : images) {
+            if (!sourceIndices.containsKey(image.getSource())) {
+                sourceIndices.put(image.getSource(), boundsTasks.size());
+                boundsTasks.add(new Callable<Rectangle>() {
+                    @Override
+                    public Rectangle call() throws MojoExecutionException {
+                        try {
+                            return Trimming.getContentBounds(image.getImage());
+                        } catch (IOException e) {
+                            throw new MojoExecutionException("Couldn't decode image " + image.getName() + ": " + e.getMessage(), e);
+                        }
+                    }
+                });
             }
         }
-        return images;
+        if (boundsTasks.isEmpty()) {
+            return images;
+        }
+
+        List<Rectangle> bounds;
+        ExecutorService executor = newExecutor(boundsTasks.size());
+        try {
+            bounds = invokeAll(executor, boundsTasks);
+        } finally {
+            executor.shutdown();
+        }
+
+        Map<ImageSource, ImageSource> trimmedSources = new IdentityHashMap<>(sourceIndices.size());
+        List<NamedImage> trimmedImages = new ArrayList<>(images.size());
+        for (NamedImage image : images) {
+            Rectangle imageBounds = bounds.get(sourceIndices.get(image.getSource()));
+            Dimension originalSize = new Dimension(image.getWidth(), image.getHeight());
+            if (imageBounds.getSize().equals(originalSize)) {
+                trimmedImages.add(image);
+                continue;
+            }
+            ImageSource trimmedSource = trimmedSources.get(image.getSource());
+            if (trimmedSource == null) {
+                trimmedSource = new CroppedImageSource(image.getSource(), imageBounds);
+                trimmedSources.put(image.getSource(), trimmedSource);
+            }
+            trimmedImages.add(new NamedImage(image.getName(), originalSize, imageBounds, trimmedSource));
+        }
+        return trimmedImages;
+    }
+
+    /**
+     * Group the images of the same name in several pixel densities into a single image in the base density 1.
+     * An image in density 2 has the same name as the image in the base density and the density suffix "@2x", and
+     * is in the same directory. The dimensions in the base density are the ones of the image without density suffix,
+     * or else the ones of the image in the highest density divided by that density. Each density is drawn from the
+     * image in that density, or else the image in the highest density is scaled to that density. Images in the same
+     * densities which share all their sources also share their grouped source.
+     *
+     * @param imageFiles the image files
+     * @param images     the loaded images, in the order of the image files
+     * @param densities  the pixel densities of the spritesheets, starting with the base density 1
+     * @return           the grouped images in the base density, in the order of their first image file, with
+     *                   a {@link DensityImageSource} for the densities of the spritesheets
+     * @throws MojoExecutionException when several images have the same name and density
+     */
+    protected List<NamedImage> groupDensities(List<Path> imageFiles, List<NamedImage> images, int[] densities) throws MojoExecutionException {
+        Map<Path, SortedMap<Integer, NamedImage>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < images.size(); i++) {
+            NamedImage image = images.get(i);
+            String name = image.getName();
+            int density = 1;
+            Matcher matcher = DENSITY_SUFFIX.matcher(name);
+            if (matcher.matches()) {
+                name = matcher.group(1);
+                density = Integer.parseInt(matcher.group(2));
+            }
+            Path key = imageFiles.get(i).resolveSibling(name);
+            SortedMap<Integer, NamedImage> variants = groups.get(key);
+            if (variants == null) {
+                variants = new TreeMap<>();
+                groups.put(key, variants);
+            }
+            if (variants.put(density, image) != null) {
+                throw new MojoExecutionException("Found several images " + key + " in density " + density);
+            }
+        }
+
+        Map<List<ImageSource>, DensityImageSource> groupedSources = new HashMap<>(groups.size());
+        Map<List<Object>, ImageSource> scaledSources = new HashMap<>();
+        List<NamedImage> grouped = new ArrayList<>(groups.size());
+        for (Map.Entry<Path, SortedMap<Integer, NamedImage>> group : groups.entrySet()) {
+            SortedMap<Integer, NamedImage> variants = group.getValue();
+            int highestDensity = variants.lastKey();
+            NamedImage highest = variants.get(highestDensity);
+            NamedImage base = variants.get(1);
+            int width = (base != null) ? base.getWidth() : Math.max(1, Math.round((float) highest.getWidth() / highestDensity));
+            int height = (base != null) ? base.getHeight() : Math.max(1, Math.round((float) highest.getHeight() / highestDensity));
+
+            List<ImageSource> sources = new ArrayList<>(densities.length);
+            for (int density : densities) {
+                Dimension size = new Dimension(width * density, height * density);
+                NamedImage variant = variants.get(density);
+                if (variant != null && variant.getWidth() == size.width && variant.getHeight() == size.height) {
+                    sources.add(variant.getSource());
+                    continue;
+                }
+                if (variant != null) {
+                    getLog().warn("Scaling image " + group.getKey() + " in density " + density + " from " + variant.getWidth() + "x"
+                                  + variant.getHeight() + " to " + size.width + "x" + size.height + " pixels.");
+                } else {
+                    variant = highest;
+                    if (highestDensity < density) {
+                        getLog().warn("Scaling image " + group.getKey() + " up from density " + highestDensity + " to density " + density + ".");
+                    }
+                }
+                // images in the same density which are scaled from the same source share the scaled source
+                List<Object> scaledKey = Arrays.<Object>asList(variant.getSource(), size);
+                ImageSource scaled = scaledSources.get(scaledKey);
+                if (scaled == null) {
+                    scaled = new ScaledImageSource(variant.getSource(), size);
+                    scaledSources.put(scaledKey, scaled);
+                }
+                sources.add(scaled);
+            }
+
+            DensityImageSource source = groupedSources.get(sources);
+            if (source == null) {
+                Map<Integer, ImageSource> densitySources = new TreeMap<>();
+                for (int i = 0; i < densities.length; i++) {
+                    densitySources.put(densities[i], sources.get(i));
+                }
+                source = new DensityImageSource(densitySources);
+                groupedSources.put(sources, source);
+            }
+            grouped.add(new NamedImage(group.getKey().getFileName().toString(), width, height, source));
+        }
+        log("Grouped " + images.size() + " images into " + grouped.size() + " images in " + densities.length + " pixel densities, "
+            + scaledSources.size() + " of them are scaled.");
+        return grouped;
+    }
+
+    /**
+     * Read the dimensions of a single image file from its header.
+     *
+     * @param imageFile the image file to probe
+     * @return the dimensions of the image
+     * @throws MojoExecutionException when the image cannot be opened
+     */
+    protected Dimension probeImage(Path imageFile) throws MojoExecutionException {
+        try {
+            return ImageFiles.probe(imageFile);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read image from file: " + imageFile.toAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Get the in-memory image cache of the current build. Sessions may be cloned for each module of a build,
+     * so the cache is bound to the execution request, which all modules share.
+     *
+     * @return the cache of the current build, or null if it is disabled
+     */
+    private SessionImageCache getSessionCache() {
+        if (session == null || sessionCacheSize == null || sessionCacheSize <= 0) {
+            return null;
+        }
+        return SessionImageCache.forBuild(session.getRequest(), sessionCacheSize * BYTES_PER_MEGABYTE);
+    }
+
+    /**
+     * Find image files with identical content. Only files that have the same size as any other file are hashed.
+     *
+     * @param executor   the executor to hash the files
+     * @param imageFiles the image files to compare
+     * @return for each image file the index of the first image file with identical content
+     * @throws MojoExecutionException when any image file cannot be read
+     */
+    private static int[] findDuplicates(ExecutorService executor, List<Path> imageFiles) throws MojoExecutionException {
+        long[] sizes = new long[imageFiles.size()];
+        Map<Long, Integer> sizeCounts = new HashMap<>(imageFiles.size());
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = getSize(imageFiles.get(i));
+            Integer count = sizeCounts.get(sizes[i]);
+            sizeCounts.put(sizes[i], count == null ? 1 : count + 1);
+        }
+
+        List<Integer> candidates = new ArrayList<>();
+        List<Callable<HashCode>> hashTasks = new ArrayList<>();
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizeCounts.get(sizes[i]) > 1) {
+                final Path f = imageFiles.get(i);
+                candidates.add(i);
+                hashTasks.add(new Callable<HashCode>() {
+                    @Override
+                    public HashCode call() throws MojoExecutionException {
+                        return hashContent(f);
+                    }
+                });
+            }
+        }
+        List<HashCode> hashes = invokeAll(executor, hashTasks);
+
+        int[] originals = new int[sizes.length];
+        for (int i = 0; i < originals.length; i++) {
+            originals[i] = i;
+        }
+        Map<HashCode, Integer> firstIndices = new HashMap<>(hashes.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            Integer first = firstIndices.get(hashes.get(i));
+            if (first == null) {
+                firstIndices.put(hashes.get(i), candidates.get(i));
+            } else {
+                originals[candidates.get(i)] = first;
+            }
+        }
+        return originals;
+    }
+
+    /**
+     * Get the size of an image file.
+     *
+     * @param imageFile the image file
+     * @return the size of the image file in bytes
+     * @throws MojoExecutionException when the size cannot be read
+     */
+    private static long getSize(Path imageFile) throws MojoExecutionException {
+        try {
+            return Files.size(imageFile);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read image from file: " + imageFile.toAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Hash the content of an image file.
+     *
+     * @param imageFile the image file
+     * @return the hash of the file content
+     * @throws MojoExecutionException when the file cannot be read
+     */
+    private static HashCode hashContent(Path imageFile) throws MojoExecutionException {
+        try {
+            return Hashing.sha256().hashBytes(Files.readAllBytes(imageFile));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read image from file: " + imageFile.toAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Start decoding an image in the background.
+     *
+     * @param executor the executor to decode the image
+     * @param source   the source of the image to decode
+     * @return an ImageSource that provides the decoded image as soon as decoding is finished
+     */
+    private static ImageSource decodeInBackground(ExecutorService executor, final ImageSource source) {
+        return new FutureImageSource(executor.submit(new Callable<BufferedImage>() {
+            @Override
+            public BufferedImage call() throws IOException {
+                return source.read();
+            }
+        }));
+    }
+
+    /**
+     * Get the name of an image file without its extension.
+     *
+     * @param imageFile the image file
+     * @return the name of the image file without extension
+     */
+    protected String getBaseName(Path imageFile) {
+        return FileUtils.removeExtension(imageFile.getFileName().toString());
+    }
+
+    /**
+     * Execute all tasks and return their results in the order of the tasks. As soon as any task fails,
+     * the remaining tasks are cancelled and the exception of the failed task is rethrown.
+     *
+     * @param executor the executor to run the tasks
+     * @param tasks    the tasks to execute
+     * @param <T>      the result type of the tasks
+     * @return the results of the tasks
+     * @throws MojoExecutionException when any task fails
+     */
+    private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) throws MojoExecutionException {
+        CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<T>, Integer> indices = new HashMap<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            indices.put(completionService.submit(task), indices.size());
+        }
+
+        List<T> results = new ArrayList<>(Collections.<T>nCopies(tasks.size(), null));
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                Future<T> future = completionService.take();
+                results.set(indices.get(future), getResult(future));
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while loading images", e);
+        } finally {
+            for (Future<T> future : indices.keySet()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Get the result of a completed task, rethrowing the exception it failed with.
+     *
+     * @param future the completed task
+     * @param <T>    the result type of the task
+     * @return the result of the task
+     * @throws MojoExecutionException when the task failed
+     * @throws InterruptedException   when the current thread was interrupted
+     */
+    private static <T> T getResult(Future<T> future) throws MojoExecutionException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.propagateIfPossible(cause, MojoExecutionException.class);
+            throw new MojoExecutionException("Failed to load images", cause);
+        }
+    }
+
+    /**
+     * Create an executor with a bounded number of worker threads for the given number of tasks.
+     * The executor must be shut down after the tasks were submitted.
+     *
+     * @param tasks the number of tasks to be executed
+     * @return the new executor
+     */
+    private ExecutorService newExecutor(int tasks) {
+        return Executors.newFixedThreadPool(getThreadCount(tasks), Utils.THREAD_FACTORY);
+    }
+
+    /**
+     * Get the number of threads to use for the given number of tasks, which is the configured number of threads
+     * or the number of available processors if not configured, but never more than the number of tasks.
+     *
+     * @param tasks the number of tasks to be executed
+     * @return the number of threads to use
+     */
+    int getThreadCount(int tasks) {
+        int configured = (threads == null || threads < 1) ? Runtime.getRuntime().availableProcessors() : threads;
+        return Math.max(1, Math.min(configured, tasks));
+    }
+
+    /**
+     * Get the configured compression level of the spritesheet, or the level of the compression preset if not configured.
+     *
+     * @return the compression level
+     * @throws MojoExecutionException when the compression level is not between 0 and 9
+     */
+    int getCompressionLevel() throws MojoExecutionException {
+        if (compressionLevel == null) {
+            return compression.getLevel();
+        }
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new MojoExecutionException("The compression level must be between 0 and 9: " + compressionLevel);
+        }
+        return compressionLevel;
+    }
+
+    /**
+     * Get the configured minimum quality of a quantized spritesheet, or 0 if not configured.
+     *
+     * @return the minimum quality
+     * @throws MojoExecutionException when the minimum quality is not between 0 and 100
+     */
+    int getMinQuality() throws MojoExecutionException {
+        if (minQuality == null) {
+            return 0;
+        }
+        if (minQuality < 0 || minQuality > 100) {
+            throw new MojoExecutionException("The minimum quality must be between 0 and 100: " + minQuality);
+        }
+        return minQuality;
+    }
+
+    /**
+     * Get the path of the WebP spritesheet.
+     *
+     * @return the path, or null if no WebP spritesheet is written
+     * @throws MojoExecutionException when a WebP spritesheet is configured in streaming mode
+     */
+    Path getWebpPath() throws MojoExecutionException {
+        if (webp != null && streaming) {
+            throw new MojoExecutionException("A WebP spritesheet cannot be written in streaming mode.");
+        }
+        return fileToPath(webp);
+    }
+
+    /**
+     * Get the pixel densities of the spritesheets.
+     *
+     * @return the base density 1, followed by the configured densities in ascending order
+     * @throws MojoExecutionException when a density is not between 1 and 99, or several densities are configured
+     *                                together with trimming
+     */
+    int[] getDensities() throws MojoExecutionException {
+        SortedSet<Integer> all = new TreeSet<>();
+        all.add(1);
+        if (densities != null) {
+            for (Integer density : densities) {
+                if (density == null || density < 1 || density > MAX_DENSITY) {
+                    throw new MojoExecutionException("The densities must be between 1 and " + MAX_DENSITY + ": " + density);
+                }
+                all.add(density);
+            }
+        }
+        if (all.size() > 1 && trim) {
+            throw new MojoExecutionException("Images cannot be trimmed when spritesheets for several densities are written.");
+        }
+        int[] result = new int[all.size()];
+        int i = 0;
+        for (int density : all) {
+            result[i++] = density;
+        }
+        return result;
     }
 
     public void log(Object message) {
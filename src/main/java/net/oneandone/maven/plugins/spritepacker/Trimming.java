@@ -0,0 +1,79 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Utility methods for trimming the fully transparent borders of images.
+ *
+ * @author ssiegler
+ */
+public class Trimming {
+    /**
+     * Avoid instantiation of utility class
+     */
+    private Trimming() {}
+
+    /**
+     * Find the smallest rectangle that contains all pixels of an image which are not fully transparent.
+     * For a completely transparent image this is the top left pixel, so that the trimmed image is never empty.
+     *
+     * @param image the image to examine
+     * @return      the bounds of the visible content of the image
+     */
+    public static Rectangle getContentBounds(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+
+        int top = 0;
+        while (top < height && isTransparentRow(image, top, row)) {
+            top++;
+        }
+        if (top == height) {
+            return new Rectangle(0, 0, 1, 1);
+        }
+
+        int bottom = height - 1;
+        while (isTransparentRow(image, bottom, row)) {
+            bottom--;
+        }
+
+        int left = width;
+        int right = -1;
+        for (int y = top; y <= bottom; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < left; x++) {
+                if (row[x] >>> 24 != 0) {
+                    left = x;
+                    break;
+                }
+            }
+            for (int x = width - 1; x > right; x--) {
+                if (row[x] >>> 24 != 0) {
+                    right = x;
+                    break;
+                }
+            }
+        }
+        return new Rectangle(left, top, right - left + 1, bottom - top + 1);
+    }
+
+    /**
+     * Check if a row of an image is fully transparent.
+     *
+     * @param image the image to examine
+     * @param y     the row to check
+     * @param row   buffer for the pixels of the row
+     * @return      whether all pixels of the row are fully transparent
+     */
+    private static boolean isTransparentRow(BufferedImage image, int y, int[] row) {
+        image.getRGB(0, y, row.length, 1, row, 0, row.length);
+        for (int pixel : row) {
+            if (pixel >>> 24 != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
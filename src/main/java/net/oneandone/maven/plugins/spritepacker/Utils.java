@@ -1,10 +1,13 @@
 package net.oneandone.maven.plugins.spritepacker;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Utility methods that do not fit into specialized classes.
@@ -12,6 +15,12 @@ import java.util.Objects;
  * @author ssiegler
  */
 public class Utils {
+    /**
+     * The factory of all threads of the plugin, which are named "spritepacker-0", "spritepacker-1", etc. and do not
+     * keep the JVM running.
+     */
+    public static final ThreadFactory THREAD_FACTORY = new ThreadFactoryBuilder().setNameFormat("spritepacker-%d").setDaemon(true).build();
+
     /**
      * Avoid instantiation of utility class
      */
@@ -52,4 +61,24 @@ public class Utils {
 
         return false;
     }
+
+    /**
+     * Get the path of an output file for a pixel density other than 1, which has the density suffix "@2x", "@3x",
+     * etc. inserted before the extension of the file name, e.g. "sprite@2x.png" for "sprite.png".
+     *
+     * @param path      the path of the output file for the base density 1, or null
+     * @param density   the pixel density
+     * @return          the path of the output file for the density, or null if path is null
+     */
+    public static Path getDensityPath(Path path, int density) {
+        if (path == null || density == 1) {
+            return path;
+        }
+        String name = path.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        if (extension <= 0) {
+            extension = name.length();
+        }
+        return path.resolveSibling(name.substring(0, extension) + "@" + density + "x" + name.substring(extension));
+    }
 }
@@ -45,6 +45,13 @@ public abstract class AbstractTextConverter implements PackingConverter {
         log.info("Generating " + type + " output...");
 
         String output = createOutput(imageList, imagePacking, log);
+        Path directory = file.toAbsolutePath().getParent();
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Couldn't create target directory: " + directory, e);
+        }
+
         try {
             log.info("Saving " + type + " to file " + file.toAbsolutePath());
             // Ensure that all line endings use the system specific line separator.
@@ -75,6 +82,50 @@ public abstract class AbstractTextConverter implements PackingConverter {
         return i == 0 ? "0" : i + "px";
     }
 
+    /**
+     * Get the CSS padding that compensates for the trimmed transparent borders of an image, so that an element
+     * with the size of the trimmed image has the size of the original image.
+     *
+     * @param image the trimmed image
+     * @return      the padding value for the top, right, bottom and left side
+     */
+    protected static String getTrimPadding(NamedImage image) {
+        int top = image.getOffsetY();
+        int right = image.getOriginalWidth() - image.getWidth() - image.getOffsetX();
+        int bottom = image.getOriginalHeight() - image.getHeight() - image.getOffsetY();
+        int left = image.getOffsetX();
+        return intToPixel(top) + " " + intToPixel(right) + " " + intToPixel(bottom) + " " + intToPixel(left);
+    }
+
+    /**
+     * Get the URL of a file relative to the directory of the output file, e.g. to reference a spritesheet from a
+     * stylesheet, as quoted CSS string.
+     *
+     * @param target    the file to reference
+     * @return          the quoted relative URL
+     */
+    protected String getRelativeUrl(Path target) {
+        Path relative = file.toAbsolutePath().getParent().relativize(target.toAbsolutePath());
+        StringBuilder url = new StringBuilder("\"");
+        for (Path name : relative) {
+            if (url.length() > 1) {
+                url.append('/');
+            }
+            url.append(name.toString().replace("\\", "\\\\").replace("\"", "\\\""));
+        }
+        return url.append('"').toString();
+    }
+
+    /**
+     * Get the media query that matches screens with at least the given pixel density.
+     *
+     * @param density   the pixel density
+     * @return          the media query, without a block
+     */
+    protected static String getMediaQuery(int density) {
+        return "@media (-webkit-min-device-pixel-ratio:" + density + "),(min-resolution:" + density + "dppx)";
+    }
+
     /**
      * Sanitize name for use in CSS or Less by removing all characters that are not letters, numbers
      * hyphens or underscores.
@@ -0,0 +1,172 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+/**
+ * Counts the pixels of each ARGB colour in an open addressing hash table of ints. Fully transparent pixels all count
+ * as the same colour. If there are more colours than the table is allowed to hold, the low bits of the red, green
+ * and blue channels are dropped until they fit, so that the histogram of a sheet with millions of pixels stays small.
+ *
+ * @author ssiegler
+ */
+final class ColorHistogram {
+    private static final int DEFAULT_CAPACITY = 1 << 12;
+
+    private final int maxColors;
+    private int[] colors;
+    // the number of pixels of the colour in the same slot, 0 marks empty slots
+    private int[] counts;
+    private int size;
+    private int droppedBits;
+    private int channelMask = 0xffffffff;
+
+    /**
+     * Create an empty histogram.
+     *
+     * @param maxColors the maximum number of colours before the precision of the colours is reduced
+     */
+    ColorHistogram(int maxColors) {
+        if (maxColors < 1) {
+            throw new IllegalArgumentException("The number of colours must be positive: " + maxColors);
+        }
+        this.maxColors = maxColors;
+        int capacity = Math.min(DEFAULT_CAPACITY, Integer.highestOneBit(maxColors * 2 - 1) * 2);
+        this.colors = new int[capacity];
+        this.counts = new int[capacity];
+    }
+
+    /**
+     * Count the colours of a range of pixels.
+     *
+     * @param pixels the ARGB pixels
+     * @param offset the index of the first pixel
+     * @param length the number of pixels
+     */
+    void addAll(int[] pixels, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            // neighbouring pixels mostly have the same colour
+            int color = pixels[i];
+            int run = i + 1;
+            while (run < end && pixels[run] == color) {
+                run++;
+            }
+            add(color, run - i);
+            i = run;
+        }
+    }
+
+    /**
+     * Count pixels of a colour.
+     *
+     * @param color the ARGB colour
+     * @param count the number of pixels
+     */
+    void add(int color, int count) {
+        int key = getKey(color);
+        int slot = find(key);
+        if (counts[slot] != 0) {
+            counts[slot] += count;
+            return;
+        }
+        colors[slot] = key;
+        counts[slot] = count;
+        size++;
+        if (size > maxColors) {
+            while (size > maxColors && droppedBits < 8) {
+                droppedBits++;
+                int mask = 0xff >>> droppedBits << droppedBits;
+                channelMask = 0xff000000 | mask << 16 | mask << 8 | mask;
+                rehash(colors.length);
+            }
+        } else if (size * 2 > colors.length) {
+            rehash(colors.length * 2);
+        }
+    }
+
+    /**
+     * @return the number of colours
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of low bits dropped from the red, green and blue channels
+     */
+    int getDroppedBits() {
+        return droppedBits;
+    }
+
+    /**
+     * Get the colours. Dropped bits are filled with the high bits of their channel, so that the darkest and
+     * brightest values of each channel keep their values.
+     *
+     * @return the ARGB colours, in the same order as their counts
+     */
+    int[] getColors() {
+        int droppedMask = ~channelMask & 0x00ffffff;
+        int[] result = new int[size];
+        int i = 0;
+        for (int slot = 0; slot < colors.length; slot++) {
+            if (counts[slot] != 0) {
+                int color = colors[slot];
+                result[i++] = (color == 0) ? 0 : color | (color >>> (8 - droppedBits) & droppedMask);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of pixels of each colour, in the same order as the colours
+     */
+    int[] getCounts() {
+        int[] result = new int[size];
+        int i = 0;
+        for (int slot = 0; slot < colors.length; slot++) {
+            if (counts[slot] != 0) {
+                result[i++] = counts[slot];
+            }
+        }
+        return result;
+    }
+
+    private int getKey(int color) {
+        if (color >>> 24 == 0) {
+            return 0;
+        }
+        return color & channelMask;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldColors = colors;
+        int[] oldCounts = counts;
+        colors = new int[capacity];
+        counts = new int[capacity];
+        size = 0;
+        for (int slot = 0; slot < oldColors.length; slot++) {
+            if (oldCounts[slot] != 0) {
+                int key = getKey(oldColors[slot]);
+                int newSlot = find(key);
+                if (counts[newSlot] == 0) {
+                    colors[newSlot] = key;
+                    size++;
+                }
+                counts[newSlot] += oldCounts[slot];
+            }
+        }
+    }
+
+    private int find(int color) {
+        int mask = colors.length - 1;
+        int slot = mix(color) & mask;
+        while (counts[slot] != 0 && colors[slot] != color) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(int color) {
+        int hash = color * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+}
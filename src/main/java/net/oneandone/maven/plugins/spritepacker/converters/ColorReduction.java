@@ -0,0 +1,23 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+/**
+ * The reductions of the colours of a spritesheet that can be selected for its PNG file
+ *
+ * @author ssiegler
+ */
+public enum ColorReduction {
+    /**
+     * Always write 8 bit RGBA
+     */
+    NONE,
+    /**
+     * Write the smallest format that holds every pixel without any loss: a palette if the spritesheet has no more
+     * than 256 colours, grey if all pixels are grey, and no alpha channel if all pixels are opaque
+     */
+    LOSSLESS,
+    /**
+     * Reduce the colours of the spritesheet to a palette of up to 256 colours with a small loss, unless a lossless
+     * format stores no more than a byte per pixel
+     */
+    QUANTIZE
+}
@@ -0,0 +1,65 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+/**
+ * Scans the pixels of a spritesheet in a single pass for the smallest PNG format that represents each of them
+ * exactly: whether all pixels are opaque, whether all are grey, and whether their colours fit into a palette.
+ * The scan stops looking at pixels as soon as none of these can hold any more.
+ *
+ * @author ssiegler
+ */
+final class ColorScan {
+    private static final int ALPHA_OPAQUE = 0xff000000;
+
+    private ColorTable colors = new ColorTable(PngFormat.MAX_PALETTE_SIZE);
+    private boolean opaque = true;
+    private boolean grey = true;
+
+    /**
+     * Scan a range of pixels.
+     *
+     * @param pixels the ARGB pixels
+     * @param offset the index of the first pixel
+     * @param length the number of pixels
+     */
+    void scan(int[] pixels, int offset, int length) {
+        if (isDone()) {
+            return;
+        }
+        if (colors != null && !colors.addAll(pixels, offset, length)) {
+            colors = null;
+        }
+        for (int i = offset, end = offset + length; i < end && (opaque || grey); i++) {
+            int pixel = pixels[i];
+            opaque &= (pixel & ALPHA_OPAQUE) == ALPHA_OPAQUE;
+            int blue = pixel & 0xff;
+            grey &= ((pixel >>> 16) & 0xff) == blue && ((pixel >>> 8) & 0xff) == blue;
+        }
+    }
+
+    /**
+     * @return true if no further pixels can change the result of the scan
+     */
+    boolean isDone() {
+        return colors == null && !opaque && !grey;
+    }
+
+    /**
+     * Get the smallest PNG format for the scanned pixels. A palette is preferred if it packs several pixels into a
+     * byte, or if it stores fewer bytes per pixel than grey or RGB.
+     *
+     * @return the PNG format
+     */
+    PngFormat getFormat() {
+        PngFormat indexed = (colors == null) ? null : PngFormat.indexed(colors);
+        PngFormat direct;
+        if (grey) {
+            direct = opaque ? PngFormat.GREY : PngFormat.GREY_ALPHA;
+        } else {
+            direct = opaque ? PngFormat.RGB : PngFormat.RGBA;
+        }
+        if (indexed != null && indexed.getBitsPerPixel() < direct.getBitsPerPixel()) {
+            return indexed;
+        }
+        return direct;
+    }
+}
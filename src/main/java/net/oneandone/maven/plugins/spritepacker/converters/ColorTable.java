@@ -0,0 +1,128 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import java.util.Arrays;
+
+/**
+ * A set of up to a limited number of ARGB colours, which become the entries of a palette. The colours are kept in an
+ * open addressing hash table of ints, so that counting the colours of millions of pixels does not box any of them.
+ *
+ * @author ssiegler
+ */
+final class ColorTable {
+    private final int limit;
+    private final int mask;
+    private final int[] colors;
+    // the palette index of the colour in the same slot plus one, 0 marks empty slots
+    private final int[] entries;
+    private int size;
+
+    /**
+     * Create an empty colour table.
+     *
+     * @param limit the maximum number of colours
+     */
+    ColorTable(int limit) {
+        this.limit = limit;
+        int capacity = Integer.highestOneBit(Math.max(1, limit) * 4 - 1);
+        this.mask = capacity - 1;
+        this.colors = new int[capacity];
+        this.entries = new int[capacity];
+    }
+
+    /**
+     * Add a colour.
+     *
+     * @param color the ARGB colour
+     * @return      false if the colour is new and the table already holds the maximum number of colours
+     */
+    boolean add(int color) {
+        int slot = find(color);
+        if (entries[slot] != 0) {
+            return true;
+        }
+        if (size == limit) {
+            return false;
+        }
+        colors[slot] = color;
+        entries[slot] = ++size;
+        return true;
+    }
+
+    /**
+     * Add the colours of a range of pixels.
+     *
+     * @param pixels the ARGB pixels
+     * @param offset the index of the first pixel
+     * @param length the number of pixels
+     * @return       false if the pixels have more colours than the table can hold
+     */
+    boolean addAll(int[] pixels, int offset, int length) {
+        int previous = 0;
+        boolean first = true;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            // neighbouring pixels mostly have the same colour
+            int color = pixels[i];
+            if ((first || color != previous) && !add(color)) {
+                return false;
+            }
+            previous = color;
+            first = false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of colours
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the palette index of a colour.
+     *
+     * @param color the ARGB colour
+     * @return      the index of the colour in the palette, -1 if the table does not contain it
+     */
+    int indexOf(int color) {
+        return entries[find(color)] - 1;
+    }
+
+    /**
+     * Get the colours as palette and assign their indices. Translucent colours come first, so that the alpha
+     * values of the trailing opaque colours can be left out of the PNG transparency chunk.
+     *
+     * @return the ARGB colours of the palette in the order of their indices
+     */
+    int[] createPalette() {
+        long[] keys = new long[size];
+        int count = 0;
+        for (int slot = 0; slot < colors.length; slot++) {
+            if (entries[slot] != 0) {
+                int color = colors[slot];
+                long opaque = (color >>> 24 == 0xff) ? 1L << 32 : 0;
+                keys[count++] = opaque | (color & 0xffffffffL);
+            }
+        }
+        Arrays.sort(keys);
+        int[] palette = new int[size];
+        for (int i = 0; i < size; i++) {
+            palette[i] = (int) keys[i];
+            entries[find(palette[i])] = i + 1;
+        }
+        return palette;
+    }
+
+    private int find(int color) {
+        int slot = mix(color) & mask;
+        while (entries[slot] != 0 && colors[slot] != color) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(int color) {
+        int hash = color * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -2,21 +2,28 @@ package net.oneandone.maven.plugins.spritepacker.converters;
 
 import net.oneandone.maven.plugins.spritepacker.ImagePacking;
 import net.oneandone.maven.plugins.spritepacker.NamedImage;
+import net.oneandone.maven.plugins.spritepacker.Utils;
 import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.StringUtils;
 
-import java.awt.Point;
 import java.nio.file.Path;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Converts ImagePacking to a CSS file, with the result that each icon gets its own class containing
- * background-position, width and height of the icon.
+ * background-position, width and height of the icon. Trimmed icons additionally get a padding that restores
+ * their original size. If spritesheets for several pixel densities are written, all icon classes get the
+ * spritesheet as background image with the size of the base spritesheet, and media queries replace it with the
+ * spritesheet of the highest density the screen supports.
  *
  * @author mklein
  */
 public class CssPackingConverter extends AbstractTextConverter {
     final String cssPrefix;
+    private final Path spritesheet;
+    private final int[] densities;
 
     /**
      * Create a CSS converter with output file css and class prefix cssPrefix.
@@ -25,8 +32,23 @@ public class CssPackingConverter extends AbstractTextConverter {
      * @param cssPrefix the CSS class prefix for each icon class
      */
     public CssPackingConverter(Path css, String cssPrefix) {
+        this(css, cssPrefix, null, new int[] {1});
+    }
+
+    /**
+     * Create a CSS converter with output file css and class prefix cssPrefix, which references the spritesheets
+     * of several pixel densities.
+     *
+     * @param css         the output CSS file to write to
+     * @param cssPrefix   the CSS class prefix for each icon class
+     * @param spritesheet the spritesheet of the base density 1, whose path has a density suffix for other densities
+     * @param densities   the pixel densities of the spritesheets in ascending order, starting with 1
+     */
+    public CssPackingConverter(Path css, String cssPrefix, Path spritesheet, int[] densities) {
         super(css, "CSS");
         this.cssPrefix = fixFirstChar(sanitize(cssPrefix));
+        this.spritesheet = spritesheet;
+        this.densities = densities.clone();
     }
 
     /**
@@ -40,19 +62,51 @@ public class CssPackingConverter extends AbstractTextConverter {
     @Override
     protected String createOutput(List<NamedImage> imageList, ImagePacking imagePacking, Log log) {
         StringBuilder sb = new StringBuilder("/* this file is generated by the sprite packer. don't make any changes in here! */\n");
-        for (NamedImage image : imageList) {
+        if (spritesheet != null && densities.length > 1) {
+            appendDensityRules(sb, imageList, imagePacking);
+        }
+        for (int i = 0; i < imageList.size(); i++) {
+            NamedImage image = imageList.get(i);
             String name = getCssClassName(cssPrefix, image.getName());
-            Point position = imagePacking.getPosition(image);
-            String x = intToPixel(-position.x);
-            String y = intToPixel(-position.y);
+            String x = intToPixel(-imagePacking.getX(i));
+            String y = intToPixel(-imagePacking.getY(i));
             String width = intToPixel(image.getWidth());
             String height = intToPixel(image.getHeight());
             sb.append(".").append(name).append("{background-position:").append(x).append(" ").append(y).append(";")
-                    .append("width:").append(width).append(";height:").append(height).append(";}\n");
+                    .append("width:").append(width).append(";height:").append(height).append(";");
+            if (image.isTrimmed()) {
+                // the padding restores the original size, and the background is positioned within the content box only
+                sb.append("box-sizing:content-box;padding:").append(getTrimPadding(image)).append(";")
+                  .append("background-origin:content-box;background-clip:content-box;");
+            }
+            sb.append("}\n");
         }
         return sb.toString();
     }
 
+    /**
+     * Append the rules which set the spritesheet of the highest pixel density the screen supports as background
+     * image of all icon classes, scaled to the size of the base spritesheet.
+     *
+     * @param sb           the CSS output
+     * @param imageList    the list of images
+     * @param imagePacking the ImagePacking of the base spritesheet
+     */
+    private void appendDensityRules(StringBuilder sb, List<NamedImage> imageList, ImagePacking imagePacking) {
+        Set<String> names = new LinkedHashSet<>(imageList.size());
+        for (NamedImage image : imageList) {
+            names.add("." + getCssClassName(cssPrefix, image.getName()));
+        }
+        String selector = StringUtils.join(names.iterator(), ",");
+        sb.append(selector).append("{background-image:url(").append(getRelativeUrl(spritesheet)).append(");")
+          .append("background-size:").append(intToPixel(imagePacking.getWidth())).append(" ")
+          .append(intToPixel(imagePacking.getHeight())).append(";}\n");
+        for (int i = 1; i < densities.length; i++) {
+            sb.append(getMediaQuery(densities[i])).append("{").append(selector).append("{background-image:url(")
+              .append(getRelativeUrl(Utils.getDensityPath(spritesheet, densities[i]))).append(");}}\n");
+        }
+    }
+
     /**
      * Sanitize, prefix, and fix first character of a CSS class name
      *
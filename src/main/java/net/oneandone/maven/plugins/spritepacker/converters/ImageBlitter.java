@@ -0,0 +1,101 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Copies images into the pixels of a spritesheet of type TYPE_INT_ARGB without going through Java2D. Images with
+ * int ARGB or RGB pixels, such as the images of the disk cache, are copied row by row with {@link System#arraycopy}.
+ * Other colour models are left to Java2D: its native conversion loops beat a conversion in Java for all but the
+ * smallest images, and its conversions (for example of grey images) differ from a plain lookup of the colour.
+ *
+ * @author ssiegler
+ */
+final class ImageBlitter {
+    private static final int OPAQUE = 0xff000000;
+    private static final int ARGB_ALPHA_MASK = 0xff000000;
+    private static final int ARGB_RED_MASK = 0x00ff0000;
+    private static final int ARGB_GREEN_MASK = 0x0000ff00;
+    private static final int ARGB_BLUE_MASK = 0x000000ff;
+
+    /**
+     * Avoid instantiation of utility class
+     */
+    private ImageBlitter() {}
+
+    /**
+     * Get the pixels of a spritesheet.
+     *
+     * @param spritesheet a spritesheet of type TYPE_INT_ARGB
+     * @return            the pixels of the spritesheet, row by row
+     */
+    static int[] getPixels(BufferedImage spritesheet) {
+        return ((DataBufferInt) spritesheet.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Copy an image into the pixels of a spritesheet, if its colour model allows a direct copy.
+     *
+     * @param image      the image to copy
+     * @param pixels     the pixels of the spritesheet
+     * @param sheetWidth the width of the spritesheet
+     * @param x          the x position of the image in the spritesheet
+     * @param y          the y position of the image in the spritesheet
+     * @return           true if the image has been copied, false if it has to be drawn by Java2D
+     */
+    static boolean blit(BufferedImage image, int[] pixels, int sheetWidth, int x, int y) {
+        return blit(image, pixels, sheetWidth, pixels.length / sheetWidth, x, y);
+    }
+
+    /**
+     * Copy the rows of an image that overlap a band of the spritesheet into the pixels of the band, if its colour
+     * model allows a direct copy.
+     *
+     * @param image      the image to copy
+     * @param pixels     the pixels of the band
+     * @param sheetWidth the width of the spritesheet
+     * @param bandHeight the height of the band
+     * @param x          the x position of the image in the band
+     * @param y          the y position of the image in the band, negative if it starts above the band
+     * @return           true if the image has been copied, false if it has to be drawn by Java2D
+     */
+    static boolean blit(BufferedImage image, int[] pixels, int sheetWidth, int bandHeight, int x, int y) {
+        Raster raster = image.getRaster();
+        ColorModel colorModel = image.getColorModel();
+        if (!(colorModel instanceof DirectColorModel) || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+            || !(raster.getDataBuffer() instanceof DataBufferInt) || !isIntRgb((DirectColorModel) colorModel)) {
+            return false;
+        }
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+        int[] data = dataBuffer.getData();
+        int stride = sampleModel.getScanlineStride();
+        // sub images share the data of their parent, starting at an offset
+        int start = dataBuffer.getOffset() + sampleModel.getOffset(raster.getMinX() - raster.getSampleModelTranslateX(),
+                                                                   raster.getMinY() - raster.getSampleModelTranslateY());
+        int width = raster.getWidth();
+        boolean opaque = !colorModel.hasAlpha();
+        int lastRow = Math.min(raster.getHeight(), bandHeight - y);
+        for (int row = Math.max(0, -y); row < lastRow; row++) {
+            int target = (y + row) * sheetWidth + x;
+            System.arraycopy(data, start + row * stride, pixels, target, width);
+            if (opaque) {
+                for (int end = target + width; target < end; target++) {
+                    pixels[target] |= OPAQUE;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIntRgb(DirectColorModel colorModel) {
+        return colorModel.getColorSpace().isCS_sRGB() && !colorModel.isAlphaPremultiplied()
+               && colorModel.getRedMask() == ARGB_RED_MASK && colorModel.getGreenMask() == ARGB_GREEN_MASK
+               && colorModel.getBlueMask() == ARGB_BLUE_MASK
+               && (colorModel.getAlphaMask() == ARGB_ALPHA_MASK || !colorModel.hasAlpha());
+    }
+}
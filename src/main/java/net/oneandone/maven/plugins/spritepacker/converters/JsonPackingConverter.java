@@ -8,7 +8,6 @@ import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.SerializationConfig;
 import org.codehaus.plexus.util.StringUtils;
 
-import java.awt.Point;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
@@ -22,7 +21,8 @@ import java.util.regex.Pattern;
 /**
  * Converts ImagePacking to a JSON(P) file, with the result that each icon's details are available
  * via a named property which encapsulates w, h, x, y and xy as pixel values as well as storing
- * integer values for x, y, w and h in the property n.
+ * integer values for x, y, w and h in the property n. Trimmed icons additionally have the offsets ox and oy
+ * within the original image and the original size ow and oh.
  *
  * @author Robert Murphy, mklein
  */
@@ -41,6 +41,7 @@ public class JsonPackingConverter extends AbstractTextConverter {
 
     protected static final int IMAGE_PROPERTY_COUNT = 6;
     protected static final int RAW_NUMBER_COUNT = 4;
+    protected static final int TRIM_PROPERTY_COUNT = 4;
 
     final String jsonpVar;
 
@@ -86,12 +87,13 @@ public class JsonPackingConverter extends AbstractTextConverter {
      */
     protected Map<String, Object> buildOutputMap(List<NamedImage> imageList, ImagePacking imagePacking) {
         Map<String, Object> map = new LinkedHashMap<>(imageList.size());
-        for (NamedImage n : imageList) {
-            Point position = imagePacking.getPosition(n);
+        for (int i = 0; i < imageList.size(); i++) {
+            NamedImage n = imageList.get(i);
 
-            Map<String, Object> props = new LinkedHashMap<>(IMAGE_PROPERTY_COUNT);
-            int x = position.x;
-            int y = position.y;
+            boolean trimmed = n.isTrimmed();
+            Map<String, Object> props = new LinkedHashMap<>(IMAGE_PROPERTY_COUNT + (trimmed ? TRIM_PROPERTY_COUNT : 0));
+            int x = imagePacking.getX(i);
+            int y = imagePacking.getY(i);
             int width = n.getWidth();
             int height = n.getHeight();
 
@@ -104,12 +106,24 @@ public class JsonPackingConverter extends AbstractTextConverter {
             props.put("h", intToPixel(height));
             props.put("xy", xStr + " " + yStr);
 
-            Map<String, Integer> numbers = new LinkedHashMap<>(RAW_NUMBER_COUNT);
+            Map<String, Integer> numbers = new LinkedHashMap<>(RAW_NUMBER_COUNT + (trimmed ? TRIM_PROPERTY_COUNT : 0));
             numbers.put("x", x);
             numbers.put("y", y);
             numbers.put("w", width);
             numbers.put("h", height);
 
+            if (trimmed) {
+                props.put("ox", intToPixel(n.getOffsetX()));
+                props.put("oy", intToPixel(n.getOffsetY()));
+                props.put("ow", intToPixel(n.getOriginalWidth()));
+                props.put("oh", intToPixel(n.getOriginalHeight()));
+
+                numbers.put("ox", n.getOffsetX());
+                numbers.put("oy", n.getOffsetY());
+                numbers.put("ow", n.getOriginalWidth());
+                numbers.put("oh", n.getOriginalHeight());
+            }
+
             props.put("n", numbers);
 
             map.put(n.getName(), props);
@@ -2,22 +2,27 @@ package net.oneandone.maven.plugins.spritepacker.converters;
 
 import net.oneandone.maven.plugins.spritepacker.ImagePacking;
 import net.oneandone.maven.plugins.spritepacker.NamedImage;
+import net.oneandone.maven.plugins.spritepacker.Utils;
 import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.StringUtils;
 
-import java.awt.Point;
 import java.nio.file.Path;
 import java.util.List;
 
 /**
  * Converts ImagePacking to a Less file, with the result that each icon's properties are available
  * via mixins. the ".create" mixin returns all properties, the ".pos" mixin returns only the position
- * and the ".size" mixin returns only the dimensions of the icon.
+ * and the ".size" mixin returns only the dimensions of the icon. If spritesheets for several pixel densities are
+ * written, the ".sheet" mixin returns the spritesheet as background image with the size of the base spritesheet,
+ * and media queries which replace it with the spritesheet of the highest density the screen supports. The ".create"
+ * mixin then returns these properties as well.
  *
  * @author mklein
  */
 public class LessPackingConverter extends AbstractTextConverter {
     final String lessNamespace;
+    private final Path spritesheet;
+    private final int[] densities;
 
     /**
      * Create a Less converter with output file less and namespace lessNamespace.
@@ -25,8 +30,22 @@ public class LessPackingConverter extends AbstractTextConverter {
      * @param lessNamespace the Less namespace under which the mixins should be added
      */
     public LessPackingConverter(Path less, String lessNamespace) {
+        this(less, lessNamespace, null, new int[] {1});
+    }
+
+    /**
+     * Create a Less converter with output file less and namespace lessNamespace, which references the spritesheets
+     * of several pixel densities.
+     * @param less          the output Less file to write to
+     * @param lessNamespace the Less namespace under which the mixins should be added
+     * @param spritesheet   the spritesheet of the base density 1, whose path has a density suffix for other densities
+     * @param densities     the pixel densities of the spritesheets in ascending order, starting with 1
+     */
+    public LessPackingConverter(Path less, String lessNamespace, Path spritesheet, int[] densities) {
         super(less, "Less");
         this.lessNamespace = fixFirstChar(sanitize(lessNamespace));
+        this.spritesheet = spritesheet;
+        this.densities = densities.clone();
     }
 
     /**
@@ -46,16 +65,37 @@ public class LessPackingConverter extends AbstractTextConverter {
             sb.append("/* icons can be referenced with the syntax \"#").append(lessNamespace).append(" > .create(icon-name);\" */\n")
               .append("#").append(lessNamespace).append("{\n");
         }
-        sb.append(indent).append(".create(@name){.pos(@name);.size(@name);}\n");
-        for (NamedImage image : imageList) {
+        if (spritesheet != null && densities.length > 1) {
+            sb.append(indent).append(".create(@name){.sheet();.pos(@name);.size(@name);}\n")
+              .append(indent).append(".sheet(){background-image:url(").append(getRelativeUrl(spritesheet)).append(");")
+              .append("background-size:").append(intToPixel(imagePacking.getWidth())).append(" ")
+              .append(intToPixel(imagePacking.getHeight())).append(";");
+            for (int i = 1; i < densities.length; i++) {
+                sb.append(getMediaQuery(densities[i])).append("{background-image:url(")
+                  .append(getRelativeUrl(Utils.getDensityPath(spritesheet, densities[i]))).append(");}");
+            }
+            sb.append("}\n");
+        } else {
+            sb.append(indent).append(".create(@name){.pos(@name);.size(@name);}\n");
+        }
+        for (int i = 0; i < imageList.size(); i++) {
+            NamedImage image = imageList.get(i);
             String name = sanitize(image.getName());
-            Point position = imagePacking.getPosition(image);
-            String x = intToPixel(-position.x);
-            String y = intToPixel(-position.y);
+            String x = intToPixel(-imagePacking.getX(i));
+            String y = intToPixel(-imagePacking.getY(i));
             String width = intToPixel(image.getWidth());
             String height = intToPixel(image.getHeight());
-            sb.append(indent).append(".pos(").append(name).append("){background-position:").append(x).append(" ").append(y).append(";}\n")
-              .append(indent).append(".size(").append(name).append("){width:").append(width).append(";height:").append(height).append(";}\n");
+            String positionExtra = "";
+            String sizeExtra = "";
+            if (image.isTrimmed()) {
+                // the padding restores the original size, and the background is positioned within the content box only
+                positionExtra = "background-origin:content-box;background-clip:content-box;";
+                sizeExtra = "box-sizing:content-box;padding:" + getTrimPadding(image) + ";";
+            }
+            sb.append(indent).append(".pos(").append(name).append("){background-position:").append(x).append(" ").append(y).append(";")
+              .append(positionExtra).append("}\n")
+              .append(indent).append(".size(").append(name).append("){width:").append(width).append(";height:").append(height).append(";")
+              .append(sizeExtra).append("}\n");
         }
 
         if (StringUtils.isNotEmpty(lessNamespace)) {
@@ -17,7 +17,7 @@ public interface PackingConverter {
     /**
      * Convert the specified ImagePacking.
      *
-     * @param imageList    the list of images
+     * @param imageList    the list of images, in the order of the positions in the packing
      * @param imagePacking the ImagePacking to convert
      * @param log          the log object to use
      * @throws MojoExecutionException when the conversion fails
@@ -0,0 +1,52 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * The compression presets that can be selected for the spritesheet PNG file
+ *
+ * @author ssiegler
+ */
+public enum PngCompression {
+    /**
+     * The fastest deflate level without filters, for development builds
+     */
+    FAST(Deflater.BEST_SPEED, EnumSet.of(PngWriter.Filter.NONE)),
+    /**
+     * The best deflate level without filters, which suits spritesheets of flat icons
+     */
+    DEFAULT(Deflater.BEST_COMPRESSION, EnumSet.of(PngWriter.Filter.NONE)),
+    /**
+     * The best deflate level, trying every filter and several deflate strategies for each block of rows and keeping
+     * the smallest result, for release builds
+     */
+    MAX(Deflater.BEST_COMPRESSION, EnumSet.allOf(PngWriter.Filter.class));
+
+    private final int level;
+    private final Set<PngWriter.Filter> filters;
+
+    PngCompression(int level, Set<PngWriter.Filter> filters) {
+        this.level = level;
+        this.filters = filters;
+    }
+
+    /**
+     * @return the deflate compression level of the preset
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Create a PNG writer with the filters of this preset.
+     *
+     * @param level   the deflate compression level, which overrides the level of the preset
+     * @param threads the number of threads compressing the image
+     * @return        the PNG writer
+     */
+    PngWriter createWriter(int level, int threads) {
+        return new PngWriter(level, filters, threads);
+    }
+}
@@ -0,0 +1,229 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+/**
+ * The colour type and bit depth of a PNG file, which converts rows of ARGB pixels to the bytes of the PNG rows.
+ *
+ * @author ssiegler
+ */
+abstract class PngFormat {
+    private static final int COLOR_TYPE_GREY = 0;
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_INDEXED = 3;
+    private static final int COLOR_TYPE_GREY_ALPHA = 4;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    /**
+     * The maximum number of colours of a palette.
+     */
+    static final int MAX_PALETTE_SIZE = 256;
+
+    /**
+     * 8 bit red, green, blue and alpha.
+     */
+    static final PngFormat RGBA = new PngFormat("RGBA", COLOR_TYPE_RGBA, 8, 32) {
+        @Override
+        void convert(int[] argb, int offset, int width, byte[] row) {
+            for (int x = 0, i = 0; x < width; x++) {
+                int pixel = argb[offset + x];
+                row[i++] = (byte) (pixel >>> 16);
+                row[i++] = (byte) (pixel >>> 8);
+                row[i++] = (byte) pixel;
+                row[i++] = (byte) (pixel >>> 24);
+            }
+        }
+    };
+
+    /**
+     * 8 bit red, green and blue, for opaque images.
+     */
+    static final PngFormat RGB = new PngFormat("RGB", COLOR_TYPE_RGB, 8, 24) {
+        @Override
+        void convert(int[] argb, int offset, int width, byte[] row) {
+            for (int x = 0, i = 0; x < width; x++) {
+                int pixel = argb[offset + x];
+                row[i++] = (byte) (pixel >>> 16);
+                row[i++] = (byte) (pixel >>> 8);
+                row[i++] = (byte) pixel;
+            }
+        }
+    };
+
+    /**
+     * 8 bit grey and alpha, for images whose pixels have equal red, green and blue.
+     */
+    static final PngFormat GREY_ALPHA = new PngFormat("grey with alpha", COLOR_TYPE_GREY_ALPHA, 8, 16) {
+        @Override
+        void convert(int[] argb, int offset, int width, byte[] row) {
+            for (int x = 0, i = 0; x < width; x++) {
+                int pixel = argb[offset + x];
+                row[i++] = (byte) pixel;
+                row[i++] = (byte) (pixel >>> 24);
+            }
+        }
+    };
+
+    /**
+     * 8 bit grey, for opaque images whose pixels have equal red, green and blue.
+     */
+    static final PngFormat GREY = new PngFormat("grey", COLOR_TYPE_GREY, 8, 8) {
+        @Override
+        void convert(int[] argb, int offset, int width, byte[] row) {
+            for (int x = 0; x < width; x++) {
+                row[x] = (byte) argb[offset + x];
+            }
+        }
+    };
+
+    private final String name;
+    private final int colorType;
+    private final int bitDepth;
+    private final int bitsPerPixel;
+
+    private PngFormat(String name, int colorType, int bitDepth, int bitsPerPixel) {
+        this.name = name;
+        this.colorType = colorType;
+        this.bitDepth = bitDepth;
+        this.bitsPerPixel = bitsPerPixel;
+    }
+
+    /**
+     * Create an indexed format with the colours of a colour table as palette. Palettes of up to 16 colours pack
+     * several pixels into a byte.
+     *
+     * @param colors a colour table of up to 256 colours
+     * @return       the indexed format
+     */
+    static PngFormat indexed(final ColorTable colors) {
+        if (colors.size() > MAX_PALETTE_SIZE) {
+            throw new IllegalArgumentException("A palette holds at most 256 colours: " + colors.size());
+        }
+        final int[] palette = colors.createPalette();
+        int bitDepth = 1;
+        while (1 << bitDepth < palette.length) {
+            bitDepth *= 2;
+        }
+        return new PngFormat("palette of " + palette.length + " colours", COLOR_TYPE_INDEXED, bitDepth, bitDepth) {
+            @Override
+            void convert(int[] argb, int offset, int width, byte[] row) {
+                int bits = getBitDepth();
+                int previous = 0;
+                int index = colors.indexOf(previous);
+                int packed = 0;
+                int filled = 0;
+                int i = 0;
+                for (int x = 0; x < width; x++) {
+                    int pixel = argb[offset + x];
+                    if (pixel != previous) {
+                        previous = pixel;
+                        index = colors.indexOf(pixel);
+                    }
+                    packed = (packed << bits) | index;
+                    filled += bits;
+                    if (filled == 8) {
+                        row[i++] = (byte) packed;
+                        packed = 0;
+                        filled = 0;
+                    }
+                }
+                if (filled > 0) {
+                    row[i] = (byte) (packed << (8 - filled));
+                }
+            }
+
+            @Override
+            byte[] getPalette() {
+                byte[] bytes = new byte[palette.length * 3];
+                for (int i = 0; i < palette.length; i++) {
+                    bytes[3 * i] = (byte) (palette[i] >>> 16);
+                    bytes[3 * i + 1] = (byte) (palette[i] >>> 8);
+                    bytes[3 * i + 2] = (byte) palette[i];
+                }
+                return bytes;
+            }
+
+            @Override
+            byte[] getTransparency() {
+                // the translucent colours come first in the palette
+                int translucent = 0;
+                while (translucent < palette.length && palette[translucent] >>> 24 != 0xff) {
+                    translucent++;
+                }
+                if (translucent == 0) {
+                    return null;
+                }
+                byte[] alpha = new byte[translucent];
+                for (int i = 0; i < translucent; i++) {
+                    alpha[i] = (byte) (palette[i] >>> 24);
+                }
+                return alpha;
+            }
+        };
+    }
+
+    /**
+     * @return the number of bits per pixel
+     */
+    int getBitsPerPixel() {
+        return bitsPerPixel;
+    }
+
+    /**
+     * @return the PNG colour type
+     */
+    int getColorType() {
+        return colorType;
+    }
+
+    /**
+     * @return the number of bits per sample, or per palette index
+     */
+    int getBitDepth() {
+        return bitDepth;
+    }
+
+    /**
+     * Get the number of bytes of a row, without the filter type.
+     *
+     * @param width the width of the image
+     * @return      the number of bytes
+     */
+    int getRowBytes(int width) {
+        return (int) (((long) width * bitsPerPixel + 7) / 8);
+    }
+
+    /**
+     * @return the distance in bytes to the corresponding byte of the pixel to the left, as used by the filters
+     */
+    int getFilterDistance() {
+        return Math.max(1, bitsPerPixel / 8);
+    }
+
+    /**
+     * Convert a row of pixels.
+     *
+     * @param argb   the ARGB pixels
+     * @param offset the index of the first pixel of the row
+     * @param width  the number of pixels of the row
+     * @param row    the bytes of the row
+     */
+    abstract void convert(int[] argb, int offset, int width, byte[] row);
+
+    /**
+     * @return the RGB entries of the PLTE chunk, or null if the format has no palette
+     */
+    byte[] getPalette() {
+        return null;
+    }
+
+    /**
+     * @return the content of the tRNS chunk, or null if the format needs none
+     */
+    byte[] getTransparency() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,746 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import com.google.common.base.Throwables;
+import net.oneandone.maven.plugins.spritepacker.Utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes images as PNG files, filtering and deflating blocks of rows in parallel. Each block is deflated
+ * on its own, primed with the last 32 KiB of the rows before it, and ends with a sync flush, so that the compressed
+ * blocks concatenate to a single zlib stream. The blocks only depend on the size of the image, so the output does
+ * not depend on the number of threads. If several filters are given, each block is compressed with every filter
+ * and with several deflate strategies, and the smallest result is kept.
+ *
+ * @author ssiegler
+ */
+final class PngWriter {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    // The uncompressed size of a block, large enough for the compression to hardly suffer from the splitting
+    private static final int BLOCK_BYTES = 256 * 1024;
+    // The size of the deflate window, which is primed with the data before each block
+    private static final int WINDOW_BYTES = 32 * 1024;
+    // The number of blocks per thread in each band that is rendered
+    private static final int BLOCKS_PER_THREAD = 2;
+    private static final int ADLER_BASE = 65521;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+    private static final int FILTERS = 5;
+    // The deflate strategies that are tried with the best filter of a block
+    private static final int[] STRATEGIES = {Deflater.FILTERED, Deflater.HUFFMAN_ONLY};
+
+    /**
+     * The choice of the filter applied to each row before deflating.
+     */
+    enum Filter {
+        /**
+         * Leave the rows unfiltered, which compresses spritesheets of flat icons with transparent gaps best.
+         */
+        NONE(FILTER_NONE),
+        /**
+         * Predict each byte from the pixel to the left.
+         */
+        SUB(FILTER_SUB),
+        /**
+         * Predict each byte from the pixel above.
+         */
+        UP(FILTER_UP),
+        /**
+         * Predict each byte from the average of the pixels to the left and above.
+         */
+        AVERAGE(FILTER_AVERAGE),
+        /**
+         * Predict each byte from the pixel to the left, above or above left, whichever is closest to their gradient.
+         */
+        PAETH(FILTER_PAETH),
+        /**
+         * Choose the filter type giving the smallest sum of absolute differences for each row, which compresses
+         * photographic images and gradients better.
+         */
+        ADAPTIVE(-1);
+
+        private final int type;
+
+        Filter(int type) {
+            this.type = type;
+        }
+    }
+
+    private final int level;
+    private final Filter[] filters;
+    private final int threads;
+
+    /**
+     * Create a PNG writer applying one filter.
+     *
+     * @param level   the deflate compression level, from 0 to 9 or -1 for the default level
+     * @param filter  the filter applied to the rows
+     * @param threads the number of threads compressing the image
+     */
+    PngWriter(int level, Filter filter, int threads) {
+        this(level, EnumSet.of(filter), threads);
+    }
+
+    /**
+     * Create a PNG writer choosing the best of several filters for each block.
+     *
+     * @param level   the deflate compression level, from 0 to 9 or -1 for the default level
+     * @param filters the filters that are tried for each block
+     * @param threads the number of threads compressing the image
+     */
+    PngWriter(int level, Set<Filter> filters, int threads) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("The compression level must be between 0 and 9: " + level);
+        }
+        if (filters.isEmpty()) {
+            throw new IllegalArgumentException("At least one filter is required");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+        }
+        this.level = level;
+        this.filters = filters.toArray(new Filter[filters.size()]);
+        this.threads = threads;
+    }
+
+    /**
+     * Renders the rows of an image band by band, so that the whole image does not need to be kept in memory.
+     */
+    interface BandRenderer {
+        /**
+         * Render a band of rows. The bands are rendered from top to bottom, and each band may repeat a few rows
+         * of the band before.
+         *
+         * @param first the first row of the band
+         * @param last  the row after the last row of the band
+         * @return      an image of type TYPE_INT_ARGB whose first row is the first row of the band
+         * @throws IOException when the rows cannot be rendered
+         */
+        BufferedImage render(int first, int last) throws IOException;
+    }
+
+    /**
+     * Write an image as 8 bit RGBA PNG file.
+     *
+     * @param image the image to write
+     * @param out   the stream to write to, which is not closed
+     * @throws IOException when the image cannot be written
+     */
+    void write(BufferedImage image, OutputStream out) throws IOException {
+        write(image, PngFormat.RGBA, out);
+    }
+
+    /**
+     * Write an image as PNG file. Like rendered images, the image is compressed in bands of a few blocks per
+     * thread, so that only the compressed blocks of one band are held in memory.
+     *
+     * @param image  the image to write
+     * @param format the format of the PNG file, which must be able to represent all colours of the image
+     * @param out    the stream to write to, which is not closed
+     * @throws IOException when the image cannot be written
+     */
+    void write(final BufferedImage image, PngFormat format, OutputStream out) throws IOException {
+        write(image.getWidth(), image.getHeight(), format, new BandRenderer() {
+            @Override
+            public BufferedImage render(int first, int last) {
+                return image.getSubimage(0, first, image.getWidth(), last - first);
+            }
+        }, out);
+    }
+
+    /**
+     * Write an image as PNG file, which is rendered in bands of a few blocks per thread.
+     *
+     * @param width    the width of the image
+     * @param height   the height of the image
+     * @param format   the format of the PNG file, which must be able to represent all colours of the image
+     * @param renderer the renderer of the bands
+     * @param out      the stream to write to, which is not closed
+     * @throws IOException when the image cannot be rendered or written
+     */
+    void write(final int width, final int height, final PngFormat format, BandRenderer renderer, OutputStream out)
+            throws IOException {
+        final int rowBytes = 1 + format.getRowBytes(width);
+        final int rowsPerBlock = getRowsPerBlock(format, width);
+        final int blocks = (height + rowsPerBlock - 1) / rowsPerBlock;
+        int blocksPerBand = BLOCKS_PER_THREAD * threads;
+        // Each block needs the rows before it for the dictionary, and the row before those for the filters
+        int contextRows = getDictionaryRows(rowBytes) + 1;
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        writeHeader(data, width, height, format);
+        int workers = Math.min(threads, Math.min(blocksPerBand, blocks));
+        ExecutorService executor = (workers > 1) ? Executors.newFixedThreadPool(workers, Utils.THREAD_FACTORY) : null;
+        // The filter and deflate strategy of each block, the filters also apply to the dictionaries of the next blocks
+        final Filter[] blockFilters = new Filter[blocks];
+        final int[] blockStrategies = new int[blocks];
+        Arrays.fill(blockFilters, filters[0]);
+        try {
+            long adler = 1;
+            for (int bandStart = 0; bandStart < blocks; bandStart += blocksPerBand) {
+                int bandEnd = Math.min(blocks, bandStart + blocksPerBand);
+                int renderFirst = Math.max(0, bandStart * rowsPerBlock - contextRows);
+                int renderLast = Math.min(height, bandEnd * rowsPerBlock);
+                final RowReader rows = new RowReader(renderer.render(renderFirst, renderLast), renderFirst, format);
+
+                if (filters.length > 1) {
+                    List<Callable<Void>> trials = new ArrayList<>(bandEnd - bandStart);
+                    for (int block = bandStart; block < bandEnd; block++) {
+                        final int index = block;
+                        final int first = block * rowsPerBlock;
+                        final int last = Math.min(height, first + rowsPerBlock);
+                        trials.add(new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                choose(rows, rowBytes, format.getFilterDistance(), first, last, index, blockFilters, blockStrategies);
+                                return null;
+                            }
+                        });
+                    }
+                    invokeAll(executor, trials);
+                }
+
+                List<Callable<Block>> tasks = new ArrayList<>(bandEnd - bandStart);
+                for (int block = bandStart; block < bandEnd; block++) {
+                    final int first = block * rowsPerBlock;
+                    final int last = Math.min(height, first + rowsPerBlock);
+                    final int strategy = blockStrategies[block];
+                    tasks.add(new Callable<Block>() {
+                        @Override
+                        public Block call() {
+                            int start = first - Math.min(first, getDictionaryRows(rowBytes));
+                            Filter[] rowFilters = new Filter[last - start];
+                            for (int row = start; row < last; row++) {
+                                rowFilters[row - start] = blockFilters[row / rowsPerBlock];
+                            }
+                            return compress(rows, rowBytes, format.getFilterDistance(), first, last, last == height, rowFilters, strategy);
+                        }
+                    });
+                }
+                if (executor == null) {
+                    for (int i = 0; i < tasks.size(); i++) {
+                        adler = writeBlock(data, call(tasks.get(i)), adler, bandStart + i == 0, bandStart + i == blocks - 1);
+                    }
+                } else {
+                    List<Future<Block>> futures = new ArrayList<>(tasks.size());
+                    for (Callable<Block> task : tasks) {
+                        futures.add(executor.submit(task));
+                    }
+                    for (int i = 0; i < futures.size(); i++) {
+                        adler = writeBlock(data, getResult(futures.get(i)), adler, bandStart + i == 0, bandStart + i == blocks - 1);
+                        // release the compressed block as soon as it is written
+                        futures.set(i, null);
+                    }
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        writeChunk(data, "IEND", new byte[0], 0);
+        data.flush();
+    }
+
+    /**
+     * Run tasks and wait for them to complete.
+     *
+     * @param executor the executor, or null to run the tasks in the current thread
+     * @param tasks    the tasks
+     * @throws IOException when a task failed
+     */
+    private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks) throws IOException {
+        if (executor == null) {
+            for (Callable<Void> task : tasks) {
+                call(task);
+            }
+            return;
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                getResult(future);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing image");
+        }
+    }
+
+    private static int getRowsPerBlock(PngFormat format, int width) {
+        return Math.max(1, BLOCK_BYTES / (1 + format.getRowBytes(width)));
+    }
+
+    private static int getDictionaryRows(int rowBytes) {
+        return (WINDOW_BYTES + rowBytes - 1) / rowBytes;
+    }
+
+    /**
+     * Choose the filter and deflate strategy that compress a block of rows best. Every filter is tried with the
+     * default strategy, then the best filter with the other strategies. The block is compressed without dictionary,
+     * since the dictionary depends on the choice for the blocks before.
+     *
+     * @param rows       the rows of the image
+     * @param rowBytes   the number of bytes of a filtered row
+     * @param distance   the distance in bytes to the pixel to the left
+     * @param first      the first row of the block
+     * @param last       the row after the last row of the block
+     * @param block      the index of the block
+     * @param filters    receives the filter of the block
+     * @param strategies receives the deflate strategy of the block
+     */
+    private void choose(RowReader rows, int rowBytes, int distance, int first, int last, int block, Filter[] filters, int[] strategies) {
+        Filter[] rowFilters = new Filter[last - first];
+        byte[] bestFiltered = null;
+        int bestSize = Integer.MAX_VALUE;
+        for (Filter candidate : this.filters) {
+            Arrays.fill(rowFilters, candidate);
+            byte[] filtered = filter(rows, rowBytes, distance, first, last, rowFilters);
+            int size = getDeflatedSize(filtered, Deflater.DEFAULT_STRATEGY);
+            if (size < bestSize) {
+                filters[block] = candidate;
+                bestFiltered = filtered;
+                bestSize = size;
+            }
+        }
+        strategies[block] = Deflater.DEFAULT_STRATEGY;
+        for (int strategy : STRATEGIES) {
+            int size = getDeflatedSize(bestFiltered, strategy);
+            if (size < bestSize) {
+                strategies[block] = strategy;
+                bestSize = size;
+            }
+        }
+    }
+
+    /**
+     * Get the size of filtered data when it is deflated.
+     *
+     * @param filtered the filtered data
+     * @param strategy the deflate strategy
+     * @return         the size of the deflated data
+     */
+    private int getDeflatedSize(byte[] filtered, int strategy) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setStrategy(strategy);
+            deflater.setInput(filtered);
+            deflater.finish();
+            byte[] output = new byte[64 * 1024];
+            int size = 0;
+            while (!deflater.finished()) {
+                size += deflater.deflate(output);
+            }
+            return size;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Filter a range of rows.
+     *
+     * @param rows       the rows of the image
+     * @param rowBytes   the number of bytes of a filtered row
+     * @param distance   the distance in bytes to the pixel to the left
+     * @param start      the first row
+     * @param last       the row after the last row
+     * @param rowFilters the filter of each row
+     * @return           the filtered rows, each starting with its filter type
+     */
+    private static byte[] filter(RowReader rows, int rowBytes, int distance, int start, int last, Filter[] rowFilters) {
+        byte[] filtered = new byte[(last - start) * rowBytes];
+        RowFilter rowFilter = new RowFilter(rowBytes - 1, distance);
+        if (start > 0) {
+            rows.read(start - 1, rowFilter.current);
+            rowFilter.next();
+        }
+        for (int row = start; row < last; row++) {
+            rows.read(row, rowFilter.current);
+            rowFilter.filter(filtered, (row - start) * rowBytes, rowFilters[row - start]);
+            rowFilter.next();
+        }
+        return filtered;
+    }
+
+    /**
+     * Filter and deflate a block of rows.
+     *
+     * @param rows       the rows of the image
+     * @param rowBytes   the number of bytes of a filtered row
+     * @param distance   the distance in bytes to the pixel to the left
+     * @param first      the first row of the block
+     * @param last       the row after the last row of the block
+     * @param finish     true if this is the last block of the image
+     * @param rowFilters the filter of each row, starting with the rows before the block that prime the deflater
+     * @param strategy   the deflate strategy
+     * @return           the compressed block
+     */
+    private Block compress(RowReader rows, int rowBytes, int distance, int first, int last, boolean finish, Filter[] rowFilters, int strategy) {
+        // The rows before the block are filtered again to prime the deflater with the same data the decoder has seen
+        int dictionaryRows = Math.min(first, getDictionaryRows(rowBytes));
+        byte[] filtered = filter(rows, rowBytes, distance, first - dictionaryRows, last, rowFilters);
+
+        int offset = dictionaryRows * rowBytes;
+        int length = filtered.length - offset;
+        Adler32 adler = new Adler32();
+        adler.update(filtered, offset, length);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setStrategy(strategy);
+            if (offset > 0) {
+                int dictionary = Math.min(WINDOW_BYTES, offset);
+                deflater.setDictionary(filtered, offset - dictionary, dictionary);
+            }
+            deflater.setInput(filtered, offset, length);
+            byte[] output = new byte[Math.max(64, length / 2)];
+            int size = 0;
+            if (finish) {
+                deflater.finish();
+            }
+            while (true) {
+                if (size == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                int written = deflater.deflate(output, size, output.length - size, finish ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                size += written;
+                if (finish ? deflater.finished() : size < output.length) {
+                    break;
+                }
+            }
+            return new Block(Arrays.copyOf(output, size), size, adler.getValue(), length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Write a compressed block as IDAT chunk, with the zlib header before the first block and the checksum after
+     * the last block.
+     *
+     * @param data  the stream to write to
+     * @param block the compressed block
+     * @param adler the checksum of the previous blocks
+     * @param first true if this is the first block
+     * @param last  true if this is the last block
+     * @return      the checksum including this block
+     * @throws IOException when the block cannot be written
+     */
+    private long writeBlock(DataOutputStream data, Block block, long adler, boolean first, boolean last) throws IOException {
+        adler = combineAdler(adler, block.adler, block.inputLength);
+        byte[] bytes = block.data;
+        int length = block.length;
+        if (first) {
+            byte[] header = getZlibHeader();
+            byte[] withHeader = new byte[length + header.length];
+            System.arraycopy(header, 0, withHeader, 0, header.length);
+            System.arraycopy(bytes, 0, withHeader, header.length, length);
+            bytes = withHeader;
+            length = withHeader.length;
+        }
+        if (last) {
+            bytes = Arrays.copyOf(bytes, length + 4);
+            bytes[length++] = (byte) (adler >>> 24);
+            bytes[length++] = (byte) (adler >>> 16);
+            bytes[length++] = (byte) (adler >>> 8);
+            bytes[length++] = (byte) adler;
+        }
+        writeChunk(data, "IDAT", bytes, length);
+        return adler;
+    }
+
+    private static void writeHeader(DataOutputStream data, int width, int height, PngFormat format) throws IOException {
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = (byte) format.getBitDepth();
+        header[9] = (byte) format.getColorType();
+        // compression, filter and interlace method are all 0
+        writeChunk(data, "IHDR", header, header.length);
+        byte[] palette = format.getPalette();
+        if (palette != null) {
+            writeChunk(data, "PLTE", palette, palette.length);
+        }
+        byte[] transparency = format.getTransparency();
+        if (transparency != null) {
+            writeChunk(data, "tRNS", transparency, transparency.length);
+        }
+    }
+
+    private static void writeChunk(DataOutputStream data, String type, byte[] bytes, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(bytes, 0, length);
+        data.writeInt(length);
+        data.write(typeBytes);
+        data.write(bytes, 0, length);
+        data.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Get the zlib header for a deflate stream with 32 KiB window at the compression level of this writer.
+     *
+     * @return the two header bytes
+     */
+    private byte[] getZlibHeader() {
+        int compressionMethod = 0x78;
+        int levelFlag;
+        if (level == Deflater.DEFAULT_COMPRESSION || level == 6) {
+            levelFlag = 2;
+        } else if (level < 2) {
+            levelFlag = 0;
+        } else if (level < 6) {
+            levelFlag = 1;
+        } else {
+            levelFlag = 3;
+        }
+        int flags = levelFlag << 6;
+        flags += 31 - (compressionMethod * 256 + flags) % 31;
+        return new byte[] {(byte) compressionMethod, (byte) flags};
+    }
+
+    /**
+     * Combine the Adler-32 checksums of two consecutive pieces of data, as zlib's adler32_combine.
+     *
+     * @param adler1  the checksum of the first piece
+     * @param adler2  the checksum of the second piece
+     * @param length2 the length of the second piece
+     * @return        the checksum of both pieces
+     */
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER_BASE - remainder;
+        sum1 %= ADLER_BASE;
+        sum2 %= ADLER_BASE;
+        return (sum2 << 16) | sum1;
+    }
+
+    private static <T> T call(Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            Throwables.propagateIfPossible(e, IOException.class);
+            throw new IOException("Couldn't compress image", e);
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IOException("Couldn't compress image", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing image");
+        }
+    }
+
+    /**
+     * A deflated block of rows.
+     */
+    private static final class Block {
+        final byte[] data;
+        final int length;
+        final long adler;
+        final int inputLength;
+
+        Block(byte[] data, int length, long adler, int inputLength) {
+            this.data = data;
+            this.length = length;
+            this.adler = adler;
+            this.inputLength = inputLength;
+        }
+    }
+
+    /**
+     * Reads rows of a band of an image as bytes of a PNG format. The pixels of TYPE_INT_ARGB images, such as
+     * spritesheets, are read directly, other images are converted by {@link BufferedImage#getRGB}.
+     */
+    private static final class RowReader {
+        private final BufferedImage image;
+        private final int firstRow;
+        private final PngFormat format;
+        private final int width;
+        private final int[] pixels;
+        private final int start;
+        private final int stride;
+
+        RowReader(BufferedImage image, int firstRow, PngFormat format) {
+            this.image = image;
+            this.firstRow = firstRow;
+            this.format = format;
+            this.width = image.getWidth();
+            Raster raster = image.getRaster();
+            if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+                SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+                this.pixels = dataBuffer.getData();
+                // sub images share the data of their parent, starting at an offset
+                this.start = dataBuffer.getOffset() + sampleModel.getOffset(raster.getMinX() - raster.getSampleModelTranslateX(),
+                                                                            raster.getMinY() - raster.getSampleModelTranslateY());
+                this.stride = sampleModel.getScanlineStride();
+            } else {
+                this.pixels = null;
+                this.start = 0;
+                this.stride = 0;
+            }
+        }
+
+        /**
+         * Read a row as bytes of the PNG format.
+         *
+         * @param y   the row of the image
+         * @param row the bytes of the row
+         */
+        void read(int y, byte[] row) {
+            int[] argb;
+            int offset;
+            if (pixels != null) {
+                argb = pixels;
+                offset = start + (y - firstRow) * stride;
+            } else {
+                argb = image.getRGB(0, y - firstRow, width, 1, null, 0, width);
+                offset = 0;
+            }
+            format.convert(argb, offset, width, row);
+        }
+    }
+
+    /**
+     * Filters rows, keeping the previous row for the filter types that predict from it.
+     */
+    private static final class RowFilter {
+        byte[] current;
+        private byte[] previous;
+        private final byte[][] candidates;
+        private final int distance;
+
+        RowFilter(int length, int distance) {
+            this.distance = distance;
+            current = new byte[length];
+            previous = new byte[length];
+            candidates = new byte[FILTERS][length];
+        }
+
+        /**
+         * Filter the current row.
+         *
+         * @param filtered the filtered data
+         * @param offset   the offset of the filtered row, starting with the filter type
+         * @param filter   the filter of the row
+         */
+        void filter(byte[] filtered, int offset, Filter filter) {
+            if (filter == Filter.NONE) {
+                filtered[offset] = FILTER_NONE;
+                System.arraycopy(current, 0, filtered, offset + 1, current.length);
+                return;
+            }
+            if (filter != Filter.ADAPTIVE) {
+                filtered[offset] = (byte) filter.type;
+                filter(filter.type, candidates[filter.type]);
+                System.arraycopy(candidates[filter.type], 0, filtered, offset + 1, current.length);
+                return;
+            }
+            int best = FILTER_NONE;
+            long bestSum = Long.MAX_VALUE;
+            for (int type = FILTER_NONE; type < FILTERS; type++) {
+                long sum = filter(type, candidates[type]);
+                if (sum < bestSum) {
+                    best = type;
+                    bestSum = sum;
+                }
+            }
+            filtered[offset] = (byte) best;
+            System.arraycopy(candidates[best], 0, filtered, offset + 1, current.length);
+        }
+
+        /**
+         * Make the current row the previous row.
+         */
+        void next() {
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        private long filter(int type, byte[] out) {
+            long sum = 0;
+            for (int i = 0; i < current.length; i++) {
+                int raw = current[i] & 0xff;
+                int left = (i < distance) ? 0 : current[i - distance] & 0xff;
+                int up = previous[i] & 0xff;
+                int predicted;
+                switch (type) {
+                    case FILTER_SUB:
+                        predicted = left;
+                        break;
+                    case FILTER_UP:
+                        predicted = up;
+                        break;
+                    case FILTER_AVERAGE:
+                        predicted = (left + up) >>> 1;
+                        break;
+                    case FILTER_PAETH:
+                        predicted = paeth(left, up, (i < distance) ? 0 : previous[i - distance] & 0xff);
+                        break;
+                    default:
+                        predicted = 0;
+                }
+                byte value = (byte) (raw - predicted);
+                out[i] = value;
+                sum += Math.abs(value);
+            }
+            return sum;
+        }
+
+        private static int paeth(int left, int up, int upLeft) {
+            int estimate = left + up - upLeft;
+            int distanceLeft = Math.abs(estimate - left);
+            int distanceUp = Math.abs(estimate - up);
+            int distanceUpLeft = Math.abs(estimate - upLeft);
+            if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+                return left;
+            }
+            return (distanceUp <= distanceUpLeft) ? up : upLeft;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import java.util.Arrays;
+
+/**
+ * A canonical prefix code with limited code lengths, as used by WebP lossless. The code of each symbol is stored
+ * with its bits reversed, so that it can be written to a stream whose bits are filled from the least significant end.
+ *
+ * @author ssiegler
+ */
+final class PrefixCode {
+    private final int[] lengths;
+    private final int[] codes;
+
+    /**
+     * Create the optimal prefix code for the counts of symbols whose codes are no longer than a maximum length. If
+     * fewer than two symbols occur, symbols that do not occur are added, so that the code is complete.
+     *
+     * @param counts    the number of occurrences of each symbol
+     * @param maxLength the maximum length of a code
+     */
+    PrefixCode(int[] counts, int maxLength) {
+        if (counts.length < 2 || counts.length > 1 << maxLength) {
+            throw new IllegalArgumentException("Cannot create a code of length " + maxLength + " for " + counts.length + " symbols");
+        }
+        int[] adjusted = counts.clone();
+        int used = 0;
+        for (int i = 0; i < adjusted.length && used < 2; i++) {
+            if (adjusted[i] > 0) {
+                used++;
+            }
+        }
+        for (int i = 0; i < adjusted.length && used < 2; i++) {
+            if (adjusted[i] == 0) {
+                adjusted[i] = 1;
+                used++;
+            }
+        }
+        // raise the smallest counts until the tree is flat enough
+        int[] limited = adjusted;
+        int[] limitedLengths = getLengths(limited);
+        for (long minCount = 2; getLongest(limitedLengths) > maxLength; minCount *= 2) {
+            limited = new int[adjusted.length];
+            for (int i = 0; i < adjusted.length; i++) {
+                if (adjusted[i] > 0) {
+                    limited[i] = (int) Math.max(adjusted[i], Math.min(minCount, Integer.MAX_VALUE));
+                }
+            }
+            limitedLengths = getLengths(limited);
+        }
+        lengths = limitedLengths;
+        codes = getCodes(lengths);
+    }
+
+    /**
+     * Create the canonical code for the given code lengths.
+     *
+     * @param lengths the code length of each symbol, 0 for symbols without code
+     */
+    PrefixCode(int[] lengths) {
+        this.lengths = lengths.clone();
+        this.codes = getCodes(this.lengths);
+    }
+
+    /**
+     * @return the code length of each symbol, 0 for symbols without code
+     */
+    int[] getLengths() {
+        return lengths;
+    }
+
+    /**
+     * Get the length of the code of a symbol.
+     *
+     * @param symbol the symbol
+     * @return       the number of bits of its code
+     */
+    int getLength(int symbol) {
+        return lengths[symbol];
+    }
+
+    /**
+     * Get the code of a symbol.
+     *
+     * @param symbol the symbol
+     * @return       the bits of its code, starting with the least significant bit
+     */
+    int getCode(int symbol) {
+        return codes[symbol];
+    }
+
+    /**
+     * Build a Huffman tree of the symbols which occur, merging the two lightest nodes until one is left. The
+     * leaves are sorted by count and symbol, and merged nodes are queued in the order of their creation, which
+     * keeps the nodes of each queue sorted and makes the code independent of any tie breaking of a heap.
+     */
+    private static int[] getLengths(int[] counts) {
+        int symbols = 0;
+        long[] leaves = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                leaves[symbols++] = (long) counts[i] << 32 | i;
+            }
+        }
+        Arrays.sort(leaves, 0, symbols);
+        int nodes = 2 * symbols - 1;
+        long[] weights = new long[nodes];
+        int[] parents = new int[nodes];
+        for (int i = 0; i < symbols; i++) {
+            weights[i] = leaves[i] >>> 32;
+        }
+        int leaf = 0;
+        int merged = symbols;
+        for (int next = symbols; next < nodes; next++) {
+            int[] children = new int[2];
+            for (int c = 0; c < 2; c++) {
+                if (leaf < symbols && (merged == next || weights[leaf] <= weights[merged])) {
+                    children[c] = leaf++;
+                } else {
+                    children[c] = merged++;
+                }
+            }
+            weights[next] = weights[children[0]] + weights[children[1]];
+            parents[children[0]] = next;
+            parents[children[1]] = next;
+        }
+        // the depth of each node is one more than the depth of its parent, which was created later
+        int[] depths = new int[nodes];
+        for (int i = nodes - 2; i >= 0; i--) {
+            depths[i] = depths[parents[i]] + 1;
+        }
+        int[] lengths = new int[counts.length];
+        for (int i = 0; i < symbols; i++) {
+            lengths[(int) leaves[i]] = depths[i];
+        }
+        return lengths;
+    }
+
+    /**
+     * Assign canonical codes: shorter codes come first, and codes of the same length are ordered by symbol.
+     */
+    private static int[] getCodes(int[] lengths) {
+        int longest = getLongest(lengths);
+        int[] lengthCounts = new int[longest + 1];
+        for (int length : lengths) {
+            lengthCounts[length]++;
+        }
+        lengthCounts[0] = 0;
+        int[] nextCodes = new int[longest + 1];
+        int code = 0;
+        for (int length = 1; length <= longest; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCodes[length] = code;
+        }
+        int[] codes = new int[lengths.length];
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            int length = lengths[symbol];
+            if (length > 0) {
+                codes[symbol] = Integer.reverse(nextCodes[length]++) >>> (32 - length);
+            }
+        }
+        return codes;
+    }
+
+    private static int getLongest(int[] lengths) {
+        int longest = 0;
+        for (int length : lengths) {
+            longest = Math.max(longest, length);
+        }
+        return longest;
+    }
+}
@@ -0,0 +1,430 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import java.util.Arrays;
+
+/**
+ * Reduces the colours of a spritesheet to a palette, with a small loss. The colours of the pixels are counted in a
+ * histogram first, whose colours are split into boxes by median cut and refined by a few iterations of k-means. The
+ * pixels are then mapped to their nearest palette colour, optionally with Floyd-Steinberg dithering.
+ * <p>
+ * Colours are compared with premultiplied alpha, so that the colour of almost transparent pixels matters little
+ * and fully transparent pixels all become the same colour.
+ *
+ * @author ssiegler
+ */
+final class Quantizer {
+    // The histogram drops low bits of the colours above this number of colours
+    private static final int HISTOGRAM_COLORS = 1 << 17;
+    private static final int KMEANS_ITERATIONS = 3;
+    // The root mean square error per channel at which the quality drops to 0
+    private static final double ERROR_AT_ZERO_QUALITY = 32;
+    private static final int CACHE_SIZE = 1 << 16;
+    // Dithering looks up the nearest palette colour with the two low bits of each channel set to their middle, so
+    // that the cache still helps although the diffused errors make almost every colour unique
+    private static final int DITHERING_MASK = 0xfc;
+    private static final int DITHERING_CENTRE = 2;
+    private static final int CHANNELS = 4;
+
+    private final int maxColors;
+    private final boolean dithering;
+    private final ColorHistogram histogram = new ColorHistogram(HISTOGRAM_COLORS);
+
+    // the premultiplied channels of the palette colours sorted by green, and their ARGB colours
+    private int[] alpha;
+    private int[] red;
+    private int[] green;
+    private int[] blue;
+    private int[] palette;
+
+    // the palette indices plus one of recently mapped premultiplied colours, 0 marks empty slots
+    private final int[] cacheColors = new int[CACHE_SIZE];
+    private final int[] cacheIndices = new int[CACHE_SIZE];
+
+    // the errors of the current and the next row times 16, with one pixel of padding on both sides
+    private int[] errors;
+    private int[] nextErrors;
+
+    /**
+     * Create a quantizer.
+     *
+     * @param maxColors the maximum number of colours of the palette, from 1 to 256
+     * @param dithering true to diffuse the error of each pixel to its neighbours
+     */
+    Quantizer(int maxColors, boolean dithering) {
+        if (maxColors < 1 || maxColors > PngFormat.MAX_PALETTE_SIZE) {
+            throw new IllegalArgumentException("The number of colours must be between 1 and 256: " + maxColors);
+        }
+        this.maxColors = maxColors;
+        this.dithering = dithering;
+    }
+
+    /**
+     * Count the colours of a range of pixels for the palette.
+     *
+     * @param pixels the ARGB pixels
+     * @param offset the index of the first pixel
+     * @param length the number of pixels
+     */
+    void addAll(int[] pixels, int offset, int length) {
+        histogram.addAll(pixels, offset, length);
+    }
+
+    /**
+     * Create the palette for the counted colours.
+     *
+     * @return the quality of the palette from 0 to 100, where 100 means that every colour is kept exactly
+     */
+    int createPalette() {
+        int[] colors = histogram.getColors();
+        int[] allCounts = histogram.getCounts();
+        long pixels = 0;
+        boolean transparent = false;
+        for (int i = 0; i < colors.length; i++) {
+            pixels += allCounts[i];
+            transparent |= colors[i] == 0;
+        }
+        // fully transparent pixels keep a palette colour of their own, which the other colours do not move
+        transparent &= maxColors > 1;
+        int size = transparent ? colors.length - 1 : colors.length;
+        int[][] channels = new int[CHANNELS][size];
+        int[] counts = new int[size];
+        for (int i = 0, j = 0; i < colors.length; i++) {
+            if (transparent && colors[i] == 0) {
+                continue;
+            }
+            int a = colors[i] >>> 24;
+            channels[0][j] = a;
+            channels[1][j] = premultiply(colors[i] >>> 16 & 0xff, a);
+            channels[2][j] = premultiply(colors[i] >>> 8 & 0xff, a);
+            channels[3][j] = premultiply(colors[i] & 0xff, a);
+            counts[j++] = allCounts[i];
+        }
+
+        setPalette(medianCut(channels, counts, transparent ? maxColors - 1 : maxColors));
+        double error = 0;
+        for (int iteration = 0; iteration <= KMEANS_ITERATIONS; iteration++) {
+            // assign each colour to its nearest palette colour and move the palette colours to their means
+            int count = alpha.length;
+            double[][] sums = new double[CHANNELS][count];
+            double[] weights = new double[count];
+            error = 0;
+            for (int i = 0; i < size; i++) {
+                int index = findNearest(channels[0][i], channels[1][i], channels[2][i], channels[3][i]);
+                int weight = counts[i];
+                error += (double) weight * getDistance(index, channels[0][i], channels[1][i], channels[2][i], channels[3][i]);
+                weights[index] += weight;
+                for (int c = 0; c < CHANNELS; c++) {
+                    sums[c][index] += (double) weight * channels[c][i];
+                }
+            }
+            if (iteration == KMEANS_ITERATIONS) {
+                break;
+            }
+            int[][] means = {alpha, red, green, blue};
+            for (int index = 0; index < count; index++) {
+                if (weights[index] > 0) {
+                    for (int c = 0; c < CHANNELS; c++) {
+                        means[c][index] = (int) Math.round(sums[c][index] / weights[index]);
+                    }
+                }
+            }
+            setPalette(means);
+        }
+        if (transparent) {
+            int[][] means = {alpha, red, green, blue};
+            for (int c = 0; c < CHANNELS; c++) {
+                means[c] = Arrays.copyOf(means[c], alpha.length + 1);
+            }
+            setPalette(means);
+        }
+        Arrays.fill(cacheIndices, 0);
+
+        double rootMeanSquareError = (pixels == 0) ? 0 : Math.sqrt(error / pixels / CHANNELS);
+        return (int) Math.round(Math.max(0, 100 * (1 - rootMeanSquareError / ERROR_AT_ZERO_QUALITY)));
+    }
+
+    /**
+     * Get the colours of the palette, which are the only colours of mapped pixels.
+     *
+     * @return the colours of the palette
+     */
+    ColorTable getColors() {
+        ColorTable colors = new ColorTable(palette.length);
+        for (int color : palette) {
+            colors.add(color);
+        }
+        return colors;
+    }
+
+    /**
+     * Map rows of pixels to the colours of the palette. When dithering, the error of the last row is diffused into
+     * the first row of the next call, so the rows of an image must be mapped from top to bottom.
+     *
+     * @param pixels the ARGB pixels, which are replaced by the colours of the palette
+     * @param offset the index of the first pixel of the first row
+     * @param width  the number of pixels of each row
+     * @param rows   the number of rows
+     */
+    void remap(int[] pixels, int offset, int width, int rows) {
+        if (!dithering) {
+            int previous = 0;
+            int mapped = palette[findCached(0, 0, 0, 0)];
+            for (int i = offset, end = offset + width * rows; i < end; i++) {
+                int pixel = pixels[i];
+                if (pixel != previous) {
+                    previous = pixel;
+                    int a = pixel >>> 24;
+                    mapped = palette[findCached(a, premultiply(pixel >>> 16 & 0xff, a), premultiply(pixel >>> 8 & 0xff, a),
+                                                premultiply(pixel & 0xff, a))];
+                }
+                pixels[i] = mapped;
+            }
+            return;
+        }
+        if (errors == null || errors.length != (width + 2) * CHANNELS) {
+            errors = new int[(width + 2) * CHANNELS];
+            nextErrors = new int[(width + 2) * CHANNELS];
+        }
+        for (int y = 0; y < rows; y++) {
+            int start = offset + y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[start + x];
+                int a = pixel >>> 24;
+                if (a == 0) {
+                    // transparent pixels stay transparent and spread no error
+                    pixels[start + x] = palette[findCached(0, 0, 0, 0)];
+                    continue;
+                }
+                int e = (x + 1) * CHANNELS;
+                a = clamp(a + (errors[e] + 8 >> 4), 0, 255);
+                int r = clamp(premultiply(pixel >>> 16 & 0xff, a) + (errors[e + 1] + 8 >> 4), 0, a);
+                int g = clamp(premultiply(pixel >>> 8 & 0xff, a) + (errors[e + 2] + 8 >> 4), 0, a);
+                int b = clamp(premultiply(pixel & 0xff, a) + (errors[e + 3] + 8 >> 4), 0, a);
+                int index = findCached(a & DITHERING_MASK | DITHERING_CENTRE, r & DITHERING_MASK | DITHERING_CENTRE,
+                                       g & DITHERING_MASK | DITHERING_CENTRE, b & DITHERING_MASK | DITHERING_CENTRE);
+                pixels[start + x] = palette[index];
+                diffuse(e, a - alpha[index], 0);
+                diffuse(e, r - red[index], 1);
+                diffuse(e, g - green[index], 2);
+                diffuse(e, b - blue[index], 3);
+            }
+            int[] swap = errors;
+            errors = nextErrors;
+            nextErrors = swap;
+            Arrays.fill(nextErrors, 0);
+        }
+    }
+
+    private void diffuse(int e, int error, int channel) {
+        errors[e + CHANNELS + channel] += 7 * error;
+        nextErrors[e - CHANNELS + channel] += 3 * error;
+        nextErrors[e + channel] += 5 * error;
+        nextErrors[e + CHANNELS + channel] += error;
+    }
+
+    private static int[][] medianCut(int[][] channels, int[] counts, int maxColors) {
+        int size = counts.length;
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // each box is a range of the order, the boxes split the range of the box with the largest error
+        int[] starts = new int[maxColors];
+        int[] ends = new int[maxColors];
+        double[] boxErrors = new double[maxColors];
+        int[] splitChannels = new int[maxColors];
+        long[] keys = new long[size];
+        int boxes = 0;
+        if (size > 0) {
+            ends[0] = size;
+            boxErrors[0] = measure(channels, counts, order, 0, size, splitChannels, 0);
+            boxes = 1;
+        }
+        while (boxes < maxColors) {
+            int box = 0;
+            for (int i = 1; i < boxes; i++) {
+                if (boxErrors[i] > boxErrors[box]) {
+                    box = i;
+                }
+            }
+            if (boxErrors[box] <= 0) {
+                break;
+            }
+            int start = starts[box];
+            int end = ends[box];
+            int[] values = channels[splitChannels[box]];
+            long total = 0;
+            for (int i = start; i < end; i++) {
+                keys[i] = (long) values[order[i]] << 32 | order[i];
+                total += counts[order[i]];
+            }
+            Arrays.sort(keys, start, end);
+            int split = start;
+            long weight = 0;
+            for (int i = start; i < end; i++) {
+                order[i] = (int) keys[i];
+            }
+            while (split < end - 1 && 2 * (weight + counts[order[split]]) <= total) {
+                weight += counts[order[split]];
+                split++;
+            }
+            split = Math.max(split, start + 1);
+            starts[boxes] = split;
+            ends[boxes] = end;
+            ends[box] = split;
+            boxErrors[box] = measure(channels, counts, order, start, split, splitChannels, box);
+            boxErrors[boxes] = measure(channels, counts, order, split, end, splitChannels, boxes);
+            boxes++;
+        }
+
+        int[][] means = new int[CHANNELS][Math.max(1, boxes)];
+        for (int box = 0; box < boxes; box++) {
+            double weight = 0;
+            double[] sums = new double[CHANNELS];
+            for (int i = starts[box]; i < ends[box]; i++) {
+                weight += counts[order[i]];
+                for (int c = 0; c < CHANNELS; c++) {
+                    sums[c] += (double) counts[order[i]] * channels[c][order[i]];
+                }
+            }
+            for (int c = 0; c < CHANNELS; c++) {
+                means[c][box] = (int) Math.round(sums[c] / weight);
+            }
+        }
+        return means;
+    }
+
+    /**
+     * Measure the squared error of the colours of a box to their mean, and choose the channel with the largest
+     * error to split the box.
+     */
+    private static double measure(int[][] channels, int[] counts, int[] order, int start, int end, int[] splitChannels, int box) {
+        double weight = 0;
+        double[] sums = new double[CHANNELS];
+        double[] squares = new double[CHANNELS];
+        for (int i = start; i < end; i++) {
+            int count = counts[order[i]];
+            weight += count;
+            for (int c = 0; c < CHANNELS; c++) {
+                double value = channels[c][order[i]];
+                sums[c] += count * value;
+                squares[c] += count * value * value;
+            }
+        }
+        double error = 0;
+        double largest = -1;
+        for (int c = 0; c < CHANNELS; c++) {
+            double channelError = squares[c] - sums[c] * sums[c] / weight;
+            error += channelError;
+            if (channelError > largest) {
+                largest = channelError;
+                splitChannels[box] = c;
+            }
+        }
+        // rounding leaves a tiny error for boxes whose colours are the same after premultiplying
+        return (error > weight * 1e-6) ? error : 0;
+    }
+
+    private void setPalette(int[][] means) {
+        int count = means[0].length;
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (long) means[2][i] << 32 | i;
+        }
+        Arrays.sort(keys);
+        alpha = new int[count];
+        red = new int[count];
+        green = new int[count];
+        blue = new int[count];
+        palette = new int[count];
+        for (int i = 0; i < count; i++) {
+            int index = (int) keys[i];
+            alpha[i] = means[0][index];
+            red[i] = means[1][index];
+            green[i] = means[2][index];
+            blue[i] = means[3][index];
+            palette[i] = unpremultiply(alpha[i], red[i], green[i], blue[i]);
+        }
+    }
+
+    private int findCached(int a, int r, int g, int b) {
+        int color = a << 24 | r << 16 | g << 8 | b;
+        int hash = color * 0x9e3779b9;
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        if (cacheIndices[slot] == 0 || cacheColors[slot] != color) {
+            cacheColors[slot] = color;
+            cacheIndices[slot] = findNearest(a, r, g, b) + 1;
+        }
+        return cacheIndices[slot] - 1;
+    }
+
+    /**
+     * Find the nearest palette colour, searching outwards from the palette colours with the same green, until the
+     * difference in green alone exceeds the distance of the nearest colour found.
+     */
+    private int findNearest(int a, int r, int g, int b) {
+        int high = Arrays.binarySearch(green, g);
+        if (high < 0) {
+            high = -high - 1;
+        }
+        int low = high - 1;
+        int nearest = -1;
+        int best = Integer.MAX_VALUE;
+        while (low >= 0 || high < green.length) {
+            if (high < green.length) {
+                int dg = green[high] - g;
+                if (dg * dg >= best) {
+                    high = green.length;
+                } else {
+                    int distance = getDistance(high, a, r, g, b);
+                    if (distance < best) {
+                        best = distance;
+                        nearest = high;
+                    }
+                    high++;
+                }
+            }
+            if (low >= 0) {
+                int dg = green[low] - g;
+                if (dg * dg >= best) {
+                    low = -1;
+                } else {
+                    int distance = getDistance(low, a, r, g, b);
+                    if (distance < best) {
+                        best = distance;
+                        nearest = low;
+                    }
+                    low--;
+                }
+            }
+        }
+        return nearest;
+    }
+
+    private int getDistance(int index, int a, int r, int g, int b) {
+        int da = alpha[index] - a;
+        int dr = red[index] - r;
+        int dg = green[index] - g;
+        int db = blue[index] - b;
+        return da * da + dr * dr + dg * dg + db * db;
+    }
+
+    private static int premultiply(int value, int alpha) {
+        return (value * alpha + 127) / 255;
+    }
+
+    private static int unpremultiply(int a, int r, int g, int b) {
+        if (a == 0) {
+            return 0;
+        }
+        return a << 24 | unpremultiplyChannel(r, a) << 16 | unpremultiplyChannel(g, a) << 8 | unpremultiplyChannel(b, a);
+    }
+
+    private static int unpremultiplyChannel(int value, int alpha) {
+        return Math.min(255, (value * 255 + alpha / 2) / alpha);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
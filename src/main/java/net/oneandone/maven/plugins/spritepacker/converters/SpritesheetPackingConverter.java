@@ -1,36 +1,90 @@
 package net.oneandone.maven.plugins.spritepacker.converters;
 
+import com.google.common.base.Throwables;
 import net.oneandone.maven.plugins.spritepacker.ImagePacking;
+import net.oneandone.maven.plugins.spritepacker.ImageSource;
 import net.oneandone.maven.plugins.spritepacker.NamedImage;
+import net.oneandone.maven.plugins.spritepacker.Utils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
 
-import javax.imageio.ImageIO;
 import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * Converts ImagePacking to a spritesheet PNG file.
+ * Converts ImagePacking to a spritesheet PNG file, and optionally to a lossless WebP file of the same spritesheet.
  *
  * @author Robert Murphy, mklein
  */
 public class SpritesheetPackingConverter implements PackingConverter {
 
+    // Each thread draws a few chunks of images, so that threads which drew small images can take over more chunks
+    private static final int CHUNKS_PER_THREAD = 4;
+    // The number of pixels of the bands in which the colours of a banded spritesheet are scanned
+    private static final int COUNTING_BAND_PIXELS = 1 << 20;
+
     private final Path output;
+    private final int threads;
+    private final PngWriter pngWriter;
+    private final boolean banded;
+    private final ColorReduction colorReduction;
+    private final boolean dithering;
+    private final int minQuality;
+    private final Path webpOutput;
 
     /**
-     * Create a spritesheet converter with output file output.
+     * Create a spritesheet converter with output file output, which draws the spritesheet with a single thread and
+     * writes it with the default options.
      *
      * @param output the path to the output file
      */
     public SpritesheetPackingConverter(Path output) {
+        this(output, new Options());
+    }
+
+    /**
+     * Create a spritesheet converter with output file output and the given options. The options are copied, so
+     * changing them afterwards does not affect the converter.
+     *
+     * @param output  the path to the output file
+     * @param options the options of drawing and writing the spritesheet
+     */
+    public SpritesheetPackingConverter(Path output, Options options) {
+        if (options.threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive: " + options.threads);
+        }
+        if (options.minQuality < 0 || options.minQuality > 100) {
+            throw new IllegalArgumentException("The minimum quality must be between 0 and 100: " + options.minQuality);
+        }
+        if (options.banded && options.webpOutput != null) {
+            throw new IllegalArgumentException("A WebP spritesheet cannot be drawn in bands");
+        }
+        int compressionLevel = (options.compressionLevel == null) ? options.compression.getLevel() : options.compressionLevel;
         this.output = output;
+        this.threads = options.threads;
+        this.pngWriter = options.compression.createWriter(compressionLevel, options.threads);
+        this.banded = options.banded;
+        this.colorReduction = options.colorReduction;
+        this.dithering = options.dithering;
+        this.minQuality = options.minQuality;
+        this.webpOutput = options.webpOutput;
     }
 
     @Override
@@ -45,32 +99,548 @@ public class SpritesheetPackingConverter implements PackingConverter {
             throw new MojoExecutionException("Couldn't create target directory: " + output.getParent(), e);
         }
 
+        if (banded) {
+            PngFormat format = PngFormat.RGBA;
+            PngWriter.BandRenderer renderer = new BandCompositor(imageList, imagePacking);
+            if (colorReduction != ColorReduction.NONE) {
+                log.info("Scanning colours of spritesheet...");
+                Quantizer quantizer = createQuantizer();
+                ColorScan scan = scanColors(imageList, imagePacking, quantizer);
+                quantizer = createPalette(scan, quantizer, log);
+                if (quantizer != null) {
+                    renderer = new QuantizingRenderer(renderer, quantizer, imagePacking.getWidth());
+                }
+                format = getFormat(scan, quantizer, log);
+            }
+            log.info("Generating spritesheet in bands to file " + output.toAbsolutePath());
+            try (OutputStream out = Files.newOutputStream(output)) {
+                pngWriter.write(imagePacking.getWidth(), imagePacking.getHeight(), format, renderer, out);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Couldn't write spritesheet " + output.toAbsolutePath() + ": " + e.getMessage(), e);
+            }
+            return;
+        }
+
         log.info("Generating spritesheet...");
 
         BufferedImage spritesheet = createSpritesheet(imageList, imagePacking);
+        PngFormat format = PngFormat.RGBA;
+        if (colorReduction != ColorReduction.NONE) {
+            Quantizer quantizer = createQuantizer();
+            ColorScan scan = scanColors(spritesheet, quantizer);
+            quantizer = createPalette(scan, quantizer, log);
+            if (quantizer != null) {
+                remap(spritesheet, quantizer);
+            }
+            format = getFormat(scan, quantizer, log);
+        }
 
         log.info("Saving spritesheet to file " + output.toAbsolutePath());
 
-        try {
-            ImageIO.write(spritesheet, "png", Files.newOutputStream(output));
+        try (OutputStream out = Files.newOutputStream(output)) {
+            pngWriter.write(spritesheet, format, out);
         } catch (IOException e) {
             throw new MojoExecutionException("Couldn't write spritesheet " + output.toAbsolutePath(), e);
         }
+
+        if (webpOutput != null) {
+            writeWebp(spritesheet, log);
+        }
     }
 
-    protected BufferedImage createSpritesheet(List<NamedImage> imageList, ImagePacking imagePacking) {
-        BufferedImage spritesheet = new BufferedImage(imagePacking.getWidth(), imagePacking.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D gfx = spritesheet.createGraphics();
-        gfx.setComposite(AlphaComposite.Src);
-        for (NamedImage image : imageList) {
-            Point imagePosition = imagePacking.getPosition(image);
-            int x = imagePosition.x;
-            int y = imagePosition.y;
-            int width = image.getWidth();
-            int height = image.getHeight();
-            gfx.drawImage(image.getImage(), x, y, x + width, y + height, 0, 0, width, height, null);
+    /**
+     * Write the spritesheet as lossless WebP file.
+     *
+     * @param spritesheet the spritesheet, after any quantization
+     * @param log         the log
+     * @throws MojoExecutionException if the file cannot be written
+     */
+    private void writeWebp(BufferedImage spritesheet, Log log) throws MojoExecutionException {
+        log.info("Saving spritesheet to file " + webpOutput.toAbsolutePath());
+        try {
+            if (webpOutput.getParent() != null) {
+                Files.createDirectories(webpOutput.getParent());
+            }
+            try (OutputStream out = Files.newOutputStream(webpOutput)) {
+                new WebpWriter().write(spritesheet, out);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Couldn't write spritesheet " + webpOutput.toAbsolutePath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return a quantizer which counts the colours of the spritesheet, or null if the spritesheet is not quantized
+     */
+    private Quantizer createQuantizer() {
+        return (colorReduction == ColorReduction.QUANTIZE) ? new Quantizer(PngFormat.MAX_PALETTE_SIZE, dithering) : null;
+    }
+
+    /**
+     * Create the palette of a quantized spritesheet, unless a lossless format stores no more than a byte per pixel
+     * or the palette does not reach the minimum quality.
+     *
+     * @param scan      the scan of the pixels of the spritesheet
+     * @param quantizer the quantizer which counted the colours of the spritesheet, or null
+     * @param log       the log which receives the quality of the palette
+     * @return          the quantizer with its palette, or null if the spritesheet is written without loss
+     */
+    private Quantizer createPalette(ColorScan scan, Quantizer quantizer, Log log) {
+        if (quantizer == null || scan.getFormat().getBitsPerPixel() <= 8) {
+            return null;
+        }
+        int quality = quantizer.createPalette();
+        if (quality < minQuality) {
+            log.info("Quantized palette reaches quality " + quality + " below the minimum quality " + minQuality + ".");
+            return null;
+        }
+        log.info("Quantized palette reaches quality " + quality + ".");
+        return quantizer;
+    }
+
+    /**
+     * Choose the PNG format for the scanned pixels of the spritesheet.
+     *
+     * @param scan      the scan of the pixels of the spritesheet
+     * @param quantizer the quantizer whose palette the pixels are mapped to, or null
+     * @param log       the log which receives the chosen format
+     * @return          the PNG format
+     */
+    private static PngFormat getFormat(ColorScan scan, Quantizer quantizer, Log log) {
+        PngFormat format = (quantizer == null) ? scan.getFormat() : PngFormat.indexed(quantizer.getColors());
+        log.info("Writing spritesheet as " + format + ".");
+        return format;
+    }
+
+    /**
+     * Scan the pixels of a spritesheet for the smallest PNG format that holds them without loss.
+     *
+     * @param spritesheet the spritesheet
+     * @param quantizer   the quantizer which counts the colours, or null
+     * @return            the scan of the pixels
+     */
+    private static ColorScan scanColors(BufferedImage spritesheet, Quantizer quantizer) {
+        ColorScan scan = new ColorScan();
+        int width = spritesheet.getWidth();
+        if (spritesheet.getType() == BufferedImage.TYPE_INT_ARGB) {
+            int[] pixels = ImageBlitter.getPixels(spritesheet);
+            scan.scan(pixels, 0, width * spritesheet.getHeight());
+            if (quantizer != null) {
+                quantizer.addAll(pixels, 0, width * spritesheet.getHeight());
+            }
+            return scan;
+        }
+        int[] row = new int[width];
+        for (int y = 0; y < spritesheet.getHeight() && (!scan.isDone() || quantizer != null); y++) {
+            spritesheet.getRGB(0, y, width, 1, row, 0, width);
+            scan.scan(row, 0, width);
+            if (quantizer != null) {
+                quantizer.addAll(row, 0, width);
+            }
+        }
+        return scan;
+    }
+
+    /**
+     * Scan the pixels of a spritesheet which is drawn in bands for the smallest PNG format that holds them without
+     * loss, stopping as soon as the remaining bands cannot change the format unless the colours are counted.
+     *
+     * @param imageList     the list of images
+     * @param imagePacking  the ImagePacking of the images
+     * @param quantizer     the quantizer which counts the colours, or null
+     * @return              the scan of the pixels
+     * @throws MojoExecutionException when any image cannot be decoded
+     */
+    private static ColorScan scanColors(List<NamedImage> imageList, ImagePacking imagePacking, Quantizer quantizer) throws MojoExecutionException {
+        ColorScan scan = new ColorScan();
+        int width = imagePacking.getWidth();
+        int bandRows = Math.max(1, COUNTING_BAND_PIXELS / Math.max(1, width));
+        BandCompositor compositor = new BandCompositor(imageList, imagePacking);
+        for (int first = 0; first < imagePacking.getHeight() && (!scan.isDone() || quantizer != null); first += bandRows) {
+            int rows = Math.min(bandRows, imagePacking.getHeight() - first);
+            try {
+                int[] pixels = ImageBlitter.getPixels(compositor.render(first, first + rows));
+                scan.scan(pixels, 0, width * rows);
+                if (quantizer != null) {
+                    quantizer.addAll(pixels, 0, width * rows);
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
+            }
+        }
+        return scan;
+    }
+
+    /**
+     * Map the pixels of a spritesheet to the colours of the palette of a quantizer.
+     *
+     * @param spritesheet the spritesheet
+     * @param quantizer   the quantizer with its palette
+     */
+    private static void remap(BufferedImage spritesheet, Quantizer quantizer) {
+        int width = spritesheet.getWidth();
+        if (spritesheet.getType() == BufferedImage.TYPE_INT_ARGB) {
+            quantizer.remap(ImageBlitter.getPixels(spritesheet), 0, width, spritesheet.getHeight());
+            return;
+        }
+        int[] row = new int[width];
+        for (int y = 0; y < spritesheet.getHeight(); y++) {
+            spritesheet.getRGB(0, y, width, 1, row, 0, width);
+            quantizer.remap(row, 0, width, 1);
+            spritesheet.setRGB(0, y, width, 1, row, 0, width);
+        }
+    }
+
+    /**
+     * Draw all images at their packed positions into a new spritesheet image. Images with common colour models are
+     * copied straight into the pixels of the spritesheet, others are drawn by Java2D. Since packed images never
+     * overlap, the images are split into chunks which are drawn in parallel.
+     *
+     * @param imageList     the list of images
+     * @param imagePacking  the ImagePacking of the images
+     * @return              the spritesheet image
+     * @throws MojoExecutionException when any image cannot be decoded
+     */
+    protected BufferedImage createSpritesheet(final List<NamedImage> imageList, final ImagePacking imagePacking) throws MojoExecutionException {
+        final BufferedImage spritesheet = new BufferedImage(imagePacking.getWidth(), imagePacking.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        final int[] drawn = getDrawnImages(imageList, imagePacking);
+        int workers = Math.min(threads, drawn.length);
+        if (workers <= 1) {
+            drawImages(imageList, imagePacking, spritesheet, drawn, 0, drawn.length);
+            return spritesheet;
+        }
+
+        int chunks = Math.min(workers * CHUNKS_PER_THREAD, drawn.length);
+        List<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final int from = (int) ((long) drawn.length * chunk / chunks);
+            final int to = (int) ((long) drawn.length * (chunk + 1) / chunks);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws MojoExecutionException {
+                    drawImages(imageList, imagePacking, spritesheet, drawn, from, to);
+                    return null;
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(workers, Utils.THREAD_FACTORY);
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                getResult(future);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while drawing spritesheet", e);
+        } finally {
+            executor.shutdownNow();
         }
         return spritesheet;
     }
 
+    /**
+     * Get the images to draw. Images with identical content that are placed at the same position are drawn only once.
+     *
+     * @param imageList     the list of images
+     * @param imagePacking  the ImagePacking of the images
+     * @return              the indices of the images to draw
+     */
+    private static int[] getDrawnImages(List<NamedImage> imageList, ImagePacking imagePacking) {
+        int[] drawn = new int[imageList.size()];
+        int count = 0;
+        Map<ImageSource, Integer> previousIndices = new IdentityHashMap<>(imageList.size());
+        for (int i = 0; i < imageList.size(); i++) {
+            Integer previous = previousIndices.put(imageList.get(i).getSource(), i);
+            if (previous == null || imagePacking.getX(previous) != imagePacking.getX(i) || imagePacking.getY(previous) != imagePacking.getY(i)) {
+                drawn[count++] = i;
+            }
+        }
+        return Arrays.copyOf(drawn, count);
+    }
+
+    /**
+     * Draw a range of images into the spritesheet.
+     *
+     * @param imageList     the list of images
+     * @param imagePacking  the ImagePacking of the images
+     * @param spritesheet   the spritesheet image
+     * @param drawn         the indices of the images to draw
+     * @param from          the first index into drawn
+     * @param to            the index into drawn after the last image
+     * @throws MojoExecutionException when any image cannot be decoded
+     */
+    private static void drawImages(List<NamedImage> imageList, ImagePacking imagePacking, BufferedImage spritesheet,
+                                   int[] drawn, int from, int to) throws MojoExecutionException {
+        Graphics2D gfx = null;
+        try {
+            for (int i = from; i < to; i++) {
+                NamedImage image = imageList.get(drawn[i]);
+                gfx = draw(readImage(image), image, spritesheet, imagePacking.getX(drawn[i]), imagePacking.getY(drawn[i]), gfx);
+            }
+        } finally {
+            if (gfx != null) {
+                gfx.dispose();
+            }
+        }
+    }
+
+    /**
+     * Draw an image into the spritesheet, or into a band of it. Images that cannot be copied are drawn by Java2D.
+     *
+     * @param source the decoded image
+     * @param image  the image
+     * @param target the spritesheet or band
+     * @param x      the x position of the image in the target
+     * @param y      the y position of the image in the target, negative if it starts above a band
+     * @param gfx    the graphics of the target, or null if they have not been created yet
+     * @return       the graphics of the target, or null if they have not been created yet
+     */
+    private static Graphics2D draw(BufferedImage source, NamedImage image, BufferedImage target, int x, int y, Graphics2D gfx) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (source.getWidth() == width && source.getHeight() == height
+            && ImageBlitter.blit(source, ImageBlitter.getPixels(target), target.getWidth(), target.getHeight(), x, y)) {
+            return gfx;
+        }
+        if (gfx == null) {
+            gfx = target.createGraphics();
+            gfx.setComposite(AlphaComposite.Src);
+        }
+        gfx.drawImage(source, x, y, x + width, y + height, 0, 0, width, height, null);
+        return gfx;
+    }
+
+    /**
+     * Get the result of a completed drawing task, rethrowing the exception it failed with.
+     *
+     * @param future the completed task
+     * @throws MojoExecutionException when the task failed to decode an image
+     * @throws InterruptedException   when the current thread was interrupted
+     */
+    private static void getResult(Future<Void> future) throws MojoExecutionException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), MojoExecutionException.class);
+            throw new MojoExecutionException("Couldn't draw spritesheet", e.getCause());
+        }
+    }
+
+    /**
+     * Get the decoded pixel data of an image.
+     *
+     * @param image the image to decode
+     * @return      the decoded image
+     * @throws MojoExecutionException when the image cannot be decoded
+     */
+    private static BufferedImage readImage(NamedImage image) throws MojoExecutionException {
+        try {
+            return image.getImage();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Couldn't decode image " + image.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Draws the bands of the spritesheet from top to bottom. Each image is decoded once, when the first band it
+     * overlaps is drawn, and kept until the bands have passed it.
+     */
+    private static final class BandCompositor implements PngWriter.BandRenderer {
+        private final List<NamedImage> imageList;
+        private final ImagePacking imagePacking;
+        private final Integer[] drawn;
+        private final List<Integer> active = new ArrayList<>();
+        private final List<BufferedImage> activeImages = new ArrayList<>();
+        private int next;
+        private BufferedImage band;
+
+        BandCompositor(List<NamedImage> imageList, final ImagePacking imagePacking) {
+            this.imageList = imageList;
+            this.imagePacking = imagePacking;
+            int[] indices = getDrawnImages(imageList, imagePacking);
+            drawn = new Integer[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                drawn[i] = indices[i];
+            }
+            Arrays.sort(drawn, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Integer.compare(imagePacking.getY(a), imagePacking.getY(b));
+                }
+            });
+        }
+
+        @Override
+        public BufferedImage render(int first, int last) throws IOException {
+            if (band == null || band.getHeight() < last - first) {
+                band = new BufferedImage(imagePacking.getWidth(), last - first, BufferedImage.TYPE_INT_ARGB);
+            } else {
+                Arrays.fill(ImageBlitter.getPixels(band), 0);
+            }
+
+            for (int i = active.size() - 1; i >= 0; i--) {
+                int index = active.get(i);
+                if (imagePacking.getY(index) + imageList.get(index).getHeight() <= first) {
+                    active.remove(i);
+                    activeImages.remove(i);
+                }
+            }
+            for (; next < drawn.length && imagePacking.getY(drawn[next]) < last; next++) {
+                NamedImage image = imageList.get(drawn[next]);
+                if (imagePacking.getY(drawn[next]) + image.getHeight() > first) {
+                    active.add(drawn[next]);
+                    try {
+                        activeImages.add(image.getImage());
+                    } catch (IOException e) {
+                        throw new IOException("Couldn't decode image " + image.getName() + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+
+            Graphics2D gfx = null;
+            try {
+                for (int i = 0; i < active.size(); i++) {
+                    int index = active.get(i);
+                    gfx = draw(activeImages.get(i), imageList.get(index), band, imagePacking.getX(index), imagePacking.getY(index) - first, gfx);
+                }
+            } finally {
+                if (gfx != null) {
+                    gfx.dispose();
+                }
+            }
+            return band;
+        }
+    }
+
+    /**
+     * Maps the bands of another renderer to the colours of the palette of a quantizer. Rows which a band repeats
+     * from the band before keep their colours, so that dithering continues seamlessly from band to band.
+     */
+    private static final class QuantizingRenderer implements PngWriter.BandRenderer {
+        private final PngWriter.BandRenderer renderer;
+        private final Quantizer quantizer;
+        private final int width;
+        private int[] previous;
+        private int previousFirst;
+        private int mappedRows;
+
+        QuantizingRenderer(PngWriter.BandRenderer renderer, Quantizer quantizer, int width) {
+            this.renderer = renderer;
+            this.quantizer = quantizer;
+            this.width = width;
+        }
+
+        @Override
+        public BufferedImage render(int first, int last) throws IOException {
+            BufferedImage band = renderer.render(first, last);
+            int[] pixels = ImageBlitter.getPixels(band);
+            int length = (last - first) * width;
+            int mapped = Math.max(0, Math.min(mappedRows, last) - first) * width;
+            if (mapped > 0) {
+                System.arraycopy(previous, (first - previousFirst) * width, pixels, 0, mapped);
+            }
+            quantizer.remap(pixels, mapped, width, (length - mapped) / width);
+            if (previous == null || previous.length < length) {
+                previous = new int[length];
+            }
+            System.arraycopy(pixels, 0, previous, 0, length);
+            previousFirst = first;
+            mappedRows = Math.max(mappedRows, last);
+            return band;
+        }
+    }
+
+    /**
+     * The options of drawing and writing a spritesheet. Each setter returns the options, so that they can be chained.
+     */
+    public static final class Options {
+        private int threads = 1;
+        private PngCompression compression = PngCompression.DEFAULT;
+        private Integer compressionLevel;
+        private boolean banded;
+        private ColorReduction colorReduction = ColorReduction.NONE;
+        private boolean dithering;
+        private int minQuality;
+        private Path webpOutput;
+
+        /**
+         * @param threads the number of threads drawing and compressing the spritesheet, 1 by default
+         * @return        these options
+         */
+        public Options threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * @param compression the compression preset of the PNG file, {@link PngCompression#DEFAULT} by default
+         * @return            these options
+         */
+        public Options compression(PngCompression compression) {
+            this.compression = Objects.requireNonNull(compression);
+            return this;
+        }
+
+        /**
+         * @param compressionLevel the deflate compression level of the PNG file from 0 to 9, which overrides the
+         *                         level of the compression preset
+         * @return                 these options
+         */
+        public Options compressionLevel(int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * A banded spritesheet is drawn in bands of rows, which are compressed right away, so that the whole
+         * spritesheet is never kept in memory.
+         *
+         * @param banded true to draw the spritesheet in bands of rows, false by default
+         * @return       these options
+         */
+        public Options banded(boolean banded) {
+            this.banded = banded;
+            return this;
+        }
+
+        /**
+         * @param colorReduction the reduction of the colours of the PNG file, {@link ColorReduction#NONE} by default
+         * @return               these options
+         */
+        public Options colorReduction(ColorReduction colorReduction) {
+            this.colorReduction = Objects.requireNonNull(colorReduction);
+            return this;
+        }
+
+        /**
+         * @param dithering true to dither a quantized spritesheet, false by default
+         * @return          these options
+         */
+        public Options dithering(boolean dithering) {
+            this.dithering = dithering;
+            return this;
+        }
+
+        /**
+         * A quantized spritesheet is written without loss if its palette does not reach the minimum quality.
+         *
+         * @param minQuality the minimum quality of a quantized spritesheet from 0 to 100, 0 by default
+         * @return           these options
+         */
+        public Options minQuality(int minQuality) {
+            this.minQuality = minQuality;
+            return this;
+        }
+
+        /**
+         * The WebP file holds the same spritesheet without loss. It needs the whole spritesheet, so it cannot be
+         * written together with a banded spritesheet.
+         *
+         * @param webpOutput the path to the WebP output file, or null to write no WebP file, which is the default
+         * @return           these options
+         */
+        public Options webpOutput(Path webpOutput) {
+            this.webpOutput = webpOutput;
+            return this;
+        }
+    }
 }
@@ -0,0 +1,937 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes images as lossless WebP files. Images with up to 256 colours are written with a palette, which packs several
+ * pixels into one if there are no more than 16 colours. Other images are written with the green channel subtracted
+ * from red and blue, and with each pixel predicted from its neighbours by the best of the 14 predictors for its
+ * block. The remaining pixels are compressed by backward references to earlier pixels, a cache of recent colours
+ * and a prefix code for each channel.
+ *
+ * @author ssiegler
+ */
+final class WebpWriter {
+    /**
+     * The largest width and height of a WebP image.
+     */
+    static final int MAX_SIZE = 1 << 14;
+
+    private static final int SIGNATURE = 0x2f;
+    private static final int TRANSFORM_PREDICTOR = 0;
+    private static final int TRANSFORM_SUBTRACT_GREEN = 2;
+    private static final int TRANSFORM_COLOR_INDEXING = 3;
+    // The predictor of each block of 16x16 pixels is chosen on its own
+    private static final int PREDICTOR_BITS = 4;
+    private static final int PREDICTORS = 14;
+    private static final int OPAQUE_BLACK = 0xff000000;
+
+    private static final int LITERALS = 256;
+    private static final int LENGTH_CODES = 24;
+    private static final int DISTANCE_CODES = 40;
+    private static final int MAX_CODE_LENGTH = 15;
+    private static final int MAX_CODE_LENGTH_CODE_LENGTH = 7;
+    private static final int CODE_LENGTH_CODES = 19;
+    private static final int[] CODE_LENGTH_ORDER = {17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+    private static final int REPEAT_PREVIOUS = 16;
+    private static final int REPEAT_ZERO = 17;
+    private static final int REPEAT_ZERO_LONG = 18;
+
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 4096;
+    private static final int WINDOW = (1 << 20) - 120;
+    private static final int HASH_BITS = 18;
+    // The number of earlier positions with the same hash that are compared for a backward reference
+    private static final int CHAIN_LENGTH = 32;
+    private static final int CHAIN_BITS = 18;
+    // The sizes of the colour cache that are estimated, 0 disables the cache
+    private static final int[] CACHE_BITS = {0, 4, 6, 8, 10};
+    private static final int CACHE_MULTIPLIER = 0x1e35a7bd;
+
+    // The offsets (x, y) of the 120 short distance codes, which refer to pixels nearby in the rows above
+    private static final int[] PLANE_OFFSETS = {
+        0, 1, 1, 0, 1, 1, -1, 1, 0, 2, 2, 0, 1, 2, -1, 2,
+        2, 1, -2, 1, 2, 2, -2, 2, 0, 3, 3, 0, 1, 3, -1, 3,
+        3, 1, -3, 1, 2, 3, -2, 3, 3, 2, -3, 2, 0, 4, 4, 0,
+        1, 4, -1, 4, 4, 1, -4, 1, 3, 3, -3, 3, 2, 4, -2, 4,
+        4, 2, -4, 2, 0, 5, 3, 4, -3, 4, 4, 3, -4, 3, 5, 0,
+        1, 5, -1, 5, 5, 1, -5, 1, 2, 5, -2, 5, 5, 2, -5, 2,
+        4, 4, -4, 4, 3, 5, -3, 5, 5, 3, -5, 3, 0, 6, 6, 0,
+        1, 6, -1, 6, 6, 1, -6, 1, 2, 6, -2, 6, 6, 2, -6, 2,
+        4, 5, -4, 5, 5, 4, -5, 4, 3, 6, -3, 6, 6, 3, -6, 3,
+        0, 7, 7, 0, 1, 7, -1, 7, 5, 5, -5, 5, 7, 1, -7, 1,
+        4, 6, -4, 6, 6, 4, -6, 4, 2, 7, -2, 7, 7, 2, -7, 2,
+        3, 7, -3, 7, 7, 3, -7, 3, 5, 6, -5, 6, 6, 5, -6, 5,
+        8, 0, 4, 7, -4, 7, 7, 4, -7, 4, 8, 1, 8, 2, 6, 6,
+        -6, 6, 8, 3, 5, 7, -5, 7, 7, 5, -7, 5, 8, 4, 6, 7,
+        -6, 7, 7, 6, -7, 6, 8, 5, 7, 7, -7, 7, 8, 6, 8, 7
+    };
+    private static final int PLANE_CODES = PLANE_OFFSETS.length / 2;
+    // The logarithms of small counts, which are needed for the entropy of every block
+    private static final double[] LOG2_TABLE = new double[1 << 16];
+
+    static {
+        for (int i = 1; i < LOG2_TABLE.length; i++) {
+            LOG2_TABLE[i] = Math.log(i) / Math.log(2);
+        }
+    }
+
+    /**
+     * Write an image as lossless WebP file.
+     *
+     * @param image the image to write
+     * @param out   the stream to write to, which is not closed
+     * @throws IOException when the image is too large for WebP or cannot be written
+     */
+    void write(BufferedImage image, OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width > MAX_SIZE || height > MAX_SIZE) {
+            throw new IOException("WebP images are at most " + MAX_SIZE + " pixels wide and high: " + width + "x" + height);
+        }
+        int[] argb = getPixels(image);
+        boolean alpha = false;
+        for (int pixel : argb) {
+            if (pixel >>> 24 != 0xff) {
+                alpha = true;
+                break;
+            }
+        }
+
+        BitWriter bits = new BitWriter();
+        bits.write(SIGNATURE, 8);
+        bits.write(width - 1, 14);
+        bits.write(height - 1, 14);
+        bits.write(alpha ? 1 : 0, 1);
+        bits.write(0, 3);
+
+        ColorTable colors = new ColorTable(PngFormat.MAX_PALETTE_SIZE);
+        int[] pixels;
+        int encodedWidth;
+        if (colors.addAll(argb, 0, argb.length)) {
+            int[] palette = colors.createPalette();
+            int xBits = (palette.length <= 2) ? 3 : (palette.length <= 4) ? 2 : (palette.length <= 16) ? 1 : 0;
+            bits.write(1, 1);
+            bits.write(TRANSFORM_COLOR_INDEXING, 2);
+            bits.write(palette.length - 1, 8);
+            // the palette is stored as the difference of each colour to the one before
+            int[] deltas = new int[palette.length];
+            deltas[0] = palette[0];
+            for (int i = 1; i < palette.length; i++) {
+                deltas[i] = subtractPixels(palette[i], palette[i - 1]);
+            }
+            writeImage(bits, deltas, palette.length, false);
+            encodedWidth = (width + (1 << xBits) - 1) >> xBits;
+            pixels = bundle(argb, width, height, colors, xBits);
+        } else {
+            subtractGreen(argb);
+            bits.write(1, 1);
+            bits.write(TRANSFORM_SUBTRACT_GREEN, 2);
+            bits.write(1, 1);
+            bits.write(TRANSFORM_PREDICTOR, 2);
+            bits.write(PREDICTOR_BITS - 2, 3);
+            int[] predictors = choosePredictors(argb, width, height);
+            writeImage(bits, predictors, getBlocks(width), false);
+            encodedWidth = width;
+            pixels = predict(argb, width, height, predictors);
+        }
+        bits.write(0, 1);
+        writeImage(bits, pixels, encodedWidth, true);
+
+        byte[] data = bits.toByteArray();
+        int padding = data.length & 1;
+        DataOutputStream riff = new DataOutputStream(out);
+        riff.write("RIFF".getBytes(StandardCharsets.US_ASCII));
+        riff.writeInt(Integer.reverseBytes(4 + 8 + data.length + padding));
+        riff.write("WEBPVP8L".getBytes(StandardCharsets.US_ASCII));
+        riff.writeInt(Integer.reverseBytes(data.length));
+        riff.write(data);
+        if (padding > 0) {
+            riff.write(0);
+        }
+        riff.flush();
+    }
+
+    /**
+     * @return a copy of the ARGB pixels of an image, row by row
+     */
+    private static int[] getPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            int[] pixels = ImageBlitter.getPixels(image);
+            if (pixels.length == width * height) {
+                return pixels.clone();
+            }
+        }
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * Replace the colours by their palette indices, packing the indices of several pixels into the green channel
+     * of one pixel, the first pixel in the lowest bits.
+     */
+    private static int[] bundle(int[] argb, int width, int height, ColorTable colors, int xBits) {
+        int encodedWidth = (width + (1 << xBits) - 1) >> xBits;
+        int bitsPerPixel = 8 >> xBits;
+        int[] pixels = new int[encodedWidth * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = colors.indexOf(argb[y * width + x]);
+                pixels[y * encodedWidth + (x >> xBits)] |= index << (8 + bitsPerPixel * (x & ((1 << xBits) - 1)));
+            }
+        }
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] |= OPAQUE_BLACK;
+        }
+        return pixels;
+    }
+
+    private static void subtractGreen(int[] argb) {
+        for (int i = 0; i < argb.length; i++) {
+            int pixel = argb[i];
+            int green = (pixel >>> 8) & 0xff;
+            int red = ((pixel >>> 16) - green) & 0xff;
+            int blue = (pixel - green) & 0xff;
+            argb[i] = (pixel & 0xff00ff00) | red << 16 | blue;
+        }
+    }
+
+    private static int getBlocks(int size) {
+        return (size + (1 << PREDICTOR_BITS) - 1) >> PREDICTOR_BITS;
+    }
+
+    /**
+     * Choose the predictor of each block, as the green channel of the pixels of a sub-image with one pixel per
+     * block. The best predictor leaves residuals which take the fewest bits, estimated by the entropy of each channel
+     * of the residuals together with those of the blocks before.
+     */
+    private static int[] choosePredictors(int[] argb, int width, int height) {
+        int blocksPerRow = getBlocks(width);
+        int[] predictors = new int[blocksPerRow * getBlocks(height)];
+        int[][] residuals = new int[PREDICTORS][1 << (2 * PREDICTOR_BITS)];
+        // the counts of the values of the four channels of the residuals
+        int[] chosen = new int[4 * 256];
+        int[] counts = new int[4 * 256];
+        long total = 0;
+        int previous = 0;
+        for (int blockY = 0; blockY < getBlocks(height); blockY++) {
+            for (int blockX = 0; blockX < blocksPerRow; blockX++) {
+                int endY = Math.min(height, (blockY + 1) << PREDICTOR_BITS);
+                int endX = Math.min(width, (blockX + 1) << PREDICTOR_BITS);
+                int startY = Math.max(1, blockY << PREDICTOR_BITS);
+                int startX = Math.max(1, blockX << PREDICTOR_BITS);
+                // every predictor but black predicts a block of one colour, so keep the one of the block before
+                if (previous != 0 && isUniform(argb, width, startX, startY, endX, endY)) {
+                    predictors[blockY * blocksPerRow + blockX] = OPAQUE_BLACK | previous << 8;
+                    continue;
+                }
+                int n = getResiduals(argb, width, startX, startY, endX, endY, residuals);
+                int best = 0;
+                double smallest = Double.MAX_VALUE;
+                for (int mode = 0; mode < PREDICTORS && n > 0; mode++) {
+                    double cost = estimateBits(residuals[mode], n, chosen, total, counts);
+                    if (cost < smallest) {
+                        smallest = cost;
+                        best = mode;
+                    }
+                }
+                for (int k = 0; k < n; k++) {
+                    for (int channel = 0; channel < 4; channel++) {
+                        chosen[channel << 8 | (residuals[best][k] >>> (channel << 3)) & 0xff]++;
+                    }
+                }
+                total += n;
+                previous = best;
+                predictors[blockY * blocksPerRow + blockX] = OPAQUE_BLACK | best << 8;
+            }
+        }
+        return predictors;
+    }
+
+    /**
+     * Get the residuals of the pixels of a block for every predictor.
+     *
+     * @return the number of pixels
+     */
+    private static int getResiduals(int[] argb, int width, int startX, int startY, int endX, int endY, int[][] residuals) {
+        int n = 0;
+        // the first row and column use fixed predictors
+        for (int y = startY; y < endY; y++) {
+            for (int x = startX; x < endX; x++) {
+                int i = y * width + x;
+                int pixel = argb[i];
+                int left = argb[i - 1];
+                int top = argb[i - width];
+                int topLeft = argb[i - width - 1];
+                int topRight = argb[i - width + 1];
+                if (pixel == left && pixel == top && pixel == topLeft && pixel == topRight) {
+                    residuals[0][n] = subtractPixels(pixel, OPAQUE_BLACK);
+                    for (int mode = 1; mode < PREDICTORS; mode++) {
+                        residuals[mode][n] = 0;
+                    }
+                } else {
+                    for (int mode = 0; mode < PREDICTORS; mode++) {
+                        residuals[mode][n] = subtractPixels(pixel, predict(mode, left, top, topLeft, topRight));
+                    }
+                }
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Estimate the number of bits of the channels of residuals by their entropy, if they were added to the counts
+     * of the residuals before.
+     *
+     * @param residuals the residuals
+     * @param n         the number of residuals
+     * @param chosen    the counts of each value of each channel of the residuals before
+     * @param total     the number of residuals before
+     * @param counts    zeroed space for the counts of the residuals
+     * @return          the estimated number of bits
+     */
+    private static double estimateBits(int[] residuals, int n, int[] chosen, long total, int[] counts) {
+        for (int k = 0; k < n; k++) {
+            int residual = residuals[k];
+            counts[residual & 0xff]++;
+            counts[0x100 | (residual >>> 8) & 0xff]++;
+            counts[0x200 | (residual >>> 16) & 0xff]++;
+            counts[0x300 | residual >>> 24]++;
+        }
+        double bits = 4 * n * log2(total + n);
+        for (int k = 0; k < n; k++) {
+            int residual = residuals[k];
+            bits -= getBits(residual & 0xff, chosen, counts);
+            bits -= getBits(0x100 | (residual >>> 8) & 0xff, chosen, counts);
+            bits -= getBits(0x200 | (residual >>> 16) & 0xff, chosen, counts);
+            bits -= getBits(0x300 | residual >>> 24, chosen, counts);
+        }
+        return bits;
+    }
+
+    private static double getBits(int index, int[] chosen, int[] counts) {
+        int count = counts[index];
+        if (count == 0) {
+            return 0;
+        }
+        counts[index] = 0;
+        return count * log2(chosen[index] + count);
+    }
+
+    /**
+     * @return whether the pixels of a block are of the same colour as their neighbours to the left and above
+     */
+    private static boolean isUniform(int[] argb, int width, int startX, int startY, int endX, int endY) {
+        int color = argb[(startY - 1) * width + startX - 1];
+        for (int y = startY - 1; y < endY; y++) {
+            for (int x = startX - 1; x <= Math.min(endX, width - 1); x++) {
+                if (argb[y * width + x] != color) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static double log2(long value) {
+        return (value < LOG2_TABLE.length) ? LOG2_TABLE[(int) value] : Math.log(value) / Math.log(2);
+    }
+
+    private static int[] predict(int[] argb, int width, int height, int[] predictors) {
+        int[] residuals = new int[argb.length];
+        int blocksPerRow = getBlocks(width);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                int prediction;
+                if (y == 0) {
+                    prediction = (x == 0) ? OPAQUE_BLACK : argb[i - 1];
+                } else if (x == 0) {
+                    prediction = argb[i - width];
+                } else {
+                    int mode = (predictors[(y >> PREDICTOR_BITS) * blocksPerRow + (x >> PREDICTOR_BITS)] >>> 8) & 0xff;
+                    prediction = predict(mode, argb[i - 1], argb[i - width], argb[i - width - 1], argb[i - width + 1]);
+                }
+                residuals[i] = subtractPixels(argb[i], prediction);
+            }
+        }
+        return residuals;
+    }
+
+    private static int predict(int mode, int left, int top, int topLeft, int topRight) {
+        switch (mode) {
+            case 0:
+                return OPAQUE_BLACK;
+            case 1:
+                return left;
+            case 2:
+                return top;
+            case 3:
+                return topRight;
+            case 4:
+                return topLeft;
+            case 5:
+                return average(average(left, topRight), top);
+            case 6:
+                return average(left, topLeft);
+            case 7:
+                return average(left, top);
+            case 8:
+                return average(topLeft, top);
+            case 9:
+                return average(top, topRight);
+            case 10:
+                return average(average(left, topLeft), average(top, topRight));
+            case 11:
+                return select(left, top, topLeft);
+            case 12:
+                return clampAddSubtractFull(left, top, topLeft);
+            default:
+                return clampAddSubtractHalf(average(left, top), topLeft);
+        }
+    }
+
+    private static int average(int a, int b) {
+        return (((a ^ b) & 0xfefefefe) >>> 1) + (a & b);
+    }
+
+    private static int select(int left, int top, int topLeft) {
+        // the distances of the gradient estimate left + top - topLeft to left and to top
+        int toLeft = 0;
+        int toTop = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int l = (left >>> shift) & 0xff;
+            int t = (top >>> shift) & 0xff;
+            int tl = (topLeft >>> shift) & 0xff;
+            toLeft += Math.abs(t - tl);
+            toTop += Math.abs(l - tl);
+        }
+        return (toLeft < toTop) ? left : top;
+    }
+
+    private static int clampAddSubtractFull(int a, int b, int c) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int value = ((a >>> shift) & 0xff) + ((b >>> shift) & 0xff) - ((c >>> shift) & 0xff);
+            result |= clamp(value) << shift;
+        }
+        return result;
+    }
+
+    private static int clampAddSubtractHalf(int a, int b) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int value = (a >>> shift) & 0xff;
+            result |= clamp(value + (value - ((b >>> shift) & 0xff)) / 2) << shift;
+        }
+        return result;
+    }
+
+    private static int clamp(int value) {
+        return (value < 0) ? 0 : (value > 0xff) ? 0xff : value;
+    }
+
+    /**
+     * Subtract the channels of two pixels modulo 256.
+     */
+    private static int subtractPixels(int a, int b) {
+        int alphaAndGreen = 0x00ff00ff + (a & 0xff00ff00) - (b & 0xff00ff00);
+        int redAndBlue = 0xff00ff00 + (a & 0x00ff00ff) - (b & 0x00ff00ff);
+        return (alphaAndGreen & 0xff00ff00) | (redAndBlue & 0x00ff00ff);
+    }
+
+    /**
+     * Write the pixels of an image with backward references and prefix codes. Only the main image may use the
+     * colour cache, and it starts with the choice of a single group of prefix codes for the whole image.
+     */
+    private static void writeImage(BitWriter bits, int[] pixels, int width, boolean main) {
+        Matches matches = findMatches(pixels, width);
+        int cacheBits = 0;
+        if (main) {
+            double smallest = Double.MAX_VALUE;
+            for (int candidate : CACHE_BITS) {
+                double size = estimateSize(getHistograms(pixels, matches, candidate));
+                if (size < smallest) {
+                    smallest = size;
+                    cacheBits = candidate;
+                }
+            }
+        }
+        bits.write((cacheBits > 0) ? 1 : 0, 1);
+        if (cacheBits > 0) {
+            bits.write(cacheBits, 4);
+        }
+        if (main) {
+            // no meta prefix codes, the same codes apply to the whole image
+            bits.write(0, 1);
+        }
+
+        int[][] histograms = getHistograms(pixels, matches, cacheBits);
+        PrefixCode[] codes = new PrefixCode[histograms.length];
+        for (int i = 0; i < histograms.length; i++) {
+            codes[i] = writePrefixCode(bits, histograms[i]);
+        }
+        PrefixCode green = codes[0];
+        PrefixCode red = codes[1];
+        PrefixCode blue = codes[2];
+        PrefixCode alpha = codes[3];
+        PrefixCode distance = codes[4];
+
+        ColorCache cache = (cacheBits > 0) ? new ColorCache(cacheBits) : null;
+        int match = 0;
+        for (int i = 0; i < pixels.length; ) {
+            if (match < matches.count && matches.positions[match] == i) {
+                int length = matches.lengths[match];
+                writeValue(bits, green, LITERALS, length);
+                writeValue(bits, distance, 0, matches.distances[match]);
+                if (cache != null) {
+                    for (int j = i; j < i + length; j++) {
+                        cache.insert(pixels[j]);
+                    }
+                }
+                i += length;
+                match++;
+                continue;
+            }
+            int pixel = pixels[i];
+            int key = (cache != null) ? cache.find(pixel) : -1;
+            if (key >= 0) {
+                writeSymbol(bits, green, LITERALS + LENGTH_CODES + key);
+            } else {
+                writeSymbol(bits, green, (pixel >>> 8) & 0xff);
+                writeSymbol(bits, red, (pixel >>> 16) & 0xff);
+                writeSymbol(bits, blue, pixel & 0xff);
+                writeSymbol(bits, alpha, pixel >>> 24);
+            }
+            if (cache != null) {
+                cache.insert(pixel);
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Count the symbols of the green, red, blue, alpha and distance codes with a colour cache of the given size.
+     */
+    private static int[][] getHistograms(int[] pixels, Matches matches, int cacheBits) {
+        int[][] histograms = {
+            new int[LITERALS + LENGTH_CODES + ((cacheBits > 0) ? 1 << cacheBits : 0)],
+            new int[LITERALS], new int[LITERALS], new int[LITERALS], new int[DISTANCE_CODES]
+        };
+        ColorCache cache = (cacheBits > 0) ? new ColorCache(cacheBits) : null;
+        int match = 0;
+        for (int i = 0; i < pixels.length; ) {
+            if (match < matches.count && matches.positions[match] == i) {
+                int length = matches.lengths[match];
+                histograms[0][LITERALS + getPrefix(length)]++;
+                histograms[4][getPrefix(matches.distances[match])]++;
+                if (cache != null) {
+                    for (int j = i; j < i + length; j++) {
+                        cache.insert(pixels[j]);
+                    }
+                }
+                i += length;
+                match++;
+                continue;
+            }
+            int pixel = pixels[i];
+            int key = (cache != null) ? cache.find(pixel) : -1;
+            if (key >= 0) {
+                histograms[0][LITERALS + LENGTH_CODES + key]++;
+            } else {
+                histograms[0][(pixel >>> 8) & 0xff]++;
+                histograms[1][(pixel >>> 16) & 0xff]++;
+                histograms[2][pixel & 0xff]++;
+                histograms[3][pixel >>> 24]++;
+            }
+            if (cache != null) {
+                cache.insert(pixel);
+            }
+            i++;
+        }
+        return histograms;
+    }
+
+    /**
+     * Estimate the number of bits of the symbols of histograms by their entropy, plus a little for each code.
+     */
+    private static double estimateSize(int[][] histograms) {
+        double size = 0;
+        for (int[] histogram : histograms) {
+            long total = 0;
+            double sum = 0;
+            for (int count : histogram) {
+                if (count > 0) {
+                    total += count;
+                    sum += count * Math.log(count);
+                }
+            }
+            if (total > 0) {
+                size += (total * Math.log(total) - sum) / Math.log(2);
+            }
+            size += histogram.length / 2;
+        }
+        return size;
+    }
+
+    /**
+     * Write a prefix code for the counts of its symbols. Codes of no more than two symbols below 256 are written as
+     * simple codes, others as code lengths which are compressed by a prefix code of their own.
+     *
+     * @return the prefix code
+     */
+    private static PrefixCode writePrefixCode(BitWriter bits, int[] counts) {
+        int used = 0;
+        int[] symbols = new int[2];
+        boolean small = true;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                if (used < 2) {
+                    symbols[used] = i;
+                }
+                used++;
+                small &= i < LITERALS;
+            }
+        }
+        if (used <= 2 && small) {
+            bits.write(1, 1);
+            bits.write(Math.max(0, used - 1), 1);
+            if (symbols[0] < 2) {
+                bits.write(0, 1);
+                bits.write(symbols[0], 1);
+            } else {
+                bits.write(1, 1);
+                bits.write(symbols[0], 8);
+            }
+            int[] lengths = new int[counts.length];
+            if (used == 2) {
+                bits.write(symbols[1], 8);
+                lengths[symbols[0]] = 1;
+                lengths[symbols[1]] = 1;
+            }
+            // a single symbol needs no bits at all
+            return new PrefixCode(lengths);
+        }
+
+        PrefixCode code = new PrefixCode(counts, MAX_CODE_LENGTH);
+        bits.write(0, 1);
+        writeCodeLengths(bits, code.getLengths());
+        return code;
+    }
+
+    /**
+     * Write code lengths with runs of repeated lengths and zeros.
+     */
+    private static void writeCodeLengths(BitWriter bits, int[] lengths) {
+        int[] symbols = new int[lengths.length];
+        int[] extras = new int[lengths.length];
+        int count = 0;
+        for (int i = 0; i < lengths.length; ) {
+            int length = lengths[i];
+            int run = 1;
+            while (i + run < lengths.length && lengths[i + run] == length) {
+                run++;
+            }
+            i += run;
+            if (length == 0) {
+                while (run >= 3) {
+                    int repeat = Math.min(run, 138);
+                    if (repeat >= 11) {
+                        symbols[count] = REPEAT_ZERO_LONG;
+                        extras[count++] = repeat - 11;
+                    } else {
+                        symbols[count] = REPEAT_ZERO;
+                        extras[count++] = repeat - 3;
+                    }
+                    run -= repeat;
+                }
+            } else {
+                symbols[count++] = length;
+                run--;
+                while (run >= 3) {
+                    int repeat = Math.min(run, 6);
+                    symbols[count] = REPEAT_PREVIOUS;
+                    extras[count++] = repeat - 3;
+                    run -= repeat;
+                }
+            }
+            while (run > 0) {
+                symbols[count++] = length;
+                run--;
+            }
+        }
+
+        int[] counts = new int[CODE_LENGTH_CODES];
+        for (int i = 0; i < count; i++) {
+            counts[symbols[i]]++;
+        }
+        PrefixCode code = new PrefixCode(counts, MAX_CODE_LENGTH_CODE_LENGTH);
+        int written = CODE_LENGTH_CODES;
+        while (written > 4 && code.getLength(CODE_LENGTH_ORDER[written - 1]) == 0) {
+            written--;
+        }
+        bits.write(written - 4, 4);
+        for (int i = 0; i < written; i++) {
+            bits.write(code.getLength(CODE_LENGTH_ORDER[i]), 3);
+        }
+        // the code lengths of all symbols follow
+        bits.write(0, 1);
+        for (int i = 0; i < count; i++) {
+            writeSymbol(bits, code, symbols[i]);
+            if (symbols[i] == REPEAT_PREVIOUS) {
+                bits.write(extras[i], 2);
+            } else if (symbols[i] == REPEAT_ZERO) {
+                bits.write(extras[i], 3);
+            } else if (symbols[i] == REPEAT_ZERO_LONG) {
+                bits.write(extras[i], 7);
+            }
+        }
+    }
+
+    private static void writeSymbol(BitWriter bits, PrefixCode code, int symbol) {
+        bits.write(code.getCode(symbol), code.getLength(symbol));
+    }
+
+    /**
+     * Write a length or distance as prefix symbol and extra bits.
+     */
+    private static void writeValue(BitWriter bits, PrefixCode code, int firstSymbol, int value) {
+        int prefix = getPrefix(value);
+        writeSymbol(bits, code, firstSymbol + prefix);
+        if (prefix >= 4) {
+            int extraBits = (prefix - 2) >> 1;
+            bits.write((value - 1) & ((1 << extraBits) - 1), extraBits);
+        }
+    }
+
+    /**
+     * Get the prefix symbol of a length or distance, whose top two bits are encoded by the symbol and the others by
+     * extra bits.
+     */
+    private static int getPrefix(int value) {
+        int n = value - 1;
+        if (n < 4) {
+            return n;
+        }
+        int highest = 31 - Integer.numberOfLeadingZeros(n);
+        return 2 * highest + ((n >>> (highest - 1)) & 1);
+    }
+
+    /**
+     * Find backward references by comparing each position with the pixel to the left, the pixel above and earlier
+     * positions whose next two pixels have the same hash. The longest match is taken, unless the match at the next
+     * position is longer.
+     */
+    private static Matches findMatches(int[] pixels, int width) {
+        int[] distanceCodes = getDistanceCodes(width);
+        Matches matches = new Matches();
+        MatchFinder finder = new MatchFinder(pixels, width);
+        int n = pixels.length;
+        long match = finder.find(0);
+        int i = 0;
+        while (i < n) {
+            int length = (int) (match >>> 32);
+            finder.insert(i);
+            long next = (i + 1 < n) ? finder.find(i + 1) : 0;
+            if (length < MIN_MATCH || (int) (next >>> 32) > length + 1) {
+                i++;
+                match = next;
+                continue;
+            }
+            int distance = (int) match;
+            int code = (distance < distanceCodes.length) ? distanceCodes[distance] : 0;
+            matches.add(i, length, (code > 0) ? code : distance + PLANE_CODES);
+            for (int end = i + length, j = i + 1; j < end; j++) {
+                finder.insert(j);
+            }
+            i += length;
+            match = (i < n) ? finder.find(i) : 0;
+        }
+        return matches;
+    }
+
+    private static int getMatchLength(int[] pixels, int earlier, int current, int maxLength) {
+        int length = 0;
+        while (length < maxLength && pixels[earlier + length] == pixels[current + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Map the distances to the pixels nearby in the rows above to their short distance codes.
+     *
+     * @return the short code of each distance, 0 if the distance has none
+     */
+    private static int[] getDistanceCodes(int width) {
+        int[] codes = new int[8 + 8 * width];
+        for (int code = PLANE_CODES; code >= 1; code--) {
+            int distance = PLANE_OFFSETS[2 * code - 2] + PLANE_OFFSETS[2 * code - 1] * width;
+            if (distance >= 1) {
+                codes[distance] = code;
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Finds the longest match of a position among the pixel to the left, the pixel above and the earlier positions
+     * whose next two pixels have the same hash.
+     */
+    private static final class MatchFinder {
+        private final int[] pixels;
+        private final int width;
+        private final int hashShift;
+        private final int[] heads;
+        // the previous position with the same hash of each position, as ring buffer
+        private final int[] chain;
+        private final int chainMask;
+
+        MatchFinder(int[] pixels, int width) {
+            this.pixels = pixels;
+            this.width = width;
+            // small images such as the transforms need no large tables
+            int bits = 32 - Integer.numberOfLeadingZeros(pixels.length);
+            this.hashShift = 32 - Math.min(HASH_BITS, bits);
+            this.heads = new int[1 << Math.min(HASH_BITS, bits)];
+            this.chain = new int[1 << Math.min(CHAIN_BITS, bits)];
+            this.chainMask = chain.length - 1;
+            Arrays.fill(heads, -1);
+        }
+
+        /**
+         * @return the length of the longest match in the high and its distance in the low 32 bits
+         */
+        long find(int i) {
+            int maxLength = Math.min(MAX_MATCH, pixels.length - i);
+            if (maxLength < MIN_MATCH) {
+                return 0;
+            }
+            int best = 0;
+            int bestDistance = 0;
+            if (i >= 1) {
+                best = getMatchLength(pixels, i - 1, i, maxLength);
+                bestDistance = 1;
+            }
+            if (i >= width && best < maxLength) {
+                int length = getMatchLength(pixels, i - width, i, maxLength);
+                if (length > best) {
+                    best = length;
+                    bestDistance = width;
+                }
+            }
+            int candidate = heads[hash(i)];
+            for (int depth = 0; depth < CHAIN_LENGTH && candidate >= 0 && best < maxLength && i - candidate <= WINDOW; depth++) {
+                if (pixels[candidate + best] == pixels[i + best]) {
+                    int length = getMatchLength(pixels, candidate, i, maxLength);
+                    if (length > best) {
+                        best = length;
+                        bestDistance = i - candidate;
+                    }
+                }
+                int next = chain[candidate & chainMask];
+                // positions older than the chain are overwritten by newer ones
+                candidate = (next < candidate) ? next : -1;
+            }
+            return (long) best << 32 | bestDistance;
+        }
+
+        void insert(int i) {
+            if (i + 1 < pixels.length) {
+                int hash = hash(i);
+                chain[i & chainMask] = heads[hash];
+                heads[hash] = i;
+            }
+        }
+
+        private int hash(int i) {
+            return (pixels[i] * CACHE_MULTIPLIER + pixels[i + 1] * 0x9e3779b9) >>> hashShift;
+        }
+    }
+
+    /**
+     * The backward references of an image, by position, length and distance code.
+     */
+    private static final class Matches {
+        private int[] positions = new int[64];
+        private int[] lengths = new int[64];
+        private int[] distances = new int[64];
+        private int count;
+
+        void add(int position, int length, int distance) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+                distances = Arrays.copyOf(distances, count * 2);
+            }
+            positions[count] = position;
+            lengths[count] = length;
+            distances[count] = distance;
+            count++;
+        }
+    }
+
+    /**
+     * The cache of recently used colours, indexed by a hash of the colour.
+     */
+    private static final class ColorCache {
+        private final int shift;
+        private final int[] colors;
+        private final boolean[] used;
+
+        ColorCache(int bits) {
+            this.shift = 32 - bits;
+            this.colors = new int[1 << bits];
+            this.used = new boolean[1 << bits];
+        }
+
+        int find(int color) {
+            int key = (color * CACHE_MULTIPLIER) >>> shift;
+            return (used[key] && colors[key] == color) ? key : -1;
+        }
+
+        void insert(int color) {
+            int key = (color * CACHE_MULTIPLIER) >>> shift;
+            colors[key] = color;
+            used[key] = true;
+        }
+    }
+
+    /**
+     * Collects bits from the least significant end of each byte.
+     */
+    private static final class BitWriter {
+        private byte[] bytes = new byte[1 << 16];
+        private int size;
+        private long pending;
+        private int pendingBits;
+
+        void write(int value, int count) {
+            pending |= (long) value << pendingBits;
+            pendingBits += count;
+            while (pendingBits >= 8) {
+                if (size == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, size * 2);
+                }
+                bytes[size++] = (byte) pending;
+                pending >>>= 8;
+                pendingBits -= 8;
+            }
+        }
+
+        byte[] toByteArray() {
+            byte[] result = Arrays.copyOf(bytes, size + ((pendingBits > 0) ? 1 : 0));
+            if (pendingBits > 0) {
+                result[size] = (byte) pending;
+            }
+            return result;
+        }
+    }
+}
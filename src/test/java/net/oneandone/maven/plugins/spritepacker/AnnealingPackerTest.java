@@ -0,0 +1,72 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.checkPacking;
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.createImages;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for AnnealingPacker
+ *
+ * @author ssiegler
+ */
+public class AnnealingPackerTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private final Log log = mock(Log.class);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeBudget() throws Exception {
+        new AnnealingPacker(-1, log);
+    }
+
+    @Test
+    public void packingWithoutImages() throws Exception {
+        ImagePacking packing = new AnnealingPacker(100, log).pack(Collections.<NamedImage>emptyList(), 2);
+        errorCollector.checkThat(packing.getWidth(), is(0));
+        errorCollector.checkThat(packing.getHeight(), is(0));
+    }
+
+    @Test
+    public void withoutBudgetPacksLikePackGrowing() throws Exception {
+        List<NamedImage> images = createImages(new Random(29), 100, 100);
+
+        ImagePacking packing = new AnnealingPacker(0, log).pack(images, 1);
+        ImagePacking expected = PackGrowing.fit(images, 1);
+
+        errorCollector.checkThat(packing.getWidth(), is(expected.getWidth()));
+        errorCollector.checkThat(packing.getHeight(), is(expected.getHeight()));
+        for (NamedImage image : images) {
+            errorCollector.checkThat(packing.getPosition(image), is(expected.getPosition(image)));
+        }
+    }
+
+    @Test
+    public void improvesPackGrowing() throws Exception {
+        List<NamedImage> images = createImages(new Random(31), 50, 100);
+        int padding = 1;
+
+        ImagePacking packing = new AnnealingPacker(500, log).pack(images, padding);
+        ImagePacking initial = PackGrowing.fit(images, padding);
+
+        errorCollector.checkThat((long) packing.getWidth() * packing.getHeight(), is(lessThan((long) initial.getWidth() * initial.getHeight())));
+        verify(log, atLeastOnce()).info(argThat(startsWith("Iteration ")));
+        verify(log).info(argThat(startsWith("Optimized the packing in ")));
+        checkPacking(errorCollector, images, packing, padding);
+    }
+}
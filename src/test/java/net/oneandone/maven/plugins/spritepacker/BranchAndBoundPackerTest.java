@@ -0,0 +1,135 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.checkPacking;
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.createImages;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for BranchAndBoundPacker
+ *
+ * @author ssiegler
+ */
+public class BranchAndBoundPackerTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private final Log log = mock(Log.class);
+    private final ImageSource source = mock(ImageSource.class);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeBudget() throws Exception {
+        new BranchAndBoundPacker(-1, 1, log);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeNodeLimit() throws Exception {
+        new BranchAndBoundPacker(1, -1, log);
+    }
+
+    @Test
+    public void packingWithoutImages() throws Exception {
+        ImagePacking packing = new BranchAndBoundPacker(1000, 1000, log).pack(Collections.<NamedImage>emptyList(), 2);
+        errorCollector.checkThat(packing.getWidth(), is(0));
+        errorCollector.checkThat(packing.getHeight(), is(0));
+    }
+
+    @Test
+    public void findsPerfectPacking() throws Exception {
+        // a 30x30 square cut into five rectangles, which PackGrowing cannot pack perfectly
+        List<NamedImage> images = Arrays.asList(new NamedImage("a", 20, 10, source),
+                                                new NamedImage("b", 10, 20, source),
+                                                new NamedImage("c", 10, 10, source),
+                                                new NamedImage("d", 10, 20, source),
+                                                new NamedImage("e", 20, 10, source));
+        ImagePacking growing = PackGrowing.fit(images, 0);
+
+        ImagePacking packing = new BranchAndBoundPacker(10000, BranchAndBoundPacker.DEFAULT_NODE_LIMIT, log).pack(images, 0);
+
+        errorCollector.checkThat(growing.getWidth() * growing.getHeight(), is(greaterThan(900)));
+        errorCollector.checkThat(packing.getWidth(), is(30));
+        errorCollector.checkThat(packing.getHeight(), is(30));
+        checkPacking(errorCollector, images, packing, 0);
+        verify(log).info(argThat(containsString("proven minimal")));
+    }
+
+    @Test
+    public void keepsPackGrowingWhenItIsMinimal() throws Exception {
+        List<NamedImage> images = Arrays.asList(new NamedImage("a", 10, 10, source), new NamedImage("b", 10, 10, source));
+        ImagePacking packing = new BranchAndBoundPacker(10000, 1000, log).pack(images, 0);
+
+        errorCollector.checkThat(packing.getWidth() * packing.getHeight(), is(200));
+        verify(log).info(argThat(containsString("the GROWING packing, proven minimal")));
+    }
+
+    @Test
+    public void fallsBackToPackGrowingWhenNodeLimitIsHit() throws Exception {
+        List<NamedImage> images = createImages(new Random(37), 30, 50);
+        ImagePacking growing = PackGrowing.fit(images, 0);
+
+        ImagePacking packing = new BranchAndBoundPacker(10000, 0, log).pack(images, 0);
+
+        errorCollector.checkThat(packing.getWidth(), is(growing.getWidth()));
+        errorCollector.checkThat(packing.getHeight(), is(growing.getHeight()));
+        verify(log).info(argThat(containsString("not proven minimal")));
+    }
+
+    @Test
+    public void tooManyImages() throws Exception {
+        List<NamedImage> images = createImages(new Random(41), BranchAndBoundPacker.MAX_IMAGES + 1, 50);
+        ImagePacking growing = PackGrowing.fit(images, 0);
+
+        ImagePacking packing = new BranchAndBoundPacker(10000, 1000, log).pack(images, 0);
+
+        errorCollector.checkThat(packing.getWidth(), is(growing.getWidth()));
+        errorCollector.checkThat(packing.getHeight(), is(growing.getHeight()));
+        verify(log).info(argThat(containsString("more than " + BranchAndBoundPacker.MAX_IMAGES + " images")));
+    }
+
+    @Test
+    public void neverWorseThanPackGrowing() throws Exception {
+        Random random = new Random(43);
+        for (int i = 0; i < 5; i++) {
+            List<NamedImage> images = createImages(random, 12, 50);
+            ImagePacking growing = PackGrowing.fit(images, 1);
+
+            ImagePacking packing = new BranchAndBoundPacker(500, 200000, log).pack(images, 1);
+
+            errorCollector.checkThat((long) packing.getWidth() * packing.getHeight(),
+                                     is(lessThanOrEqualTo((long) growing.getWidth() * growing.getHeight())));
+            checkPacking(errorCollector, images, packing, 1);
+        }
+    }
+
+    @Test
+    public void improvesPackGrowingForSmallIcons() throws Exception {
+        List<NamedImage> images = new ArrayList<>();
+        int[][] sizes = {{32, 32}, {24, 24}, {24, 24}, {16, 16}, {16, 16}, {16, 16}, {16, 32}, {32, 16}};
+        for (int[] size : sizes) {
+            images.add(new NamedImage("icon" + images.size(), size[0], size[1], source));
+        }
+        ImagePacking growing = PackGrowing.fit(images, 2);
+
+        ImagePacking packing = new BranchAndBoundPacker(10000, BranchAndBoundPacker.DEFAULT_NODE_LIMIT, log).pack(images, 2);
+
+        errorCollector.checkThat((long) packing.getWidth() * packing.getHeight(), is(lessThan((long) growing.getWidth() * growing.getHeight())));
+        checkPacking(errorCollector, images, packing, 2);
+    }
+}
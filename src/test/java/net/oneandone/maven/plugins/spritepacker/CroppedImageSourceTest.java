@@ -0,0 +1,36 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for CroppedImageSource.
+ */
+public class CroppedImageSourceTest {
+
+    @Test(expected = NullPointerException.class)
+    public void nullSource() throws Exception {
+        new CroppedImageSource(null, new Rectangle(1, 1));
+    }
+
+    @Test
+    public void readsPartOfImage() throws Exception {
+        BufferedImage image = new BufferedImage(10, 8, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(4, 3, 0xff123456);
+        ImageSource source = mock(ImageSource.class);
+        when(source.read()).thenReturn(image);
+
+        BufferedImage cropped = new CroppedImageSource(source, new Rectangle(2, 1, 5, 6)).read();
+
+        assertThat(cropped.getWidth(), is(5));
+        assertThat(cropped.getHeight(), is(6));
+        assertThat(cropped.getRGB(2, 2), is(0xff123456));
+    }
+}
@@ -0,0 +1,50 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for DensityImageSource.
+ */
+public class DensityImageSourceTest {
+
+    @Test
+    public void readsImageInBaseDensity() throws Exception {
+        BufferedImage image = new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB);
+        ImageSource base = mock(ImageSource.class);
+        when(base.read()).thenReturn(image);
+        ImageSource doubled = mock(ImageSource.class);
+        Map<Integer, ImageSource> variants = new HashMap<>();
+        variants.put(1, base);
+        variants.put(2, doubled);
+
+        DensityImageSource source = new DensityImageSource(variants);
+
+        assertThat(source.read(), is(sameInstance(image)));
+        assertThat(source.getVariant(1), is(sameInstance(base)));
+        assertThat(source.getVariant(2), is(sameInstance(doubled)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingBaseDensity() throws Exception {
+        Map<Integer, ImageSource> variants = new HashMap<>();
+        variants.put(2, mock(ImageSource.class));
+        new DensityImageSource(variants);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownDensity() throws Exception {
+        Map<Integer, ImageSource> variants = new HashMap<>();
+        variants.put(1, mock(ImageSource.class));
+        new DensityImageSource(variants).getVariant(3);
+    }
+}
@@ -0,0 +1,193 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import javax.imageio.ImageIO;
+import java.awt.AlphaComposite;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.oneandone.maven.plugins.spritepacker.matchers.ImageMatcher.eqImage;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for DiskImageCache.
+ */
+public class DiskImageCacheTest {
+    private static final String RESOURCE_NAME = "/100px-Icon_subway.svg.png";
+
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private Path file;
+    private Path directory;
+    private BufferedImage image;
+    private ImageSource source;
+
+    @Before
+    public void before() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        file = fileSystem.getPath("/images/image.png");
+        Files.createDirectories(file.getParent());
+        Files.copy(getClass().getResourceAsStream(RESOURCE_NAME), file);
+        directory = fileSystem.getPath("/target/cache");
+        image = ImageIO.read(getClass().getResourceAsStream(RESOURCE_NAME));
+        source = mock(ImageSource.class);
+        when(source.read()).thenReturn(image);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullDirectory() throws Exception {
+        new DiskImageCache(null);
+    }
+
+    @Test
+    public void decodesOnceAcrossCacheInstances() throws Exception {
+        BufferedImage first = new DiskImageCache(directory).cached(file, source).read();
+        BufferedImage second = new DiskImageCache(directory).cached(file, source).read();
+
+        errorCollector.checkThat(first, is(eqImage(image)));
+        errorCollector.checkThat(second, is(eqImage(image)));
+        errorCollector.checkThat(second.getType(), is(BufferedImage.TYPE_INT_ARGB));
+        verify(source, times(1)).read();
+    }
+
+    @Test
+    public void modifiedFileIsDecodedAgain() throws Exception {
+        DiskImageCache cache = new DiskImageCache(directory);
+        Path entry = cache.getEntry(file);
+        cache.cached(file, source).read();
+
+        Files.setLastModifiedTime(file, FileTime.from(Files.getLastModifiedTime(file).toMillis() + 1000, TimeUnit.MILLISECONDS));
+        errorCollector.checkThat(cache.getEntry(file), is(entry));
+        cache.cached(file, source).read();
+
+        verify(source, times(2)).read();
+        errorCollector.checkThat(listEntries(), contains(entry));
+    }
+
+    @Test
+    public void pruneDeletesUnusedEntries() throws Exception {
+        Path other = file.resolveSibling("other.png");
+        Files.copy(file, other);
+        DiskImageCache cache = new DiskImageCache(directory);
+        cache.cached(file, source).read();
+        cache.cached(other, source).read();
+
+        DiskImageCache next = new DiskImageCache(directory);
+        next.cached(file, source);
+        next.prune();
+
+        errorCollector.checkThat(listEntries(), contains(next.getEntry(file)));
+    }
+
+    @Test
+    public void pruneDeletesStaleTemporaryFiles() throws Exception {
+        DiskImageCache cache = new DiskImageCache(directory);
+        cache.cached(file, source).read();
+        Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+        Path other = Files.createFile(directory.resolve("other.txt"));
+
+        cache.prune();
+
+        errorCollector.checkThat(listEntries(), containsInAnyOrder(cache.getEntry(file), other));
+        errorCollector.checkThat(Files.exists(temporary), is(false));
+    }
+
+    @Test
+    public void pruneWithoutDirectory() throws Exception {
+        new DiskImageCache(directory).prune();
+        errorCollector.checkThat(Files.exists(directory), is(false));
+    }
+
+    @Test
+    public void greyImageIsDrawnAsDecoded() throws Exception {
+        BufferedImage grey = new BufferedImage(2, 1, BufferedImage.TYPE_BYTE_GRAY);
+        grey.getRaster().setSample(0, 0, 0, 0x40);
+        grey.getRaster().setSample(1, 0, 0, 0xc0);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            ImageIO.write(grey, "png", out);
+        }
+        ImageSource decoder = new FileImageSource(file, new Dimension(2, 1));
+
+        BufferedImage cold = new DiskImageCache(directory).cached(file, decoder).read();
+        BufferedImage warm = new DiskImageCache(directory).cached(file, decoder).read();
+
+        errorCollector.checkThat(cold.getType(), is(BufferedImage.TYPE_BYTE_GRAY));
+        errorCollector.checkThat(warm.getType(), is(BufferedImage.TYPE_INT_ARGB));
+        errorCollector.checkThat(draw(warm), is(eqImage(draw(cold))));
+    }
+
+    @Test
+    public void invalidEntryIsReplaced() throws Exception {
+        DiskImageCache cache = new DiskImageCache(directory);
+        Files.createDirectories(directory);
+        Files.write(cache.getEntry(file), "garbage".getBytes(StandardCharsets.UTF_8));
+
+        errorCollector.checkThat(cache.cached(file, source).read(), is(eqImage(image)));
+        errorCollector.checkThat(cache.cached(file, source).read(), is(eqImage(image)));
+        verify(source, times(1)).read();
+    }
+
+    @Test
+    public void failingToStoreIsIgnored() throws Exception {
+        // Prevent the cache directory from being created by creating a file in its place.
+        Files.createDirectories(directory.getParent());
+        Files.createFile(directory);
+
+        errorCollector.checkThat(new DiskImageCache(directory).cached(file, source).read(), is(eqImage(image)));
+    }
+
+    @Test
+    public void sourceIsNotReadForCachedImage() throws Exception {
+        new DiskImageCache(directory).cached(file, source).read();
+        ImageSource other = mock(ImageSource.class);
+        errorCollector.checkThat(new DiskImageCache(directory).cached(file, other).read(), is(eqImage(image)));
+        verify(other, never()).read();
+    }
+
+    /**
+     * Draw an image into a spritesheet the way Java2D does for images which are not blitted.
+     */
+    private static BufferedImage draw(BufferedImage image) {
+        BufferedImage spritesheet = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = spritesheet.createGraphics();
+        graphics.setComposite(AlphaComposite.Src);
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return spritesheet;
+    }
+
+    private List<Path> listEntries() throws Exception {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,72 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static net.oneandone.maven.plugins.spritepacker.matchers.ImageMatcher.eqImage;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for FileImageSource.
+ */
+public class FileImageSourceTest {
+    private static final String RESOURCE_NAME = "/100px-Icon_subway.svg.png";
+
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private Path path;
+
+    @Before
+    public void before() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        path = fileSystem.getPath("image.png");
+        Files.copy(getClass().getResourceAsStream(RESOURCE_NAME), path);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullFile() throws Exception {
+        new FileImageSource(null, new Dimension(1, 1));
+    }
+
+    @Test
+    public void decodesOnEveryRead() throws Exception {
+        FileImageSource source = new FileImageSource(path, new Dimension(100, 78));
+        BufferedImage image = source.read();
+        errorCollector.checkThat(image, is(eqImage(ImageIO.read(getClass().getResourceAsStream(RESOURCE_NAME)))));
+        errorCollector.checkThat(source.read(), is(not(sameInstance(image))));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsChangedDimensions() throws Exception {
+        new FileImageSource(path, new Dimension(100, 77)).read();
+    }
+
+    @Test
+    public void reportsFileOnFailure() throws Exception {
+        Path missing = path.resolveSibling("missing.png");
+        try {
+            new FileImageSource(missing, new Dimension(1, 1)).read();
+            fail("Expected exception not thrown");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString(missing.toAbsolutePath().toString()));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Unit tests for FreeNodes
+ *
+ * @author ssiegler
+ */
+public class FreeNodesTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private final NodePool pool = new NodePool(0);
+
+    @Test
+    public void collectsFreeNodesRightBeforeDown() throws Exception {
+        int root = pool.add(0, 0, 10, 10);
+        int right = pool.add(5, 0, 5, 5);
+        int down = pool.add(0, 5, 10, 5);
+        pool.use(root, right, down);
+
+        FreeNodes freeNodes = new FreeNodes(pool, root);
+
+        errorCollector.checkThat(freeNodes.find(5, 5), is(right));
+        errorCollector.checkThat(freeNodes.find(6, 5), is(down));
+        errorCollector.checkThat(freeNodes.find(11, 1), is(NodePool.NONE));
+    }
+
+    @Test
+    public void replacesFoundNodeInPlace() throws Exception {
+        int first = pool.add(0, 0, 10, 10);
+        int last = pool.add(0, 20, 10, 10);
+        FreeNodes freeNodes = new FreeNodes(pool, first);
+        freeNodes.addLast(last);
+
+        int right = pool.add(5, 0, 5, 5);
+        int down = pool.add(0, 5, 10, 5);
+        freeNodes.find(5, 5);
+        freeNodes.replaceFound(right, down);
+
+        errorCollector.checkThat(freeNodes.find(5, 5), is(right));
+        errorCollector.checkThat(freeNodes.find(10, 5), is(down));
+        errorCollector.checkThat(freeNodes.find(10, 10), is(last));
+    }
+
+    @Test
+    public void addFirstTakesPrecedence() throws Exception {
+        FreeNodes freeNodes = new FreeNodes(pool, pool.add(0, 0, 10, 10));
+        int first = pool.add(10, 0, 10, 10);
+        freeNodes.addFirst(first);
+
+        errorCollector.checkThat(freeNodes.find(10, 10), is(first));
+    }
+
+    @Test
+    public void skipsNodesWithNegativeSize() throws Exception {
+        FreeNodes freeNodes = new FreeNodes(pool, pool.add(0, 0, 10, 10));
+        freeNodes.find(10, 10);
+        freeNodes.replaceFound(pool.add(10, 0, -1, 10), pool.add(0, 10, 10, -1));
+
+        errorCollector.checkThat(freeNodes.find(0, 0), is(NodePool.NONE));
+    }
+
+    @Test
+    public void keepsOrderAcrossBlocks() throws Exception {
+        int root = pool.add(0, 0, 1, 1);
+        FreeNodes freeNodes = new FreeNodes(pool, root);
+        int[] nodes = new int[1000];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = pool.add(i, 0, 1 + i % 7, 1 + i % 5);
+            freeNodes.addLast(nodes[i]);
+        }
+        // split the root repeatedly into a chain of nodes in front of all others
+        int current = root;
+        for (int i = 0; i < 500; i++) {
+            freeNodes.find(1, 1);
+            int right = pool.add(0, i, 1, 1);
+            freeNodes.replaceFound(right, pool.add(0, 0, 0, 0));
+            current = right;
+        }
+
+        errorCollector.checkThat(freeNodes.find(1, 1), is(current));
+        // 34 is the first index with a node of 7x5 pixels
+        errorCollector.checkThat(freeNodes.find(7, 5), is(nodes[34]));
+    }
+
+    @Test
+    public void backtracksFromBlockWithoutFittingNode() throws Exception {
+        int root = pool.add(0, 0, 1, 1);
+        FreeNodes freeNodes = new FreeNodes(pool, root);
+        // the first blocks have wide and high nodes, but none that is both
+        for (int i = 0; i < 600; i++) {
+            freeNodes.addLast((i % 2 == 0) ? pool.add(0, 0, 10, 1) : pool.add(0, 0, 1, 10));
+        }
+        int fitting = pool.add(0, 0, 10, 10);
+        freeNodes.addLast(fitting);
+
+        errorCollector.checkThat(freeNodes.find(10, 10), is(fitting));
+        errorCollector.checkThat(freeNodes.find(10, 11), is(NodePool.NONE));
+    }
+
+    @Test
+    public void findsSameNodesAsLinearSearch() throws Exception {
+        Random random = new Random(42);
+        int root = pool.add(0, 0, 50, 50);
+        FreeNodes freeNodes = new FreeNodes(pool, root);
+        List<Integer> expected = new ArrayList<>();
+        expected.add(root);
+        for (int i = 0; i < 5000; i++) {
+            int width = 1 + random.nextInt(50);
+            int height = 1 + random.nextInt(50);
+            int found = freeNodes.find(width, height);
+            int index = findLinear(expected, width, height);
+            errorCollector.checkThat(found, is((index < 0) ? NodePool.NONE : expected.get(index)));
+            if (index < 0) {
+                int node = pool.add(0, 0, width + random.nextInt(10), height + random.nextInt(10));
+                if (random.nextBoolean()) {
+                    freeNodes.addFirst(node);
+                    expected.add(0, node);
+                } else {
+                    freeNodes.addLast(node);
+                    expected.add(node);
+                }
+            } else {
+                int right = pool.add(0, 0, pool.getWidth(found) - width, height);
+                int down = pool.add(0, 0, pool.getWidth(found), pool.getHeight(found) - height);
+                freeNodes.replaceFound(right, down);
+                expected.remove(index);
+                expected.add(index, down);
+                expected.add(index, right);
+            }
+        }
+    }
+
+    private int findLinear(List<Integer> nodes, int width, int height) {
+        for (int i = 0; i < nodes.size(); i++) {
+            if (width <= pool.getWidth(nodes.get(i)) && height <= pool.getHeight(nodes.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void replaceWithoutFoundNode() throws Exception {
+        FreeNodes freeNodes = new FreeNodes(pool, pool.add(0, 0, 10, 10));
+        freeNodes.find(11, 11);
+        freeNodes.replaceFound(pool.add(0, 0, 1, 1), pool.add(0, 0, 1, 1));
+    }
+}
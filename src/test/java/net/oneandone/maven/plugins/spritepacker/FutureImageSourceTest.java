@@ -0,0 +1,57 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import com.google.common.util.concurrent.Futures;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for FutureImageSource.
+ */
+public class FutureImageSourceTest {
+
+    @Test(expected = NullPointerException.class)
+    public void nullFuture() throws Exception {
+        new FutureImageSource(null);
+    }
+
+    @Test
+    public void returnsResult() throws Exception {
+        BufferedImage image = new BufferedImage(3, 4, BufferedImage.TYPE_INT_ARGB);
+        assertThat(new FutureImageSource(Futures.immediateFuture(image)).read(), is(sameInstance(image)));
+    }
+
+    @Test
+    public void rethrowsIOException() throws Exception {
+        IOException exception = new IOException("broken");
+        try {
+            new FutureImageSource(Futures.<BufferedImage>immediateFailedFuture(exception)).read();
+            fail("Expected exception not thrown");
+        } catch (IOException e) {
+            assertThat(e, is(sameInstance(exception)));
+        }
+    }
+
+    @Test
+    public void wrapsCheckedException() throws Exception {
+        Exception exception = new Exception("broken");
+        try {
+            new FutureImageSource(Futures.<BufferedImage>immediateFailedFuture(exception)).read();
+            fail("Expected exception not thrown");
+        } catch (IOException e) {
+            assertThat(e.getCause(), is(sameInstance((Throwable) exception)));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rethrowsRuntimeException() throws Exception {
+        new FutureImageSource(Futures.<BufferedImage>immediateFailedFuture(new IllegalStateException())).read();
+    }
+}
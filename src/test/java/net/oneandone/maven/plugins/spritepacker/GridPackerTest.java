@@ -0,0 +1,130 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.checkPacking;
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.createImages;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for GridPacker
+ *
+ * @author ssiegler
+ */
+public class GridPackerTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private final ImageSource source = mock(ImageSource.class);
+
+    @Test(expected = NullPointerException.class)
+    public void nullPacker() throws Exception {
+        new GridPacker(null);
+    }
+
+    @Test
+    public void uniformImagesFormSquareGrid() throws Exception {
+        List<NamedImage> images = createImages(16, 24, 24);
+        ImagePacking packing = new GridPacker(new SkylinePacker(0)).pack(images, 2);
+
+        errorCollector.checkThat(packing.getWidth(), is(4 * 26 + 2));
+        errorCollector.checkThat(packing.getHeight(), is(4 * 26 + 2));
+        for (int i = 0; i < images.size(); i++) {
+            errorCollector.checkThat(packing.getPosition(images.get(i)), is(new Point(2 + (i % 4) * 26, 2 + (i / 4) * 26)));
+        }
+    }
+
+    @Test
+    public void gridOfRectangularImagesIsNearSquare() throws Exception {
+        List<NamedImage> images = createImages(10, 32, 8);
+        ImagePacking packing = new GridPacker(new SkylinePacker(0)).pack(images, 0);
+
+        // two columns of five rows
+        errorCollector.checkThat(packing.getWidth(), is(64));
+        errorCollector.checkThat(packing.getHeight(), is(40));
+    }
+
+    @Test
+    public void fewImagesOfASizeArePackedDirectly() throws Exception {
+        List<NamedImage> images = createImages(GridPacker.MIN_GRID_IMAGES - 1, 16, 16);
+        Packer packer = mock(Packer.class);
+        ImagePacking expected = mock(ImagePacking.class);
+        when(packer.pack(images, 1)).thenReturn(expected);
+
+        errorCollector.checkThat(new GridPacker(packer).pack(images, 1), is(sameInstance(expected)));
+    }
+
+    @Test
+    public void gridsArePackedWithRemainingImages() throws Exception {
+        List<NamedImage> images = new ArrayList<>();
+        images.addAll(createImages(20, 16, 16));
+        images.addAll(createImages(9, 32, 32));
+        images.add(new NamedImage("single", 100, 7, source));
+        Collections.shuffle(images, new Random(47));
+        Packer packer = mock(Packer.class);
+        when(packer.pack(anyListOf(NamedImage.class), anyInt())).thenAnswer(new Answer<ImagePacking>() {
+            @Override
+            public ImagePacking answer(InvocationOnMock invocation) throws Throwable {
+                @SuppressWarnings("unchecked")
+                List<NamedImage> packed = (List<NamedImage>) invocation.getArguments()[0];
+                errorCollector.checkThat(packed, hasSize(3));
+                return new MaxRectsPacker(MaxRectsPacker.Heuristic.BEST_AREA_FIT).pack(packed, 1);
+            }
+        });
+
+        ImagePacking packing = new GridPacker(packer).pack(images, 1);
+
+        verify(packer).pack(anyListOf(NamedImage.class), anyInt());
+        checkPacking(errorCollector, images, packing, 1);
+    }
+
+    @Test
+    public void gridCannotBeRead() throws Exception {
+        final List<NamedImage> packed = new ArrayList<>();
+        Packer packer = mock(Packer.class);
+        when(packer.pack(anyListOf(NamedImage.class), anyInt())).thenAnswer(new Answer<ImagePacking>() {
+            @Override
+            public ImagePacking answer(InvocationOnMock invocation) throws Throwable {
+                @SuppressWarnings("unchecked")
+                List<NamedImage> images = (List<NamedImage>) invocation.getArguments()[0];
+                packed.addAll(images);
+                return new SkylinePacker(0).pack(images, 0);
+            }
+        });
+        new GridPacker(packer).pack(createImages(GridPacker.MIN_GRID_IMAGES, 8, 8), 0);
+
+        errorCollector.checkThat(packed, hasSize(1));
+        try {
+            packed.get(0).getSource().read();
+            errorCollector.addError(new AssertionError("The grid was read"));
+        } catch (IOException e) {
+            errorCollector.checkThat(e.getMessage(), containsString("grid"));
+        }
+    }
+
+    @Test
+    public void packingWithoutImages() throws Exception {
+        ImagePacking packing = new GridPacker(new SkylinePacker(0)).pack(Collections.<NamedImage>emptyList(), 1);
+        errorCollector.checkThat(packing.getWidth(), is(0));
+        errorCollector.checkThat(packing.getHeight(), is(0));
+    }
+}
@@ -0,0 +1,63 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static net.oneandone.maven.plugins.spritepacker.matchers.ImageMatcher.eqImage;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the image file utility methods provided by ImageFiles.
+ */
+public class ImageFilesTest {
+    private static final String RESOURCE_NAME = "/100px-Icon_subway.svg.png";
+
+    private Path image;
+    private Path text;
+
+    @Before
+    public void before() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        image = fileSystem.getPath("image.png");
+        Files.copy(getClass().getResourceAsStream(RESOURCE_NAME), image);
+        text = fileSystem.getPath("text.png");
+        Files.write(text, "not an image".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void probeReadsDimensions() throws Exception {
+        assertThat(ImageFiles.probe(image), is(new Dimension(100, 78)));
+    }
+
+    @Test(expected = IOException.class)
+    public void probeFailsForUnknownFormat() throws Exception {
+        ImageFiles.probe(text);
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void probeFailsForMissingFile() throws Exception {
+        ImageFiles.probe(image.resolveSibling("missing.png"));
+    }
+
+    @Test
+    public void readDecodesImage() throws Exception {
+        assertThat(ImageFiles.read(image), is(eqImage(ImageIO.read(getClass().getResourceAsStream(RESOURCE_NAME)))));
+    }
+
+    @Test(expected = IOException.class)
+    public void readFailsForUnknownFormat() throws Exception {
+        ImageFiles.read(text);
+    }
+}
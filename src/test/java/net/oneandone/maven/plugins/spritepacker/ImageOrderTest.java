@@ -0,0 +1,68 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for ImageOrder
+ *
+ * @author ssiegler
+ */
+public class ImageOrderTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private final NamedImage wide = new NamedImage("wide", 40, 5, mock(ImageSource.class));
+    private final NamedImage tall = new NamedImage("tall", 6, 30, mock(ImageSource.class));
+    private final NamedImage square = new NamedImage("square", 20, 20, mock(ImageSource.class));
+    private final NamedImage small = new NamedImage("small", 6, 5, mock(ImageSource.class));
+
+    @Test
+    public void ordersLargestFirst() throws Exception {
+        errorCollector.checkThat(sort(ImageOrder.MAX_SIDE), contains(wide, tall, square, small));
+        errorCollector.checkThat(sort(ImageOrder.AREA), contains(square, wide, tall, small));
+        errorCollector.checkThat(sort(ImageOrder.HEIGHT), contains(tall, square, wide, small));
+        errorCollector.checkThat(sort(ImageOrder.WIDTH), contains(wide, square, tall, small));
+        errorCollector.checkThat(sort(ImageOrder.PERIMETER), contains(wide, square, tall, small));
+    }
+
+    @Test
+    public void keepsOrderOfEqualImages() throws Exception {
+        NamedImage first = new NamedImage("first", 10, 20, mock(ImageSource.class));
+        NamedImage second = new NamedImage("second", 20, 10, mock(ImageSource.class));
+        List<NamedImage> images = new ArrayList<>(Arrays.asList(first, second));
+
+        Collections.sort(images, ImageOrder.MAX_SIDE);
+        errorCollector.checkThat(images, contains(first, second));
+        Collections.sort(images, ImageOrder.AREA);
+        errorCollector.checkThat(images, contains(first, second));
+        Collections.sort(images, ImageOrder.PERIMETER);
+        errorCollector.checkThat(images, contains(first, second));
+    }
+
+    @Test
+    public void secondOrderBreaksTies() throws Exception {
+        NamedImage large = new NamedImage("large", 50000, 50000, mock(ImageSource.class));
+        NamedImage flat = new NamedImage("flat", 50000, 1, mock(ImageSource.class));
+        List<NamedImage> images = new ArrayList<>(Arrays.asList(small, flat, tall, large));
+
+        // the area of the large image does not fit into an int
+        Collections.sort(images, ImageOrder.thenBy(ImageOrder.MAX_SIDE, ImageOrder.AREA));
+        errorCollector.checkThat(images, contains(large, flat, tall, small));
+    }
+
+    private List<NamedImage> sort(ImageOrder order) {
+        List<NamedImage> images = new ArrayList<>(Arrays.asList(small, square, tall, wide));
+        Collections.sort(images, order);
+        return images;
+    }
+}
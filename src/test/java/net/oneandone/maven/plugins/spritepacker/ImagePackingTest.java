@@ -5,9 +5,9 @@ import org.junit.Test;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.containsString;
@@ -19,65 +19,84 @@ import static org.junit.Assert.assertThat;
  * Unit tests for the ImagePacking data structure
  */
 public class ImagePackingTest {
+    private static final int[] NO_POSITIONS = new int[0];
+
     @Test(expected = NullPointerException.class)
     public void nullDimension() throws Exception {
-        new ImagePacking(null, Collections.<NamedImage, Point>emptyMap());
+        new ImagePacking(null, Collections.<NamedImage>emptyList(), NO_POSITIONS, NO_POSITIONS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullImages() throws Exception {
+        new ImagePacking(new Dimension(0, 0), null, NO_POSITIONS, NO_POSITIONS);
     }
 
     @Test(expected = NullPointerException.class)
     public void nullPositions() throws Exception {
-        new ImagePacking(new Dimension(0, 0), null);
+        new ImagePacking(new Dimension(0, 0), Collections.<NamedImage>emptyList(), null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void positionsForEveryImage() throws Exception {
+        new ImagePacking(new Dimension(0, 0), Collections.singletonList(createNamedImage(1, 1, "lonely")), NO_POSITIONS, NO_POSITIONS);
     }
 
     @Test
     public void allDataInStringRepresentation() throws Exception {
         int width = 42;
         int height = 23;
-        Map<NamedImage, Point> positions = new HashMap<>();
-        positions.put(createNamedImage(2, 3, "nameless"), new Point(47, 11));
+        NamedImage image = createNamedImage(2, 3, "nameless");
 
-        String string = createImagePacking(width, height, positions).toString();
+        String string = createImagePacking(width, height, Collections.singletonList(image), new int[]{47}, new int[]{11}).toString();
 
-        assertThat(string, allOf(containsString(positions.toString()),
+        assertThat(string, allOf(containsString(image.toString()),
+                                 containsString("47"),
+                                 containsString("11"),
                                  containsString(String.valueOf(width)),
                                  containsString(String.valueOf(height))));
     }
 
+    @Test
+    public void returnsImagePositionByIndex() throws Exception {
+        List<NamedImage> images = Arrays.asList(createNamedImage(2, 4, "first"), createNamedImage(3, 5, "second"));
+        ImagePacking imagePacking = createImagePacking(100, 100, images, new int[]{9, 12}, new int[]{4, 8});
+
+        assertThat(imagePacking.getX(1), is(12));
+        assertThat(imagePacking.getY(1), is(8));
+        assertThat(imagePacking.getImages(), is(images));
+    }
+
     @Test
     public void returnsImagePosition() throws Exception {
-        Map<NamedImage, Point> map = new HashMap<>();
         NamedImage namedImage = createNamedImage(2, 4, "no name");
-        map.put(namedImage, new Point(9, 4));
-        ImagePacking imagePacking = createImagePacking(100, 100, map);
+        ImagePacking imagePacking = createImagePacking(100, 100, Collections.singletonList(namedImage), new int[]{9}, new int[]{4});
 
         assertThat(imagePacking.getPosition(namedImage), is(new Point(9, 4)));
     }
 
     @Test
     public void noPositionForUnknownImage() throws Exception {
-        Map<NamedImage, Point> map = new HashMap<>();
         NamedImage namedImage = createNamedImage(3, 4, "no name");
-        map.put(namedImage, new Point(42, 51));
-        ImagePacking imagePacking = createImagePacking(100, 100, map);
+        ImagePacking imagePacking = createImagePacking(100, 100, Collections.singletonList(namedImage), new int[]{42}, new int[]{51});
 
         assertThat(imagePacking.getPosition(createNamedImage(2, 2, "stranger in the night")), is(nullValue()));
     }
 
     @Test
     public void returnsHeight() throws Exception {
-        assertThat(createImagePacking(12, 13, Collections.<NamedImage, Point>emptyMap()).getHeight(), is(13));
+        assertThat(createImagePacking(12, 13, Collections.<NamedImage>emptyList(), NO_POSITIONS, NO_POSITIONS).getHeight(), is(13));
     }
 
     @Test
     public void returnsWidth() throws Exception {
-        assertThat(createImagePacking(19, 22, Collections.<NamedImage, Point>emptyMap()).getWidth(), is(19));
+        assertThat(createImagePacking(19, 22, Collections.<NamedImage>emptyList(), NO_POSITIONS, NO_POSITIONS).getWidth(), is(19));
     }
 
     protected NamedImage createNamedImage(int width, int height, String name) {
         return new NamedImage(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), name);
     }
 
-    protected ImagePacking createImagePacking(int width, int height, Map<NamedImage, Point> positions) {
-        return new ImagePacking(new Dimension(width, height), positions);
+    protected ImagePacking createImagePacking(int width, int height, List<NamedImage> images, int[] x, int[] y) {
+        return new ImagePacking(new Dimension(width, height), images, x, y);
     }
-}
\ No newline at end of file
+}
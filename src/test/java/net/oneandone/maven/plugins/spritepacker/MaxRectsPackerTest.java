@@ -0,0 +1,91 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.checkPacking;
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.createImages;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for MaxRectsPacker
+ *
+ * @author ssiegler
+ */
+public class MaxRectsPackerTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private final ImageSource source = mock(ImageSource.class);
+
+    @Test(expected = NullPointerException.class)
+    public void nullHeuristic() throws Exception {
+        new MaxRectsPacker(null);
+    }
+
+    @Test
+    public void packingWithoutImages() throws Exception {
+        for (MaxRectsPacker.Heuristic heuristic : MaxRectsPacker.Heuristic.values()) {
+            ImagePacking packing = new MaxRectsPacker(heuristic).pack(Collections.<NamedImage>emptyList(), 3);
+            errorCollector.checkThat(packing.getWidth(), is(0));
+            errorCollector.checkThat(packing.getHeight(), is(0));
+        }
+    }
+
+    @Test
+    public void packingForSingleImage() throws Exception {
+        int padding = 5;
+        NamedImage image = new NamedImage("Bild", 30, 20, source);
+        for (MaxRectsPacker.Heuristic heuristic : MaxRectsPacker.Heuristic.values()) {
+            ImagePacking packing = new MaxRectsPacker(heuristic).pack(Collections.singletonList(image), padding);
+            errorCollector.checkThat(packing.getWidth(), is(30 + 2 * padding));
+            errorCollector.checkThat(packing.getHeight(), is(20 + 2 * padding));
+            errorCollector.checkThat(packing.getPosition(image), is(new Point(padding, padding)));
+        }
+    }
+
+    @Test
+    public void packingFillsGapsWithSmallImages() throws Exception {
+        // a tall image next to a column of small ones, which fill its height exactly
+        List<NamedImage> images = Arrays.asList(new NamedImage("tall", 10, 40, source),
+                                                new NamedImage("small1", 10, 20, source),
+                                                new NamedImage("small2", 10, 20, source));
+        for (MaxRectsPacker.Heuristic heuristic : MaxRectsPacker.Heuristic.values()) {
+            ImagePacking packing = new MaxRectsPacker(heuristic).pack(images, 0);
+            errorCollector.checkThat(heuristic.name(), packing.getWidth() * packing.getHeight(), is(800));
+        }
+    }
+
+    @Test
+    public void packingForManyImages() throws Exception {
+        List<NamedImage> images = createImages(new Random(3), 500, 256);
+        int padding = 2;
+        for (MaxRectsPacker.Heuristic heuristic : MaxRectsPacker.Heuristic.values()) {
+            ImagePacking packing = new MaxRectsPacker(heuristic).pack(images, padding);
+            checkPacking(errorCollector, images, packing, padding);
+        }
+    }
+
+    @Test
+    public void packsDenserThanPackGrowing() throws Exception {
+        Random random = new Random(11);
+        for (int i = 0; i < 5; i++) {
+            List<NamedImage> images = createImages(random, 300, 128);
+            ImagePacking growing = PackGrowing.fit(images, 1);
+            for (MaxRectsPacker.Heuristic heuristic : MaxRectsPacker.Heuristic.values()) {
+                ImagePacking packing = new MaxRectsPacker(heuristic).pack(images, 1);
+                errorCollector.checkThat(heuristic.name(), (long) packing.getWidth() * packing.getHeight(),
+                                         is(lessThan((long) growing.getWidth() * growing.getHeight())));
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package net.oneandone.maven.plugins.spritepacker;
 
 import org.junit.Test;
 
+import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -9,6 +11,10 @@ import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Unit tests for the NamedImage data structure.
@@ -57,6 +63,50 @@ public class NamedImageTest {
         assertThat(new NamedImage(image, "unnamed").getImage(), sameInstance(image));
     }
 
+    @Test
+    public void returnsGivenDimensionsWithoutReadingSource() throws Exception {
+        ImageSource source = mock(ImageSource.class);
+        NamedImage namedImage = new NamedImage("lazy", 17, 5, source);
+        assertThat(namedImage.getWidth(), is(17));
+        assertThat(namedImage.getHeight(), is(5));
+        verify(source, never()).read();
+    }
+
+    @Test
+    public void readsImageFromSource() throws Exception {
+        BufferedImage image = createImage(17, 5);
+        ImageSource source = mock(ImageSource.class);
+        when(source.read()).thenReturn(image);
+        assertThat(new NamedImage("lazy", 17, 5, source).getImage(), sameInstance(image));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullSource() throws Exception {
+        new NamedImage("no source", 1, 1, null);
+    }
+
+    @Test
+    public void untrimmedImageHasOriginalSize() throws Exception {
+        NamedImage namedImage = new NamedImage(createImage(4, 31), "untrimmed");
+        assertThat(namedImage.isTrimmed(), is(false));
+        assertThat(namedImage.getOriginalWidth(), is(4));
+        assertThat(namedImage.getOriginalHeight(), is(31));
+        assertThat(namedImage.getOffsetX(), is(0));
+        assertThat(namedImage.getOffsetY(), is(0));
+    }
+
+    @Test
+    public void trimmedImageHasBoundsAndOriginalSize() throws Exception {
+        NamedImage namedImage = new NamedImage("trimmed", new Dimension(20, 30), new Rectangle(2, 3, 10, 15), mock(ImageSource.class));
+        assertThat(namedImage.isTrimmed(), is(true));
+        assertThat(namedImage.getWidth(), is(10));
+        assertThat(namedImage.getHeight(), is(15));
+        assertThat(namedImage.getOffsetX(), is(2));
+        assertThat(namedImage.getOffsetY(), is(3));
+        assertThat(namedImage.getOriginalWidth(), is(20));
+        assertThat(namedImage.getOriginalHeight(), is(30));
+    }
+
     protected BufferedImage createImage(int width, int height) {
         return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
     }
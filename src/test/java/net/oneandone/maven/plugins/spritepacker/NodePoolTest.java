@@ -0,0 +1,69 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the node pool.
+ *
+ * @author ssiegler
+ */
+public class NodePoolTest {
+    private static final int X = 14;
+    private static final int Y = 44;
+    private static final int WIDTH = 12;
+    private static final int HEIGHT = 81;
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+    private NodePool pool;
+    private int node;
+
+    @Before
+    public void before() throws Exception {
+        pool = new NodePool(0);
+        node = pool.add(X, Y, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void initialValues() throws Exception {
+        errorCollector.checkThat(pool.getDown(node), is(NodePool.NONE));
+        errorCollector.checkThat(pool.getRight(node), is(NodePool.NONE));
+        errorCollector.checkThat(pool.isUsed(node), is(false));
+    }
+
+    @Test
+    public void returnsSize() throws Exception {
+        errorCollector.checkThat(pool.getX(node), is(X));
+        errorCollector.checkThat(pool.getY(node), is(Y));
+        errorCollector.checkThat(pool.getWidth(node), is(WIDTH));
+        errorCollector.checkThat(pool.getHeight(node), is(HEIGHT));
+    }
+
+    @Test
+    public void canUseNode() throws Exception {
+        int right = pool.add(X + 1, Y, WIDTH - 1, 1);
+        int down = pool.add(X, Y + 1, WIDTH, HEIGHT - 1);
+        pool.use(node, right, down);
+
+        errorCollector.checkThat(pool.isUsed(node), is(true));
+        errorCollector.checkThat(pool.getRight(node), is(right));
+        errorCollector.checkThat(pool.getDown(node), is(down));
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() throws Exception {
+        for (int i = 1; i < 1000; i++) {
+            assertThat(pool.add(i, i, i, i), is(i));
+        }
+
+        errorCollector.checkThat(pool.size(), is(1000));
+        errorCollector.checkThat(pool.getX(node), is(X));
+        errorCollector.checkThat(pool.getHeight(999), is(999));
+        errorCollector.checkThat(pool.isUsed(999), is(false));
+    }
+}
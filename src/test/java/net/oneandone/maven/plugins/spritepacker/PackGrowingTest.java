@@ -4,18 +4,22 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ErrorCollector;
 
+import java.awt.Dimension;
 import java.awt.Point;
-import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.checkPacking;
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.createImages;
 import static org.hamcrest.Matchers.is;
-import static org.hamcrest.Matchers.notNullValue;
-import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -115,50 +119,212 @@ public class PackGrowingTest {
         }
 
         ImagePacking fit = PackGrowing.fit(images, 2);
-        Rectangle boundingBox = new Rectangle(fit.getWidth(), fit.getHeight());
 
-        List<Rectangle> rects = new ArrayList<>(size);
+        checkPacking(errorCollector, images, fit, 2);
+    }
 
-        for (NamedImage image : images) {
-            Point position = fit.getPosition(image);
-            errorCollector.checkThat(position, is(notNullValue()));
+    @Test
+    public void sameLayoutAsRecursiveSearch() throws Exception {
+        Random random = new Random(42);
+        for (int padding = 0; padding < 3; padding++) {
+            List<NamedImage> images = createImages(random, 2000, 64);
 
-            rects.add(new Rectangle(position.x, position.y, image.getWidth(), image.getHeight()));
-            errorCollector.checkThat(boundingBox.contains(position), is(true));
-        }
+            ImagePacking fit = PackGrowing.fit(images, padding);
+            ImagePacking expected = RecursivePackGrowing.fit(images, padding);
 
-        int overlappingCount = 0;
-        for (int i = 0; i < rects.size(); i++) {
-            for (int j = 0; j < rects.size(); j++) {
-                if (i != j) {
-                    if (rects.get(i).contains(rects.get(j).getLocation())) {
-                        overlappingCount++;
-                    }
-                }
+            errorCollector.checkThat(fit.getWidth(), is(expected.getWidth()));
+            errorCollector.checkThat(fit.getHeight(), is(expected.getHeight()));
+            for (NamedImage image : images) {
+                errorCollector.checkThat(image.getName(), fit.getPosition(image), is(expected.getPosition(image)));
             }
         }
+    }
 
-        errorCollector.checkThat("Overlapping images", overlappingCount, is(0));
+    @Test
+    public void testMappingInGivenOrder() throws Exception {
+        List<NamedImage> images = Arrays.asList(
+                new NamedImage(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB), "small"),
+                new NamedImage(new BufferedImage(10, 30, BufferedImage.TYPE_INT_ARGB), "tall"));
+        ImagePacking fit = PackGrowing.fit(images, 0, ImageOrder.AREA);
+        ImagePacking reversed = PackGrowing.fit(images, 0, Collections.reverseOrder(ImageOrder.AREA));
+        errorCollector.checkThat(fit.getPosition(images.get(1)), is(new Point(0, 0)));
+        errorCollector.checkThat(reversed.getPosition(images.get(0)), is(new Point(0, 0)));
+    }
+
+    @Test
+    public void testMappingForImageWiderAndHigherThanRoot() throws Exception {
+        int padding = 2;
+        List<NamedImage> images = Arrays.asList(
+                new NamedImage(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB), "small"),
+                new NamedImage(new BufferedImage(30, 20, BufferedImage.TYPE_INT_ARGB), "large"));
+        ImagePacking fit = PackGrowing.fit(images, padding, Collections.reverseOrder(ImageOrder.AREA));
+        errorCollector.checkThat(fit.getPosition(images.get(0)), is(new Point(padding, padding)));
+        errorCollector.checkThat(fit.getPosition(images.get(1)), is(new Point(padding, 2 * padding + 10)));
+        errorCollector.checkThat(fit.getWidth(), is(30 + 2 * padding));
+        errorCollector.checkThat(fit.getHeight(), is(30 + 3 * padding));
+    }
+
+    @Test(timeout = 60000)
+    public void testMappingForHundredThousandImages() throws Exception {
+        List<NamedImage> images = createImages(new Random(7), 100000, 16);
+
+        ImagePacking fit = PackGrowing.fit(images, 1);
+
+        checkPacking(errorCollector, images, fit, 1);
     }
 
     @Test
     public void cannotGrowDownIfWiderThanRoot() throws Exception {
         PackGrowing packGrowing = new PackGrowing(Collections.<NamedImage>emptyList(), 0);
-        packGrowing.setRoot(new Node(0, 0, 0, 0));
-        assertThat(packGrowing.growDown(1, 0, 0), is(nullValue()));
+        packGrowing.setRoot(0, 0, 0, 0);
+        assertThat(packGrowing.growDown(1, 0, 0), is(NodePool.NONE));
     }
 
     @Test
     public void cannotGrowRightIfHigherThanRoot() throws Exception {
         PackGrowing packGrowing = new PackGrowing(Collections.<NamedImage>emptyList(), 0);
-        packGrowing.setRoot(new Node(0, 0, 0, 0));
-        assertThat(packGrowing.growRight(0, 1, 0), is(nullValue()));
+        packGrowing.setRoot(0, 0, 0, 0);
+        assertThat(packGrowing.growRight(0, 1, 0), is(NodePool.NONE));
     }
 
     @Test
     public void cannotGrowIfHigherAndWiderThanRoot() throws Exception {
         PackGrowing packGrowing = new PackGrowing(Collections.<NamedImage>emptyList(), 0);
-        packGrowing.setRoot(new Node(0, 0, 0, 0));
-        assertThat(packGrowing.growNode(1, 1, 0), is(nullValue()));
+        packGrowing.setRoot(0, 0, 0, 0);
+        assertThat(packGrowing.growNode(1, 1, 0), is(NodePool.NONE));
+    }
+
+    /**
+     * The previous implementation of PackGrowing, which searches free nodes by walking the tree recursively.
+     */
+    private static class RecursivePackGrowing {
+        private final int padding;
+        private Node root;
+
+        private RecursivePackGrowing(int padding) {
+            this.padding = padding;
+        }
+
+        static ImagePacking fit(List<NamedImage> images, int padding) {
+            List<NamedImage> sorted = new ArrayList<>(images);
+            Collections.sort(sorted, new Comparator<NamedImage>() {
+                @Override
+                public int compare(NamedImage arg0, NamedImage arg1) {
+                    return Math.max(arg1.getWidth(), arg1.getHeight()) - Math.max(arg0.getWidth(), arg0.getHeight());
+                }
+            });
+            RecursivePackGrowing packing = new RecursivePackGrowing(padding);
+            packing.root = new Node(padding, padding, sorted.get(0).getWidth(), sorted.get(0).getHeight());
+            Map<NamedImage, Point> positions = new IdentityHashMap<>();
+            for (NamedImage image : sorted) {
+                Node available = packing.findNode(packing.root, image.getWidth(), image.getHeight());
+                Node node = (available == null) ? packing.growNode(image.getWidth(), image.getHeight())
+                        : packing.splitNode(available, image.getWidth(), image.getHeight());
+                positions.put(image, new Point(node.getX(), node.getY()));
+            }
+            int[] x = new int[images.size()];
+            int[] y = new int[images.size()];
+            for (int i = 0; i < images.size(); i++) {
+                x[i] = positions.get(images.get(i)).x;
+                y[i] = positions.get(images.get(i)).y;
+            }
+            return new ImagePacking(new Dimension(packing.root.getWidth() + padding * 2, packing.root.getHeight() + padding * 2), images, x, y);
+        }
+
+        private Node findNode(Node nodeIn, int width, int height) {
+            if (nodeIn.isUsed()) {
+                Node rightAvailable = findNode(nodeIn.getRight(), width, height);
+                return (rightAvailable != null) ? rightAvailable : findNode(nodeIn.getDown(), width, height);
+            }
+            return (width <= nodeIn.getWidth() && height <= nodeIn.getHeight()) ? nodeIn : null;
+        }
+
+        private Node splitNode(Node nodeIn, int width, int height) {
+            nodeIn.setUsed(true);
+            nodeIn.setDown(new Node(nodeIn.getX(), nodeIn.getY() + height + padding, nodeIn.getWidth(), nodeIn.getHeight() - height - padding));
+            nodeIn.setRight(new Node(nodeIn.getX() + width + padding, nodeIn.getY(), nodeIn.getWidth() - width - padding, height));
+            return nodeIn;
+        }
+
+        private Node growNode(int width, int height) {
+            boolean canGrowDown = width <= root.getWidth();
+            boolean canGrowRight = height <= root.getHeight();
+            boolean shouldGrowRight = canGrowRight && root.getHeight() >= root.getWidth() + width;
+            boolean shouldGrowDown = canGrowDown && root.getWidth() >= root.getHeight() + height;
+            Node newRoot;
+            if (shouldGrowRight || (canGrowRight && !shouldGrowDown)) {
+                newRoot = new Node(root.getX(), root.getY(), root.getWidth() + width + padding, root.getHeight());
+                newRoot.setUsed(true);
+                newRoot.setDown(root);
+                newRoot.setRight(new Node(root.getWidth() + root.getX() + padding, root.getY(), width, root.getHeight()));
+            } else {
+                newRoot = new Node(root.getX(), root.getY(), root.getWidth(), root.getHeight() + height + padding);
+                newRoot.setUsed(true);
+                newRoot.setDown(new Node(root.getX(), root.getY() + root.getHeight() + padding, root.getWidth(), height));
+                newRoot.setRight(root);
+            }
+            root = newRoot;
+            return splitNode(findNode(root, width, height), width, height);
+        }
+    }
+
+    /**
+     * A node of the tree built by the previous implementation.
+     */
+    private static class Node {
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private Node down;
+        private Node right;
+        private boolean used;
+
+        Node(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        int getX() {
+            return x;
+        }
+
+        int getY() {
+            return y;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        Node getDown() {
+            return down;
+        }
+
+        void setDown(Node down) {
+            this.down = down;
+        }
+
+        Node getRight() {
+            return right;
+        }
+
+        void setRight(Node right) {
+            this.right = right;
+        }
+
+        boolean isUsed() {
+            return used;
+        }
+
+        void setUsed(boolean used) {
+            this.used = used;
+        }
     }
 }
\ No newline at end of file
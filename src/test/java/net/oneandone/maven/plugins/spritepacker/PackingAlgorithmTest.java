@@ -0,0 +1,48 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for PackingAlgorithm
+ *
+ * @author ssiegler
+ */
+public class PackingAlgorithmTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    @Test
+    public void growingPacksLikePackGrowing() throws Exception {
+        List<NamedImage> images = Arrays.asList(new NamedImage("first", 30, 20, mock(ImageSource.class)),
+                                                new NamedImage("second", 20, 30, mock(ImageSource.class)));
+        ImagePacking packing = PackingAlgorithm.GROWING.createPacker(0, 1, 0, mock(Log.class)).pack(images, 2);
+        ImagePacking expected = PackGrowing.fit(images, 2);
+
+        errorCollector.checkThat(packing.getWidth(), is(expected.getWidth()));
+        errorCollector.checkThat(packing.getHeight(), is(expected.getHeight()));
+        for (NamedImage image : images) {
+            errorCollector.checkThat(packing.getPosition(image), is(expected.getPosition(image)));
+        }
+    }
+
+    @Test
+    public void allAlgorithmsPackSingleImage() throws Exception {
+        NamedImage image = new NamedImage("image", 30, 20, mock(ImageSource.class));
+        for (PackingAlgorithm algorithm : PackingAlgorithm.values()) {
+            ImagePacking packing = algorithm.createPacker(0, 1, 0, mock(Log.class)).pack(Arrays.asList(image), 2);
+            errorCollector.checkThat(algorithm.name(), packing.getWidth(), is(34));
+            errorCollector.checkThat(algorithm.name(), packing.getHeight(), is(24));
+            errorCollector.checkThat(algorithm.name(), packing.getPosition(image), is(new Point(2, 2)));
+        }
+    }
+}
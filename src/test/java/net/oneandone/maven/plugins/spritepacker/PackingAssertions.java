@@ -0,0 +1,102 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.rules.ErrorCollector;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Fixtures and checks shared by the unit tests of the packers.
+ *
+ * @author ssiegler
+ */
+final class PackingAssertions {
+    /**
+     * Avoid instantiation of utility class
+     */
+    private PackingAssertions() {}
+
+    /**
+     * Create images of random sizes, which are never read.
+     *
+     * @param random  the source of the sizes
+     * @param count   the number of images
+     * @param maxSize the maximum width and height of the images
+     * @return        the images, named "Bild0", "Bild1", etc.
+     */
+    static List<NamedImage> createImages(Random random, int count, int maxSize) {
+        ImageSource source = mock(ImageSource.class);
+        List<NamedImage> images = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            images.add(new NamedImage("Bild" + i, 1 + random.nextInt(maxSize), 1 + random.nextInt(maxSize), source));
+        }
+        return images;
+    }
+
+    /**
+     * Create images of the same size, which are never read.
+     *
+     * @param count  the number of images
+     * @param width  the width of the images
+     * @param height the height of the images
+     * @return       the images, named after their size and index
+     */
+    static List<NamedImage> createImages(int count, int width, int height) {
+        ImageSource source = mock(ImageSource.class);
+        List<NamedImage> images = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            images.add(new NamedImage("icon" + width + "x" + height + "-" + i, width, height, source));
+        }
+        return images;
+    }
+
+    /**
+     * Check that every image is placed inside the spritesheet, with the padding to its borders, and that the
+     * images are separated by the padding.
+     *
+     * @param errorCollector the collector of the failed checks
+     * @param images         the packed images
+     * @param packing        the packing of the images
+     * @param padding        the padding the images were packed with
+     */
+    static void checkPacking(ErrorCollector errorCollector, List<NamedImage> images, ImagePacking packing, int padding) {
+        // mark the pixels covered by every image and the padding right and below it, an image must not cover a marked pixel
+        BitSet covered = new BitSet(packing.getWidth() * packing.getHeight());
+        int missingCount = 0;
+        int outsideCount = 0;
+        int overlappingCount = 0;
+        for (NamedImage image : images) {
+            Point position = packing.getPosition(image);
+            if (position == null) {
+                missingCount++;
+                continue;
+            }
+            if (position.x < padding || position.y < padding
+                || position.x + image.getWidth() + padding > packing.getWidth()
+                || position.y + image.getHeight() + padding > packing.getHeight()) {
+                outsideCount++;
+                continue;
+            }
+            boolean overlapping = false;
+            for (int y = position.y; y < position.y + image.getHeight() + padding; y++) {
+                int from = y * packing.getWidth() + position.x;
+                int to = from + image.getWidth() + padding;
+                int next = covered.nextSetBit(from);
+                overlapping |= next >= 0 && next < to;
+                covered.set(from, to);
+            }
+            if (overlapping) {
+                overlappingCount++;
+            }
+        }
+        errorCollector.checkThat("Images without position", missingCount, is(0));
+        errorCollector.checkThat("Images outside of the spritesheet", outsideCount, is(0));
+        errorCollector.checkThat("Overlapping images", overlappingCount, is(0));
+    }
+}
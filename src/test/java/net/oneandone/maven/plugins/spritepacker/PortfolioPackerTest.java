@@ -0,0 +1,121 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for PortfolioPacker
+ *
+ * @author ssiegler
+ */
+public class PortfolioPackerTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private final Log log = mock(Log.class);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noVariants() throws Exception {
+        new PortfolioPacker(Collections.<String, Packer>emptyMap(), 0, 1, log);
+    }
+
+    @Test
+    public void keepsSmallestPacking() throws Exception {
+        ImagePacking large = packing(20, 20);
+        ImagePacking small = packing(10, 28);
+        ImagePacking square = packing(15, 20);
+
+        ImagePacking result = portfolio(0, large, small, square).pack(Collections.<NamedImage>emptyList(), 0);
+
+        errorCollector.checkThat(result, is(sameInstance(small)));
+        verify(log).info("Portfolio packing: variant1 won with 10x28 pixels.");
+    }
+
+    @Test
+    public void breaksTiesBySquarenessThenByOrder() throws Exception {
+        ImagePacking flat = packing(40, 10);
+        ImagePacking square = packing(20, 20);
+        ImagePacking sameSquare = packing(20, 20);
+
+        errorCollector.checkThat(portfolio(0, flat, square, sameSquare).pack(Collections.<NamedImage>emptyList(), 0), is(sameInstance(square)));
+    }
+
+    @Test
+    public void prefersPackingsWithinMaxWidth() throws Exception {
+        ImagePacking wide = packing(40, 10);
+        ImagePacking narrow = packing(20, 30);
+
+        errorCollector.checkThat(portfolio(30, wide, narrow).pack(Collections.<NamedImage>emptyList(), 0), is(sameInstance(narrow)));
+        errorCollector.checkThat(portfolio(10, wide, narrow).pack(Collections.<NamedImage>emptyList(), 0), is(sameInstance(wide)));
+    }
+
+    @Test
+    public void atLeastAsGoodAsEveryAlgorithm() throws Exception {
+        List<NamedImage> images = new ArrayList<>();
+        Random random = new Random(23);
+        ImageSource source = mock(ImageSource.class);
+        for (int i = 0; i < 200; i++) {
+            images.add(new NamedImage("Bild" + i, 1 + random.nextInt(100), 1 + random.nextInt(100), source));
+        }
+
+        ImagePacking result = PortfolioPacker.create(0, 4, log).pack(images, 1);
+        ImagePacking again = PortfolioPacker.create(0, 2, log).pack(images, 1);
+
+        long area = (long) result.getWidth() * result.getHeight();
+        for (PackingAlgorithm algorithm : PackingAlgorithm.values()) {
+            if (algorithm != PackingAlgorithm.PORTFOLIO && algorithm != PackingAlgorithm.ANNEALING
+                && algorithm != PackingAlgorithm.BRANCH_AND_BOUND) {
+                ImagePacking packing = algorithm.createPacker(0, 1, 0, log).pack(images, 1);
+                errorCollector.checkThat(algorithm.name(), area, is(lessThanOrEqualTo((long) packing.getWidth() * packing.getHeight())));
+            }
+        }
+        errorCollector.checkThat(again.getWidth(), is(result.getWidth()));
+        errorCollector.checkThat(again.getHeight(), is(result.getHeight()));
+        for (NamedImage image : images) {
+            errorCollector.checkThat(again.getPosition(image), is(result.getPosition(image)));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failingVariant() throws Exception {
+        Packer failing = mock(Packer.class);
+        when(failing.pack(anyListOf(NamedImage.class), anyInt())).thenThrow(new IllegalStateException("failed"));
+        Map<String, Packer> variants = new LinkedHashMap<>();
+        variants.put("failing", failing);
+
+        new PortfolioPacker(variants, 0, 1, log).pack(Collections.<NamedImage>emptyList(), 0);
+    }
+
+    private PortfolioPacker portfolio(int maxWidth, ImagePacking... packings) {
+        Map<String, Packer> variants = new LinkedHashMap<>();
+        for (ImagePacking packing : packings) {
+            Packer packer = mock(Packer.class);
+            when(packer.pack(anyListOf(NamedImage.class), anyInt())).thenReturn(packing);
+            variants.put("variant" + variants.size(), packer);
+        }
+        return new PortfolioPacker(variants, maxWidth, 2, log);
+    }
+
+    private static ImagePacking packing(int width, int height) {
+        return new ImagePacking(new Dimension(width, height), Collections.<NamedImage>emptyList(), new int[0], new int[0]);
+    }
+}
@@ -0,0 +1,40 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for ScaledImageSource.
+ */
+public class ScaledImageSourceTest {
+
+    @Test(expected = NullPointerException.class)
+    public void nullSource() throws Exception {
+        new ScaledImageSource(null, new Dimension(1, 1));
+    }
+
+    @Test
+    public void readsScaledImage() throws Exception {
+        BufferedImage image = new BufferedImage(10, 8, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(4, 2, 0xff123456);
+        image.setRGB(5, 2, 0xff123456);
+        image.setRGB(4, 3, 0xff123456);
+        image.setRGB(5, 3, 0xff123456);
+        ImageSource source = mock(ImageSource.class);
+        when(source.read()).thenReturn(image);
+
+        BufferedImage scaled = new ScaledImageSource(source, new Dimension(5, 4)).read();
+
+        assertThat(scaled.getWidth(), is(5));
+        assertThat(scaled.getHeight(), is(4));
+        assertThat(scaled.getRGB(2, 1), is(0xff123456));
+        assertThat(scaled.getRGB(1, 1), is(0));
+    }
+}
@@ -0,0 +1,129 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for Scaling.
+ */
+public class ScalingTest {
+
+    @Test
+    public void imageOfSameSizeIsNotScaled() throws Exception {
+        BufferedImage image = new BufferedImage(7, 5, BufferedImage.TYPE_INT_ARGB);
+        assertThat(Scaling.scale(image, 7, 5), is(sameInstance(image)));
+    }
+
+    @Test
+    public void halvingAveragesBlocksOfPixels() throws Exception {
+        BufferedImage image = new BufferedImage(4, 2, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0xff000000);
+        image.setRGB(1, 0, 0xffffffff);
+        image.setRGB(0, 1, 0xff000000);
+        image.setRGB(1, 1, 0xffffffff);
+        image.setRGB(2, 0, 0xff102030);
+        image.setRGB(3, 0, 0xff102030);
+        image.setRGB(2, 1, 0xff306090);
+        image.setRGB(3, 1, 0xff306090);
+
+        BufferedImage scaled = Scaling.scale(image, 2, 1);
+
+        assertThat(scaled.getWidth(), is(2));
+        assertThat(scaled.getHeight(), is(1));
+        assertThat(scaled.getRGB(0, 0), is(0xff808080));
+        assertThat(scaled.getRGB(1, 0), is(0xff204060));
+    }
+
+    @Test
+    public void transparentPixelsDoNotDarkenColors() throws Exception {
+        BufferedImage image = new BufferedImage(3, 3, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(1, 1, 0xffff8000);
+
+        BufferedImage scaled = Scaling.scale(image, 1, 1);
+
+        // the alpha is averaged, while the colour is the one of the only visible pixel
+        assertThat(scaled.getRGB(0, 0), is(0x1cff8000));
+    }
+
+    @Test
+    public void fullyTransparentPixelsStayTransparent() throws Exception {
+        BufferedImage image = new BufferedImage(6, 6, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0xffffffff);
+
+        BufferedImage scaled = Scaling.scale(image, 2, 2);
+
+        assertThat(scaled.getRGB(1, 0), is(0));
+        assertThat(scaled.getRGB(0, 1), is(0));
+        assertThat(scaled.getRGB(1, 1), is(0));
+    }
+
+    @Test
+    public void fractionalScalingWeighsCoveredArea() throws Exception {
+        BufferedImage image = new BufferedImage(3, 1, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0xff000000);
+        image.setRGB(1, 0, 0xff000000);
+        image.setRGB(2, 0, 0xffffffff);
+
+        BufferedImage scaled = Scaling.scale(image, 2, 1);
+
+        // the first pixel covers the first pixel and half of the second pixel, the second pixel covers the rest
+        assertThat(scaled.getRGB(0, 0), is(0xff000000));
+        assertThat(scaled.getRGB(1, 0), is(0xffaaaaaa));
+    }
+
+    @Test
+    public void uniformImageStaysUniform() throws Exception {
+        BufferedImage image = new BufferedImage(30, 21, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0x80336699);
+            }
+        }
+
+        for (int[] size : new int[][] {{20, 14}, {7, 5}, {45, 31}, {1, 1}}) {
+            BufferedImage scaled = Scaling.scale(image, size[0], size[1]);
+            for (int y = 0; y < size[1]; y++) {
+                for (int x = 0; x < size[0]; x++) {
+                    assertThat(scaled.getRGB(x, y), is(0x80336699));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void upscalingRepeatsPixels() throws Exception {
+        BufferedImage image = new BufferedImage(2, 1, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0x123456);
+        image.setRGB(1, 0, 0x654321);
+
+        BufferedImage scaled = Scaling.scale(image, 4, 2);
+
+        assertThat(scaled.getRGB(1, 1), is(0xff123456));
+        assertThat(scaled.getRGB(2, 0), is(0xff654321));
+    }
+
+    @Test
+    public void greyImageIsScaledAsDrawn() throws Exception {
+        BufferedImage image = new BufferedImage(2, 2, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 2; x++) {
+                image.getRaster().setSample(x, y, 0, 0x40);
+            }
+        }
+
+        BufferedImage scaled = Scaling.scale(image, 1, 1);
+
+        // Java2D draws the grey values unchanged, while getRGB would convert them from linear grey to sRGB
+        assertThat(scaled.getRGB(0, 0), is(0xff404040));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyImage() throws Exception {
+        Scaling.scale(new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB), 0, 1);
+    }
+}
@@ -0,0 +1,116 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for SessionImageCache.
+ */
+public class SessionImageCacheTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private Path file;
+    private Path otherFile;
+    private ImageSource source;
+    private ImageSource otherSource;
+
+    @Before
+    public void before() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        file = fileSystem.getPath("/images/image.png");
+        otherFile = fileSystem.getPath("/images/other.png");
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[]{1});
+        Files.write(otherFile, new byte[]{2});
+        source = mock(ImageSource.class);
+        when(source.read()).thenReturn(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB));
+        otherSource = mock(ImageSource.class);
+        when(otherSource.read()).thenReturn(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB));
+    }
+
+    @Test
+    public void sameCacheForSameBuild() throws Exception {
+        Object build = new Object();
+
+        errorCollector.checkThat(SessionImageCache.forBuild(build, 1000), is(sameInstance(SessionImageCache.forBuild(build, 2000))));
+        errorCollector.checkThat(SessionImageCache.forBuild(build, 1000), is(not(sameInstance(SessionImageCache.forBuild(new Object(), 1000)))));
+    }
+
+    @Test
+    public void decodesOnce() throws Exception {
+        SessionImageCache cache = new SessionImageCache(1000);
+
+        BufferedImage first = cache.cached(file, source).read();
+        BufferedImage second = cache.cached(file, source).read();
+
+        errorCollector.checkThat(second, is(sameInstance(first)));
+        verify(source, times(1)).read();
+    }
+
+    @Test
+    public void modifiedFileIsDecodedAgain() throws Exception {
+        SessionImageCache cache = new SessionImageCache(1000);
+        cache.cached(file, source).read();
+
+        Files.setLastModifiedTime(file, FileTime.from(Files.getLastModifiedTime(file).toMillis() + 1000, TimeUnit.MILLISECONDS));
+        cache.cached(file, source).read();
+
+        verify(source, times(2)).read();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        // room for a single image of 10x10 pixels
+        SessionImageCache cache = new SessionImageCache(400);
+        cache.cached(file, source).read();
+        cache.cached(otherFile, otherSource).read();
+        cache.cached(file, source).read();
+
+        verify(source, times(2)).read();
+        verify(otherSource, times(1)).read();
+    }
+
+    @Test
+    public void failureIsNotCached() throws Exception {
+        SessionImageCache cache = new SessionImageCache(1000);
+        ImageSource failing = mock(ImageSource.class);
+        IOException exception = new IOException("failed");
+        when(failing.read()).thenThrow(exception).thenReturn(new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB));
+
+        try {
+            cache.cached(file, failing).read();
+            errorCollector.addError(new AssertionError("expected IOException"));
+        } catch (IOException e) {
+            errorCollector.checkThat(e, is(sameInstance(exception)));
+        }
+        cache.cached(file, failing).read();
+
+        verify(failing, times(2)).read();
+    }
+
+    @Test(expected = IOException.class)
+    public void missingFile() throws Exception {
+        new SessionImageCache(1000).cached(file.resolveSibling("missing.png"), source).read();
+    }
+}
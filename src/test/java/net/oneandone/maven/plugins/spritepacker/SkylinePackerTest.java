@@ -0,0 +1,103 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.checkPacking;
+import static net.oneandone.maven.plugins.spritepacker.PackingAssertions.createImages;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for SkylinePacker
+ *
+ * @author ssiegler
+ */
+public class SkylinePackerTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private final ImageSource source = mock(ImageSource.class);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeMaxWidth() throws Exception {
+        new SkylinePacker(-1);
+    }
+
+    @Test
+    public void packingWithoutImages() throws Exception {
+        ImagePacking packing = new SkylinePacker(0).pack(Collections.<NamedImage>emptyList(), 3);
+        errorCollector.checkThat(packing.getWidth(), is(0));
+        errorCollector.checkThat(packing.getHeight(), is(0));
+    }
+
+    @Test
+    public void packingForSingleImage() throws Exception {
+        int padding = 5;
+        NamedImage image = new NamedImage("Bild", 30, 20, source);
+        ImagePacking packing = new SkylinePacker(0).pack(Collections.singletonList(image), padding);
+        errorCollector.checkThat(packing.getWidth(), is(30 + 2 * padding));
+        errorCollector.checkThat(packing.getHeight(), is(20 + 2 * padding));
+        errorCollector.checkThat(packing.getPosition(image), is(new Point(padding, padding)));
+    }
+
+    @Test
+    public void packingPlacesImagesAtLowestPosition() throws Exception {
+        NamedImage tall = new NamedImage("tall", 10, 30, source);
+        NamedImage medium = new NamedImage("medium", 10, 20, source);
+        NamedImage small = new NamedImage("small", 10, 10, source);
+        NamedImage wide = new NamedImage("wide", 20, 10, source);
+
+        ImagePacking packing = new SkylinePacker(33).pack(Arrays.asList(small, wide, medium, tall), 1);
+
+        errorCollector.checkThat(packing.getPosition(tall), is(new Point(1, 1)));
+        errorCollector.checkThat(packing.getPosition(medium), is(new Point(12, 1)));
+        errorCollector.checkThat(packing.getPosition(wide), is(new Point(12, 22)));
+        errorCollector.checkThat(packing.getPosition(small), is(new Point(1, 32)));
+        errorCollector.checkThat(packing.getWidth(), is(33));
+        errorCollector.checkThat(packing.getHeight(), is(43));
+    }
+
+    @Test
+    public void imageWiderThanMaxWidthWidensSpritesheet() throws Exception {
+        NamedImage image = new NamedImage("wide", 50, 10, source);
+        ImagePacking packing = new SkylinePacker(20).pack(Collections.singletonList(image), 2);
+        errorCollector.checkThat(packing.getWidth(), is(54));
+    }
+
+    @Test
+    public void packingRespectsMaxWidth() throws Exception {
+        List<NamedImage> images = createImages(new Random(5), 1000, 64);
+        ImagePacking packing = new SkylinePacker(500).pack(images, 2);
+        errorCollector.checkThat(packing.getWidth(), is(lessThanOrEqualTo(500)));
+        checkPacking(errorCollector, images, packing, 2);
+    }
+
+    @Test
+    public void packsDenserThanPackGrowing() throws Exception {
+        Random random = new Random(13);
+        for (int i = 0; i < 5; i++) {
+            List<NamedImage> images = createImages(random, 2000, 64);
+            ImagePacking growing = PackGrowing.fit(images, 1);
+            ImagePacking packing = new SkylinePacker(0).pack(images, 1);
+            errorCollector.checkThat((long) packing.getWidth() * packing.getHeight(),
+                                     is(lessThan((long) growing.getWidth() * growing.getHeight())));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void packingForHundredThousandImages() throws Exception {
+        List<NamedImage> images = createImages(new Random(17), 100000, 16);
+        ImagePacking packing = new SkylinePacker(0).pack(images, 1);
+        checkPacking(errorCollector, images, packing, 1);
+    }
+}
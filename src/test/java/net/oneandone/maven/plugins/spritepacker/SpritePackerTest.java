@@ -6,6 +6,7 @@ import net.oneandone.maven.plugins.spritepacker.converters.CssPackingConverter;
 import net.oneandone.maven.plugins.spritepacker.converters.JsonPackingConverter;
 import net.oneandone.maven.plugins.spritepacker.converters.LessPackingConverter;
 import net.oneandone.maven.plugins.spritepacker.converters.PackingConverter;
+import net.oneandone.maven.plugins.spritepacker.converters.PngCompression;
 import net.oneandone.maven.plugins.spritepacker.converters.SpritesheetPackingConverter;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
@@ -17,10 +18,16 @@ import org.mockito.ArgumentCaptor;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
 import javax.imageio.ImageIO;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -28,10 +35,13 @@ import java.util.List;
 import static net.oneandone.maven.plugins.spritepacker.matchers.ImageMatcher.eqImage;
 import static org.hamcrest.Matchers.both;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
@@ -136,6 +146,376 @@ public class SpritePackerTest {
         errorCollector.checkThat(namedImage.getImage(), is(eqImage(ImageIO.read(getClass().getResourceAsStream(resourceName)))));
     }
 
+    @Test
+    public void loadImagesInParallelKeepsOrder() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        List<Path> paths = new ArrayList<>();
+        for (int x = 0; x < 3; x++) {
+            for (int y = 0; y < 3; y++) {
+                String resourceName = "/100px-Icon_subway.svg-" + x + "-" + y + ".png";
+                Path path = fileSystem.getPath(resourceName);
+                Files.copy(getClass().getResourceAsStream(resourceName), path);
+                paths.add(path);
+            }
+        }
+
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.threads = 4;
+        List<NamedImage> images = spritePacker.loadImages(paths);
+        errorCollector.checkThat(images, hasSize(paths.size()));
+        for (int i = 0; i < paths.size(); i++) {
+            String resourceName = paths.get(i).toString();
+            NamedImage namedImage = images.get(i);
+            errorCollector.checkThat(namedImage.getName(), is(resourceName.substring(1, resourceName.length() - 4)));
+            errorCollector.checkThat(namedImage.getImage(), is(eqImage(ImageIO.read(getClass().getResourceAsStream(resourceName)))));
+        }
+    }
+
+    @Test
+    public void loadImagesInParallelWrapsIOException() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        String resourceName = "/100px-Icon_subway.svg.png";
+        Path existing = fileSystem.getPath(resourceName);
+        Files.copy(getClass().getResourceAsStream(resourceName), existing);
+        Path missing = fileSystem.getPath("missing.png");
+
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.threads = 2;
+        try {
+            spritePacker.loadImages(Arrays.asList(existing, missing, existing));
+            fail("Expected exception not thrown");
+        } catch (MojoExecutionException e) {
+            assertThat(e.getMessage(), containsString(missing.toAbsolutePath().toString()));
+        }
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void loadImagesFailsForUnknownFormat() throws Exception {
+        Path path = Jimfs.newFileSystem(Configuration.unix()).getPath("text.png");
+        Files.write(path, "not an image".getBytes(StandardCharsets.UTF_8));
+        new SpritePacker().loadImages(Arrays.asList(path));
+    }
+
+    @Test
+    public void loadImagesInStreamingModeDoesNotRetainImages() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        String resourceName = "/100px-Icon_subway.svg.png";
+        Path path = fileSystem.getPath(resourceName);
+        Files.copy(getClass().getResourceAsStream(resourceName), path);
+
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.streaming = Boolean.TRUE;
+        NamedImage namedImage = spritePacker.loadImages(Arrays.asList(path)).get(0);
+        errorCollector.checkThat(namedImage.getWidth(), is(100));
+        errorCollector.checkThat(namedImage.getHeight(), is(78));
+        BufferedImage image = namedImage.getImage();
+        errorCollector.checkThat(image, is(eqImage(ImageIO.read(getClass().getResourceAsStream(resourceName)))));
+        errorCollector.checkThat(namedImage.getImage(), is(not(sameInstance(image))));
+    }
+
+    @Test
+    public void loadImagesSharesSourceOfIdenticalFiles() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        Path original = fileSystem.getPath("original.png");
+        Path copy = fileSystem.getPath("copy.png");
+        Path other = fileSystem.getPath("other.png");
+        Files.copy(getClass().getResourceAsStream("/100px-Icon_subway.svg-0-0.png"), original);
+        Files.copy(original, copy);
+        Files.copy(getClass().getResourceAsStream("/100px-Icon_subway.svg-1-0.png"), other);
+
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.threads = 2;
+        List<NamedImage> images = spritePacker.loadImages(Arrays.asList(original, other, copy));
+        errorCollector.checkThat(images.get(2).getName(), is("copy"));
+        errorCollector.checkThat(images.get(2).getSource(), is(sameInstance(images.get(0).getSource())));
+        errorCollector.checkThat(images.get(1).getSource(), is(not(sameInstance(images.get(0).getSource()))));
+    }
+
+    @Test
+    public void packImagesPlacesDuplicatesAtSamePosition() throws Exception {
+        NamedImage original = new NamedImage(new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB), "original");
+        NamedImage duplicate = new NamedImage("duplicate", 20, 10, original.getSource());
+        NamedImage other = new NamedImage(new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB), "other");
+
+        SpritePacker spritePacker = spy(new SpritePacker());
+        doNothing().when(spritePacker).log(any());
+        spritePacker.padding = 0;
+        ImagePacking packing = spritePacker.packImages(Arrays.asList(original, duplicate, other));
+        ImagePacking uniquePacking = PackGrowing.fit(Arrays.asList(original, other), 0);
+
+        errorCollector.checkThat(packing.getWidth(), is(uniquePacking.getWidth()));
+        errorCollector.checkThat(packing.getHeight(), is(uniquePacking.getHeight()));
+        errorCollector.checkThat(packing.getPosition(duplicate), is(packing.getPosition(original)));
+        errorCollector.checkThat(packing.getPosition(other), is(not(packing.getPosition(original))));
+    }
+
+    @Test
+    public void packImagesUsesConfiguredPacking() throws Exception {
+        List<NamedImage> images = Arrays.asList(new NamedImage(new BufferedImage(10, 40, BufferedImage.TYPE_INT_ARGB), "tall"),
+                                                new NamedImage(new BufferedImage(10, 20, BufferedImage.TYPE_INT_ARGB), "small1"),
+                                                new NamedImage(new BufferedImage(10, 20, BufferedImage.TYPE_INT_ARGB), "small2"));
+
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.padding = 1;
+        spritePacker.packing = PackingAlgorithm.MAXRECTS_BAF;
+        ImagePacking packing = spritePacker.packImages(images);
+        ImagePacking expected = new MaxRectsPacker(MaxRectsPacker.Heuristic.BEST_AREA_FIT).pack(images, 1);
+
+        errorCollector.checkThat(packing.getWidth(), is(expected.getWidth()));
+        errorCollector.checkThat(packing.getHeight(), is(expected.getHeight()));
+        for (NamedImage image : images) {
+            errorCollector.checkThat(packing.getPosition(image), is(expected.getPosition(image)));
+        }
+    }
+
+    @Test
+    public void packImagesInGrid() throws Exception {
+        List<NamedImage> images = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            images.add(new NamedImage(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB), "icon" + i));
+        }
+
+        SpritePacker spritePacker = spy(new SpritePacker());
+        doNothing().when(spritePacker).log(any());
+        spritePacker.padding = 0;
+        spritePacker.grid = Boolean.TRUE;
+        ImagePacking packing = spritePacker.packImages(images);
+
+        errorCollector.checkThat(packing.getWidth(), is(30));
+        errorCollector.checkThat(packing.getHeight(), is(30));
+        for (int i = 0; i < images.size(); i++) {
+            errorCollector.checkThat(packing.getPosition(images.get(i)), is(new Point((i % 3) * 10, (i / 3) * 10)));
+        }
+    }
+
+    @Test
+    public void packImagesLogsFillRatio() throws Exception {
+        List<NamedImage> images = Arrays.asList(new NamedImage(new BufferedImage(10, 20, BufferedImage.TYPE_INT_ARGB), "first"),
+                                                new NamedImage(new BufferedImage(10, 20, BufferedImage.TYPE_INT_ARGB), "second"));
+
+        SpritePacker spritePacker = spy(new SpritePacker());
+        doNothing().when(spritePacker).log(any());
+        spritePacker.padding = 0;
+        spritePacker.packing = PackingAlgorithm.SKYLINE;
+        spritePacker.maxWidth = 10;
+        spritePacker.packImages(images);
+
+        ArgumentCaptor<Object> message = ArgumentCaptor.forClass(Object.class);
+        verify(spritePacker).log(message.capture());
+        assertThat(message.getValue().toString(), both(containsString("Packed 2 images into 10x40 pixels with SKYLINE in "))
+                                                          .and(containsString("100.0% filled")));
+    }
+
+    @Test
+    public void trimImagesSharesTrimmedSourceOfDuplicates() throws Exception {
+        BufferedImage padded = new BufferedImage(10, 8, BufferedImage.TYPE_INT_ARGB);
+        padded.setRGB(2, 3, 0xff123456);
+        padded.setRGB(6, 4, 0x80654321);
+        NamedImage original = new NamedImage(padded, "original");
+        NamedImage duplicate = new NamedImage("duplicate", 10, 8, original.getSource());
+        NamedImage opaque = new NamedImage(new BufferedImage(3, 3, BufferedImage.TYPE_INT_RGB), "opaque");
+
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.threads = 2;
+        List<NamedImage> trimmed = spritePacker.trimImages(Arrays.asList(original, duplicate, opaque));
+
+        errorCollector.checkThat(trimmed, hasSize(3));
+        errorCollector.checkThat(trimmed.get(0).getName(), is("original"));
+        errorCollector.checkThat(trimmed.get(0).getOffsetX(), is(2));
+        errorCollector.checkThat(trimmed.get(0).getOffsetY(), is(3));
+        errorCollector.checkThat(trimmed.get(0).getWidth(), is(5));
+        errorCollector.checkThat(trimmed.get(0).getHeight(), is(2));
+        errorCollector.checkThat(trimmed.get(0).getImage().getRGB(4, 1), is(0x80654321));
+        errorCollector.checkThat(trimmed.get(1).getName(), is("duplicate"));
+        errorCollector.checkThat(trimmed.get(1).getSource(), is(sameInstance(trimmed.get(0).getSource())));
+        errorCollector.checkThat(trimmed.get(2), is(sameInstance(opaque)));
+    }
+
+    @Test
+    public void threadCountIsLimitedByTasks() throws Exception {
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.threads = 8;
+        errorCollector.checkThat(spritePacker.getThreadCount(3), is(3));
+        errorCollector.checkThat(spritePacker.getThreadCount(20), is(8));
+        spritePacker.threads = 0;
+        errorCollector.checkThat(spritePacker.getThreadCount(Integer.MAX_VALUE), is(Runtime.getRuntime().availableProcessors()));
+    }
+
+    @Test
+    public void compressionLevelDefaultsToLevelOfPreset() throws Exception {
+        SpritePacker spritePacker = new SpritePacker();
+        errorCollector.checkThat(spritePacker.getCompressionLevel(), is(9));
+        spritePacker.compression = PngCompression.FAST;
+        errorCollector.checkThat(spritePacker.getCompressionLevel(), is(1));
+        spritePacker.compressionLevel = 0;
+        errorCollector.checkThat(spritePacker.getCompressionLevel(), is(0));
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void rejectsInvalidCompressionLevel() throws Exception {
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.compressionLevel = 10;
+        spritePacker.getCompressionLevel();
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void rejectsInvalidMinQuality() throws Exception {
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.minQuality = 101;
+        spritePacker.getMinQuality();
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void rejectsWebpInStreamingMode() throws Exception {
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.webp = new File("sprite.webp");
+        spritePacker.streaming = Boolean.TRUE;
+        spritePacker.getWebpPath();
+    }
+
+    @Test
+    public void densitiesStartWithBaseDensity() throws Exception {
+        SpritePacker spritePacker = new SpritePacker();
+        errorCollector.checkThat(spritePacker.getDensities(), is(new int[] {1}));
+        spritePacker.densities = new Integer[] {3, 1, 2, 3};
+        errorCollector.checkThat(spritePacker.getDensities(), is(new int[] {1, 2, 3}));
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void rejectsInvalidDensity() throws Exception {
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.densities = new Integer[] {2, 0};
+        spritePacker.getDensities();
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void rejectsDensitiesWithTrimming() throws Exception {
+        SpritePacker spritePacker = new SpritePacker();
+        spritePacker.densities = new Integer[] {2};
+        spritePacker.trim = Boolean.TRUE;
+        spritePacker.getDensities();
+    }
+
+    @Test
+    public void groupDensitiesUsesImagesWithDensitySuffix() throws Exception {
+        NamedImage icon = new NamedImage(new BufferedImage(10, 8, BufferedImage.TYPE_INT_ARGB), "icon");
+        NamedImage icon2x = new NamedImage(new BufferedImage(20, 16, BufferedImage.TYPE_INT_ARGB), "icon@2x");
+        NamedImage copy = new NamedImage("copy", 10, 8, icon.getSource());
+        NamedImage copy2x = new NamedImage("copy@2x", 20, 16, icon2x.getSource());
+        Path directory = Paths.get("images");
+        List<Path> files = Arrays.asList(directory.resolve("copy.png"), directory.resolve("copy@2x.png"),
+                                         directory.resolve("icon.png"), directory.resolve("icon@2x.png"));
+
+        SpritePacker spritePacker = spy(new SpritePacker());
+        doNothing().when(spritePacker).log(any());
+        List<NamedImage> grouped = spritePacker.groupDensities(files, Arrays.asList(copy, copy2x, icon, icon2x), new int[] {1, 2});
+
+        errorCollector.checkThat(grouped, hasSize(2));
+        errorCollector.checkThat(grouped.get(0).getName(), is("copy"));
+        errorCollector.checkThat(grouped.get(0).getWidth(), is(10));
+        errorCollector.checkThat(grouped.get(0).getHeight(), is(8));
+        errorCollector.checkThat(grouped.get(1).getName(), is("icon"));
+        DensityImageSource source = (DensityImageSource) grouped.get(1).getSource();
+        errorCollector.checkThat(source.getVariant(1), is(sameInstance(icon.getSource())));
+        errorCollector.checkThat(source.getVariant(2), is(sameInstance(icon2x.getSource())));
+        errorCollector.checkThat(grouped.get(0).getSource(), is(sameInstance((ImageSource) source)));
+    }
+
+    @Test
+    public void groupDensitiesScalesMissingDensities() throws Exception {
+        BufferedImage image = new BufferedImage(30, 21, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0xff123456);
+        NamedImage icon3x = new NamedImage(image, "icon@3x");
+        NamedImage wrongSize2x = new NamedImage(new BufferedImage(9, 9, BufferedImage.TYPE_INT_ARGB), "icon@2x");
+
+        SpritePacker spritePacker = spy(new SpritePacker());
+        doNothing().when(spritePacker).log(any());
+        List<NamedImage> grouped = spritePacker.groupDensities(Arrays.asList(Paths.get("icon@2x.png"), Paths.get("icon@3x.png")),
+                                                               Arrays.asList(wrongSize2x, icon3x), new int[] {1, 2});
+
+        errorCollector.checkThat(grouped, hasSize(1));
+        errorCollector.checkThat(grouped.get(0).getName(), is("icon"));
+        errorCollector.checkThat(grouped.get(0).getWidth(), is(10));
+        errorCollector.checkThat(grouped.get(0).getHeight(), is(7));
+        DensityImageSource source = (DensityImageSource) grouped.get(0).getSource();
+        BufferedImage base = source.getVariant(1).read();
+        errorCollector.checkThat(base.getWidth(), is(10));
+        errorCollector.checkThat(base.getHeight(), is(7));
+        errorCollector.checkThat(base.getRGB(0, 0), is(0x1c123456));
+        BufferedImage doubled = source.getVariant(2).read();
+        errorCollector.checkThat(doubled.getWidth(), is(20));
+        errorCollector.checkThat(doubled.getHeight(), is(14));
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void groupDensitiesRejectsSeveralImagesInSameDensity() throws Exception {
+        NamedImage png = new NamedImage(new BufferedImage(10, 8, BufferedImage.TYPE_INT_ARGB), "icon");
+        NamedImage gif = new NamedImage(new BufferedImage(10, 8, BufferedImage.TYPE_INT_ARGB), "icon");
+
+        new SpritePacker().groupDensities(Arrays.asList(Paths.get("icon.gif"), Paths.get("icon.png")), Arrays.asList(gif, png), new int[] {1, 2});
+    }
+
+    @Test
+    public void executeWritesSpritesheetForEachDensity() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        Path directory = Files.createDirectories(fileSystem.getPath("/images"));
+        List<Path> inputs = Arrays.asList(directory.resolve("icon.png"), directory.resolve("icon@2x.png"), directory.resolve("other@2x.png"));
+        writeFilledImage(inputs.get(0), 4, 2, 0xffff0000);
+        writeFilledImage(inputs.get(1), 8, 4, 0xff0000ff);
+        writeFilledImage(inputs.get(2), 6, 4, 0xff00ff00);
+
+        SpritePacker spritePacker = spy(new SpritePacker());
+        spritePacker.forceOverwrite = Boolean.TRUE;
+        spritePacker.skip = Boolean.FALSE;
+        spritePacker.padding = 0;
+        spritePacker.threads = 2;
+        spritePacker.densities = new Integer[] {2};
+        spritePacker.sourceDirectory = mock(File.class);
+        spritePacker.output = new File("sprite.png");
+        spritePacker.css = new File("sprite.css");
+        doReturn(fileSystem.getPath("/out/sprite.png")).when(spritePacker).fileToPath(spritePacker.output);
+        doReturn(fileSystem.getPath("/out/sprite.css")).when(spritePacker).fileToPath(spritePacker.css);
+        doReturn(inputs).when(spritePacker).scanPaths(any(File.class), any(String[].class), any(String[].class));
+        doNothing().when(spritePacker).log(any());
+
+        spritePacker.execute();
+        BufferedImage sheet = ImageIO.read(Files.newInputStream(fileSystem.getPath("/out/sprite.png")));
+        BufferedImage sheet2x = ImageIO.read(Files.newInputStream(fileSystem.getPath("/out/sprite@2x.png")));
+
+        errorCollector.checkThat(sheet2x.getWidth(), is(2 * sheet.getWidth()));
+        errorCollector.checkThat(sheet2x.getHeight(), is(2 * sheet.getHeight()));
+        errorCollector.checkThat(countPixels(sheet, 0xffff0000), is(8));
+        errorCollector.checkThat(countPixels(sheet, 0xff00ff00), is(6));
+        errorCollector.checkThat(countPixels(sheet2x, 0xff0000ff), is(32));
+        errorCollector.checkThat(countPixels(sheet2x, 0xff00ff00), is(24));
+        String css = new String(Files.readAllBytes(fileSystem.getPath("/out/sprite.css")), StandardCharsets.UTF_8);
+        errorCollector.checkThat(css, containsString("background-image:url(\"sprite@2x.png\");"));
+    }
+
+    private static void writeFilledImage(Path path, int width, int height, int color) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, color);
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(path)) {
+            ImageIO.write(image, "png", out);
+        }
+    }
+
+    private static int countPixels(BufferedImage image, int color) {
+        int count = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (image.getRGB(x, y) == color) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
     @Test
     public void executeWithNoInputsDoesNothing() throws Exception {
         SpritePacker spritePacker = spy(new SpritePacker());
@@ -0,0 +1,54 @@
+package net.oneandone.maven.plugins.spritepacker;
+
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for Trimming.
+ */
+public class TrimmingTest {
+
+    @Test
+    public void opaqueImageIsNotTrimmed() throws Exception {
+        BufferedImage image = new BufferedImage(7, 5, BufferedImage.TYPE_INT_RGB);
+        assertThat(Trimming.getContentBounds(image), is(new Rectangle(0, 0, 7, 5)));
+    }
+
+    @Test
+    public void transparentImageIsTrimmedToSinglePixel() throws Exception {
+        BufferedImage image = new BufferedImage(7, 5, BufferedImage.TYPE_INT_ARGB);
+        assertThat(Trimming.getContentBounds(image), is(new Rectangle(0, 0, 1, 1)));
+    }
+
+    @Test
+    public void boundsContainAllVisiblePixels() throws Exception {
+        BufferedImage image = new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(3, 6, 0x01000000);
+        image.setRGB(12, 2, 0xffffffff);
+        image.setRGB(8, 8, 0x7f00ff00);
+        assertThat(Trimming.getContentBounds(image), is(new Rectangle(3, 2, 10, 7)));
+    }
+
+    @Test
+    public void singleVisiblePixel() throws Exception {
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(3, 3, 0xff000000);
+        assertThat(Trimming.getContentBounds(image), is(new Rectangle(3, 3, 1, 1)));
+    }
+
+    @Test
+    public void indexedImageWithTransparentColor() throws Exception {
+        byte[] colors = { 0, (byte) 255 };
+        IndexColorModel colorModel = new IndexColorModel(1, 2, colors, colors, colors, 0);
+        BufferedImage image = new BufferedImage(6, 6, BufferedImage.TYPE_BYTE_BINARY, colorModel);
+        image.getRaster().setSample(1, 4, 0, 1);
+        image.getRaster().setSample(4, 1, 0, 1);
+        assertThat(Trimming.getContentBounds(image), is(new Rectangle(1, 1, 4, 4)));
+    }
+}
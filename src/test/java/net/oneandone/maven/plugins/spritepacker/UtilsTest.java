@@ -119,4 +119,19 @@ public class UtilsTest {
         }
         errorCollector.checkThat(Utils.shouldWriteOutput(inputs, outputs), is(false));
     }
+
+    @Test
+    public void densityPathHasSuffixBeforeExtension() throws Exception {
+        errorCollector.checkThat(Utils.getDensityPath(outputDir.resolve("sprite.png"), 2), is(outputDir.resolve("sprite@2x.png")));
+        errorCollector.checkThat(Utils.getDensityPath(outputDir.resolve("sprite.min.css"), 3), is(outputDir.resolve("sprite.min@3x.css")));
+        errorCollector.checkThat(Utils.getDensityPath(outputDir.resolve("sprite"), 2), is(outputDir.resolve("sprite@2x")));
+        errorCollector.checkThat(Utils.getDensityPath(outputDir.resolve(".sprite"), 2), is(outputDir.resolve(".sprite@2x")));
+    }
+
+    @Test
+    public void densityPathOfBaseDensityIsUnchanged() throws Exception {
+        Path path = outputDir.resolve("sprite.png");
+        errorCollector.checkThat(Utils.getDensityPath(path, 1), is(path));
+        errorCollector.checkThat(Utils.getDensityPath(null, 2), is((Path) null));
+    }
 }
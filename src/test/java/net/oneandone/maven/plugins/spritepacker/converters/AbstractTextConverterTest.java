@@ -95,6 +95,24 @@ public class AbstractTextConverterTest {
         convert();
     }
 
+    @Test(expected = MojoExecutionException.class)
+    public void throwsExceptionWhenDirectoryCannotBeCreated() throws Exception {
+        // Prevent directory from being created by creating a file in its place.
+        Files.createFile(file);
+        file = file.resolve("output");
+
+        convert();
+    }
+
+    @Test
+    public void convertCreatesDirectories() throws Exception {
+        file = file.resolveSibling("outputDir").resolve("output");
+
+        convert();
+
+        errorCollector.checkThat(Files.readAllLines(file, StandardCharsets.UTF_8), is(Arrays.asList(output.split("\\n"))));
+    }
+
     @Test
     public void convertWritesOutputToFile() throws Exception {
         convert();
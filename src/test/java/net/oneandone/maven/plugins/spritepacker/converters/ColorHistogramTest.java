@@ -0,0 +1,67 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Unit tests for ColorHistogram.
+ *
+ * @author ssiegler
+ */
+public class ColorHistogramTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    @Test
+    public void countsPixelsOfEachColor() throws Exception {
+        ColorHistogram histogram = new ColorHistogram(16);
+        int[] pixels = {0xff102030, 0xff102030, 0, 0x00ffffff, 0x80102030, 0xff102030, 0x00123456};
+
+        histogram.addAll(pixels, 0, pixels.length);
+
+        errorCollector.checkThat(histogram.size(), is(3));
+        errorCollector.checkThat(histogram.getDroppedBits(), is(0));
+        int[] colors = histogram.getColors();
+        int[] counts = histogram.getCounts();
+        for (int i = 0; i < colors.length; i++) {
+            int expected = (colors[i] == 0xff102030) ? 3 : (colors[i] == 0) ? 3 : (colors[i] == 0x80102030) ? 1 : -1;
+            errorCollector.checkThat(Integer.toHexString(colors[i]), counts[i], is(expected));
+        }
+    }
+
+    @Test
+    public void dropsLowBitsAboveMaxColors() throws Exception {
+        ColorHistogram histogram = new ColorHistogram(16);
+        int[] pixels = new int[256];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | i * 0x010101;
+        }
+
+        histogram.addAll(pixels, 0, pixels.length);
+
+        errorCollector.checkThat(histogram.size(), is(lessThanOrEqualTo(16)));
+        errorCollector.checkThat(histogram.getDroppedBits(), is(4));
+        int total = 0;
+        boolean black = false;
+        boolean white = false;
+        for (int count : histogram.getCounts()) {
+            total += count;
+        }
+        for (int color : histogram.getColors()) {
+            black |= color == 0xff000000;
+            white |= color == 0xffffffff;
+        }
+        errorCollector.checkThat(total, is(256));
+        errorCollector.checkThat(black, is(true));
+        errorCollector.checkThat(white, is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveMaxColors() throws Exception {
+        new ColorHistogram(0);
+    }
+}
@@ -0,0 +1,90 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Unit tests for ColorScan.
+ *
+ * @author ssiegler
+ */
+public class ColorScanTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    @Test
+    public void choosesPaletteForFewColors() throws Exception {
+        PngFormat format = scan(0xffff0000, 0x8000ff00, 0xff0000ff);
+
+        errorCollector.checkThat(format.getColorType(), is(3));
+        errorCollector.checkThat(format.getBitDepth(), is(2));
+    }
+
+    @Test
+    public void choosesGreyForOpaqueGreyPixels() throws Exception {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = 0xff000000 | i * 0x010101;
+        }
+
+        // a palette of 256 colours needs as many bits per pixel as grey
+        errorCollector.checkThat(scan(colors), is(sameInstance(PngFormat.GREY)));
+        errorCollector.checkThat(scan(0xff000000, 0xffffffff).getColorType(), is(3));
+    }
+
+    @Test
+    public void choosesGreyWithAlphaForTranslucentGreyPixels() throws Exception {
+        int[] colors = new int[300];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = (i % 5) * 0x20000000 | (i / 5) * 0x010101;
+        }
+
+        errorCollector.checkThat(scan(colors), is(sameInstance(PngFormat.GREY_ALPHA)));
+    }
+
+    @Test
+    public void choosesRgbForOpaquePixels() throws Exception {
+        errorCollector.checkThat(scan(createColors(0xff000000)), is(sameInstance(PngFormat.RGB)));
+    }
+
+    @Test
+    public void choosesRgbaForTranslucentColoredPixels() throws Exception {
+        int[] colors = createColors(0xff000000);
+        colors[299] = 0xfeffffff;
+
+        errorCollector.checkThat(scan(colors), is(sameInstance(PngFormat.RGBA)));
+    }
+
+    @Test
+    public void isDoneWhenNoFormatButRgbaRemains() throws Exception {
+        ColorScan scan = new ColorScan();
+        scan.scan(createColors(0x80000000), 0, 300);
+        errorCollector.checkThat(scan.isDone(), is(true));
+        scan = new ColorScan();
+        scan.scan(createColors(0xff000000), 0, 300);
+        errorCollector.checkThat(scan.isDone(), is(false));
+        scan.scan(new int[] {0x80102030}, 0, 1);
+        errorCollector.checkThat(scan.isDone(), is(true));
+        scan.scan(new int[] {0xff000000}, 0, 1);
+        errorCollector.checkThat(scan.getFormat(), is(sameInstance(PngFormat.RGBA)));
+    }
+
+    private static int[] createColors(int alpha) {
+        // more colours than a palette holds, and none of them grey
+        int[] colors = new int[300];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = alpha | 0x400000 | i;
+        }
+        return colors;
+    }
+
+    private static PngFormat scan(int... pixels) {
+        ColorScan scan = new ColorScan();
+        scan.scan(pixels, 0, pixels.length);
+        return scan.getFormat();
+    }
+}
@@ -0,0 +1,62 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Unit tests for ColorTable.
+ *
+ * @author ssiegler
+ */
+public class ColorTableTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    @Test
+    public void countsDistinctColors() throws Exception {
+        ColorTable colors = new ColorTable(4);
+        int[] pixels = {0, 0, 0xff000000, 0, 0x80ffffff, 0xff000000};
+
+        errorCollector.checkThat(colors.addAll(pixels, 0, pixels.length), is(true));
+        errorCollector.checkThat(colors.size(), is(3));
+        errorCollector.checkThat(colors.indexOf(0x12345678), is(-1));
+    }
+
+    @Test
+    public void stopsAtLimit() throws Exception {
+        ColorTable colors = new ColorTable(2);
+
+        errorCollector.checkThat(colors.add(1), is(true));
+        errorCollector.checkThat(colors.add(2), is(true));
+        errorCollector.checkThat(colors.add(1), is(true));
+        errorCollector.checkThat(colors.add(3), is(false));
+        errorCollector.checkThat(colors.addAll(new int[] {1, 2, 2, 4}, 0, 4), is(false));
+        errorCollector.checkThat(colors.size(), is(2));
+    }
+
+    @Test
+    public void holdsManyColors() throws Exception {
+        ColorTable colors = new ColorTable(256);
+        for (int i = 0; i < 256; i++) {
+            errorCollector.checkThat(colors.add(i << 16 | 0xff000000), is(true));
+        }
+        errorCollector.checkThat(colors.add(0), is(false));
+        errorCollector.checkThat(colors.size(), is(256));
+    }
+
+    @Test
+    public void putsTranslucentColorsFirstInPalette() throws Exception {
+        ColorTable colors = new ColorTable(8);
+        colors.addAll(new int[] {0xff102030, 0x80102030, 0xff000000, 0}, 0, 4);
+
+        int[] palette = colors.createPalette();
+
+        errorCollector.checkThat(palette, is(new int[] {0, 0x80102030, 0xff000000, 0xff102030}));
+        for (int i = 0; i < palette.length; i++) {
+            errorCollector.checkThat(colors.indexOf(palette[i]), is(i));
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package net.oneandone.maven.plugins.spritepacker.converters;
 
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
 import net.oneandone.maven.plugins.spritepacker.ImagePacking;
+import net.oneandone.maven.plugins.spritepacker.ImageSource;
 import net.oneandone.maven.plugins.spritepacker.NamedImage;
 import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.StringUtils;
@@ -15,16 +18,18 @@ import org.junit.runner.RunWith;
 
 import java.awt.Dimension;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.nio.file.FileSystem;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.startsWith;
 import static org.mockito.Mockito.mock;
 
@@ -65,12 +70,14 @@ public class CssPackingConverterTest {
     }
 
     private ImagePacking getImagePacking(List<NamedImage> imageList) {
-        Map<NamedImage, Point> positionMap = new HashMap<>();
-        for (NamedImage image : imageList) {
+        int[] x = new int[imageList.size()];
+        int[] y = new int[imageList.size()];
+        for (int i = 0; i < imageList.size(); i++) {
             ThreadLocalRandom random = ThreadLocalRandom.current();
-            positionMap.put(image, new Point(random.nextInt(0, 1023), random.nextInt(0, 1023)));
+            x[i] = random.nextInt(0, 1023);
+            y[i] = random.nextInt(0, 1023);
         }
-        return new ImagePacking(new Dimension(1024, 1024), positionMap);
+        return new ImagePacking(new Dimension(1024, 1024), imageList, x, y);
     }
 
     @Test
@@ -134,6 +141,48 @@ public class CssPackingConverterTest {
                                  trimmed, containsString("height:" + AbstractTextConverter.intToPixel(image.getHeight())));
     }
 
+    @Test
+    public void trimmedImageIsPaddedToOriginalSize() throws Exception {
+        NamedImage image = new NamedImage("trimmed", new Dimension(20, 30), new Rectangle(2, 3, 10, 15),
+                                          mock(ImageSource.class));
+        ImagePacking packing = new ImagePacking(new Dimension(15, 22), Arrays.asList(image), new int[]{5}, new int[]{7});
+
+        String output = new CssPackingConverter(null, null).createOutput(Arrays.asList(image), packing, log);
+
+        errorCollector.checkThat(output, containsString(".trimmed{background-position:-5px -7px;width:10px;height:15px;" +
+                                                        "box-sizing:content-box;padding:3px 8px 12px 2px;" +
+                                                        "background-origin:content-box;background-clip:content-box;}"));
+    }
+
+    @Test
+    public void densitiesSetSpritesheetWithMediaQueries() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        NamedImage first = new NamedImage("first", 10, 20, mock(ImageSource.class));
+        NamedImage second = new NamedImage("second", 20, 15, mock(ImageSource.class));
+        ImagePacking packing = new ImagePacking(new Dimension(30, 20), Arrays.asList(first, second), new int[]{0, 10}, new int[]{0, 0});
+        CssPackingConverter converter = new CssPackingConverter(fileSystem.getPath("/css/sprite.css"), "icon",
+                                                                fileSystem.getPath("/images/sprite.png"), new int[]{1, 2, 3});
+
+        String output = converter.createOutput(Arrays.asList(first, second), packing, log);
+
+        errorCollector.checkThat(output, containsString("\n.icon-first,.icon-second{background-image:url(\"../images/sprite.png\");" +
+                                                        "background-size:30px 20px;}\n" +
+                                                        "@media (-webkit-min-device-pixel-ratio:2),(min-resolution:2dppx){" +
+                                                        ".icon-first,.icon-second{background-image:url(\"../images/sprite@2x.png\");}}\n" +
+                                                        "@media (-webkit-min-device-pixel-ratio:3),(min-resolution:3dppx){" +
+                                                        ".icon-first,.icon-second{background-image:url(\"../images/sprite@3x.png\");}}\n"));
+        errorCollector.checkThat(output, containsString("\n.icon-second{background-position:-10px 0;width:20px;height:15px;}\n"));
+    }
+
+    @Test
+    public void baseDensitySetsNoSpritesheet() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        CssPackingConverter converter = new CssPackingConverter(fileSystem.getPath("/sprite.css"), "icon",
+                                                                fileSystem.getPath("/sprite.png"), new int[]{1});
+
+        errorCollector.checkThat(converter.createOutput(imageList, packing, log), not(containsString("background-image")));
+    }
+
     @Theory
     public void constructorEnsuresPrefixValidity(String name) throws Exception {
         errorCollector.checkThat("Prefix is sanitized and first character fixed", new CssPackingConverter(null, name).cssPrefix,
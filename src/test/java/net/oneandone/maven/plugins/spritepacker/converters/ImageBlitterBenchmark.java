@@ -0,0 +1,66 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares drawing images into a spritesheet by Java2D with copying them by ImageBlitter. Not run as a unit test,
+ * start the main method with the test classpath, optionally passing the number of images and their size.
+ *
+ * @author ssiegler
+ */
+public class ImageBlitterBenchmark {
+    private static final int ROUNDS = 20;
+    private static final int[] TYPES = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB};
+    private static final String[] TYPE_NAMES = {"INT_ARGB", "INT_RGB"};
+
+    public static void main(String[] args) {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 4096;
+        int size = (args.length > 1) ? Integer.parseInt(args[1]) : 48;
+        int columns = (int) Math.ceil(Math.sqrt(count));
+        int sheetSize = columns * size;
+        Random random = new Random(42);
+
+        for (int t = 0; t < TYPES.length; t++) {
+            List<BufferedImage> images = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                BufferedImage image = new BufferedImage(size, size, TYPES[t]);
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++) {
+                        image.setRGB(x, y, random.nextInt());
+                    }
+                }
+                images.add(image);
+            }
+
+            long java2D = Long.MAX_VALUE;
+            long blitter = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                BufferedImage sheet = new BufferedImage(sheetSize, sheetSize, BufferedImage.TYPE_INT_ARGB);
+                long start = System.nanoTime();
+                Graphics2D gfx = sheet.createGraphics();
+                gfx.setComposite(AlphaComposite.Src);
+                for (int i = 0; i < count; i++) {
+                    gfx.drawImage(images.get(i), (i % columns) * size, (i / columns) * size, null);
+                }
+                gfx.dispose();
+                java2D = Math.min(java2D, System.nanoTime() - start);
+
+                sheet = new BufferedImage(sheetSize, sheetSize, BufferedImage.TYPE_INT_ARGB);
+                start = System.nanoTime();
+                int[] pixels = ImageBlitter.getPixels(sheet);
+                for (int i = 0; i < count; i++) {
+                    ImageBlitter.blit(images.get(i), pixels, sheetSize, (i % columns) * size, (i / columns) * size);
+                }
+                blitter = Math.min(blitter, System.nanoTime() - start);
+            }
+            System.out.println(String.format(Locale.ROOT, "%-12s %d images of %dx%d pixels: Java2D %.1fms, ImageBlitter %.1fms",
+                                             TYPE_NAMES[t], count, size, size, java2D / 1e6, blitter / 1e6));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import static net.oneandone.maven.plugins.spritepacker.matchers.ImageMatcher.eqImage;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Unit tests for ImageBlitter, which must produce the same pixels as Java2D.
+ *
+ * @author ssiegler
+ */
+public class ImageBlitterTest {
+    private static final int WIDTH = 13;
+    private static final int HEIGHT = 7;
+
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void copiesIntArgb() throws Exception {
+        checkSameAsJava2D(createImage(BufferedImage.TYPE_INT_ARGB));
+    }
+
+    @Test
+    public void copiesIntRgbOpaque() throws Exception {
+        checkSameAsJava2D(createImage(BufferedImage.TYPE_INT_RGB));
+    }
+
+    @Test
+    public void leavesByteLayoutsToJava2D() throws Exception {
+        int[] types = {BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_INDEXED,
+                       BufferedImage.TYPE_BYTE_GRAY};
+        for (int type : types) {
+            BufferedImage sheet = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            boolean copied = ImageBlitter.blit(createImage(type), ImageBlitter.getPixels(sheet), WIDTH, 0, 0);
+
+            errorCollector.checkThat(copied, is(false));
+        }
+    }
+
+    @Test
+    public void copiesSubimages() throws Exception {
+        checkSameAsJava2D(createImage(BufferedImage.TYPE_INT_ARGB).getSubimage(2, 3, WIDTH - 4, HEIGHT - 3));
+        checkSameAsJava2D(createImage(BufferedImage.TYPE_INT_RGB).getSubimage(1, 0, WIDTH - 1, HEIGHT - 2));
+    }
+
+    @Test
+    public void clipsRowsToBand() throws Exception {
+        BufferedImage image = createImage(BufferedImage.TYPE_INT_ARGB);
+        int bandHeight = 3;
+        for (int y = -HEIGHT; y <= bandHeight; y++) {
+            BufferedImage expected = new BufferedImage(WIDTH + 2, bandHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D gfx = expected.createGraphics();
+            gfx.setComposite(AlphaComposite.Src);
+            gfx.drawImage(image, 1, y, null);
+            gfx.dispose();
+
+            BufferedImage actual = new BufferedImage(WIDTH + 2, bandHeight, BufferedImage.TYPE_INT_ARGB);
+            boolean copied = ImageBlitter.blit(image, ImageBlitter.getPixels(actual), WIDTH + 2, bandHeight, 1, y);
+
+            errorCollector.checkThat(copied, is(true));
+            errorCollector.checkThat("y = " + y, actual, is(eqImage(expected)));
+        }
+    }
+
+    @Test
+    public void leavesPremultipliedToJava2D() throws Exception {
+        BufferedImage sheet = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        boolean copied = ImageBlitter.blit(createImage(BufferedImage.TYPE_INT_ARGB_PRE), ImageBlitter.getPixels(sheet), WIDTH, 0, 0);
+
+        errorCollector.checkThat(copied, is(false));
+    }
+
+    private void checkSameAsJava2D(BufferedImage image) {
+        int sheetWidth = image.getWidth() + 5;
+        int sheetHeight = image.getHeight() + 4;
+        BufferedImage expected = new BufferedImage(sheetWidth, sheetHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D gfx = expected.createGraphics();
+        gfx.setComposite(AlphaComposite.Src);
+        gfx.drawImage(image, 3, 2, null);
+        gfx.dispose();
+
+        BufferedImage actual = new BufferedImage(sheetWidth, sheetHeight, BufferedImage.TYPE_INT_ARGB);
+        boolean copied = ImageBlitter.blit(image, ImageBlitter.getPixels(actual), sheetWidth, 3, 2);
+
+        errorCollector.checkThat(copied, is(true));
+        errorCollector.checkThat(actual, is(eqImage(expected)));
+    }
+
+    private BufferedImage createImage(int type) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        fillRandomly(image.getRaster());
+        return image;
+    }
+
+    private void fillRandomly(WritableRaster raster) {
+        for (int y = 0; y < raster.getHeight(); y++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
+                for (int band = 0; band < raster.getNumBands(); band++) {
+                    raster.setSample(x, y, band, random.nextInt(1 << raster.getSampleModel().getSampleSize(band)));
+                }
+            }
+        }
+    }
+}
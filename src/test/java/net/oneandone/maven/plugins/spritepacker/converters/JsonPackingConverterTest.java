@@ -1,6 +1,7 @@
 package net.oneandone.maven.plugins.spritepacker.converters;
 
 import net.oneandone.maven.plugins.spritepacker.ImagePacking;
+import net.oneandone.maven.plugins.spritepacker.ImageSource;
 import net.oneandone.maven.plugins.spritepacker.NamedImage;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
@@ -17,7 +18,7 @@ import org.junit.rules.ErrorCollector;
 import org.junit.runner.RunWith;
 
 import java.awt.Dimension;
-import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -64,11 +65,7 @@ public class JsonPackingConverterTest {
                 createImage(33, 1, "First"),
                 createImage(1, 25, "Middle"),
                 createImage(13, 7, "Last"));
-        Map<NamedImage, Point> positions = new HashMap<>();
-        positions.put(images.get(0), new Point(90, 11));
-        positions.put(images.get(1), new Point(13, 10));
-        positions.put(images.get(2), new Point(0, 0));
-        packing = new ImagePacking(new Dimension(WIDTH, HEIGHT), positions);
+        packing = new ImagePacking(new Dimension(WIDTH, HEIGHT), images, new int[]{90, 13, 0}, new int[]{11, 10, 0});
         outputMap = new HashMap<>();
     }
 
@@ -97,6 +94,32 @@ public class JsonPackingConverterTest {
                                                      hasEntry("h", 1)));
     }
 
+    @Test
+    public void outputMapContainsTrimOffsets() throws Exception {
+        NamedImage image = new NamedImage("trimmed", new Dimension(20, 30), new Rectangle(2, 3, 10, 15),
+                                          mock(ImageSource.class));
+        ImagePacking packing = new ImagePacking(new Dimension(15, 22), Arrays.asList(image), new int[]{5}, new int[]{7});
+
+        Map<String, Object> outputMap = new JsonPackingConverter(null, null).buildOutputMap(Arrays.asList(image), packing);
+
+        @SuppressWarnings("unchecked")
+        Map<String, ?> props = (Map<String, ?>) outputMap.get("trimmed");
+        errorCollector.checkThat(props.size(), is(10));
+        errorCollector.checkThat(props, allOf(hasEntry("w", "10px"),
+                                              hasEntry("h", "15px"),
+                                              hasEntry("ox", "2px"),
+                                              hasEntry("oy", "3px"),
+                                              hasEntry("ow", "20px"),
+                                              hasEntry("oh", "30px")));
+        @SuppressWarnings("unchecked")
+        Map<String, ?> numbers = (Map<String, ?>) props.get("n");
+        errorCollector.checkThat(numbers.size(), is(8));
+        errorCollector.checkThat(numbers, allOf(hasEntry("ox", 2),
+                                                hasEntry("oy", 3),
+                                                hasEntry("ow", 20),
+                                                hasEntry("oh", 30)));
+    }
+
     @Test(expected = MojoExecutionException.class)
     public void mapsExceptionFromJsonMapper() throws Exception {
         JsonPackingConverter converter = stubOutputMap(null);
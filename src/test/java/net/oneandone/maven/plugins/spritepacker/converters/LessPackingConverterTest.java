@@ -1,6 +1,9 @@
 package net.oneandone.maven.plugins.spritepacker.converters;
 
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
 import net.oneandone.maven.plugins.spritepacker.ImagePacking;
+import net.oneandone.maven.plugins.spritepacker.ImageSource;
 import net.oneandone.maven.plugins.spritepacker.NamedImage;
 import org.apache.maven.plugin.logging.Log;
 import org.junit.Before;
@@ -14,7 +17,9 @@ import org.junit.runner.RunWith;
 
 import java.awt.Dimension;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.nio.file.FileSystem;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -25,6 +30,7 @@ import java.util.Scanner;
 import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.everyItem;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.isIn;
@@ -72,12 +78,14 @@ public class LessPackingConverterTest {
     }
 
     private ImagePacking getImagePacking(List<NamedImage> imageList) {
-        Map<NamedImage, Point> positionMap = new HashMap<>();
-        for (NamedImage image : imageList) {
+        int[] x = new int[imageList.size()];
+        int[] y = new int[imageList.size()];
+        for (int i = 0; i < imageList.size(); i++) {
             ThreadLocalRandom random = ThreadLocalRandom.current();
-            positionMap.put(image, new Point(random.nextInt(0, 1023), random.nextInt(0, 1023)));
+            x[i] = random.nextInt(0, 1023);
+            y[i] = random.nextInt(0, 1023);
         }
-        return new ImagePacking(new Dimension(1024, 1024), positionMap);
+        return new ImagePacking(new Dimension(1024, 1024), imageList, x, y);
     }
 
     @Test
@@ -166,6 +174,20 @@ public class LessPackingConverterTest {
         errorCollector.checkThat("All image sizes were defined once", imageList, everyItem(isIn(sizes)));
     }
 
+    @Test
+    public void trimmedImageIsPaddedToOriginalSize() throws Exception {
+        NamedImage image = new NamedImage("trimmed", new Dimension(20, 30), new Rectangle(2, 3, 10, 15),
+                                          mock(ImageSource.class));
+        ImagePacking packing = new ImagePacking(new Dimension(15, 22), Arrays.asList(image), new int[]{5}, new int[]{7});
+
+        String output = new LessPackingConverter(null, null).createOutput(Arrays.asList(image), packing, log);
+
+        errorCollector.checkThat(output, containsString(".pos(trimmed){background-position:-5px -7px;" +
+                                                        "background-origin:content-box;background-clip:content-box;}"));
+        errorCollector.checkThat(output, containsString(".size(trimmed){width:10px;height:15px;" +
+                                                        "box-sizing:content-box;padding:3px 8px 12px 2px;}"));
+    }
+
     @Theory
     public void constructorEnsuresNamespaceValidity(String namespace) {
         errorCollector.checkThat(new LessPackingConverter(null, namespace).lessNamespace,
@@ -214,4 +236,20 @@ public class LessPackingConverterTest {
         return mixin.substring(mixin.indexOf('(') + 1, mixin.indexOf(')'));
     }
 
+    @Test
+    public void densitiesAddSheetMixinWithMediaQueries() throws Exception {
+        FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+        NamedImage image = new NamedImage("first", 10, 20, mock(ImageSource.class));
+        ImagePacking packing = new ImagePacking(new Dimension(30, 20), Arrays.asList(image), new int[]{10}, new int[]{0});
+        LessPackingConverter converter = new LessPackingConverter(fileSystem.getPath("/sprite.less"), NAMESPACE,
+                                                                  fileSystem.getPath("/sprite.png"), new int[]{1, 2});
+
+        String output = converter.createOutput(Arrays.asList(image), packing, log);
+
+        errorCollector.checkThat(output, containsString("\n    .create(@name){.sheet();.pos(@name);.size(@name);}\n" +
+                                                        "    .sheet(){background-image:url(\"sprite.png\");background-size:30px 20px;" +
+                                                        "@media (-webkit-min-device-pixel-ratio:2),(min-resolution:2dppx){" +
+                                                        "background-image:url(\"sprite@2x.png\");}}\n"));
+        errorCollector.checkThat(output, containsString("\n    .pos(first){background-position:-10px 0;}\n"));
+    }
 }
@@ -0,0 +1,259 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import net.oneandone.maven.plugins.spritepacker.converters.PngWriter.Filter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+import static net.oneandone.maven.plugins.spritepacker.matchers.ImageMatcher.eqImage;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Unit tests for PngWriter.
+ *
+ * @author ssiegler
+ */
+public class PngWriterTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private static final long CRC_SINGLE_UNFILTERED = 0xe845d8d0L;
+    private static final long CRC_BLOCKS_ADAPTIVE = 0xb51c0834L;
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void writesImageInSeveralBlocks() throws Exception {
+        BufferedImage image = createImage(300, 1000, BufferedImage.TYPE_INT_ARGB);
+
+        errorCollector.checkThat(read(write(image, 9, Filter.NONE, 4)), is(eqImage(image)));
+        errorCollector.checkThat(read(write(image, 9, Filter.ADAPTIVE, 4)), is(eqImage(image)));
+    }
+
+    @Test
+    public void writesSameBytesWithAnyNumberOfThreads() throws Exception {
+        BufferedImage image = createImage(300, 1000, BufferedImage.TYPE_INT_ARGB);
+        for (Filter filter : Filter.values()) {
+            byte[] sequential = write(image, 9, filter, 1);
+
+            errorCollector.checkThat(write(image, 9, filter, 2), is(sequential));
+            errorCollector.checkThat(write(image, 9, filter, 7), is(sequential));
+        }
+    }
+
+    @Test
+    public void writesFixedFilteredRows() throws Exception {
+        // The CRCs of the inflated image data pin the filtered rows, which do not depend on the deflate implementation
+        BufferedImage single = createImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+        byte[] png = write(single, 9, Filter.NONE, 1);
+        errorCollector.checkThat(read(png), is(eqImage(single)));
+        errorCollector.checkThat(getImageDataCrc(png), is(CRC_SINGLE_UNFILTERED));
+
+        BufferedImage blocks = createImage(300, 1000, BufferedImage.TYPE_INT_ARGB);
+        png = write(blocks, 9, Filter.ADAPTIVE, 3);
+        errorCollector.checkThat(read(png), is(eqImage(blocks)));
+        errorCollector.checkThat(getImageDataCrc(png), is(CRC_BLOCKS_ADAPTIVE));
+    }
+
+    @Test
+    public void writesEveryFilter() throws Exception {
+        BufferedImage image = createImage(300, 1000, BufferedImage.TYPE_INT_ARGB);
+        for (Filter filter : Filter.values()) {
+            errorCollector.checkThat(filter.name(), read(write(image, 9, filter, 3)), is(eqImage(image)));
+        }
+    }
+
+    @Test
+    public void keepsSmallestOfSeveralFilters() throws Exception {
+        BufferedImage image = createImage(300, 1000, BufferedImage.TYPE_INT_ARGB);
+        byte[] unfiltered = write(image, 9, Filter.NONE, 1);
+        byte[] trials = write(image, EnumSet.allOf(Filter.class), 1);
+
+        errorCollector.checkThat(read(trials), is(eqImage(image)));
+        errorCollector.checkThat(trials.length < unfiltered.length, is(true));
+        errorCollector.checkThat(write(image, EnumSet.allOf(Filter.class), 4), is(trials));
+        errorCollector.checkThat(write(image, EnumSet.of(Filter.NONE), 4), is(unfiltered));
+    }
+
+    @Test
+    public void writesAllCompressionLevels() throws Exception {
+        BufferedImage image = createImage(200, 700, BufferedImage.TYPE_INT_ARGB);
+        for (int level = -1; level <= 9; level++) {
+            errorCollector.checkThat("level " + level, read(write(image, level, Filter.ADAPTIVE, 3)), is(eqImage(image)));
+        }
+    }
+
+    @Test
+    public void writesRowsLargerThanBlocks() throws Exception {
+        BufferedImage image = createImage(70000, 3, BufferedImage.TYPE_INT_ARGB);
+
+        errorCollector.checkThat(read(write(image, 6, Filter.ADAPTIVE, 2)), is(eqImage(image)));
+    }
+
+    @Test
+    public void writesOtherImageTypes() throws Exception {
+        int[] types = {BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY};
+        for (int type : types) {
+            BufferedImage image = createImage(40, 30, type);
+
+            errorCollector.checkThat(read(write(image, 9, Filter.ADAPTIVE, 2)), is(eqImage(image)));
+        }
+        BufferedImage subimage = createImage(40, 30, BufferedImage.TYPE_INT_ARGB).getSubimage(3, 5, 20, 10);
+        errorCollector.checkThat(read(write(subimage, 9, Filter.NONE, 1)), is(eqImage(subimage)));
+    }
+
+    @Test
+    public void writesPalettesOfAllBitDepths() throws Exception {
+        int[] colorCounts = {1, 2, 3, 16, 17, 256};
+        for (int colorCount : colorCounts) {
+            BufferedImage image = new BufferedImage(37, 300, BufferedImage.TYPE_INT_ARGB);
+            ColorTable colors = new ColorTable(PngFormat.MAX_PALETTE_SIZE);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    // translucent and opaque colours
+                    int color = random.nextInt(colorCount);
+                    color = ((color % 3 == 0) ? 0x40000000 : 0xff000000) | color * 0x010101;
+                    image.setRGB(x, y, color);
+                    colors.add(color);
+                }
+            }
+
+            for (Filter filter : EnumSet.of(Filter.NONE, Filter.PAETH, Filter.ADAPTIVE)) {
+                BufferedImage written = read(write(image, PngFormat.indexed(colors), filter, 3));
+                errorCollector.checkThat(colorCount + " colours", written, is(eqImage(image)));
+                errorCollector.checkThat(colorCount + " colours", written.getColorModel() instanceof IndexColorModel, is(true));
+            }
+        }
+    }
+
+    @Test
+    public void writesRgbAndGreyFormats() throws Exception {
+        BufferedImage opaque = createImage(37, 300, BufferedImage.TYPE_INT_RGB);
+        BufferedImage grey = new BufferedImage(37, 300, BufferedImage.TYPE_INT_ARGB);
+        int[] samples = new int[2 * grey.getWidth() * grey.getHeight()];
+        for (int y = 0, i = 0; y < grey.getHeight(); y++) {
+            for (int x = 0; x < grey.getWidth(); x++) {
+                samples[i++] = (x * y) & 0xff;
+                samples[i++] = random.nextInt(256);
+                grey.setRGB(x, y, samples[i - 1] << 24 | samples[i - 2] * 0x010101);
+            }
+        }
+
+        for (Filter filter : Filter.values()) {
+            errorCollector.checkThat(filter.name(), read(write(opaque, PngFormat.RGB, filter, 3)), is(eqImage(opaque)));
+            // ImageIO converts grey from a linear colour space, so compare the samples instead of the colours
+            BufferedImage written = read(write(grey, PngFormat.GREY_ALPHA, filter, 3));
+            errorCollector.checkThat(filter.name(), written.getRaster().getPixels(0, 0, 37, 300, (int[]) null), is(samples));
+            written = read(write(grey, PngFormat.GREY, filter, 3));
+            errorCollector.checkThat(filter.name(), written.getRaster().getSample(5, 7, 0), is(35));
+            errorCollector.checkThat(filter.name(), written.getColorModel().hasAlpha(), is(false));
+        }
+    }
+
+    @Test
+    public void combinesAdlerChecksums() throws Exception {
+        byte[] data = new byte[200000];
+        random.nextBytes(data);
+        Adler32 whole = new Adler32();
+        whole.update(data);
+        Adler32 first = new Adler32();
+        first.update(data, 0, 70001);
+        Adler32 second = new Adler32();
+        second.update(data, 70001, data.length - 70001);
+
+        errorCollector.checkThat(PngWriter.combineAdler(first.getValue(), second.getValue(), data.length - 70001), is(whole.getValue()));
+        errorCollector.checkThat(PngWriter.combineAdler(1, whole.getValue(), data.length), is(whole.getValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCompressionLevel() throws Exception {
+        new PngWriter(10, Filter.NONE, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoFilters() throws Exception {
+        new PngWriter(9, EnumSet.noneOf(Filter.class), 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveThreads() throws Exception {
+        new PngWriter(9, Filter.NONE, 0);
+    }
+
+    private BufferedImage createImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // smooth gradients with some noise, like icons, which exercise all row filters
+                int noise = random.nextInt(8);
+                int alpha = ((x + y) % 5 == 0) ? 0 : 255 - noise;
+                image.setRGB(x, y, alpha << 24 | ((x + noise) & 0xff) << 16 | (y & 0xff) << 8 | ((x * y) & 0xff));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] write(BufferedImage image, int level, Filter filter, int threads) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PngWriter(level, filter, threads).write(image, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] write(BufferedImage image, Set<Filter> filters, int threads) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PngWriter(9, filters, threads).write(image, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] write(BufferedImage image, PngFormat format, Filter filter, int threads) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PngWriter(9, filter, threads).write(image, format, out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage read(byte[] png) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+
+    /**
+     * Get the CRC-32 of the inflated image data of a PNG file, i.e. of its filtered rows.
+     */
+    private static long getImageDataCrc(byte[] png) throws Exception {
+        DataInputStream chunks = new DataInputStream(new ByteArrayInputStream(png, 8, png.length - 8));
+        ByteArrayOutputStream imageData = new ByteArrayOutputStream();
+        while (chunks.available() > 0) {
+            byte[] data = new byte[chunks.readInt()];
+            byte[] type = new byte[4];
+            chunks.readFully(type);
+            chunks.readFully(data);
+            chunks.readInt();
+            if ("IDAT".equals(new String(type, StandardCharsets.US_ASCII))) {
+                imageData.write(data);
+            }
+        }
+        Inflater inflater = new Inflater();
+        inflater.setInput(imageData.toByteArray());
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        while (!inflater.finished()) {
+            crc.update(buffer, 0, inflater.inflate(buffer));
+        }
+        inflater.end();
+        return crc.getValue();
+    }
+}
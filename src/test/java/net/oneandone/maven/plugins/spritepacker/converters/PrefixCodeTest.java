@@ -0,0 +1,101 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Unit tests for PrefixCode.
+ *
+ * @author ssiegler
+ */
+public class PrefixCodeTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    @Test
+    public void createsOptimalCode() throws Exception {
+        PrefixCode code = new PrefixCode(new int[] {10, 0, 5, 3, 2, 1}, 15);
+
+        errorCollector.checkThat(code.getLengths(), is(new int[] {1, 0, 2, 3, 4, 4}));
+    }
+
+    @Test
+    public void assignsCanonicalCodesWithReversedBits() throws Exception {
+        PrefixCode code = new PrefixCode(new int[] {1, 0, 2, 3, 4, 4});
+
+        errorCollector.checkThat(code.getCode(0), is(0));
+        errorCollector.checkThat(code.getCode(2), is(0b01));
+        errorCollector.checkThat(code.getCode(3), is(0b011));
+        errorCollector.checkThat(code.getCode(4), is(0b0111));
+        errorCollector.checkThat(code.getCode(5), is(0b1111));
+        errorCollector.checkThat(code.getLength(1), is(0));
+    }
+
+    @Test
+    public void addsSymbolsToSingleSymbol() throws Exception {
+        errorCollector.checkThat(new PrefixCode(new int[] {0, 0, 7, 0}, 15).getLengths(), is(new int[] {1, 0, 1, 0}));
+        errorCollector.checkThat(new PrefixCode(new int[] {0, 0, 0, 0}, 15).getLengths(), is(new int[] {1, 1, 0, 0}));
+    }
+
+    @Test
+    public void limitsCodeLengths() throws Exception {
+        // Fibonacci counts build the deepest possible tree
+        int[] counts = new int[30];
+        counts[0] = 1;
+        counts[1] = 1;
+        for (int i = 2; i < counts.length; i++) {
+            counts[i] = counts[i - 1] + counts[i - 2];
+        }
+        PrefixCode code = new PrefixCode(counts, 7);
+
+        for (int length : code.getLengths()) {
+            errorCollector.checkThat(length, lessThanOrEqualTo(7));
+        }
+        errorCollector.checkThat(getKraftSum(code.getLengths()), is(1.0));
+    }
+
+    @Test
+    public void createsCompletePrefixFreeCodes() throws Exception {
+        Random random = new Random(42);
+        for (int run = 0; run < 20; run++) {
+            int[] counts = new int[280];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = (random.nextInt(3) == 0) ? 0 : random.nextInt(1 << random.nextInt(20));
+            }
+            PrefixCode code = new PrefixCode(counts, 15);
+            int[] lengths = code.getLengths();
+
+            errorCollector.checkThat(getKraftSum(lengths), is(1.0));
+            for (int a = 0; a < lengths.length; a++) {
+                errorCollector.checkThat((counts[a] > 0) == (lengths[a] > 0), is(true));
+                for (int b = 0; b < lengths.length; b++) {
+                    if (a != b && lengths[a] > 0 && lengths[b] >= lengths[a]) {
+                        int mask = (1 << lengths[a]) - 1;
+                        errorCollector.checkThat((code.getCode(b) & mask) == code.getCode(a), is(false));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManySymbols() throws Exception {
+        new PrefixCode(new int[9], 3);
+    }
+
+    private static double getKraftSum(int[] lengths) {
+        double sum = 0;
+        for (int length : lengths) {
+            if (length > 0) {
+                sum += Math.pow(2, -length);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,150 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Unit tests for Quantizer.
+ *
+ * @author ssiegler
+ */
+public class QuantizerTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    @Test
+    public void keepsFewColorsExactly() throws Exception {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (i % 7 == 0) ? 0 : 0xff000000 | (i % 200) * 0x030507;
+        }
+        int[] original = pixels.clone();
+        Quantizer quantizer = new Quantizer(256, false);
+        quantizer.addAll(pixels, 0, pixels.length);
+
+        errorCollector.checkThat(quantizer.createPalette(), is(100));
+        quantizer.remap(pixels, 0, WIDTH, HEIGHT);
+        errorCollector.checkThat(pixels, is(original));
+    }
+
+    @Test
+    public void reducesManyColorsToPalette() throws Exception {
+        int[] pixels = createGradient();
+        int[] original = pixels.clone();
+        Quantizer quantizer = new Quantizer(256, false);
+        quantizer.addAll(pixels, 0, pixels.length);
+
+        int quality = quantizer.createPalette();
+        quantizer.remap(pixels, 0, WIDTH, HEIGHT);
+
+        errorCollector.checkThat(quality, is(greaterThan(80)));
+        errorCollector.checkThat(quality, is(lessThan(100)));
+        ColorTable colors = quantizer.getColors();
+        errorCollector.checkThat(colors.size(), is(lessThanOrEqualTo(256)));
+        int largestError = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            errorCollector.checkThat(colors.indexOf(pixels[i]) >= 0, is(true));
+            for (int shift = 0; shift < 32; shift += 8) {
+                largestError = Math.max(largestError, Math.abs((pixels[i] >>> shift & 0xff) - (original[i] >>> shift & 0xff)));
+            }
+        }
+        errorCollector.checkThat(largestError, is(lessThan(32)));
+    }
+
+    @Test
+    public void keepsTransparentPixelsTransparent() throws Exception {
+        int[] pixels = createGradient();
+        pixels[5] = 0x00ff8040;
+        pixels[WIDTH * 3 + 7] = 0x00000000;
+        for (boolean dithering : new boolean[] {false, true}) {
+            int[] mapped = pixels.clone();
+            Quantizer quantizer = new Quantizer(16, dithering);
+            quantizer.addAll(mapped, 0, mapped.length);
+            quantizer.createPalette();
+            quantizer.remap(mapped, 0, WIDTH, HEIGHT);
+
+            errorCollector.checkThat(mapped[5], is(0));
+            errorCollector.checkThat(mapped[WIDTH * 3 + 7], is(0));
+        }
+    }
+
+    @Test
+    public void dithersRowsInSeveralCalls() throws Exception {
+        int[] whole = createGradient();
+        int[] bands = whole.clone();
+        Quantizer quantizer = new Quantizer(64, true);
+        quantizer.addAll(whole, 0, whole.length);
+        quantizer.createPalette();
+        quantizer.remap(whole, 0, WIDTH, HEIGHT);
+
+        quantizer = new Quantizer(64, true);
+        quantizer.addAll(bands, 0, bands.length);
+        quantizer.createPalette();
+        quantizer.remap(bands, 0, WIDTH, 70);
+        quantizer.remap(bands, 70 * WIDTH, WIDTH, 1);
+        quantizer.remap(bands, 71 * WIDTH, WIDTH, HEIGHT - 71);
+
+        errorCollector.checkThat(bands, is(whole));
+    }
+
+    @Test
+    public void dithersAverageColorOfGradient() throws Exception {
+        int[] gradient = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                gradient[y * WIDTH + x] = 0xff000000 | (x * 255 / (WIDTH - 1)) * 0x010101;
+            }
+        }
+
+        errorCollector.checkThat(getAverageColumnError(gradient, true), is(lessThan(getAverageColumnError(gradient, false))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyColors() throws Exception {
+        new Quantizer(257, false);
+    }
+
+    /**
+     * Quantize a grey image to four colours and measure the error of the average grey of each column.
+     */
+    private static double getAverageColumnError(int[] image, boolean dithering) {
+        int[] pixels = image.clone();
+        Quantizer quantizer = new Quantizer(4, dithering);
+        quantizer.addAll(pixels, 0, pixels.length);
+        quantizer.createPalette();
+        quantizer.remap(pixels, 0, WIDTH, HEIGHT);
+        double error = 0;
+        for (int x = 0; x < WIDTH; x++) {
+            double difference = 0;
+            for (int y = 0; y < HEIGHT; y++) {
+                difference += (pixels[y * WIDTH + x] & 0xff) - (image[y * WIDTH + x] & 0xff);
+            }
+            error += Math.abs(difference / HEIGHT);
+        }
+        return error / WIDTH;
+    }
+
+    private static int[] createGradient() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                // translucent and opaque gradients with many more colours than a palette holds
+                int alpha = (y < HEIGHT / 4) ? 0x80 + x * 127 / WIDTH : 0xff;
+                pixels[y * WIDTH + x] = alpha << 24 | (x * 255 / WIDTH) << 16 | (y * 255 / HEIGHT) << 8 | ((x + y) / 2 & 0xff);
+            }
+        }
+        Arrays.fill(pixels, 0, 3, 0);
+        return pixels;
+    }
+}
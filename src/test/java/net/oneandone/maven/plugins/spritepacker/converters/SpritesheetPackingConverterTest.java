@@ -3,7 +3,9 @@ package net.oneandone.maven.plugins.spritepacker.converters;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import net.oneandone.maven.plugins.spritepacker.ImagePacking;
+import net.oneandone.maven.plugins.spritepacker.ImageSource;
 import net.oneandone.maven.plugins.spritepacker.NamedImage;
+import net.oneandone.maven.plugins.spritepacker.converters.SpritesheetPackingConverter.Options;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
 import org.junit.Before;
@@ -12,9 +14,12 @@ import org.junit.Test;
 import org.junit.rules.ErrorCollector;
 
 import javax.imageio.ImageIO;
+import java.awt.AlphaComposite;
 import java.awt.Dimension;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
@@ -23,6 +28,7 @@ import java.util.ArrayList;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static net.oneandone.maven.plugins.spritepacker.matchers.ImageMatcher.eqImage;
 import static org.hamcrest.Matchers.is;
@@ -32,6 +38,9 @@ import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Unit tests for SpritesheetPackingConverter.
@@ -121,6 +130,402 @@ public class SpritesheetPackingConverterTest {
         assertThat(spritesheet, is(eqImage(composition)));
     }
 
+    @Test
+    public void drawsDuplicatesAtSamePositionOnce() throws Exception {
+        ImageSource source = mock(ImageSource.class);
+        BufferedImage image = ImageIO.read(getClass().getResourceAsStream("/100px-Icon_subway.svg.png"));
+        when(source.read()).thenReturn(image);
+        NamedImage original = new NamedImage("original", image.getWidth(), image.getHeight(), source);
+        NamedImage duplicate = new NamedImage("duplicate", image.getWidth(), image.getHeight(), source);
+        positionMap.put(original, new Point(0, 0));
+        positionMap.put(duplicate, new Point(0, 0));
+        imageList.add(original);
+        imageList.add(duplicate);
+        width = image.getWidth();
+        height = image.getHeight();
+
+        BufferedImage spritesheet = new SpritesheetPackingConverter(null).createSpritesheet(imageList, createImagePacking());
+
+        assertThat(spritesheet, is(eqImage(image)));
+        verify(source, times(1)).read();
+    }
+
+    @Test
+    public void copiesAndDrawsImagesLikeJava2D() throws Exception {
+        BufferedImage composition = ImageIO.read(getClass().getResourceAsStream("/100px-Icon_subway.svg.png"));
+        int[] types = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY};
+        width = 2 * composition.getWidth();
+        height = 2 * composition.getHeight();
+        BufferedImage expected = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D gfx = expected.createGraphics();
+        gfx.setComposite(AlphaComposite.Src);
+        for (int i = 0; i < types.length; i++) {
+            BufferedImage converted = new BufferedImage(composition.getWidth(), composition.getHeight(), types[i]);
+            Graphics2D convertedGfx = converted.createGraphics();
+            convertedGfx.drawImage(composition, 0, 0, null);
+            convertedGfx.dispose();
+            NamedImage image = new NamedImage(converted, "image" + i);
+            Point position = new Point((i % 2) * composition.getWidth(), (i / 2) * composition.getHeight());
+            positionMap.put(image, position);
+            imageList.add(image);
+            gfx.drawImage(converted, position.x, position.y, null);
+        }
+        gfx.dispose();
+
+        BufferedImage spritesheet = new SpritesheetPackingConverter(null).createSpritesheet(imageList, createImagePacking());
+
+        assertThat(spritesheet, is(eqImage(expected)));
+    }
+
+    @Test
+    public void drawsInParallelLikeSequentially() throws Exception {
+        Random random = new Random(42);
+        int[] types = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY};
+        int columns = 20;
+        int cell = 12;
+        for (int i = 0; i < 400; i++) {
+            BufferedImage image = new BufferedImage(1 + random.nextInt(cell), 1 + random.nextInt(cell), types[i % types.length]);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, random.nextInt());
+                }
+            }
+            NamedImage namedImage = new NamedImage(image, "image" + i);
+            positionMap.put(namedImage, new Point((i % columns) * cell, (i / columns) * cell));
+            imageList.add(namedImage);
+        }
+        width = columns * cell;
+        height = 400 / columns * cell;
+
+        BufferedImage sequential = new SpritesheetPackingConverter(null).createSpritesheet(imageList, createImagePacking());
+        BufferedImage parallel = new SpritesheetPackingConverter(null, new Options().threads(4))
+                .createSpritesheet(imageList, createImagePacking());
+
+        assertThat(parallel, is(eqImage(sequential)));
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void throwsExceptionWhenImageCannotBeDecodedInParallel() throws Exception {
+        ImageSource source = mock(ImageSource.class);
+        when(source.read()).thenThrow(new IOException("broken"));
+        for (int i = 0; i < 8; i++) {
+            NamedImage image = new NamedImage("broken" + i, 1, 1, (i == 5) ? source : new ImageSource() {
+                @Override
+                public BufferedImage read() {
+                    return new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+                }
+            });
+            positionMap.put(image, new Point(i, 0));
+            imageList.add(image);
+        }
+        width = 8;
+
+        new SpritesheetPackingConverter(null, new Options().threads(4)).createSpritesheet(imageList, createImagePacking());
+    }
+
+    @Test
+    public void writesSameFileInBands() throws Exception {
+        Random random = new Random(42);
+        int[] types = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY};
+        int columns = 40;
+        int cell = 50;
+        for (int i = 0; i < 240; i++) {
+            // images of up to three cells high span several bands
+            BufferedImage image = new BufferedImage(1 + random.nextInt(cell), 1 + random.nextInt(3 * cell), types[i % types.length]);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, random.nextInt());
+                }
+            }
+            NamedImage namedImage = new NamedImage(image, "image" + i);
+            positionMap.put(namedImage, new Point((i % columns) * cell, (i / columns) * 3 * cell));
+            imageList.add(namedImage);
+        }
+        width = columns * cell;
+        height = 240 / columns * 3 * cell;
+        Path whole = fileSystem.getPath("/whole.png");
+        Path bands = fileSystem.getPath("/bands.png");
+        Path parallelBands = fileSystem.getPath("/parallel-bands.png");
+
+        executeConvert(new SpritesheetPackingConverter(whole, new Options()));
+        executeConvert(new SpritesheetPackingConverter(bands, new Options().banded(true)));
+        executeConvert(new SpritesheetPackingConverter(parallelBands, new Options().threads(3).banded(true)));
+
+        errorCollector.checkThat(Files.readAllBytes(bands), is(Files.readAllBytes(whole)));
+        errorCollector.checkThat(Files.readAllBytes(parallelBands), is(Files.readAllBytes(whole)));
+    }
+
+    @Test
+    public void writesSmallestFileWithMaxCompression() throws Exception {
+        positionMap.put(loadImage("/100px-Icon_subway.svg.png"), new Point(0, 0));
+        imageList.addAll(positionMap.keySet());
+        width = 100;
+        height = 78;
+        Path fast = fileSystem.getPath("/fast.png");
+        Path standard = fileSystem.getPath("/default.png");
+        Path max = fileSystem.getPath("/max.png");
+        Path maxBands = fileSystem.getPath("/max-bands.png");
+
+        executeConvert(new SpritesheetPackingConverter(fast, new Options().compression(PngCompression.FAST)));
+        executeConvert(new SpritesheetPackingConverter(standard, new Options()));
+        Options options = new Options().threads(2).compression(PngCompression.MAX);
+        executeConvert(new SpritesheetPackingConverter(max, options));
+        executeConvert(new SpritesheetPackingConverter(maxBands, options.banded(true)));
+
+        BufferedImage composition = ImageIO.read(getClass().getResourceAsStream("/100px-Icon_subway.svg.png"));
+        errorCollector.checkThat(ImageIO.read(Files.newInputStream(fast)), is(eqImage(composition)));
+        errorCollector.checkThat(ImageIO.read(Files.newInputStream(max)), is(eqImage(composition)));
+        errorCollector.checkThat(Files.size(max) <= Files.size(standard), is(true));
+        errorCollector.checkThat(Files.size(standard) <= Files.size(fast), is(true));
+        errorCollector.checkThat(Files.readAllBytes(maxBands), is(Files.readAllBytes(max)));
+    }
+
+    @Test
+    public void writesPaletteForFewColors() throws Exception {
+        addImagesOfColors(new int[] {0xffff0000, 0x8000ff00, 0xff0000ff});
+        Path whole = fileSystem.getPath("/whole.png");
+        Path bands = fileSystem.getPath("/bands.png");
+
+        Options options = new Options().threads(2).colorReduction(ColorReduction.LOSSLESS);
+        executeConvert(new SpritesheetPackingConverter(whole, options));
+        executeConvert(new SpritesheetPackingConverter(bands, options.banded(true)));
+        BufferedImage output = ImageIO.read(Files.newInputStream(whole));
+
+        errorCollector.checkThat(output, is(eqImage(new SpritesheetPackingConverter(null).createSpritesheet(imageList, createImagePacking()))));
+        errorCollector.checkThat(output.getColorModel() instanceof IndexColorModel, is(true));
+        errorCollector.checkThat(Files.readAllBytes(bands), is(Files.readAllBytes(whole)));
+    }
+
+    @Test
+    public void writesRgbaForManyColors() throws Exception {
+        int[] colors = new int[300];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = 0xff000000 | i;
+        }
+        addImagesOfColors(colors);
+        Path whole = fileSystem.getPath("/whole.png");
+        Path bands = fileSystem.getPath("/bands.png");
+
+        Options options = new Options().colorReduction(ColorReduction.LOSSLESS);
+        executeConvert(new SpritesheetPackingConverter(whole, options));
+        executeConvert(new SpritesheetPackingConverter(bands, options.banded(true)));
+        BufferedImage output = ImageIO.read(Files.newInputStream(whole));
+
+        errorCollector.checkThat(output, is(eqImage(new SpritesheetPackingConverter(null).createSpritesheet(imageList, createImagePacking()))));
+        errorCollector.checkThat(output.getColorModel() instanceof IndexColorModel, is(false));
+        errorCollector.checkThat(Files.readAllBytes(bands), is(Files.readAllBytes(whole)));
+    }
+
+    @Test
+    public void writesGreyWithAlphaForGreyColors() throws Exception {
+        int[] colors = new int[300];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = (0xff - i % 3) << 24 | (i / 3) * 0x010101;
+        }
+        addImagesOfColors(colors);
+        Path whole = fileSystem.getPath("/whole.png");
+        Path bands = fileSystem.getPath("/bands.png");
+
+        Options options = new Options().colorReduction(ColorReduction.LOSSLESS);
+        executeConvert(new SpritesheetPackingConverter(whole, options));
+        executeConvert(new SpritesheetPackingConverter(bands, options.banded(true)));
+        BufferedImage output = ImageIO.read(Files.newInputStream(whole));
+
+        // ImageIO converts grey from a linear colour space, so compare the samples instead of the colours
+        BufferedImage spritesheet = new SpritesheetPackingConverter(null).createSpritesheet(imageList, createImagePacking());
+        int[] expected = new int[2 * spritesheet.getWidth() * spritesheet.getHeight()];
+        for (int y = 0, i = 0; y < spritesheet.getHeight(); y++) {
+            for (int x = 0; x < spritesheet.getWidth(); x++) {
+                int pixel = spritesheet.getRGB(x, y);
+                expected[i++] = pixel & 0xff;
+                expected[i++] = pixel >>> 24;
+            }
+        }
+        errorCollector.checkThat(output.getColorModel().getNumColorComponents(), is(1));
+        errorCollector.checkThat(output.getColorModel().hasAlpha(), is(true));
+        errorCollector.checkThat(output.getRaster().getPixels(0, 0, output.getWidth(), output.getHeight(), (int[]) null), is(expected));
+        errorCollector.checkThat(Files.readAllBytes(bands), is(Files.readAllBytes(whole)));
+    }
+
+    @Test
+    public void writesRgbForOpaqueColors() throws Exception {
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0xff000000 | x << 16 | y << 8 | x * y);
+            }
+        }
+        NamedImage namedImage = new NamedImage(image, "opaque");
+        positionMap.put(namedImage, new Point(0, 0));
+        imageList.add(namedImage);
+        width = image.getWidth();
+        height = image.getHeight();
+        Path whole = fileSystem.getPath("/whole.png");
+        Path bands = fileSystem.getPath("/bands.png");
+
+        Options options = new Options().colorReduction(ColorReduction.LOSSLESS);
+        executeConvert(new SpritesheetPackingConverter(whole, options));
+        executeConvert(new SpritesheetPackingConverter(bands, options.banded(true)));
+        BufferedImage output = ImageIO.read(Files.newInputStream(whole));
+
+        errorCollector.checkThat(output, is(eqImage(image)));
+        errorCollector.checkThat(output.getColorModel().getNumColorComponents(), is(3));
+        errorCollector.checkThat(output.getColorModel().hasAlpha(), is(false));
+        errorCollector.checkThat(Files.readAllBytes(bands), is(Files.readAllBytes(whole)));
+    }
+
+    @Test
+    public void writesQuantizedPaletteForManyColors() throws Exception {
+        int[] colors = new int[300];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = 0xff000000 | i * 0x030507;
+        }
+        addImagesOfColors(colors);
+        for (boolean dithering : new boolean[] {false, true}) {
+            Path whole = fileSystem.getPath("/whole.png");
+            Path bands = fileSystem.getPath("/bands.png");
+
+            Options options = new Options().colorReduction(ColorReduction.QUANTIZE).dithering(dithering).minQuality(50);
+            executeConvert(new SpritesheetPackingConverter(whole, options));
+            executeConvert(new SpritesheetPackingConverter(bands, options.banded(true)));
+            BufferedImage output = ImageIO.read(Files.newInputStream(whole));
+
+            errorCollector.checkThat(output.getWidth(), is(width));
+            errorCollector.checkThat(output.getHeight(), is(height));
+            errorCollector.checkThat(output.getColorModel() instanceof IndexColorModel, is(true));
+            errorCollector.checkThat(Files.readAllBytes(bands), is(Files.readAllBytes(whole)));
+        }
+    }
+
+    @Test
+    public void dithersSameFileInBands() throws Exception {
+        // wide enough to be compressed in several bands, which repeat rows of the band before
+        BufferedImage image = new BufferedImage(10000, 150, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0xff000000 | (x / 40) << 16 | y << 8 | (x + y) & 0xff);
+            }
+        }
+        NamedImage namedImage = new NamedImage(image, "gradient");
+        positionMap.put(namedImage, new Point(0, 0));
+        imageList.add(namedImage);
+        width = image.getWidth();
+        height = image.getHeight();
+        Path whole = fileSystem.getPath("/whole.png");
+        Path bands = fileSystem.getPath("/bands.png");
+
+        Options options = new Options().threads(2).colorReduction(ColorReduction.QUANTIZE).dithering(true);
+        executeConvert(new SpritesheetPackingConverter(whole, options));
+        executeConvert(new SpritesheetPackingConverter(bands, options.banded(true)));
+
+        errorCollector.checkThat(ImageIO.read(Files.newInputStream(whole)).getColorModel() instanceof IndexColorModel, is(true));
+        errorCollector.checkThat(Files.readAllBytes(bands), is(Files.readAllBytes(whole)));
+    }
+
+    @Test
+    public void writesLosslessWhenQuantizedPaletteMissesMinQuality() throws Exception {
+        int[] colors = new int[300];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = 0xff000000 | i * 0x030507;
+        }
+        addImagesOfColors(colors);
+        Path whole = fileSystem.getPath("/whole.png");
+
+        executeConvert(new SpritesheetPackingConverter(whole, new Options().colorReduction(ColorReduction.QUANTIZE).minQuality(100)));
+        BufferedImage output = ImageIO.read(Files.newInputStream(whole));
+
+        errorCollector.checkThat(output, is(eqImage(new SpritesheetPackingConverter(null).createSpritesheet(imageList, createImagePacking()))));
+        errorCollector.checkThat(output.getColorModel() instanceof IndexColorModel, is(false));
+    }
+
+    @Test
+    public void keepsExactPaletteWhenQuantizingFewColors() throws Exception {
+        addImagesOfColors(new int[] {0xffff0000, 0x8000ff00, 0xff0000ff});
+        Path quantized = fileSystem.getPath("/quantized.png");
+        Path lossless = fileSystem.getPath("/lossless.png");
+
+        executeConvert(new SpritesheetPackingConverter(quantized, new Options().colorReduction(ColorReduction.QUANTIZE).dithering(true)));
+        executeConvert(new SpritesheetPackingConverter(lossless, new Options().colorReduction(ColorReduction.LOSSLESS)));
+
+        errorCollector.checkThat(Files.readAllBytes(quantized), is(Files.readAllBytes(lossless)));
+    }
+
+    @Test
+    public void writesWebpOfSameSpritesheet() throws Exception {
+        addImagesOfColors(new int[] {0xffff0000, 0x8000ff00, 0xff0000ff, 0x40102030, 0xff00ffff});
+        Path png = fileSystem.getPath("/sprite.png");
+        Path webp = fileSystem.getPath("/webp/sprite.webp");
+
+        executeConvert(new SpritesheetPackingConverter(png, new Options().threads(2).webpOutput(webp)));
+
+        errorCollector.checkThat(WebpDecoder.read(Files.readAllBytes(webp)), is(eqImage(ImageIO.read(Files.newInputStream(png)))));
+    }
+
+    @Test
+    public void writesWebpOfQuantizedSpritesheet() throws Exception {
+        int[] colors = new int[300];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = 0xff000000 | i * 0x030507;
+        }
+        addImagesOfColors(colors);
+        Path png = fileSystem.getPath("/sprite.png");
+        Path webp = fileSystem.getPath("/sprite.webp");
+
+        Options options = new Options().colorReduction(ColorReduction.QUANTIZE).dithering(true).webpOutput(webp);
+        executeConvert(new SpritesheetPackingConverter(png, options));
+
+        errorCollector.checkThat(WebpDecoder.read(Files.readAllBytes(webp)), is(eqImage(ImageIO.read(Files.newInputStream(png)))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWebpInBands() throws Exception {
+        new SpritesheetPackingConverter(fileSystem.getPath("/sprite.png"),
+                                        new Options().banded(true).webpOutput(fileSystem.getPath("/sprite.webp")));
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void throwsExceptionWhenImageCannotBeDecodedInBands() throws Exception {
+        ImageSource source = mock(ImageSource.class);
+        when(source.read()).thenThrow(new IOException("broken"));
+        NamedImage image = new NamedImage("broken", 1, 1, source);
+        positionMap.put(image, new Point(0, 0));
+        imageList.add(image);
+
+        executeConvert(new SpritesheetPackingConverter(fileSystem.getPath("/outputFile"), new Options().banded(true)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidMinQuality() throws Exception {
+        new SpritesheetPackingConverter(fileSystem.getPath("/outputFile"),
+                                        new Options().colorReduction(ColorReduction.QUANTIZE).minQuality(-1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveThreads() throws Exception {
+        new SpritesheetPackingConverter(null, new Options().threads(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCompressionLevel() throws Exception {
+        new SpritesheetPackingConverter(null, new Options().compressionLevel(10));
+    }
+
+    private void addImagesOfColors(int[] colors) {
+        for (int i = 0; i < colors.length; i++) {
+            BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, colors[(i + x) % colors.length]);
+                }
+            }
+            NamedImage namedImage = new NamedImage(image, "image" + i);
+            positionMap.put(namedImage, new Point((i % 10) * 4, (i / 10) * 3));
+            imageList.add(namedImage);
+        }
+        width = 40;
+        height = (colors.length + 9) / 10 * 3;
+    }
+
     private NamedImage loadImage(String name) throws IOException {
         return new NamedImage(ImageIO.read(getClass().getResourceAsStream(name)), name);
     }
@@ -129,5 +534,13 @@ public class SpritesheetPackingConverterTest {
         converter.convert(imageList, createImagePacking(), mock);
     }
 
-    private ImagePacking createImagePacking() {return new ImagePacking(new Dimension(width, height), positionMap);}
+    private ImagePacking createImagePacking() {
+        int[] x = new int[imageList.size()];
+        int[] y = new int[imageList.size()];
+        for (int i = 0; i < imageList.size(); i++) {
+            x[i] = positionMap.get(imageList.get(i)).x;
+            y[i] = positionMap.get(imageList.get(i)).y;
+        }
+        return new ImagePacking(new Dimension(width, height), imageList, x, y);
+    }
 }
\ No newline at end of file
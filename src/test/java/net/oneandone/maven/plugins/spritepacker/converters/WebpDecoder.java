@@ -0,0 +1,440 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes lossless WebP files, so that tests can read back what WebpWriter wrote. It follows the specification of
+ * the lossless bitstream, but does not support the colour transform and meta prefix codes, which WebpWriter does not
+ * write.
+ *
+ * @author ssiegler
+ */
+final class WebpDecoder {
+    private static final int[] CODE_LENGTH_ORDER = {17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+    private static final int[] PLANE_OFFSETS = {
+        0x18, 0x07, 0x17, 0x19, 0x28, 0x06, 0x27, 0x29, 0x16, 0x1a, 0x26, 0x2a, 0x38, 0x05, 0x37, 0x39, 0x15, 0x1b,
+        0x36, 0x3a, 0x25, 0x2b, 0x48, 0x04, 0x47, 0x49, 0x14, 0x1c, 0x35, 0x3b, 0x46, 0x4a, 0x24, 0x2c, 0x58, 0x45,
+        0x4b, 0x34, 0x3c, 0x03, 0x57, 0x59, 0x13, 0x1d, 0x56, 0x5a, 0x23, 0x2d, 0x44, 0x4c, 0x55, 0x5b, 0x33, 0x3d,
+        0x68, 0x02, 0x67, 0x69, 0x12, 0x1e, 0x66, 0x6a, 0x22, 0x2e, 0x54, 0x5c, 0x43, 0x4d, 0x65, 0x6b, 0x32, 0x3e,
+        0x78, 0x01, 0x77, 0x79, 0x53, 0x5d, 0x11, 0x1f, 0x64, 0x6c, 0x42, 0x4e, 0x76, 0x7a, 0x21, 0x2f, 0x75, 0x7b,
+        0x31, 0x3f, 0x63, 0x6d, 0x52, 0x5e, 0x00, 0x74, 0x7c, 0x41, 0x4f, 0x10, 0x20, 0x62, 0x6e, 0x30, 0x73, 0x7d,
+        0x51, 0x5f, 0x40, 0x72, 0x7e, 0x61, 0x6f, 0x50, 0x71, 0x7f, 0x60, 0x70
+    };
+
+    private final byte[] bytes;
+    private int position;
+    private long bits;
+    private int bitCount;
+
+    private WebpDecoder(byte[] bytes, int offset) {
+        this.bytes = bytes;
+        this.position = offset;
+    }
+
+    /**
+     * Decode a lossless WebP file.
+     *
+     * @param file the bytes of the file
+     * @return     the image, of type TYPE_INT_ARGB
+     * @throws IOException if the file is no lossless WebP file or uses unsupported features
+     */
+    static BufferedImage read(byte[] file) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        if (file.length < 21 || !"RIFF".equals(new String(file, 0, 4, StandardCharsets.US_ASCII))
+            || !"WEBPVP8L".equals(new String(file, 8, 8, StandardCharsets.US_ASCII))) {
+            throw new IOException("Not a lossless WebP file");
+        }
+        int length = header.getInt(16);
+        if (header.getInt(4) != 4 + 8 + length + (length & 1) || file.length != 8 + header.getInt(4)) {
+            throw new IOException("Wrong chunk sizes");
+        }
+        return new WebpDecoder(file, 20).decode();
+    }
+
+    private BufferedImage decode() throws IOException {
+        if (readBits(8) != 0x2f) {
+            throw new IOException("Wrong signature");
+        }
+        int width = readBits(14) + 1;
+        int height = readBits(14) + 1;
+        readBits(1);
+        if (readBits(3) != 0) {
+            throw new IOException("Wrong version");
+        }
+
+        List<int[]> transforms = new ArrayList<>();
+        int encodedWidth = width;
+        while (readBits(1) == 1) {
+            int type = readBits(2);
+            switch (type) {
+                case 0: {
+                    int sizeBits = readBits(3) + 2;
+                    int[] predictors = decodeImage(subSize(encodedWidth, sizeBits), subSize(height, sizeBits), false);
+                    transforms.add(concat(new int[] {type, sizeBits, encodedWidth}, predictors));
+                    break;
+                }
+                case 2:
+                    transforms.add(new int[] {type});
+                    break;
+                case 3: {
+                    int size = readBits(8) + 1;
+                    int[] palette = decodeImage(size, 1, false);
+                    for (int i = 1; i < size; i++) {
+                        palette[i] = addPixels(palette[i], palette[i - 1]);
+                    }
+                    int xBits = (size <= 2) ? 3 : (size <= 4) ? 2 : (size <= 16) ? 1 : 0;
+                    transforms.add(concat(new int[] {type, xBits, encodedWidth}, palette));
+                    encodedWidth = subSize(encodedWidth, xBits);
+                    break;
+                }
+                default:
+                    throw new IOException("Unsupported transform " + type);
+            }
+        }
+        int[] pixels = decodeImage(encodedWidth, height, true);
+
+        for (int t = transforms.size() - 1; t >= 0; t--) {
+            int[] transform = transforms.get(t);
+            if (transform[0] == 0) {
+                pixels = unpredict(pixels, transform[2], height, transform[1], transform);
+            } else if (transform[0] == 2) {
+                for (int i = 0; i < pixels.length; i++) {
+                    int green = (pixels[i] >>> 8) & 0xff;
+                    int red = ((pixels[i] >>> 16) + green) & 0xff;
+                    int blue = (pixels[i] + green) & 0xff;
+                    pixels[i] = (pixels[i] & 0xff00ff00) | red << 16 | blue;
+                }
+            } else {
+                pixels = unbundle(pixels, transform[2], height, transform[1], transform);
+            }
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    private static int subSize(int size, int bits) {
+        return (size + (1 << bits) - 1) >> bits;
+    }
+
+    private static int[] concat(int[] head, int[] tail) {
+        int[] result = new int[head.length + tail.length];
+        System.arraycopy(head, 0, result, 0, head.length);
+        System.arraycopy(tail, 0, result, head.length, tail.length);
+        return result;
+    }
+
+    private static int[] unbundle(int[] packed, int width, int height, int xBits, int[] transform) {
+        int packedWidth = subSize(width, xBits);
+        int bitsPerPixel = 8 >> xBits;
+        int paletteSize = transform.length - 3;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int green = (packed[y * packedWidth + (x >> xBits)] >>> 8) & 0xff;
+                int index = (green >>> (bitsPerPixel * (x & ((1 << xBits) - 1)))) & ((1 << bitsPerPixel) - 1);
+                pixels[y * width + x] = (index < paletteSize) ? transform[3 + index] : 0;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] unpredict(int[] residuals, int width, int height, int sizeBits, int[] transform) {
+        int[] pixels = new int[residuals.length];
+        int blocksPerRow = subSize(width, sizeBits);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                int prediction;
+                if (x == 0 && y == 0) {
+                    prediction = 0xff000000;
+                } else if (y == 0) {
+                    prediction = pixels[i - 1];
+                } else if (x == 0) {
+                    prediction = pixels[i - width];
+                } else {
+                    int mode = (transform[3 + (y >> sizeBits) * blocksPerRow + (x >> sizeBits)] >>> 8) & 0xf;
+                    prediction = predict(mode, pixels[i - 1], pixels[i - width], pixels[i - width - 1], pixels[i - width + 1]);
+                }
+                pixels[i] = addPixels(residuals[i], prediction);
+            }
+        }
+        return pixels;
+    }
+
+    private static int predict(int mode, int l, int t, int tl, int tr) {
+        switch (mode) {
+            case 0:
+                return 0xff000000;
+            case 1:
+                return l;
+            case 2:
+                return t;
+            case 3:
+                return tr;
+            case 4:
+                return tl;
+            case 5:
+                return average(average(l, tr), t);
+            case 6:
+                return average(l, tl);
+            case 7:
+                return average(l, t);
+            case 8:
+                return average(tl, t);
+            case 9:
+                return average(t, tr);
+            case 10:
+                return average(average(l, tl), average(t, tr));
+            case 11: {
+                int pl = 0;
+                int pt = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    pl += Math.abs(channel(t, shift) - channel(tl, shift));
+                    pt += Math.abs(channel(l, shift) - channel(tl, shift));
+                }
+                return (pl < pt) ? l : t;
+            }
+            case 12: {
+                int result = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    result |= clamp(channel(l, shift) + channel(t, shift) - channel(tl, shift)) << shift;
+                }
+                return result;
+            }
+            case 13: {
+                int average = average(l, t);
+                int result = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int a = channel(average, shift);
+                    result |= clamp(a + (a - channel(tl, shift)) / 2) << shift;
+                }
+                return result;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown predictor " + mode);
+        }
+    }
+
+    private static int channel(int pixel, int shift) {
+        return (pixel >>> shift) & 0xff;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static int average(int a, int b) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            result |= ((channel(a, shift) + channel(b, shift)) / 2) << shift;
+        }
+        return result;
+    }
+
+    private static int addPixels(int a, int b) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            result |= ((channel(a, shift) + channel(b, shift)) & 0xff) << shift;
+        }
+        return result;
+    }
+
+    private int[] decodeImage(int width, int height, boolean main) throws IOException {
+        int cacheBits = 0;
+        if (readBits(1) == 1) {
+            cacheBits = readBits(4);
+            if (cacheBits < 1 || cacheBits > 11) {
+                throw new IOException("Wrong colour cache size " + cacheBits);
+            }
+        }
+        if (main && readBits(1) == 1) {
+            throw new IOException("Meta prefix codes are not supported");
+        }
+        int cacheSize = (cacheBits > 0) ? 1 << cacheBits : 0;
+        Code green = readCode(256 + 24 + cacheSize);
+        Code red = readCode(256);
+        Code blue = readCode(256);
+        Code alpha = readCode(256);
+        Code distance = readCode(40);
+
+        int[] cache = new int[cacheSize];
+        int[] pixels = new int[width * height];
+        int i = 0;
+        int cached = 0;
+        while (i < pixels.length) {
+            int symbol = green.decode();
+            if (symbol < 256) {
+                int r = red.decode();
+                int b = blue.decode();
+                pixels[i++] = alpha.decode() << 24 | r << 16 | symbol << 8 | b;
+            } else if (symbol < 256 + 24) {
+                int length = readValue(symbol - 256);
+                int code = readValue(distance.decode());
+                int offset;
+                if (code > 120) {
+                    offset = code - 120;
+                } else {
+                    int xy = PLANE_OFFSETS[code - 1];
+                    offset = Math.max(1, (xy >> 4) * width + 8 - (xy & 0xf));
+                }
+                if (offset > i || i + length > pixels.length) {
+                    throw new IOException("Backward reference out of range at " + i);
+                }
+                for (int end = i + length; i < end; i++) {
+                    pixels[i] = pixels[i - offset];
+                }
+            } else {
+                if (symbol - 280 >= cacheSize) {
+                    throw new IOException("Colour cache symbol without cache");
+                }
+                // insert the pixels decoded since the last lookup into the cache first
+                for (; cached < i; cached++) {
+                    cache[(pixels[cached] * 0x1e35a7bd) >>> (32 - cacheBits)] = pixels[cached];
+                }
+                pixels[i++] = cache[symbol - 280];
+            }
+        }
+        return pixels;
+    }
+
+    private int readValue(int prefix) throws IOException {
+        if (prefix < 4) {
+            return prefix + 1;
+        }
+        int extraBits = (prefix - 2) >> 1;
+        int offset = (2 + (prefix & 1)) << extraBits;
+        return offset + readBits(extraBits) + 1;
+    }
+
+    private Code readCode(int alphabetSize) throws IOException {
+        int[] lengths = new int[alphabetSize];
+        if (readBits(1) == 1) {
+            int symbols = readBits(1) + 1;
+            int first = readBits((readBits(1) == 1) ? 8 : 1);
+            lengths[first] = 1;
+            if (symbols == 2) {
+                lengths[readBits(8)] = 1;
+            }
+            return new Code(lengths);
+        }
+        int[] codeLengthLengths = new int[19];
+        int count = readBits(4) + 4;
+        for (int i = 0; i < count; i++) {
+            codeLengthLengths[CODE_LENGTH_ORDER[i]] = readBits(3);
+        }
+        Code codeLengthCode = new Code(codeLengthLengths);
+        int maxSymbol = alphabetSize;
+        if (readBits(1) == 1) {
+            int lengthBits = 2 + 2 * readBits(3);
+            maxSymbol = 2 + readBits(lengthBits);
+        }
+        int previous = 8;
+        int symbol = 0;
+        while (symbol < alphabetSize && maxSymbol-- > 0) {
+            int length = codeLengthCode.decode();
+            if (length < 16) {
+                lengths[symbol++] = length;
+                if (length != 0) {
+                    previous = length;
+                }
+                continue;
+            }
+            int repeat = (length == 16) ? 3 + readBits(2) : (length == 17) ? 3 + readBits(3) : 11 + readBits(7);
+            if (symbol + repeat > alphabetSize) {
+                throw new IOException("Too many code lengths");
+            }
+            for (int r = 0; r < repeat; r++) {
+                lengths[symbol++] = (length == 16) ? previous : 0;
+            }
+        }
+        return new Code(lengths);
+    }
+
+    private int readBits(int count) throws IOException {
+        while (bitCount < count) {
+            if (position >= bytes.length) {
+                throw new IOException("Unexpected end of data");
+            }
+            bits |= (long) (bytes[position++] & 0xff) << bitCount;
+            bitCount += 8;
+        }
+        int value = (int) (bits & ((1L << count) - 1));
+        bits >>>= count;
+        bitCount -= count;
+        return value;
+    }
+
+    /**
+     * A canonical prefix code, decoded bit by bit.
+     */
+    private final class Code {
+        private final int[] counts = new int[16];
+        private final int[] symbols;
+        private final int single;
+
+        Code(int[] lengths) throws IOException {
+            int used = 0;
+            int last = 0;
+            for (int i = 0; i < lengths.length; i++) {
+                counts[lengths[i]]++;
+                if (lengths[i] > 0) {
+                    used++;
+                    last = i;
+                }
+            }
+            counts[0] = 0;
+            symbols = new int[used];
+            int[] offsets = new int[16];
+            for (int length = 1; length < 16; length++) {
+                offsets[length] = offsets[length - 1] + counts[length - 1];
+            }
+            for (int i = 0; i < lengths.length; i++) {
+                if (lengths[i] > 0) {
+                    symbols[offsets[lengths[i]]++] = i;
+                }
+            }
+            single = (used == 1) ? last : -1;
+            if (used == 0) {
+                throw new IOException("Empty prefix code");
+            }
+            int left = 1;
+            for (int length = 1; length < 16 && used > 1; length++) {
+                left = 2 * left - counts[length];
+                if (left < 0) {
+                    throw new IOException("Over-subscribed prefix code");
+                }
+            }
+            if (used > 1 && left != 0) {
+                throw new IOException("Incomplete prefix code");
+            }
+        }
+
+        int decode() throws IOException {
+            if (single >= 0) {
+                return single;
+            }
+            int code = 0;
+            int first = 0;
+            int index = 0;
+            for (int length = 1; length < 16; length++) {
+                code |= readBits(1);
+                int count = counts[length];
+                if (code - first < count) {
+                    return symbols[index + code - first];
+                }
+                index += count;
+                first = (first + count) << 1;
+                code <<= 1;
+            }
+            throw new IOException("Invalid prefix code");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the encoding time and size of a spritesheet as lossless WebP file with the PNG compression presets, each
+ * PNG in the smallest lossless format. Not run as a unit test, start the main method with the test classpath,
+ * optionally passing the size of the spritesheets.
+ *
+ * @author ssiegler
+ */
+public class WebpWriterBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 2048;
+        benchmark("icons", createIconSheet(size));
+        benchmark("flat icons", createFlatSheet(size));
+    }
+
+    private static void benchmark(String name, BufferedImage sheet) throws IOException {
+        int[] pixels = ImageBlitter.getPixels(sheet);
+        ColorScan scan = new ColorScan();
+        scan.scan(pixels, 0, pixels.length);
+        PngFormat format = scan.getFormat();
+        System.out.println(String.format(Locale.ROOT, "%s, %dx%d pixels, PNG as %s:", name, sheet.getWidth(), sheet.getHeight(), format));
+
+        for (PngCompression compression : PngCompression.values()) {
+            PngWriter writer = compression.createWriter(compression.getLevel(), 1);
+            long time = Long.MAX_VALUE;
+            int bytes = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                long start = System.nanoTime();
+                writer.write(sheet, format, out);
+                time = Math.min(time, System.nanoTime() - start);
+                bytes = out.size();
+            }
+            print("PNG " + compression, time, bytes);
+        }
+
+        WebpWriter writer = new WebpWriter();
+        long time = Long.MAX_VALUE;
+        int bytes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long start = System.nanoTime();
+            writer.write(sheet, out);
+            time = Math.min(time, System.nanoTime() - start);
+            bytes = out.size();
+        }
+        print("WebP", time, bytes);
+    }
+
+    private static void print(String name, long time, int bytes) {
+        System.out.println(String.format(Locale.ROOT, "  %-12s %8.1fms %10d bytes", name, time / 1e6, bytes));
+    }
+
+    /**
+     * Create a spritesheet of anti-aliased icons with translucent edges, like most icon sets.
+     */
+    private static BufferedImage createIconSheet(int size) throws IOException {
+        BufferedImage[] icons = new BufferedImage[10];
+        icons[0] = ImageIO.read(WebpWriterBenchmark.class.getResource("/100px-Icon_subway.svg.png"));
+        for (int i = 1; i < icons.length; i++) {
+            icons[i] = ImageIO.read(WebpWriterBenchmark.class.getResource("/100px-Icon_subway.svg-" + (i - 1) / 3 + "-" + (i - 1) % 3 + ".png"));
+        }
+        BufferedImage sheet = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = sheet.createGraphics();
+        Random random = new Random(42);
+        for (int y = 0; y + 100 <= size; y += 100) {
+            for (int x = 0; x + 100 <= size; x += 100) {
+                // tint each icon, so that the spritesheet does not only repeat the same few icons
+                graphics.drawImage(icons[random.nextInt(icons.length)], x, y, null);
+                graphics.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), 48));
+                graphics.fillOval(x + 20, y + 20, 60, 60);
+            }
+        }
+        graphics.dispose();
+        return sheet;
+    }
+
+    /**
+     * Create a spritesheet of icons drawn in a few flat colours without anti-aliasing, which fits into a palette.
+     */
+    private static BufferedImage createFlatSheet(int size) {
+        BufferedImage sheet = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = sheet.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        Random random = new Random(42);
+        Color[] colors = new Color[12];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+        }
+        for (int y = 0; y + 48 <= size; y += 48) {
+            for (int x = 0; x + 48 <= size; x += 48) {
+                for (int shape = 0; shape < 4; shape++) {
+                    graphics.setColor(colors[random.nextInt(colors.length)]);
+                    int left = x + 4 + random.nextInt(20);
+                    int top = y + 4 + random.nextInt(20);
+                    if (random.nextBoolean()) {
+                        graphics.fillRect(left, top, 4 + random.nextInt(20), 4 + random.nextInt(20));
+                    } else {
+                        graphics.fillOval(left, top, 4 + random.nextInt(20), 4 + random.nextInt(20));
+                    }
+                }
+            }
+        }
+        graphics.dispose();
+        return sheet;
+    }
+}
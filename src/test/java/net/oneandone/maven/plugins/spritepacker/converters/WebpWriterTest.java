@@ -0,0 +1,165 @@
+package net.oneandone.maven.plugins.spritepacker.converters;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ErrorCollector;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static net.oneandone.maven.plugins.spritepacker.matchers.ImageMatcher.eqImage;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Unit tests for WebpWriter.
+ *
+ * @author ssiegler
+ */
+public class WebpWriterTest {
+    @Rule
+    public ErrorCollector errorCollector = new ErrorCollector();
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void writesRiffContainer() throws Exception {
+        byte[] webp = write(createImage(30, 20));
+        ByteBuffer header = ByteBuffer.wrap(webp).order(ByteOrder.LITTLE_ENDIAN);
+
+        errorCollector.checkThat(new String(webp, 0, 4, "US-ASCII"), is("RIFF"));
+        errorCollector.checkThat(header.getInt(4), is(webp.length - 8));
+        errorCollector.checkThat(new String(webp, 8, 8, "US-ASCII"), is("WEBPVP8L"));
+        errorCollector.checkThat(webp.length % 2, is(0));
+        errorCollector.checkThat(webp[20], is((byte) 0x2f));
+        // width - 1 and height - 1 in 14 bits each, followed by the alpha bit
+        errorCollector.checkThat(header.getInt(21) & 0x3fff, is(29));
+        errorCollector.checkThat((header.getInt(21) >>> 14) & 0x3fff, is(19));
+        errorCollector.checkThat((header.getInt(21) >>> 28) & 1, is(1));
+    }
+
+    @Test
+    public void writesImageWithManyColors() throws Exception {
+        BufferedImage image = createImage(300, 200);
+
+        errorCollector.checkThat(WebpDecoder.read(write(image)), is(eqImage(image)));
+    }
+
+    @Test
+    public void writesOpaqueImage() throws Exception {
+        BufferedImage image = new BufferedImage(90, 70, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt(8) << 16 | (x * 3) << 8 | y);
+            }
+        }
+        byte[] webp = write(image);
+
+        errorCollector.checkThat(WebpDecoder.read(webp), is(eqImage(image)));
+        errorCollector.checkThat((ByteBuffer.wrap(webp).order(ByteOrder.LITTLE_ENDIAN).getInt(21) >>> 28) & 1, is(0));
+    }
+
+    @Test
+    public void writesPalettesOfEverySize() throws Exception {
+        for (int colors : new int[] {1, 2, 3, 4, 5, 16, 17, 200, 256}) {
+            BufferedImage image = new BufferedImage(37, 23, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    int index = (x * y + random.nextInt(3)) % colors;
+                    image.setRGB(x, y, (index % 3 == 0) ? index * 0x010305 : 0xff000000 | index * 0x4321);
+                }
+            }
+
+            errorCollector.checkThat(colors + " colours", WebpDecoder.read(write(image)), is(eqImage(image)));
+        }
+    }
+
+    @Test
+    public void packsSmallPalettesIntoFewerPixels() throws Exception {
+        BufferedImage twoColors = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage manyColors = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 512; y++) {
+            for (int x = 0; x < 512; x++) {
+                boolean set = random.nextBoolean();
+                twoColors.setRGB(x, y, set ? 0xff000000 : 0);
+                manyColors.setRGB(x, y, set ? 0xff000000 : random.nextInt());
+            }
+        }
+        byte[] webp = write(twoColors);
+
+        errorCollector.checkThat(WebpDecoder.read(webp), is(eqImage(twoColors)));
+        // one bit per pixel, which the prefix codes cannot compress any further
+        errorCollector.checkThat(webp.length < 512 * 512 / 8 + 200, is(true));
+        errorCollector.checkThat(WebpDecoder.read(write(manyColors)), is(eqImage(manyColors)));
+    }
+
+    @Test
+    public void compressesRepeatedSprites() throws Exception {
+        BufferedImage sprite = ImageIO.read(getClass().getResource("/100px-Icon_subway.svg.png"));
+        BufferedImage image = new BufferedImage(sprite.getWidth() * 5 + 3, sprite.getHeight() * 4, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        for (int i = 0; i < 20; i++) {
+            graphics.drawImage(sprite, (i % 5) * sprite.getWidth() + i % 4, (i / 5) * sprite.getHeight(), null);
+        }
+        graphics.dispose();
+        byte[] single = write(sprite);
+        byte[] webp = write(image);
+
+        errorCollector.checkThat(WebpDecoder.read(webp), is(eqImage(image)));
+        errorCollector.checkThat(webp.length < 3 * single.length, is(true));
+    }
+
+    @Test
+    public void writesSameBytesAgain() throws Exception {
+        BufferedImage image = createImage(100, 100);
+
+        errorCollector.checkThat(write(image), is(write(image)));
+    }
+
+    @Test
+    public void writesSubimage() throws Exception {
+        BufferedImage image = createImage(60, 50).getSubimage(7, 3, 31, 17);
+
+        errorCollector.checkThat(WebpDecoder.read(write(image)), is(eqImage(image)));
+    }
+
+    @Test
+    public void writesExtremeSizes() throws Exception {
+        for (int[] size : new int[][] {{1, 1}, {1, 500}, {WebpWriter.MAX_SIZE, 2}, {3, 1000}}) {
+            BufferedImage image = createImage(size[0], size[1]);
+
+            errorCollector.checkThat(Arrays.toString(size), WebpDecoder.read(write(image)), is(eqImage(image)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTooWideImage() throws Exception {
+        write(new BufferedImage(WebpWriter.MAX_SIZE + 1, 1, BufferedImage.TYPE_INT_ARGB));
+    }
+
+    private BufferedImage createImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // smooth gradients with some noise and transparent areas, like icons
+                int noise = random.nextInt(8);
+                int alpha = ((x / 7 + y / 5) % 4 == 0) ? 0 : 255 - noise;
+                int rgb = ((x + noise) & 0xff) << 16 | (y & 0xff) << 8 | ((x * y) & 0xff);
+                image.setRGB(x, y, alpha << 24 | ((alpha == 0) ? 0 : rgb));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] write(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new WebpWriter().write(image, out);
+        return out.toByteArray();
+    }
+}